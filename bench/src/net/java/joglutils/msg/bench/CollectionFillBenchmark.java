@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.bench;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.java.joglutils.msg.collections.Vec3fCollection;
+import net.java.joglutils.msg.math.Vec3f;
+
+/** Measures the throughput of filling a Vec3fCollection one element
+    at a time versus with the bulk operations. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollectionFillBenchmark {
+  @Param({ "1000", "1000000" })
+  public int numVertices;
+
+  private float[] array;
+  private FloatBuffer buffer;
+  private Vec3f tmp;
+
+  @Setup
+  public void setup() {
+    array = new float[3 * numVertices];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = i;
+    }
+    buffer = FloatBuffer.wrap(array);
+    tmp = new Vec3f();
+  }
+
+  @Benchmark
+  public Vec3fCollection addPerElement() {
+    Vec3fCollection coll = new Vec3fCollection();
+    float[] src = array;
+    Vec3f v = tmp;
+    for (int i = 0; i < src.length; i += 3) {
+      v.set(src[i], src[i + 1], src[i + 2]);
+      coll.add(v);
+    }
+    return coll;
+  }
+
+  @Benchmark
+  public Vec3fCollection addPerElementPresized() {
+    Vec3fCollection coll = new Vec3fCollection(numVertices);
+    float[] src = array;
+    Vec3f v = tmp;
+    for (int i = 0; i < src.length; i += 3) {
+      v.set(src[i], src[i + 1], src[i + 2]);
+      coll.add(v);
+    }
+    return coll;
+  }
+
+  @Benchmark
+  public Vec3fCollection addAllArray() {
+    Vec3fCollection coll = new Vec3fCollection();
+    coll.addAll(array, 0, array.length);
+    return coll;
+  }
+
+  @Benchmark
+  public Vec3fCollection addAllBuffer() {
+    Vec3fCollection coll = new Vec3fCollection();
+    buffer.rewind();
+    coll.addAll(buffer);
+    return coll;
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.java.joglutils.msg.math.Frustum;
+import net.java.joglutils.msg.math.Mat4f;
+import net.java.joglutils.msg.math.Rotf;
+import net.java.joglutils.msg.math.Vec3f;
+
+/** Measures frustum classification of randomly placed boxes and
+    spheres, in bulk and one at a time. Scores are per object. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrustumBenchmark {
+  private static final int NUM_OBJECTS = 100000;
+
+  private Frustum frustum;
+  private float[] cx, cy, cz;
+  private float[] ex, ey, ez;
+  private float[] radius;
+  private byte[] results;
+  private byte[] hints;
+
+  @Setup
+  public void setup() {
+    // 60 degree perspective projection with near = 1, far = 100
+    float f = (float) (1.0 / Math.tan(Math.toRadians(30)));
+    Mat4f proj = new Mat4f();
+    proj.set(0, 0, f);
+    proj.set(1, 1, f);
+    proj.set(2, 2, -101.0f / 99.0f);
+    proj.set(2, 3, -200.0f / 99.0f);
+    proj.set(3, 2, -1);
+    Mat4f view = new Mat4f();
+    view.makeIdent();
+    view.setRotation(new Rotf(Vec3f.Y_AXIS, 0.3f));
+    frustum = new Frustum(proj.mul(view));
+
+    Random rand = new Random(1);
+    cx = new float[NUM_OBJECTS]; cy = new float[NUM_OBJECTS]; cz = new float[NUM_OBJECTS];
+    ex = new float[NUM_OBJECTS]; ey = new float[NUM_OBJECTS]; ez = new float[NUM_OBJECTS];
+    radius = new float[NUM_OBJECTS];
+    for (int i = 0; i < NUM_OBJECTS; i++) {
+      cx[i] = 200 * rand.nextFloat() - 100;
+      cy[i] = 200 * rand.nextFloat() - 100;
+      cz[i] = 200 * rand.nextFloat() - 100;
+      ex[i] = 5 * rand.nextFloat();
+      ey[i] = 5 * rand.nextFloat();
+      ez[i] = 5 * rand.nextFloat();
+      radius[i] = 5 * rand.nextFloat();
+    }
+    results = new byte[NUM_OBJECTS];
+    hints = new byte[NUM_OBJECTS];
+    Arrays.fill(hints, (byte) -1);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_OBJECTS)
+  public int classifyBoxes() {
+    return frustum.classifyBoxes(cx, cy, cz, ex, ey, ez, 0, NUM_OBJECTS, results, 0);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_OBJECTS)
+  public int classifyBoxesHinted() {
+    return frustum.classifyBoxes(cx, cy, cz, ex, ey, ez, 0, NUM_OBJECTS, results, 0, hints);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_OBJECTS)
+  public int classifyBoxesPerObject() {
+    int numVisible = 0;
+    for (int i = 0; i < NUM_OBJECTS; i++) {
+      if (frustum.classifyBox(cx[i], cy[i], cz[i], ex[i], ey[i], ez[i]) != Frustum.OUTSIDE) {
+        ++numVisible;
+      }
+    }
+    return numVisible;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_OBJECTS)
+  public int classifySpheres() {
+    return frustum.classifySpheres(cx, cy, cz, radius, 0, NUM_OBJECTS, results, 0);
+  }
+}
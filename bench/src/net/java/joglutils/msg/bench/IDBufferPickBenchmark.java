@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.java.joglutils.msg.actions.IDBufferPickAction;
+import net.java.joglutils.msg.actions.RayPickAction;
+import net.java.joglutils.msg.collections.Vec3fCollection;
+import net.java.joglutils.msg.math.Mat4f;
+import net.java.joglutils.msg.math.Vec2f;
+import net.java.joglutils.msg.math.Vec3f;
+import net.java.joglutils.msg.misc.PickedPoint;
+import net.java.joglutils.msg.nodes.Coordinate3;
+import net.java.joglutils.msg.nodes.PerspectiveCamera;
+import net.java.joglutils.msg.nodes.Separator;
+import net.java.joglutils.msg.nodes.Transform;
+import net.java.joglutils.msg.nodes.TriangleSet;
+
+/** Measures rendering a scene of transformed shapes into the ID
+    buffer of an IDBufferPickAction, and picks from the buffer
+    compared with closest-hit ray picks at the same points. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IDBufferPickBenchmark {
+  private static final int NUM_SHAPES = 200;
+  private static final int NUM_TRIANGLES = 50;
+  private static final int NUM_POINTS = 1024;
+
+  private Separator root;
+  private IDBufferPickAction idBuffer;
+  private RayPickAction rayPick;
+  private float[] points;
+  private int next;
+
+  @Setup
+  public void setup() {
+    // Small meshes scattered through a 20 unit cube
+    Random rand = new Random(1);
+    root = new Separator();
+    PerspectiveCamera camera = new PerspectiveCamera();
+    camera.setPosition(new Vec3f(0, 0, 30));
+    root.addChild(camera);
+    for (int i = 0; i < NUM_SHAPES; i++) {
+      Separator sep = new Separator();
+      Mat4f mat = new Mat4f();
+      mat.makeIdent();
+      mat.setTranslation(new Vec3f(20 * rand.nextFloat() - 10, 20 * rand.nextFloat() - 10, 20 * rand.nextFloat() - 10));
+      Transform xform = new Transform();
+      xform.setTransform(mat);
+      sep.addChild(xform);
+      Vec3fCollection verts = new Vec3fCollection();
+      for (int j = 0; j < NUM_TRIANGLES; j++) {
+        Vec3f p0 = new Vec3f(2 * rand.nextFloat() - 1, 2 * rand.nextFloat() - 1, 2 * rand.nextFloat() - 1);
+        verts.add(p0);
+        verts.add(new Vec3f(p0.x() + rand.nextFloat() - 0.5f, p0.y() + rand.nextFloat() - 0.5f, p0.z() + rand.nextFloat() - 0.5f));
+        verts.add(new Vec3f(p0.x() + rand.nextFloat() - 0.5f, p0.y() + rand.nextFloat() - 0.5f, p0.z() + rand.nextFloat() - 0.5f));
+      }
+      Coordinate3 coords = new Coordinate3();
+      coords.setData(verts);
+      sep.addChild(coords);
+      TriangleSet tris = new TriangleSet();
+      tris.setNumTriangles(NUM_TRIANGLES);
+      sep.addChild(tris);
+      root.addChild(sep);
+    }
+
+    idBuffer = new IDBufferPickAction();
+    idBuffer.apply(root);
+    rayPick = new RayPickAction();
+    rayPick.setPickAll(false);
+    points = new float[2 * NUM_POINTS];
+    for (int i = 0; i < points.length; i++) {
+      points[i] = rand.nextFloat();
+    }
+  }
+
+  @Benchmark
+  public int render() {
+    idBuffer.apply(root);
+    return idBuffer.getNumIDs();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int lookup() {
+    int i = 2 * (next++ & (NUM_POINTS - 1));
+    return idBuffer.getID(points[i], points[i + 1]);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public PickedPoint pick() {
+    int i = 2 * (next++ & (NUM_POINTS - 1));
+    return idBuffer.pick(points[i], points[i + 1]);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public PickedPoint rayPick() {
+    int i = 2 * (next++ & (NUM_POINTS - 1));
+    rayPick.setNormalizedPoint(new Vec2f(points[i], points[i + 1]));
+    rayPick.apply(root);
+    return rayPick.getPickedPoint();
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.bench;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.java.joglutils.msg.math.Mat4f;
+import net.java.joglutils.msg.math.Rotf;
+import net.java.joglutils.msg.math.Vec3f;
+
+/** Measures the per-node matrix operations performed during
+    traversals: concatenation, point and direction transformation,
+    inversion and conversion to OpenGL's column-major order. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Mat4fBenchmark {
+  private static final int NUM_POINTS = 10000;
+
+  private Mat4f a;
+  private Mat4f b;
+  private Mat4f dest;
+  private Vec3f point;
+  private Vec3f result;
+  private float[] array;
+  private FloatBuffer buffer;
+  private float[] points;
+  private float[] transformed;
+
+  @Setup
+  public void setup() {
+    a = new Mat4f();
+    a.makeIdent();
+    a.setRotation(new Rotf(new Vec3f(1, 2, 3), 0.5f));
+    a.setTranslation(new Vec3f(4, 5, 6));
+    b = new Mat4f();
+    b.makeIdent();
+    b.setRotation(new Rotf(new Vec3f(-3, 1, 2), 1.25f));
+    b.setScale(new Vec3f(2, 2, 2));
+    b.setTranslation(new Vec3f(-1, 0, 7));
+    dest = new Mat4f();
+    point = new Vec3f(1, 2, 3);
+    result = new Vec3f();
+    array = new float[16];
+    buffer = FloatBuffer.allocate(16);
+    points = new float[3 * NUM_POINTS];
+    for (int i = 0; i < points.length; i++) {
+      points[i] = i;
+    }
+    transformed = new float[3 * NUM_POINTS];
+  }
+
+  @Benchmark
+  public Mat4f mul() {
+    dest.mul(a, b);
+    return dest;
+  }
+
+  @Benchmark
+  public Mat4f mulAllocating() {
+    return a.mul(b);
+  }
+
+  @Benchmark
+  public Mat4f mulAffine() {
+    dest.mulAffine(a, b);
+    return dest;
+  }
+
+  @Benchmark
+  public Mat4f mulInPlace() {
+    dest.set(a);
+    dest.mul(dest, b);
+    return dest;
+  }
+
+  @Benchmark
+  public Vec3f transformPoint() {
+    a.transformPoint(point, result);
+    return result;
+  }
+
+  @Benchmark
+  public Vec3f transformDir() {
+    a.transformDir(point, result);
+    return result;
+  }
+
+  @Benchmark
+  public Mat4f transpose() {
+    dest.set(a);
+    dest.transpose();
+    return dest;
+  }
+
+  @Benchmark
+  public Mat4f invert() {
+    dest.set(b);
+    dest.invert();
+    return dest;
+  }
+
+  @Benchmark
+  public Mat4f invertRigid() {
+    dest.set(a);
+    dest.invertRigid();
+    return dest;
+  }
+
+  @Benchmark
+  public float[] columnMajorArray() {
+    a.getColumnMajorData(array);
+    return array;
+  }
+
+  @Benchmark
+  public FloatBuffer columnMajorBuffer() {
+    a.getColumnMajorData(buffer);
+    return buffer;
+  }
+
+  @Benchmark
+  public float[] transformPointsBatch() {
+    a.transformPoints(points, 0, transformed, 0, NUM_POINTS);
+    return transformed;
+  }
+
+  @Benchmark
+  public float[] transformPointsPerElement() {
+    float[] src = points;
+    float[] dst = transformed;
+    Vec3f p = point;
+    Vec3f r = result;
+    for (int i = 0; i < src.length; i += 3) {
+      p.set(src[i], src[i + 1], src[i + 2]);
+      a.xformPt(p, r);
+      dst[i] = r.x();
+      dst[i + 1] = r.y();
+      dst[i + 2] = r.z();
+    }
+    return dst;
+  }
+}
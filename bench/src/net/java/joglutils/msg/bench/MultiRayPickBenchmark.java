@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.java.joglutils.msg.actions.MultiRayPickAction;
+import net.java.joglutils.msg.actions.RayPickAction;
+import net.java.joglutils.msg.collections.Vec3fCollection;
+import net.java.joglutils.msg.math.Line;
+import net.java.joglutils.msg.math.Mat4f;
+import net.java.joglutils.msg.math.Vec3f;
+import net.java.joglutils.msg.nodes.Coordinate3;
+import net.java.joglutils.msg.nodes.Separator;
+import net.java.joglutils.msg.nodes.Transform;
+import net.java.joglutils.msg.nodes.TriangleSet;
+
+/** Measures picking the closest point along many rays through a
+    scene of transformed shapes, one RayPickAction traversal per ray
+    against a single MultiRayPickAction traversal. Scores are per
+    ray. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiRayPickBenchmark {
+  private static final int NUM_SHAPES = 200;
+  private static final int NUM_TRIANGLES = 50;
+  private static final int NUM_RAYS = 500;
+
+  private Separator root;
+  private Line[] rays;
+  private RayPickAction single;
+  private MultiRayPickAction multi;
+
+  @Setup
+  public void setup() {
+    // Small meshes scattered through a 20 unit cube
+    Random rand = new Random(1);
+    root = new Separator();
+    for (int i = 0; i < NUM_SHAPES; i++) {
+      Separator sep = new Separator();
+      Mat4f mat = new Mat4f();
+      mat.makeIdent();
+      mat.setTranslation(new Vec3f(20 * rand.nextFloat() - 10, 20 * rand.nextFloat() - 10, 20 * rand.nextFloat() - 10));
+      Transform xform = new Transform();
+      xform.setTransform(mat);
+      sep.addChild(xform);
+      Vec3fCollection verts = new Vec3fCollection();
+      for (int j = 0; j < NUM_TRIANGLES; j++) {
+        Vec3f p0 = new Vec3f(2 * rand.nextFloat() - 1, 2 * rand.nextFloat() - 1, 2 * rand.nextFloat() - 1);
+        verts.add(p0);
+        verts.add(new Vec3f(p0.x() + rand.nextFloat() - 0.5f, p0.y() + rand.nextFloat() - 0.5f, p0.z() + rand.nextFloat() - 0.5f));
+        verts.add(new Vec3f(p0.x() + rand.nextFloat() - 0.5f, p0.y() + rand.nextFloat() - 0.5f, p0.z() + rand.nextFloat() - 0.5f));
+      }
+      Coordinate3 coords = new Coordinate3();
+      coords.setData(verts);
+      sep.addChild(coords);
+      TriangleSet tris = new TriangleSet();
+      tris.setNumTriangles(NUM_TRIANGLES);
+      sep.addChild(tris);
+      root.addChild(sep);
+    }
+
+    // Rays fanning out from in front of the cube
+    rays = new Line[NUM_RAYS];
+    for (int i = 0; i < NUM_RAYS; i++) {
+      rays[i] = new Line(new Vec3f(rand.nextFloat() - 0.5f, rand.nextFloat() - 0.5f, 1),
+                         new Vec3f(8 * rand.nextFloat() - 4, 8 * rand.nextFloat() - 4, -15));
+    }
+
+    single = new RayPickAction();
+    single.setPickAll(false);
+    multi = new MultiRayPickAction();
+    multi.setPickAll(false);
+    multi.setRays(rays);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_RAYS)
+  public int singleRayPicks() {
+    int hits = 0;
+    for (int i = 0; i < NUM_RAYS; i++) {
+      single.setRay(rays[i]);
+      single.apply(root);
+      if (single.getPickedPoint() != null) {
+        ++hits;
+      }
+    }
+    return hits;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_RAYS)
+  public int multiRayPick() {
+    multi.apply(root);
+    int hits = 0;
+    for (int i = 0; i < NUM_RAYS; i++) {
+      if (multi.getPickedPoint(i) != null) {
+        ++hits;
+      }
+    }
+    return hits;
+  }
+}
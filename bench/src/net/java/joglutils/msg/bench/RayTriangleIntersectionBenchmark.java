@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.java.joglutils.msg.impl.RayTriangleIntersection;
+import net.java.joglutils.msg.impl.TriangleBatch;
+import net.java.joglutils.msg.math.Line;
+import net.java.joglutils.msg.math.Vec3f;
+
+/** Measures the ray-triangle test performed for every triangle
+    visited by a RayPickAction, for rays which hit and which miss, and
+    the batched test against many triangles at a time. Scores for the
+    batched benchmarks are per triangle. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RayTriangleIntersectionBenchmark {
+  private static final int NUM_TRIANGLES = 10000;
+
+  private RayTriangleIntersection isect;
+  private Line hitRay;
+  private Line missRay;
+  private Vec3f v0;
+  private Vec3f v1;
+  private Vec3f v2;
+  private Vec3f tuv;
+  private TriangleBatch batch;
+  private Vec3f[] verts;
+
+  @Setup
+  public void setup() {
+    isect = new RayTriangleIntersection();
+    hitRay = new Line(new Vec3f(0, 0, -1), new Vec3f(0.25f, 0.25f, 5));
+    missRay = new Line(new Vec3f(0, 0, -1), new Vec3f(2, 2, 5));
+    v0 = new Vec3f(0, 0, 0);
+    v1 = new Vec3f(1, 0, 0);
+    v2 = new Vec3f(0, 1, 0);
+    tuv = new Vec3f();
+
+    // Small triangles scattered through a 20 unit cube
+    Random rand = new Random(1);
+    batch = new TriangleBatch(NUM_TRIANGLES);
+    verts = new Vec3f[3 * NUM_TRIANGLES];
+    for (int i = 0; i < NUM_TRIANGLES; i++) {
+      Vec3f p0 = new Vec3f(20 * rand.nextFloat() - 10, 20 * rand.nextFloat() - 10, 20 * rand.nextFloat() - 10);
+      Vec3f p1 = new Vec3f(p0.x() + rand.nextFloat() - 0.5f, p0.y() + rand.nextFloat() - 0.5f, p0.z() + rand.nextFloat() - 0.5f);
+      Vec3f p2 = new Vec3f(p0.x() + rand.nextFloat() - 0.5f, p0.y() + rand.nextFloat() - 0.5f, p0.z() + rand.nextFloat() - 0.5f);
+      batch.add(p0, p1, p2);
+      verts[3 * i] = p0;
+      verts[3 * i + 1] = p1;
+      verts[3 * i + 2] = p2;
+    }
+  }
+
+  @Benchmark
+  public boolean hit() {
+    return isect.intersectTriangle(hitRay, v0, v1, v2, tuv);
+  }
+
+  @Benchmark
+  public boolean miss() {
+    return isect.intersectTriangle(missRay, v0, v1, v2, tuv);
+  }
+
+  @Benchmark
+  public boolean hitBackfaceCulling() {
+    return isect.intersectTriangleBackfaceCulling(hitRay, v0, v1, v2, tuv);
+  }
+
+  @Benchmark
+  public boolean missBackfaceCulling() {
+    return isect.intersectTriangleBackfaceCulling(missRay, v0, v1, v2, tuv);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_TRIANGLES)
+  public int batchClosestHit() {
+    return batch.intersect(hitRay, 0, Float.MAX_VALUE, false, tuv);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_TRIANGLES)
+  public int perTriangleClosestHit() {
+    int best = -1;
+    float bestT = Float.MAX_VALUE;
+    Vec3f[] v = verts;
+    for (int i = 0; i < NUM_TRIANGLES; i++) {
+      if (isect.intersectTriangle(hitRay, v[3 * i], v[3 * i + 1], v[3 * i + 2], tuv) &&
+          tuv.x() >= 0 && tuv.x() <= bestT) {
+        best = i;
+        bestT = tuv.x();
+      }
+    }
+    return best;
+  }
+}
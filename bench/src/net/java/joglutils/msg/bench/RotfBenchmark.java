@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.java.joglutils.msg.math.Mat4f;
+import net.java.joglutils.msg.math.Rotf;
+import net.java.joglutils.msg.math.Vec3f;
+
+/** Measures the quaternion operations used by transform nodes and
+    camera manipulation. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RotfBenchmark {
+  private Rotf a;
+  private Rotf b;
+  private Rotf dest;
+  private Mat4f mat;
+  private Vec3f vec;
+  private Vec3f result;
+  private float alpha;
+
+  @Setup
+  public void setup() {
+    a = new Rotf(new Vec3f(1, 2, 3), 0.5f);
+    b = new Rotf(new Vec3f(-3, 1, 2), 1.25f);
+    dest = new Rotf();
+    mat = new Mat4f();
+    mat.makeIdent();
+    vec = new Vec3f(1, 2, 3);
+    result = new Vec3f();
+    alpha = 0.3f;
+  }
+
+  @Benchmark
+  public Rotf mul() {
+    dest.mul(a, b);
+    return dest;
+  }
+
+  @Benchmark
+  public Rotf slerp() {
+    dest.slerp(a, b, alpha);
+    return dest;
+  }
+
+  @Benchmark
+  public Rotf nlerp() {
+    dest.nlerp(a, b, alpha);
+    return dest;
+  }
+
+  @Benchmark
+  public Vec3f rotateVector() {
+    a.rotateVector(vec, result);
+    return result;
+  }
+
+  @Benchmark
+  public Mat4f toMatrix() {
+    a.toMatrix(mat);
+    return mat;
+  }
+
+  @Benchmark
+  public Rotf fromMatrix() {
+    b.toMatrix(mat);
+    dest.fromMatrix(mat);
+    return dest;
+  }
+}
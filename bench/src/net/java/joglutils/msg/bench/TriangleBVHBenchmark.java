@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.java.joglutils.msg.impl.TriangleBVH;
+import net.java.joglutils.msg.impl.TriangleBatch;
+import net.java.joglutils.msg.math.Line;
+import net.java.joglutils.msg.math.Vec3f;
+
+/** Measures building the bounding volume hierarchy used for picking,
+    and finding the closest hit along a ray with and without it. Query
+    scores are per ray. The leaf size is varied around the default of
+    8, which grows to 16 with the vectorized kernel on AVX-512, to
+    show the tradeoff between tree size and triangles tested per
+    leaf; run with and without the jdk.incubator.vector module to
+    compare the kernels. */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TriangleBVHBenchmark {
+  @Param({"1000", "100000"})
+  private int numTriangles;
+
+  @Param({"4", "8", "16", "32"})
+  private int maxLeafSize;
+
+  private TriangleBatch batch;
+  private TriangleBVH bvh;
+  private Line ray;
+  private Vec3f tuv;
+
+  @Setup
+  public void setup() {
+    // Small triangles scattered through a 20 unit cube
+    Random rand = new Random(1);
+    batch = new TriangleBatch(numTriangles);
+    for (int i = 0; i < numTriangles; i++) {
+      Vec3f p0 = new Vec3f(20 * rand.nextFloat() - 10, 20 * rand.nextFloat() - 10, 20 * rand.nextFloat() - 10);
+      Vec3f p1 = new Vec3f(p0.x() + rand.nextFloat() - 0.5f, p0.y() + rand.nextFloat() - 0.5f, p0.z() + rand.nextFloat() - 0.5f);
+      Vec3f p2 = new Vec3f(p0.x() + rand.nextFloat() - 0.5f, p0.y() + rand.nextFloat() - 0.5f, p0.z() + rand.nextFloat() - 0.5f);
+      batch.add(p0, p1, p2);
+    }
+    bvh = new TriangleBVH(batch, maxLeafSize);
+    ray = new Line(new Vec3f(0, 0, -20), new Vec3f(0.01f, 0.02f, 1));
+    tuv = new Vec3f();
+  }
+
+  @Benchmark
+  public TriangleBVH build() {
+    return new TriangleBVH(batch, maxLeafSize);
+  }
+
+  @Benchmark
+  public int closestHit() {
+    return bvh.intersect(ray, 0, Float.MAX_VALUE, false, tuv);
+  }
+
+  @Benchmark
+  public int closestHitBackfaceCulling() {
+    return bvh.intersect(ray, 0, Float.MAX_VALUE, true, tuv);
+  }
+
+  @Benchmark
+  public int closestHitBruteForce() {
+    return batch.intersect(ray, 0, Float.MAX_VALUE, false, tuv);
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.impl;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** Moller-Trumbore test of a ray against as many triangles of a
+    TriangleBatch at a time as the preferred vector species holds.
+    Only loaded once TriangleBatchKernel has determined that the
+    jdk.incubator.vector module is present. */
+
+final class VectorTriangleKernel {
+  private VectorTriangleKernel() {}
+
+  private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+  private static final FloatVector ONE = FloatVector.broadcast(SPECIES, 1.0f);
+
+  static int laneCount() {
+    return SPECIES.length();
+  }
+
+  /** See TriangleBatchKernel.intersect. */
+  static int intersect(TriangleBatch batch, int start, int end,
+                       float ox, float oy, float oz,
+                       float dx, float dy, float dz,
+                       float tMin, float tMax,
+                       boolean cullBackfaces, boolean anyHit,
+                       float[] tuv) {
+    final float[] v0x = batch.v0x, v0y = batch.v0y, v0z = batch.v0z;
+    final float[] e1x = batch.e1x, e1y = batch.e1y, e1z = batch.e1z;
+    final float[] e2x = batch.e2x, e2y = batch.e2y, e2z = batch.e2z;
+    final int lanes = SPECIES.length();
+    final FloatVector vdx = FloatVector.broadcast(SPECIES, dx);
+    final FloatVector vdy = FloatVector.broadcast(SPECIES, dy);
+    final FloatVector vdz = FloatVector.broadcast(SPECIES, dz);
+    final float eps = ScalarTriangleKernel.EPSILON;
+
+    int best = -1;
+    float bestT = tMax;
+    int i = start;
+    for (int limit = end - lanes; i <= limit; i += lanes) {
+      final FloatVector ax = FloatVector.fromArray(SPECIES, e1x, i);
+      final FloatVector ay = FloatVector.fromArray(SPECIES, e1y, i);
+      final FloatVector az = FloatVector.fromArray(SPECIES, e1z, i);
+      final FloatVector bx = FloatVector.fromArray(SPECIES, e2x, i);
+      final FloatVector by = FloatVector.fromArray(SPECIES, e2y, i);
+      final FloatVector bz = FloatVector.fromArray(SPECIES, e2z, i);
+      // pvec = dir x edge2
+      final FloatVector px = vdy.mul(bz).sub(vdz.mul(by));
+      final FloatVector py = vdz.mul(bx).sub(vdx.mul(bz));
+      final FloatVector pz = vdx.mul(by).sub(vdy.mul(bx));
+      final FloatVector det = ax.mul(px).add(ay.mul(py)).add(az.mul(pz));
+      VectorMask<Float> hit = cullBackfaces
+        ? det.compare(VectorOperators.GE, eps)
+        : det.abs().compare(VectorOperators.GE, eps);
+      if (!hit.anyTrue()) {
+        continue;
+      }
+      final FloatVector invDet = ONE.div(det);
+      final FloatVector sx = FloatVector.broadcast(SPECIES, ox).sub(FloatVector.fromArray(SPECIES, v0x, i));
+      final FloatVector sy = FloatVector.broadcast(SPECIES, oy).sub(FloatVector.fromArray(SPECIES, v0y, i));
+      final FloatVector sz = FloatVector.broadcast(SPECIES, oz).sub(FloatVector.fromArray(SPECIES, v0z, i));
+      final FloatVector u = sx.mul(px).add(sy.mul(py)).add(sz.mul(pz)).mul(invDet);
+      hit = hit.and(u.compare(VectorOperators.GE, 0.0f)).and(u.compare(VectorOperators.LE, 1.0f));
+      if (!hit.anyTrue()) {
+        continue;
+      }
+      // qvec = tvec x edge1
+      final FloatVector qx = sy.mul(az).sub(sz.mul(ay));
+      final FloatVector qy = sz.mul(ax).sub(sx.mul(az));
+      final FloatVector qz = sx.mul(ay).sub(sy.mul(ax));
+      final FloatVector v = vdx.mul(qx).add(vdy.mul(qy)).add(vdz.mul(qz)).mul(invDet);
+      hit = hit.and(v.compare(VectorOperators.GE, 0.0f)).and(u.add(v).compare(VectorOperators.LE, 1.0f));
+      if (!hit.anyTrue()) {
+        continue;
+      }
+      final FloatVector t = bx.mul(qx).add(by.mul(qy)).add(bz.mul(qz)).mul(invDet);
+      hit = hit.and(t.compare(VectorOperators.GE, tMin)).and(t.compare(VectorOperators.LE, bestT));
+      if (!hit.anyTrue()) {
+        continue;
+      }
+      // Hits are rare, so resolve them one lane at a time in index
+      // order, exactly as the scalar kernel would
+      long bits = hit.toLong();
+      while (bits != 0) {
+        final int lane = Long.numberOfTrailingZeros(bits);
+        bits &= bits - 1;
+        final float tl = t.lane(lane);
+        if (tl <= bestT) {
+          best = i + lane;
+          bestT = tl;
+          tuv[0] = tl;
+          tuv[1] = u.lane(lane);
+          tuv[2] = v.lane(lane);
+          if (anyHit) {
+            return best;
+          }
+        }
+      }
+    }
+    // Finish the remainder one triangle at a time
+    if (i < end) {
+      final int tail = ScalarTriangleKernel.intersect(batch, i, end, ox, oy, oz, dx, dy, dz,
+                                                      tMin, bestT, cullBackfaces, anyHit, tuv);
+      if (tail >= 0) {
+        best = tail;
+      }
+    }
+    return best;
+  }
+}
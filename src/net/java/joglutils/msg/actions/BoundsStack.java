@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.actions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.java.joglutils.msg.math.Box3f;
+import net.java.joglutils.msg.math.Mat4f;
+import net.java.joglutils.msg.math.SingularMatrixException;
+
+/** Accumulates the bounds of the shapes traversed by a picking
+    action on behalf of the enclosing Separators, one frame per
+    Separator, each in that Separator's local coordinate system. A
+    Separator which already has its bounds opens a suspended frame
+    instead, so that the shapes below it aren't bounded again. */
+
+class BoundsStack {
+  static class Frame {
+    final Box3f box = new Box3f();
+    final Mat4f worldToLocal = new Mat4f();
+    boolean complete;
+    boolean camera;
+    boolean suspended;
+  }
+  private List<Frame> frames = new ArrayList<Frame>();
+  private int depth;
+  private final Mat4f xform = new Mat4f();
+
+  /** Discards all frames. */
+  void clear() {
+    depth = 0;
+  }
+
+  /** Returns true if the innermost frame is open and not
+      suspended. */
+  boolean isActive() {
+    return depth > 0 && !frames.get(depth - 1).suspended;
+  }
+
+  /** Opens a frame in the coordinate system given by the model
+      matrix. */
+  void begin(Mat4f modelMatrix) {
+    Frame frame = push();
+    frame.suspended = false;
+    try {
+      modelMatrix.invert(frame.worldToLocal);
+    } catch (SingularMatrixException e) {
+      // Everything below collapses; don't try to bound it
+      frame.complete = false;
+    }
+  }
+
+  /** Opens a frame which accumulates nothing, so that the shapes
+      traversed until the matching call to {@link #resume resume} are
+      not bounded. */
+  void suspend() {
+    push().suspended = true;
+  }
+
+  /** Closes the frame opened by the matching call to {@link #suspend
+      suspend}. */
+  void resume() {
+    --depth;
+  }
+
+  /** Returns true if a camera has been traversed since the innermost
+      frame was opened. */
+  boolean containsCamera() {
+    return frames.get(depth - 1).camera;
+  }
+
+  /** Closes the innermost frame, storing its bounds into dest and
+      returning whether they are complete. Incomplete bounds make
+      those of the enclosing frame incomplete too. */
+  boolean end(Box3f dest) {
+    Frame frame = frames.get(--depth);
+    dest.set(frame.box);
+    if (!frame.complete && depth > 0) {
+      frames.get(depth - 1).complete = false;
+    }
+    return frame.complete;
+  }
+
+  /** Extends the innermost frame by the given box, which is in the
+      coordinate system given by the model matrix. */
+  void extend(Box3f box, Mat4f modelMatrix) {
+    if (!isActive()) {
+      return;
+    }
+    Frame frame = frames.get(depth - 1);
+    xform.mul(frame.worldToLocal, modelMatrix);
+    frame.box.extendBy(box, xform);
+  }
+
+  /** Marks every open frame as incomplete. */
+  void invalidate() {
+    for (int i = 0; i < depth; i++) {
+      frames.get(i).complete = false;
+    }
+  }
+
+  /** Records in every open frame, suspended or not, that a camera
+      has been traversed within it. */
+  void noteCamera() {
+    for (int i = 0; i < depth; i++) {
+      frames.get(i).camera = true;
+    }
+  }
+
+  private Frame push() {
+    if (depth == frames.size()) {
+      frames.add(new Frame());
+    }
+    Frame frame = frames.get(depth++);
+    frame.box.makeEmpty();
+    frame.complete = true;
+    frame.camera = false;
+    return frame;
+  }
+}
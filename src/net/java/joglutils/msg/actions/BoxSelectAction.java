@@ -0,0 +1,464 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.actions;
+
+import java.awt.Component;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.java.joglutils.msg.elements.ModelMatrixElement;
+import net.java.joglutils.msg.math.Box3f;
+import net.java.joglutils.msg.math.Frustum;
+import net.java.joglutils.msg.math.Mat4f;
+import net.java.joglutils.msg.misc.ActionTable;
+import net.java.joglutils.msg.misc.SelectedShape;
+import net.java.joglutils.msg.misc.State;
+import net.java.joglutils.msg.nodes.Camera;
+import net.java.joglutils.msg.nodes.Node;
+import net.java.joglutils.msg.nodes.Shape;
+
+/** Selects the shapes, and optionally the triangles of the shapes,
+    lying in a rectangle on the screen or in an arbitrary frustum, as
+    for rubber-band selection. <P>
+
+    Separators whose cached bounds lie entirely outside the region are
+    skipped, and those whose bounds lie entirely inside it have
+    everything below them selected without further tests. Only the
+    triangles of shapes straddling the boundary of the region are
+    tested individually, and for shapes using pick acceleration (see
+    {@link net.java.joglutils.msg.nodes.TriangleBasedShape#setPickAcceleration
+    TriangleBasedShape.setPickAcceleration}) only those in parts of
+    the shape straddling it. */
+
+public class BoxSelectAction extends Action {
+  /** Selects what intersects the region, even partially; the
+      default. */
+  public static final int INTERSECT = 0;
+  /** Selects only what lies entirely inside the region. */
+  public static final int CONTAIN   = 1;
+
+  // Boilerplate
+  private static State defaults = new State();
+  /** Returns the default state all instances of this class are initialized with. */
+  public static State getDefaultState() {
+    return defaults;
+  }
+  private static ActionTable table = new ActionTable(BoxSelectAction.class);
+
+  /** Adds an action method for the given node type to this action.
+      This should only be called by developers adding new node types
+      and not desiring to use the standard overriding mechanisms. */
+  public static void addActionMethod(Class<? extends Node> nodeType, Method m) {
+    table.addActionMethod(nodeType, m);
+  }
+
+  private State state = new State(defaults);
+  public State getState() {
+    return state;
+  }
+
+  static {
+    // Set up action methods
+    try {
+      addActionMethod(Node.class, BoxSelectAction.class.getMethod("boxSelect", BoxSelectAction.class, Node.class));
+    } catch (Exception e) {
+      throw new RuntimeException("Error initializing action method for BoxSelectAction class", e);
+    }
+  }
+
+  private int applyDepth = 0;
+
+  public void apply(Node node) {
+    int depth = applyDepth++;
+    try {
+      if (depth == 0) {
+        reset();
+      }
+      if (bounds.isActive() && node instanceof Shape) {
+        // Shapes contribute their bounds to the enclosing Separators
+        if (((Shape) node).getBoundingBox(this, shapeBounds)) {
+          extendBounds(shapeBounds);
+        } else {
+          invalidateBounds();
+        }
+      }
+      apply(table, node);
+    } finally {
+      --applyDepth;
+    }
+  }
+
+  /** Sets the region for this action to the rectangle with the given
+      corners, in pixels relative to the upper-left of the specified
+      AWT Component. The corners may be given in either order.
+
+      @throws IllegalArgumentException if the rectangle is empty
+  */
+  public void setRegion(int x0, int y0, int x1, int y1, Component component) {
+    float w = (float) component.getWidth();
+    float h = (float) component.getHeight();
+    setNormalizedRegion(x0 / w, 1.0f - y0 / h, x1 / w, 1.0f - y1 / h);
+  }
+
+  /** Sets the region for this action to the rectangle with the given
+      corners, where x and y are relative to the lower-left of the
+      viewport and range from [0..1]. The frustum this rectangle
+      subtends is computed every time the action traverses a Camera
+      node. The corners may be given in either order.
+
+      @throws IllegalArgumentException if the rectangle is empty
+  */
+  public void setNormalizedRegion(float x0, float y0, float x1, float y1) {
+    if (x0 == x1 || y0 == y1) {
+      throw new IllegalArgumentException("Empty selection rectangle");
+    }
+    region = new float[] { Math.min(x0, x1), Math.min(y0, y1),
+                           Math.max(x0, x1), Math.max(y0, y1) };
+    frustumComputed = false;
+  }
+
+  /** Sets the region for this action to the given frustum in world
+      coordinates, which is copied. */
+  public void setFrustum(Frustum frustum) {
+    worldFrustum.set(frustum);
+    region = null;
+    frustumComputed = true;
+  }
+
+  /** Returns the frustum in world coordinates that this action is
+      selecting from, or null if it is to be computed from a
+      rectangle on the screen and no Camera has been traversed yet.
+      End users should not need to call this method. */
+  public Frustum getFrustum() {
+    return frustumComputed ? worldFrustum : null;
+  }
+
+  /** Sets whether this action selects what intersects the region
+      (INTERSECT, the default), or only what lies entirely inside it
+      (CONTAIN). When triangles are being selected this applies to
+      each triangle, and shapes with any triangle selected are
+      selected; otherwise it applies to each shape as a whole.
+
+      @throws IllegalArgumentException if the mode is unknown
+  */
+  public void setMode(int mode) {
+    if (mode != INTERSECT && mode != CONTAIN) {
+      throw new IllegalArgumentException("Unknown selection mode " + mode);
+    }
+    this.mode = mode;
+  }
+
+  /** Returns whether this action selects what intersects the region,
+      or only what lies entirely inside it. */
+  public int getMode() {
+    return mode;
+  }
+
+  /** Sets whether this action reports the indices of the selected
+      triangles of each selected shape. Defaults to false. */
+  public void setSelectTriangles(boolean selectTriangles) {
+    this.selectTriangles = selectTriangles;
+  }
+
+  /** Returns whether this action reports the indices of the selected
+      triangles of each selected shape. */
+  public boolean isSelectTriangles() {
+    return selectTriangles;
+  }
+
+  /** Returns the shapes this action selected during the last
+      traversal, in the order they were traversed. */
+  public List<SelectedShape> getSelectedShapes() {
+    return selectedShapes;
+  }
+
+  /** Called during scene graph traversal to update the frustum
+      associated with this action if it was configured with a
+      rectangle on the screen. End users should not need to call this
+      method. */
+  public void recomputeFrustum(Camera camera) {
+    if (region == null) {
+      return;
+    }
+    // Scale and translate clip space so that the rectangle, in
+    // normalized device coordinates, covers all of it
+    float nx0 = 2 * region[0] - 1, ny0 = 2 * region[1] - 1;
+    float nx1 = 2 * region[2] - 1, ny1 = 2 * region[3] - 1;
+    regionMatrix.makeIdent();
+    regionMatrix.set(0, 0, 2 / (nx1 - nx0));
+    regionMatrix.set(0, 3, -(nx1 + nx0) / (nx1 - nx0));
+    regionMatrix.set(1, 1, 2 / (ny1 - ny0));
+    regionMatrix.set(1, 3, -(ny1 + ny0) / (ny1 - ny0));
+    projView.mul(camera.getProjectionMatrix(), camera.getViewingMatrix());
+    clipMatrix.mul(regionMatrix, projView);
+    worldFrustum.set(clipMatrix);
+    frustumComputed = true;
+    localValid = false;
+    // Separators entered before this point didn't know the frustum
+    bounds.noteCamera();
+  }
+
+  /** Returns the frustum transformed into the local coordinate
+      system of the node being traversed, or null if the frustum is
+      not known yet. The returned Frustum is owned by this action and
+      is recomputed only when the transformation changes. End users
+      should not need to call this method. */
+  public Frustum getLocalFrustum() {
+    if (!frustumComputed) {
+      return null;
+    }
+    Mat4f model = getModelMatrix();
+    if (localValid && sameMatrix(model, localMatrix)) {
+      return localFrustum;
+    }
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        localMatrix[4 * i + j] = model.get(i, j);
+      }
+    }
+    localFrustum.transform(worldFrustum, model);
+    localValid = true;
+    return localFrustum;
+  }
+
+  /** Classifies the given box, in the local coordinate system of the
+      node being traversed, against the region as one of
+      Frustum.OUTSIDE, Frustum.INTERSECTING and Frustum.INSIDE. Boxes
+      are INTERSECTING while the region is not known, and INSIDE
+      while the node being traversed lies inside it. End users should
+      not need to call this method. */
+  public int classify(Box3f box) {
+    if (insideDepth > 0) {
+      return Frustum.INSIDE;
+    }
+    if (box.isEmpty()) {
+      return Frustum.OUTSIDE;
+    }
+    Frustum frustum = getLocalFrustum();
+    if (frustum == null) {
+      return Frustum.INTERSECTING;
+    }
+    return frustum.classify(box);
+  }
+
+  /** Notes that the nodes traversed until the matching call to {@link
+      #endInside endInside} lie entirely inside the region, so that
+      they are selected without testing. Called by {@link
+      net.java.joglutils.msg.nodes.Separator Separator}. End users
+      should not need to call this method. */
+  public void beginInside() {
+    ++insideDepth;
+  }
+
+  /** Ends the span begun by the matching call to {@link #beginInside
+      beginInside}. End users should not need to call this method. */
+  public void endInside() {
+    --insideDepth;
+  }
+
+  /** Returns true if the node being traversed lies entirely inside
+      the region. End users should not need to call this method. */
+  public boolean isInside() {
+    return insideDepth > 0;
+  }
+
+  /** Begins accumulating the bounds of the shapes traversed next; see
+      {@link RayPickAction#beginBounds RayPickAction.beginBounds}. End
+      users should not need to call this method. */
+  public void beginBounds() {
+    bounds.begin(getModelMatrix());
+  }
+
+  /** Finishes accumulating the bounds begun by the matching call to
+      {@link #beginBounds beginBounds}; see {@link
+      RayPickAction#endBounds RayPickAction.endBounds}. End users
+      should not need to call this method. */
+  public boolean endBounds(Box3f dest) {
+    return bounds.end(dest);
+  }
+
+  /** Returns true if bounds are being accumulated. End users should
+      not need to call this method. */
+  public boolean isComputingBounds() {
+    return bounds.isActive();
+  }
+
+  /** Extends the bounds being accumulated by the given box, which is
+      in the local coordinate system of the node being traversed. End
+      users should not need to call this method. */
+  public void extendBounds(Box3f box) {
+    bounds.extend(box, getModelMatrix());
+  }
+
+  /** Suspends the accumulation of bounds until the matching call to
+      {@link #resumeBounds resumeBounds}. Called by a Separator whose
+      cached bounds are up to date, so that the shapes below it are
+      not bounded again while it is traversed. End users should not
+      need to call this method. */
+  public void suspendBounds() {
+    bounds.suspend();
+  }
+
+  /** Resumes the accumulation of bounds suspended by the matching
+      call to {@link #suspendBounds suspendBounds}. End users should
+      not need to call this method. */
+  public void resumeBounds() {
+    bounds.resume();
+  }
+
+  /** Returns true if a Camera has been traversed since the innermost
+      call to {@link #beginBounds beginBounds}. A Separator enclosing
+      a Camera must not skip its children based on its bounds, since
+      the frustum classifying the children may not have been computed yet when it is
+      entered. End users should not need to call this method. */
+  public boolean boundsContainCamera() {
+    return bounds.containsCamera();
+  }
+
+  /** Marks the bounds being accumulated as unknown. End users should
+      not need to call this method. */
+  public void invalidateBounds() {
+    bounds.invalidate();
+  }
+
+  /** Registers a selected triangle of the shape being traversed,
+      identified by the index its <CODE>generateTriangles</CODE>
+      method reports. End users should not need to call this
+      method. */
+  public void addSelectedTriangle(int triangleIndex) {
+    if (numTriangles == triangles.length) {
+      triangles = Arrays.copyOf(triangles, 2 * triangles.length);
+    }
+    triangles[numTriangles++] = triangleIndex;
+  }
+
+  /** Returns the number of triangles registered for the shape being
+      traversed. End users should not need to call this method. */
+  public int getNumSelectedTriangles() {
+    return numTriangles;
+  }
+
+  /** Registers the shape being traversed as selected, along with the
+      triangles registered since the last call if triangles are being
+      selected. End users should not need to call this method. */
+  public void addSelectedShape() {
+    int[] indices = null;
+    if (selectTriangles) {
+      indices = Arrays.copyOf(triangles, numTriangles);
+      Arrays.sort(indices);
+    }
+    numTriangles = 0;
+    selectedShapes.add(new SelectedShape(getPath().copy(), indices));
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private int mode = INTERSECT;
+  private boolean selectTriangles;
+
+  // The rectangle (x0, y0, x1, y1) the frustum is computed from, or
+  // null if the frustum was set explicitly
+  private float[] region;
+  private final Frustum worldFrustum = new Frustum();
+  private boolean frustumComputed;
+  private final Mat4f regionMatrix = new Mat4f();
+  private final Mat4f projView = new Mat4f();
+  private final Mat4f clipMatrix = new Mat4f();
+
+  // The frustum in local coordinates and the model matrix it was
+  // computed for
+  private final Frustum localFrustum = new Frustum();
+  private final float[] localMatrix = new float[16];
+  private boolean localValid;
+
+  private int insideDepth;
+
+  // The triangles selected in the shape being traversed
+  private int[] triangles = new int[64];
+  private int numTriangles;
+
+  private List<SelectedShape> selectedShapes = new ArrayList<SelectedShape>();
+
+  // The bounds being accumulated by each enclosing Separator
+  private final BoundsStack bounds = new BoundsStack();
+  private final Box3f shapeBounds = new Box3f();
+  private static final Mat4f IDENTITY = new Mat4f();
+  static {
+    IDENTITY.makeIdent();
+  }
+
+  private Mat4f getModelMatrix() {
+    if (ModelMatrixElement.isEnabled(state)) {
+      return ModelMatrixElement.getInstance(state).getMatrix();
+    }
+    return IDENTITY;
+  }
+
+  private static boolean sameMatrix(Mat4f mat, float[] data) {
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        if (mat.get(i, j) != data[4 * i + j]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private void reset() {
+    bounds.clear();
+    insideDepth = 0;
+    numTriangles = 0;
+    localValid = false;
+    if (region != null) {
+      // Wait for a Camera to compute the frustum
+      frustumComputed = false;
+    }
+    // A new list, so that the previous results remain valid
+    selectedShapes = new ArrayList<SelectedShape>();
+  }
+
+  /** Action method which dispatches to per-node selection functionality. */
+  public static void boxSelect(BoxSelectAction action, Node node) {
+    node.boxSelect(action);
+  }
+}
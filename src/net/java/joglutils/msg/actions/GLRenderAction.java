@@ -43,6 +43,7 @@ import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.glu.GLU;
 
 import net.java.joglutils.msg.misc.ActionTable;
+import net.java.joglutils.msg.misc.Stage;
 import net.java.joglutils.msg.misc.State;
 import net.java.joglutils.msg.nodes.Node;
 
@@ -98,11 +99,28 @@ public class GLRenderAction extends Action {
 
   private int applyDepth = 0;
   private GL2 gl;
+  private Stage stage;
+
+  /** Sets a Stage whose pending changes are published each time this
+      action is applied to the root of a scene graph, before the
+      traversal begins. Defaults to null. */
+  public void setStage(Stage stage) {
+    this.stage = stage;
+  }
+
+  /** Returns the Stage published by this action, or null if there is
+      none. */
+  public Stage getStage() {
+    return stage;
+  }
 
   public void apply(Node node) {
     int depth = applyDepth++;
     try {
       if (depth == 0) {
+        if (stage != null) {
+          stage.publish();
+        }
         gl = GLU.getCurrentGL().getGL2();
         // Applying to the root of the scene graph
         // Push necessary GL state
@@ -118,7 +136,7 @@ public class GLRenderAction extends Action {
         gl.glPushClientAttrib(GL2.GL_CLIENT_VERTEX_ARRAY_BIT);
         gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
         gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
-        // FIXME: should add in disabling of normal array
+        gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
         // Figure out the aspect ratio of the current viewport
         int[] viewport = new int[4];
         gl.glGetIntegerv(GL2.GL_VIEWPORT, viewport, 0);
@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.actions;
+
+import java.awt.Component;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.java.joglutils.msg.elements.ModelMatrixElement;
+import net.java.joglutils.msg.impl.TileRasterizer;
+import net.java.joglutils.msg.impl.TriangleBatch;
+import net.java.joglutils.msg.math.Mat4f;
+import net.java.joglutils.msg.math.SingularMatrixException;
+import net.java.joglutils.msg.math.Vec3f;
+import net.java.joglutils.msg.misc.ActionTable;
+import net.java.joglutils.msg.misc.Path;
+import net.java.joglutils.msg.misc.PickedPoint;
+import net.java.joglutils.msg.misc.State;
+import net.java.joglutils.msg.nodes.Camera;
+import net.java.joglutils.msg.nodes.Node;
+
+/** Picks by rendering the scene in software into a low-resolution
+    buffer of triangle IDs, so that any number of picks can then be
+    made, each by looking up a single pixel. This suits picking under
+    the mouse cursor for every mouse motion, as for hover
+    highlighting, over scenes too dense to ray pick at that rate. <P>
+
+    Applying this action to a scene graph rasterizes the triangles of
+    every shape, as seen by the first Camera traversed, using a {@link
+    TileRasterizer TileRasterizer}. The action should be applied again
+    whenever the camera or the scene changes; in between, {@link
+    #pick pick} and {@link #getID getID} are constant-time and may be
+    called from any thread which does not concurrently apply the
+    action. As when rendering, geometry in front of the camera's near
+    plane or beyond its far plane is not picked. Picks are only as
+    precise as the resolution of the buffer, set with {@link #setResolution setResolution}; near the
+    edges of triangles they may report a neighboring triangle. */
+
+public class IDBufferPickAction extends Action {
+  // Boilerplate
+  private static State defaults = new State();
+  /** Returns the default state all instances of this class are initialized with. */
+  public static State getDefaultState() {
+    return defaults;
+  }
+  private static ActionTable table = new ActionTable(IDBufferPickAction.class);
+
+  /** Adds an action method for the given node type to this action.
+      This should only be called by developers adding new node types
+      and not desiring to use the standard overriding mechanisms. */
+  public static void addActionMethod(Class<? extends Node> nodeType, Method m) {
+    table.addActionMethod(nodeType, m);
+  }
+
+  private State state = new State(defaults);
+  public State getState() {
+    return state;
+  }
+
+  static {
+    // Set up action methods
+    try {
+      addActionMethod(Node.class, IDBufferPickAction.class.getMethod("idBufferPick", IDBufferPickAction.class, Node.class));
+    } catch (Exception e) {
+      throw new RuntimeException("Error initializing action method for IDBufferPickAction class", e);
+    }
+  }
+
+  private int applyDepth = 0;
+
+  public void apply(Node node) {
+    int depth = applyDepth++;
+    try {
+      if (depth == 0) {
+        reset();
+      }
+      apply(table, node);
+      if (depth == 0) {
+        rasterizer.rasterize();
+        rasterized = true;
+      }
+    } finally {
+      --applyDepth;
+    }
+  }
+
+  /** Sets the width and height in pixels of the ID buffer, which
+      covers the whole viewport. Takes effect the next time the action
+      is applied. Defaults to 256 x 256.
+
+      @throws IllegalArgumentException if either dimension is not
+      positive
+  */
+  public void setResolution(int width, int height) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Resolution " + width + "x" + height + " is empty");
+    }
+    this.width = width;
+    this.height = height;
+  }
+
+  /** Returns the width in pixels of the ID buffer. */
+  public int getWidth() {
+    return width;
+  }
+
+  /** Returns the height in pixels of the ID buffer. */
+  public int getHeight() {
+    return height;
+  }
+
+  /** Returns the ID of the triangle under the given point, where x
+      and y are relative to the lower-left of the viewport and range
+      from [0..1], or -1 if there is none or the point is outside the
+      viewport. */
+  public int getID(float x, float y) {
+    if (!rasterized || !(x >= 0 && x < 1 && y >= 0 && y < 1)) {
+      return -1;
+    }
+    TileRasterizer r = rasterizer;
+    return r.getID((int) (x * r.getWidth()), (int) (y * r.getHeight()));
+  }
+
+  /** Returns the ID of the triangle under the given point, in pixels
+      relative to the upper-left of the specified AWT Component, or -1
+      if there is none. */
+  public int getID(int x, int y, Component component) {
+    return getID((x + 0.5f) / component.getWidth(),
+                 1.0f - (y + 0.5f) / component.getHeight());
+  }
+
+  /** Returns the number of triangle IDs assigned during the last
+      traversal; IDs range from 0 to this number minus one. */
+  public int getNumIDs() {
+    return triangles.size();
+  }
+
+  /** Returns the path to the shape containing the triangle with the
+      given ID. The returned Path is shared by all of the shape's
+      triangles and must not be modified.
+
+      @throws IndexOutOfBoundsException if the ID is out of range
+  */
+  public Path getPath(int id) {
+    checkID(id);
+    return shapePaths.get(triangleShapes[id]);
+  }
+
+  /** Returns the index, as reported by the shape's
+      <CODE>generateTriangles</CODE> method, of the triangle with the
+      given ID within its shape.
+
+      @throws IndexOutOfBoundsException if the ID is out of range
+  */
+  public int getTriangleIndex(int id) {
+    checkID(id);
+    return triangleIndices[id];
+  }
+
+  /** Returns the picked point under the given point, where x and y
+      are relative to the lower-left of the viewport and range from
+      [0..1], or null if there is none. The coordinate of the picked
+      point, in the local coordinate system of its shape, is where the
+      line of sight through the given point meets the plane of the
+      triangle in the ID buffer; its Path is shared with other picked
+      points on the same shape and must not be modified. */
+  public PickedPoint pick(float x, float y) {
+    int id = getID(x, y);
+    if (id < 0) {
+      return null;
+    }
+    PickedPoint p = new PickedPoint();
+    p.setCoord(new Vec3f());
+    p.setPath(getPath(id));
+    computeCoord(id, 2 * x - 1, 2 * y - 1, p.getCoord());
+    return p;
+  }
+
+  /** Returns the picked point under the given point, in pixels
+      relative to the upper-left of the specified AWT Component, or
+      null if there is none; see {@link #pick(float, float)}. */
+  public PickedPoint pick(int x, int y, Component component) {
+    return pick((x + 0.5f) / component.getWidth(),
+                1.0f - (y + 0.5f) / component.getHeight());
+  }
+
+  /** Called during scene graph traversal to record the projection
+      and viewing matrices of the given camera. Only the first camera
+      traversed is used. End users should not need to call this
+      method. */
+  public void setCamera(Camera camera) {
+    if (haveCamera) {
+      return;
+    }
+    projView.mul(camera.getProjectionMatrix(), camera.getViewingMatrix());
+    haveCamera = true;
+  }
+
+  /** Begins adding the triangles of the shape being traversed.
+      Returns false if no Camera has been traversed yet, in which case
+      the shape can not be drawn. End users should not need to call
+      this method. */
+  public boolean beginShape() {
+    if (!haveCamera) {
+      return false;
+    }
+    Mat4f clip = new Mat4f();
+    if (ModelMatrixElement.isEnabled(state)) {
+      clip.mul(projView, ModelMatrixElement.getInstance(state).getMatrix());
+    } else {
+      clip.set(projView);
+    }
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        m[4 * i + j] = clip.get(i, j);
+      }
+    }
+    // Inverted now rather than on the first pick, so that picks only
+    // read the action's state and may run on several threads at once
+    Mat4f inv = new Mat4f();
+    try {
+      clip.invert(inv);
+    } catch (SingularMatrixException e) {
+      inv = null;
+    }
+    currentShape = shapePaths.size();
+    shapePaths.add(getPath().copy());
+    inverseClipMatrices.add(inv);
+    return true;
+  }
+
+  /** Adds a triangle of the shape being traversed, identified by the
+      index its <CODE>generateTriangles</CODE> method reports, with
+      vertices in its local coordinate system. End users should not
+      need to call this method. */
+  public void addTriangle(int triangleIndex, Vec3f v0, Vec3f v1, Vec3f v2) {
+    int id = triangles.add(v0, v1, v2);
+    if (id == triangleShapes.length) {
+      triangleShapes = Arrays.copyOf(triangleShapes, 2 * id);
+      triangleIndices = Arrays.copyOf(triangleIndices, 2 * id);
+    }
+    triangleShapes[id] = currentShape;
+    triangleIndices[id] = triangleIndex;
+    float[] m = this.m;
+    float x0 = v0.x(), y0 = v0.y(), z0 = v0.z();
+    float x1 = v1.x(), y1 = v1.y(), z1 = v1.z();
+    float x2 = v2.x(), y2 = v2.y(), z2 = v2.z();
+    rasterizer.addTriangle(m[ 0] * x0 + m[ 1] * y0 + m[ 2] * z0 + m[ 3],
+                           m[ 4] * x0 + m[ 5] * y0 + m[ 6] * z0 + m[ 7],
+                           m[ 8] * x0 + m[ 9] * y0 + m[10] * z0 + m[11],
+                           m[12] * x0 + m[13] * y0 + m[14] * z0 + m[15],
+                           m[ 0] * x1 + m[ 1] * y1 + m[ 2] * z1 + m[ 3],
+                           m[ 4] * x1 + m[ 5] * y1 + m[ 6] * z1 + m[ 7],
+                           m[ 8] * x1 + m[ 9] * y1 + m[10] * z1 + m[11],
+                           m[12] * x1 + m[13] * y1 + m[14] * z1 + m[15],
+                           m[ 0] * x2 + m[ 1] * y2 + m[ 2] * z2 + m[ 3],
+                           m[ 4] * x2 + m[ 5] * y2 + m[ 6] * z2 + m[ 7],
+                           m[ 8] * x2 + m[ 9] * y2 + m[10] * z2 + m[11],
+                           m[12] * x2 + m[13] * y2 + m[14] * z2 + m[15],
+                           id);
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private int width = 256;
+  private int height = 256;
+  private TileRasterizer rasterizer = new TileRasterizer(width, height);
+  private boolean rasterized;
+
+  private final Mat4f projView = new Mat4f();
+  private boolean haveCamera;
+
+  // For each shape drawn, its path and the matrix from clip
+  // coordinates to its local coordinate system, or null if the
+  // transformation is degenerate
+  private List<Path> shapePaths = new ArrayList<Path>();
+  private List<Mat4f> inverseClipMatrices = new ArrayList<Mat4f>();
+  private int currentShape;
+  // The clip matrix of the shape being traversed, in row-major order
+  private final float[] m = new float[16];
+
+  // For each triangle ID, its vertices in the local coordinate system
+  // of its shape, the index of the shape and the index of the
+  // triangle within it
+  private TriangleBatch triangles = new TriangleBatch();
+  private int[] triangleShapes = new int[64];
+  private int[] triangleIndices = new int[64];
+
+  private void reset() {
+    haveCamera = false;
+    rasterized = false;
+    if (rasterizer.getWidth() != width || rasterizer.getHeight() != height) {
+      rasterizer.setSize(width, height);
+    } else {
+      rasterizer.clear();
+    }
+    // New lists, so that paths previously returned remain valid
+    shapePaths = new ArrayList<Path>();
+    inverseClipMatrices.clear();
+    triangles.clear();
+  }
+
+  private void checkID(int id) {
+    if (id < 0 || id >= triangles.size()) {
+      throw new IndexOutOfBoundsException("Triangle ID " + id + " out of range 0.." + (triangles.size() - 1));
+    }
+  }
+
+  // Computes where the line of sight through the given point in
+  // normalized device coordinates meets the plane of the given
+  // triangle, in the local coordinate system of its shape
+  private void computeCoord(int id, float nx, float ny, Vec3f dest) {
+    Vec3f v0 = new Vec3f(), v1 = new Vec3f(), v2 = new Vec3f();
+    triangles.get(id, v0, v1, v2);
+    int shape = triangleShapes[id];
+    Mat4f inv = inverseClipMatrices.get(shape);
+    if (inv != null) {
+      Vec3f near = new Vec3f();
+      Vec3f far = new Vec3f();
+      inv.transformPointProjective(new Vec3f(nx, ny, -1), near);
+      inv.transformPointProjective(new Vec3f(nx, ny, 1), far);
+      Vec3f dir = far.minus(near);
+      Vec3f normal = v1.minus(v0).cross(v2.minus(v0));
+      float denom = normal.dot(dir);
+      if (denom != 0) {
+        float t = normal.dot(v0.minus(near)) / denom;
+        dest.set(near.x() + t * dir.x(), near.y() + t * dir.y(), near.z() + t * dir.z());
+        return;
+      }
+    }
+    // Seen edge-on, or under a degenerate transformation; use the
+    // centroid of the triangle
+    dest.set((v0.x() + v1.x() + v2.x()) / 3,
+             (v0.y() + v1.y() + v2.y()) / 3,
+             (v0.z() + v1.z() + v2.z()) / 3);
+  }
+
+  /** Action method which dispatches to per-node ID buffer picking
+      functionality. */
+  public static void idBufferPick(IDBufferPickAction action, Node node) {
+    node.idBufferPick(action);
+  }
+}
@@ -0,0 +1,666 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.actions;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.java.joglutils.msg.elements.ModelMatrixElement;
+import net.java.joglutils.msg.math.Box3f;
+import net.java.joglutils.msg.math.Line;
+import net.java.joglutils.msg.math.Mat4f;
+import net.java.joglutils.msg.math.SingularMatrixException;
+import net.java.joglutils.msg.math.Vec3f;
+import net.java.joglutils.msg.misc.ActionTable;
+import net.java.joglutils.msg.misc.Path;
+import net.java.joglutils.msg.misc.PickedPoint;
+import net.java.joglutils.msg.misc.State;
+import net.java.joglutils.msg.nodes.Camera;
+import net.java.joglutils.msg.nodes.Node;
+import net.java.joglutils.msg.nodes.Shape;
+
+/** Picks along many rays in a single traversal of the scene graph,
+    producing for each ray the same results a {@link RayPickAction
+    RayPickAction} would. <P>
+
+    The rays are transformed into each shape's coordinate system
+    together, with one matrix inversion per shape rather than per ray,
+    and each Separator whose cached bounds a ray misses is skipped for
+    that ray only; the Separator's sub-graph is skipped entirely once
+    every ray misses it. This makes the action suitable for picking
+    dozens to thousands of points per frame, for example for several
+    cursors or for sampling visibility. */
+
+public class MultiRayPickAction extends Action {
+  // Boilerplate
+  private static State defaults = new State();
+  /** Returns the default state all instances of this class are initialized with. */
+  public static State getDefaultState() {
+    return defaults;
+  }
+  private static ActionTable table = new ActionTable(MultiRayPickAction.class);
+
+  /** Adds an action method for the given node type to this action.
+      This should only be called by developers adding new node types
+      and not desiring to use the standard overriding mechanisms. */
+  public static void addActionMethod(Class<? extends Node> nodeType, Method m) {
+    table.addActionMethod(nodeType, m);
+  }
+
+  private State state = new State(defaults);
+  public State getState() {
+    return state;
+  }
+
+  static {
+    // Set up action methods
+    try {
+      addActionMethod(Node.class, MultiRayPickAction.class.getMethod("multiRayPick", MultiRayPickAction.class, Node.class));
+    } catch (Exception e) {
+      throw new RuntimeException("Error initializing action method for MultiRayPickAction class", e);
+    }
+  }
+
+  private int applyDepth = 0;
+
+  public void apply(Node node) {
+    int depth = applyDepth++;
+    try {
+      if (depth == 0) {
+        reset();
+      }
+      if (bounds.isActive() && node instanceof Shape) {
+        // Shapes contribute their bounds to the enclosing Separators
+        if (((Shape) node).getBoundingBox(this, shapeBounds)) {
+          extendBounds(shapeBounds);
+        } else {
+          invalidateBounds();
+        }
+      }
+      apply(table, node);
+    } finally {
+      --applyDepth;
+      if (depth == 0) {
+        tabulate();
+      }
+    }
+  }
+
+  /** Sets the rays in world coordinates that this action should use
+      for its computation. The rays are copied. */
+  public void setRays(Line[] rays) {
+    allocate(rays.length);
+    for (int i = 0; i < numRays; i++) {
+      Vec3f p = rays[i].getPoint();
+      Vec3f d = rays[i].getDirection();
+      int base = 3 * i;
+      rayPoints[base    ] = p.x();
+      rayPoints[base + 1] = p.y();
+      rayPoints[base + 2] = p.z();
+      rayDirections[base    ] = d.x();
+      rayDirections[base + 1] = d.y();
+      rayDirections[base + 2] = d.z();
+    }
+    normalizedXY = null;
+    raysComputed = true;
+  }
+
+  /** Sets the normalized points for this action, from which the rays
+      are computed every time the action traverses a Camera node. The
+      array contains (x, y) pairs relative to the lower-left of the
+      viewport and ranging from [0..1]; it is copied.
+
+      @throws IllegalArgumentException if the array has odd length
+  */
+  public void setNormalizedPoints(float[] normalizedXY) {
+    if ((normalizedXY.length & 1) != 0) {
+      throw new IllegalArgumentException("Expected (x, y) pairs but got " + normalizedXY.length + " values");
+    }
+    allocate(normalizedXY.length / 2);
+    this.normalizedXY = normalizedXY.clone();
+    raysComputed = false;
+  }
+
+  /** Returns the number of rays this action picks along. */
+  public int getNumRays() {
+    return numRays;
+  }
+
+  /** Sets whether this action collects every point along each ray
+      (the default), or only the closest one. Collecting only the
+      closest point lets traversal skip geometry beyond the closest
+      point found so far along each ray, and reuses the result
+      objects from one pick to the next. */
+  public void setPickAll(boolean pickAll) {
+    this.pickAll = pickAll;
+  }
+
+  /** Returns whether this action collects every point along each
+      ray, or only the closest one. */
+  public boolean isPickAll() {
+    return pickAll;
+  }
+
+  /** Sets whether this action ignores triangles facing away from the
+      rays; see {@link RayPickAction#setCullBackfaces
+      RayPickAction.setCullBackfaces}. Defaults to false. */
+  public void setCullBackfaces(boolean cullBackfaces) {
+    this.cullBackfaces = cullBackfaces;
+  }
+
+  /** Returns whether this action ignores triangles facing away from
+      the rays. */
+  public boolean isCullBackfaces() {
+    return cullBackfaces;
+  }
+
+  /** Returns the list of points selected along the given ray during
+      the last traversal, sorted in increasing order of distance from
+      the camera. If only the closest points are being picked, the
+      list and the point in it are reused by the next traversal.
+
+      @throws IndexOutOfBoundsException if there is no such ray
+  */
+  public List<PickedPoint> getPickedPoints(int ray) {
+    checkRay(ray);
+    return pickedPoints.get(ray);
+  }
+
+  /** Returns the closest point to the camera selected along the given
+      ray during the last traversal, or null if no points were picked
+      along it.
+
+      @throws IndexOutOfBoundsException if there is no such ray
+  */
+  public PickedPoint getPickedPoint(int ray) {
+    List<PickedPoint> points = getPickedPoints(ray);
+    if (points.isEmpty())
+      return null;
+    return points.get(0);
+  }
+
+  /** Returns true if the rays in world coordinates are known, either
+      because they were set explicitly or because they have been
+      computed from a Camera. End users should not need to call this
+      method. */
+  public boolean hasRays() {
+    return raysComputed;
+  }
+
+  /** Called during scene graph traversal to update the rays if the
+      action was configured with normalized points. End users should
+      not need to call this method. */
+  public void recomputeRays(Camera camera) {
+    if (normalizedXY != null) {
+      camera.unproject(normalizedXY, 0, numRays, rayPoints, rayDirections);
+      raysComputed = true;
+      localSerial = -1;
+      // Separators entered before this point didn't know the rays
+      bounds.noteCamera();
+    }
+  }
+
+  /** Returns the number of rays which may hit the node being
+      traversed; those missing the bounds of an enclosing Separator
+      are excluded. End users should not need to call this method. */
+  public int getNumActiveRays() {
+    return activeCounts[activeDepth];
+  }
+
+  /** Returns the index of the i'th ray which may hit the node being
+      traversed, for use with {@link #getPickedPoints
+      getPickedPoints}, {@link #getMaxDistance getMaxDistance} and
+      {@link #addIntersection addIntersection}. End users should not
+      need to call this method. */
+  public int getActiveRay(int i) {
+    return activeSets[activeDepth][i];
+  }
+
+  /** Transforms the active rays into the local coordinate system of
+      the node being traversed, for retrieval with {@link #getLocalRay
+      getLocalRay}. Returns false if the rays aren't known or the
+      transformation is singular. The work is skipped if neither the
+      transformation nor the active rays have changed since the last
+      call. End users should not need to call this method. */
+  public boolean computeLocalRays() {
+    if (!raysComputed) {
+      return false;
+    }
+    Mat4f model = getModelMatrix();
+    long serial = activeSerials[activeDepth];
+    if (serial == localSerial && sameMatrix(model, localMatrix)) {
+      return localValid;
+    }
+    localSerial = serial;
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        localMatrix[4 * i + j] = model.get(i, j);
+      }
+    }
+    try {
+      model.invert(worldToLocal);
+    } catch (SingularMatrixException e) {
+      localValid = false;
+      return false;
+    }
+
+    // Gather the active rays and transform them together
+    int count = getNumActiveRays();
+    int[] active = activeSets[activeDepth];
+    for (int i = 0; i < count; i++) {
+      int src = 3 * active[i];
+      int dst = 3 * i;
+      gatherPoints[dst    ] = rayPoints[src    ];
+      gatherPoints[dst + 1] = rayPoints[src + 1];
+      gatherPoints[dst + 2] = rayPoints[src + 2];
+      gatherDirections[dst    ] = rayDirections[src    ];
+      gatherDirections[dst + 1] = rayDirections[src + 1];
+      gatherDirections[dst + 2] = rayDirections[src + 2];
+    }
+    worldToLocal.transformPoints(gatherPoints, 0, gatherPoints, 0, count);
+    worldToLocal.transformDirs(gatherDirections, 0, gatherDirections, 0, count);
+    for (int i = 0; i < count; i++) {
+      int base = 3 * i;
+      localTmp.set(gatherPoints[base], gatherPoints[base + 1], gatherPoints[base + 2]);
+      localRays[i].setPoint(localTmp);
+      localTmp.set(gatherDirections[base], gatherDirections[base + 1], gatherDirections[base + 2]);
+      // The world directions have unit length, so this is the length
+      // in the world of a unit step along the local ray
+      localScales[i] = 1.0f / localTmp.length();
+      localRays[i].setDirection(localTmp);
+    }
+    localValid = true;
+    return true;
+  }
+
+  /** Returns the i'th active ray in the local coordinate system of
+      the node being traversed, as computed by the last call to {@link
+      #computeLocalRays computeLocalRays}. The returned Line is owned
+      by this action. End users should not need to call this
+      method. */
+  public Line getLocalRay(int i) {
+    return localRays[i];
+  }
+
+  /** Returns the factor converting distances along the i'th active
+      local ray into distances along the ray in world coordinates. End
+      users should not need to call this method. */
+  public float getLocalDistanceScale(int i) {
+    return localScales[i];
+  }
+
+  /** Returns the minimum distance along the rays at which hits count;
+      see {@link RayPickAction#getMinDistance
+      RayPickAction.getMinDistance}. End users should not need to call
+      this method. */
+  public float getMinDistance() {
+    return pickAll ? Float.NEGATIVE_INFINITY : 0;
+  }
+
+  /** Returns the distance along the given ray beyond which hits no
+      longer affect the result of this action. This is infinite while
+      the action collects every hit. End users should not need to call
+      this method. */
+  public float getMaxDistance(int ray) {
+    return pickAll ? Float.POSITIVE_INFINITY : closestT[ray];
+  }
+
+  /** Returns a vector owned by this action in which shapes may store
+      the parametric t and barycentric (u, v) coordinates of an
+      intersection. End users should not need to call this method. */
+  public Vec3f getTUV() {
+    return tuv;
+  }
+
+  /** Restricts the active rays to those which hit the given box, in
+      the local coordinate system of the node being traversed, within
+      the range of distances the action is interested in. Returns
+      false, changing nothing, if no ray hits it; otherwise the call
+      must be matched by a call to {@link #endCull endCull}. Rays are
+      not culled before they are known. Called by {@link
+      net.java.joglutils.msg.nodes.Separator Separator}. End users
+      should not need to call this method. */
+  public boolean beginCull(Box3f box) {
+    int count = getNumActiveRays();
+    int[] active = activeSets[activeDepth];
+    boolean haveLocalRays = computeLocalRays();
+    int[] culled = pushActiveSet();
+    int n = 0;
+    if (haveLocalRays) {
+      float min = getMinDistance();
+      for (int i = 0; i < count; i++) {
+        int ray = active[i];
+        float scale = localScales[i];
+        if (box.intersectRay(localRays[i], min / scale,
+                             getMaxDistance(ray) / scale) != Float.POSITIVE_INFINITY) {
+          culled[n++] = ray;
+        }
+      }
+    } else {
+      System.arraycopy(active, 0, culled, 0, count);
+      n = count;
+    }
+    if (n == 0) {
+      --activeDepth;
+      return false;
+    }
+    activeCounts[activeDepth] = n;
+    return true;
+  }
+
+  /** Restores the active rays to those before the matching call to
+      {@link #beginCull beginCull}. End users should not need to call
+      this method. */
+  public void endCull() {
+    --activeDepth;
+  }
+
+  /** Begins accumulating the bounds of the shapes traversed next; see
+      {@link RayPickAction#beginBounds RayPickAction.beginBounds}. End
+      users should not need to call this method. */
+  public void beginBounds() {
+    bounds.begin(getModelMatrix());
+  }
+
+  /** Finishes accumulating the bounds begun by the matching call to
+      {@link #beginBounds beginBounds}; see {@link
+      RayPickAction#endBounds RayPickAction.endBounds}. End users
+      should not need to call this method. */
+  public boolean endBounds(Box3f dest) {
+    return bounds.end(dest);
+  }
+
+  /** Returns true if bounds are being accumulated. End users should
+      not need to call this method. */
+  public boolean isComputingBounds() {
+    return bounds.isActive();
+  }
+
+  /** Extends the bounds being accumulated by the given box, which is
+      in the local coordinate system of the node being traversed. End
+      users should not need to call this method. */
+  public void extendBounds(Box3f box) {
+    bounds.extend(box, getModelMatrix());
+  }
+
+  /** Suspends the accumulation of bounds until the matching call to
+      {@link #resumeBounds resumeBounds}. Called by a Separator whose
+      cached bounds are up to date, so that the shapes below it are
+      not bounded again while it is traversed. End users should not
+      need to call this method. */
+  public void suspendBounds() {
+    bounds.suspend();
+  }
+
+  /** Resumes the accumulation of bounds suspended by the matching
+      call to {@link #suspendBounds suspendBounds}. End users should
+      not need to call this method. */
+  public void resumeBounds() {
+    bounds.resume();
+  }
+
+  /** Returns true if a Camera has been traversed since the innermost
+      call to {@link #beginBounds beginBounds}. A Separator enclosing
+      a Camera must not skip its children based on its bounds, since
+      the rays tested against the children may not have been computed yet when it is
+      entered. End users should not need to call this method. */
+  public boolean boundsContainCamera() {
+    return bounds.containsCamera();
+  }
+
+  /** Marks the bounds being accumulated as unknown. End users should
+      not need to call this method. */
+  public void invalidateBounds() {
+    bounds.invalidate();
+  }
+
+  /** Registers an intersection at distance t along the given ray
+      (in world units) during scene graph traversal, returning a
+      PickedPoint whose path is set to the current path and whose
+      coordinate the caller should fill in. Returns null if the
+      intersection does not affect the result, because it is farther
+      than the closest point so far and only the closest point is
+      being picked. End users should not need to call this method. */
+  public PickedPoint addIntersection(int ray, float t) {
+    if (pickAll) {
+      PickedPoint p = new PickedPoint();
+      p.setCoord(new Vec3f());
+      p.setPath(getPath().copy());
+      tempPickedPoints.get(ray).add(new RayPickAction.RayPickedPoint(t, p));
+      return p;
+    }
+    if (!(t >= 0 && t < closestT[ray])) {
+      return null;
+    }
+    // Reuse the point from the previous pick
+    PickedPoint p = closestPoints[ray];
+    if (p == null) {
+      p = closestPoints[ray] = new PickedPoint();
+      p.setCoord(new Vec3f());
+      p.setPath(new Path());
+    }
+    Path path = p.getPath();
+    Path cur = getPath();
+    path.clear();
+    for (int i = 0, n = cur.size(); i < n; i++) {
+      path.add(cur.get(i));
+    }
+    p.setTexCoord(null);
+    p.setColor(null);
+    p.setNormal(null);
+    closestT[ray] = t;
+    closest[ray] = p;
+    return p;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private int numRays;
+  // The (x, y) pairs the rays are computed from, or null if the rays
+  // were set explicitly
+  private float[] normalizedXY;
+  // The rays in world coordinates, packed as in Camera.unproject
+  private float[] rayPoints = new float[0];
+  private float[] rayDirections = new float[0];
+  private boolean raysComputed;
+
+  private boolean pickAll = true;
+  private boolean cullBackfaces;
+
+  // A stack of the sets of rays which may hit the node being
+  // traversed; level 0 holds every ray. Each set has a serial number
+  // distinguishing it from every other, so that the local rays
+  // computed for one aren't used for another.
+  private int[][] activeSets = new int[1][0];
+  private int[] activeCounts = new int[1];
+  private long[] activeSerials = new long[1];
+  private int activeDepth;
+  private long nextSerial;
+
+  // The active rays in local coordinates, and the transformation and
+  // set they were computed for
+  private float[] gatherPoints = new float[0];
+  private float[] gatherDirections = new float[0];
+  private Line[] localRays = new Line[0];
+  private float[] localScales = new float[0];
+  private final float[] localMatrix = new float[16];
+  private long localSerial = -1;
+  private boolean localValid;
+  private final Mat4f worldToLocal = new Mat4f();
+  private final Vec3f localTmp = new Vec3f();
+  private final Vec3f tuv = new Vec3f();
+
+  // Per-ray results
+  private List<List<RayPickAction.RayPickedPoint>> tempPickedPoints =
+    new ArrayList<List<RayPickAction.RayPickedPoint>>();
+  private List<List<PickedPoint>> pickedPoints = new ArrayList<List<PickedPoint>>();
+  private float[] closestT = new float[0];
+  private PickedPoint[] closest = new PickedPoint[0];
+  private PickedPoint[] closestPoints = new PickedPoint[0];
+
+  // The bounds being accumulated by each enclosing Separator
+  private final BoundsStack bounds = new BoundsStack();
+  private final Box3f shapeBounds = new Box3f();
+  private static final Mat4f IDENTITY = new Mat4f();
+  static {
+    IDENTITY.makeIdent();
+  }
+
+  private Mat4f getModelMatrix() {
+    if (ModelMatrixElement.isEnabled(state)) {
+      return ModelMatrixElement.getInstance(state).getMatrix();
+    }
+    return IDENTITY;
+  }
+
+  private static boolean sameMatrix(Mat4f mat, float[] data) {
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        if (mat.get(i, j) != data[4 * i + j]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private void checkRay(int ray) {
+    if (ray < 0 || ray >= numRays) {
+      throw new IndexOutOfBoundsException("Ray " + ray + " out of range [0.." + numRays + ")");
+    }
+  }
+
+  // Sizes the per-ray storage for the given number of rays
+  private void allocate(int n) {
+    numRays = n;
+    if (rayPoints.length < 3 * n) {
+      rayPoints = new float[3 * n];
+      rayDirections = new float[3 * n];
+      gatherPoints = new float[3 * n];
+      gatherDirections = new float[3 * n];
+      localScales = new float[n];
+      closestT = new float[n];
+      closest = new PickedPoint[n];
+      closestPoints = new PickedPoint[n];
+      Line[] lines = new Line[n];
+      System.arraycopy(localRays, 0, lines, 0, localRays.length);
+      for (int i = localRays.length; i < n; i++) {
+        lines[i] = new Line();
+      }
+      localRays = lines;
+      for (int i = 0; i < activeSets.length; i++) {
+        activeSets[i] = new int[n];
+      }
+    }
+    while (pickedPoints.size() < n) {
+      tempPickedPoints.add(new ArrayList<RayPickAction.RayPickedPoint>());
+      pickedPoints.add(new ArrayList<PickedPoint>());
+    }
+    for (int i = 0; i < n; i++) {
+      activeSets[0][i] = i;
+    }
+    localSerial = -1;
+  }
+
+  // Pushes an empty set of active rays, returning its storage
+  private int[] pushActiveSet() {
+    ++activeDepth;
+    if (activeDepth == activeSets.length) {
+      int len = 2 * activeSets.length;
+      int[][] sets = new int[len][];
+      System.arraycopy(activeSets, 0, sets, 0, activeSets.length);
+      for (int i = activeSets.length; i < len; i++) {
+        sets[i] = new int[numRays];
+      }
+      int[] counts = new int[len];
+      System.arraycopy(activeCounts, 0, counts, 0, activeCounts.length);
+      long[] serials = new long[len];
+      System.arraycopy(activeSerials, 0, serials, 0, activeSerials.length);
+      activeSets = sets;
+      activeCounts = counts;
+      activeSerials = serials;
+    }
+    activeCounts[activeDepth] = 0;
+    activeSerials[activeDepth] = ++nextSerial;
+    return activeSets[activeDepth];
+  }
+
+  private void reset() {
+    bounds.clear();
+    activeDepth = 0;
+    activeCounts[0] = numRays;
+    activeSerials[0] = ++nextSerial;
+    if (normalizedXY != null) {
+      // Wait for a Camera to compute the rays
+      raysComputed = false;
+    }
+    for (int i = 0; i < numRays; i++) {
+      closestT[i] = Float.POSITIVE_INFINITY;
+      closest[i] = null;
+      tempPickedPoints.get(i).clear();
+      pickedPoints.get(i).clear();
+    }
+  }
+
+  private void tabulate() {
+    for (int i = 0; i < numRays; i++) {
+      List<PickedPoint> points = pickedPoints.get(i);
+      if (!pickAll) {
+        if (closest[i] != null) {
+          points.add(closest[i]);
+        }
+        continue;
+      }
+      List<RayPickAction.RayPickedPoint> temp = tempPickedPoints.get(i);
+      Collections.sort(temp);
+      for (RayPickAction.RayPickedPoint p : temp) {
+        points.add(p.point);
+      }
+      temp.clear();
+    }
+  }
+
+  /** Action method which dispatches to per-node picking functionality. */
+  public static void multiRayPick(MultiRayPickAction action, Node node) {
+    node.multiRayPick(action);
+  }
+}
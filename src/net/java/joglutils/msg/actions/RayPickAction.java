@@ -43,13 +43,20 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import net.java.joglutils.msg.elements.ModelMatrixElement;
+import net.java.joglutils.msg.math.Box3f;
 import net.java.joglutils.msg.math.Line;
+import net.java.joglutils.msg.math.Mat4f;
+import net.java.joglutils.msg.math.SingularMatrixException;
 import net.java.joglutils.msg.math.Vec2f;
+import net.java.joglutils.msg.math.Vec3f;
 import net.java.joglutils.msg.misc.ActionTable;
+import net.java.joglutils.msg.misc.Path;
 import net.java.joglutils.msg.misc.PickedPoint;
 import net.java.joglutils.msg.misc.State;
 import net.java.joglutils.msg.nodes.Camera;
 import net.java.joglutils.msg.nodes.Node;
+import net.java.joglutils.msg.nodes.Shape;
 
 public class RayPickAction extends Action {
   // Boilerplate
@@ -125,6 +132,14 @@ public class RayPickAction extends Action {
       if (depth == 0) {
         reset();
       }
+      if (bounds.isActive() && node instanceof Shape) {
+        // Shapes contribute their bounds to the enclosing Separators
+        if (((Shape) node).getBoundingBox(this, shapeBounds)) {
+          extendBounds(shapeBounds);
+        } else {
+          invalidateBounds();
+        }
+      }
       apply(table, node);
     } finally {
       --applyDepth;
@@ -158,16 +173,53 @@ public class RayPickAction extends Action {
     normalizedPoint = null;
   }
 
+  /** Sets whether this action collects every point along the ray
+      (the default), or only the closest one. Collecting only the
+      closest point lets traversal skip geometry beyond the closest
+      point found so far, and reuses the picked point and its path
+      from one pick to the next rather than allocating new ones per
+      hit. Traversal itself still allocates, as the State creates new
+      elements whenever the nodes traversed change them, so repeated
+      picks are cheaper but not garbage-free. */
+  public void setPickAll(boolean pickAll) {
+    this.pickAll = pickAll;
+  }
+
+  /** Returns whether this action collects every point along the ray,
+      or only the closest one. */
+  public boolean isPickAll() {
+    return pickAll;
+  }
+
+  /** Sets whether this action ignores triangles facing away from the
+      ray, that is, those whose vertices appear clockwise when viewed
+      from the ray's point in the shape's local coordinate system.
+      Defaults to false. */
+  public void setCullBackfaces(boolean cullBackfaces) {
+    this.cullBackfaces = cullBackfaces;
+  }
+
+  /** Returns whether this action ignores triangles facing away from
+      the ray. */
+  public boolean isCullBackfaces() {
+    return cullBackfaces;
+  }
+
   /** Returns the list of points this action selected during the last
       traversal, sorted in increasing order of distance from the
       camera. Typically applications will only need to deal with the
-      first point in the returned list. */
+      first point in the returned list. If only the closest point is
+      being picked, the list and the point in it are reused by the
+      next traversal, so they should be copied if they are to be
+      kept. */
   public List<PickedPoint> getPickedPoints() {
     return pickedPoints;
   }
 
   /** Returns the closest point to the camera this action selected
-      during the last traversal, or null if no points were picked. */
+      during the last traversal, or null if no points were picked. If
+      only the closest point is being picked, the point is reused by
+      the next traversal. */
   public PickedPoint getPickedPoint() {
     List<PickedPoint> pickedPoints = getPickedPoints();
     if (pickedPoints == null || pickedPoints.isEmpty())
@@ -185,15 +237,148 @@ public class RayPickAction extends Action {
     return computedRay;
   }
 
+  /** Returns the distance along the ray beyond which hits no longer
+      affect the result of this action, so that geometry lying
+      entirely farther away may be skipped. This is infinite while the
+      action collects every hit along the ray. End users should not
+      need to call this method. */
+  public float getMaxDistance() {
+    return pickAll ? Float.POSITIVE_INFINITY : closestT;
+  }
+
+  /** Returns the minimum distance along the ray at which hits count.
+      This is zero if only the closest point is being picked, and
+      negative infinity otherwise, as hits behind the ray's point are
+      then reported too. End users should not need to call this
+      method. */
+  public float getMinDistance() {
+    return pickAll ? Float.NEGATIVE_INFINITY : 0;
+  }
+
+  /** Returns the computed ray transformed into the local coordinate
+      system of the node being traversed, or null if there is no ray
+      or the transformation is singular. The returned Line is owned by
+      this action and overwritten by the next call. Because its
+      direction is normalized, a distance along it must be multiplied
+      by {@link #getLocalDistanceScale getLocalDistanceScale} to give
+      the distance along the computed ray. End users should not need
+      to call this method. */
+  public Line getLocalRay() {
+    Line ray = computedRay;
+    if (ray == null) {
+      return null;
+    }
+    if (!ModelMatrixElement.isEnabled(state)) {
+      localRay.setPoint(ray.getPoint());
+      localRay.setDirection(ray.getDirection());
+      localDistanceScale = 1;
+      return localRay;
+    }
+    try {
+      ModelMatrixElement.getInstance(state).getMatrix().invert(worldToLocal);
+    } catch (SingularMatrixException e) {
+      return null;
+    }
+    worldToLocal.transformPoint(ray.getPoint(), localTmp);
+    localRay.setPoint(localTmp);
+    worldToLocal.transformDir(ray.getDirection(), localTmp);
+    // The world direction has unit length, so this is the length in
+    // the world of a unit step along the local ray
+    localDistanceScale = 1.0f / localTmp.length();
+    localRay.setDirection(localTmp);
+    return localRay;
+  }
+
+  /** Returns the factor converting distances along the ray last
+      returned by {@link #getLocalRay getLocalRay} into distances
+      along the computed ray. End users should not need to call this
+      method. */
+  public float getLocalDistanceScale() {
+    return localDistanceScale;
+  }
+
+  /** Returns a vector owned by this action in which shapes may
+      store the parametric t and barycentric (u, v) coordinates of an
+      intersection while testing their geometry, so that testing a
+      triangle need not allocate. End users should not need to call
+      this method. */
+  public Vec3f getTUV() {
+    return tuv;
+  }
+
+  /** Begins accumulating the bounds of the shapes traversed next, in
+      the local coordinate system at this point of the traversal.
+      Called by {@link net.java.joglutils.msg.nodes.Separator
+      Separator} to compute the bounds it caches. Calls may nest, and
+      each must be matched by a call to {@link #endBounds endBounds}.
+      End users should not need to call this method. */
+  public void beginBounds() {
+    bounds.begin(getModelMatrix());
+  }
+
+  /** Finishes accumulating the bounds begun by the matching call to
+      {@link #beginBounds beginBounds}, storing them into dest. Returns
+      false if the bounds are unknown, because a shape could not
+      report its bounds, in which case the bounds enclosing these are
+      unknown as well. End users should not need to call this
+      method. */
+  public boolean endBounds(Box3f dest) {
+    return bounds.end(dest);
+  }
+
+  /** Returns true if bounds are being accumulated. End users should
+      not need to call this method. */
+  public boolean isComputingBounds() {
+    return bounds.isActive();
+  }
+
+  /** Extends the bounds being accumulated by the given box, which is
+      in the local coordinate system of the node being traversed. End
+      users should not need to call this method. */
+  public void extendBounds(Box3f box) {
+    bounds.extend(box, getModelMatrix());
+  }
+
+  /** Suspends the accumulation of bounds until the matching call to
+      {@link #resumeBounds resumeBounds}. Called by a Separator whose
+      cached bounds are up to date, so that the shapes below it are
+      not bounded again while it is traversed. End users should not
+      need to call this method. */
+  public void suspendBounds() {
+    bounds.suspend();
+  }
+
+  /** Resumes the accumulation of bounds suspended by the matching
+      call to {@link #suspendBounds suspendBounds}. End users should
+      not need to call this method. */
+  public void resumeBounds() {
+    bounds.resume();
+  }
+
+  /** Returns true if a Camera has been traversed since the innermost
+      call to {@link #beginBounds beginBounds}. A Separator enclosing
+      a Camera must not skip its children based on its bounds, since
+      the ray tested against the children may not have been computed yet when it is
+      entered. End users should not need to call this method. */
+  public boolean boundsContainCamera() {
+    return bounds.containsCamera();
+  }
+
+  /** Marks the bounds being accumulated as unknown. End users should
+      not need to call this method. */
+  public void invalidateBounds() {
+    bounds.invalidate();
+  }
+
   /** Called during scene graph traversal to update the 3D ray
       associated with this action if it was configured with on-screen
       coordinates. End users should not need to call this method. */
   public void recomputeRay(Camera camera) {
     if (normalizedPoint != null && ray == null) {
-      if (computedRay == null) {
-        computedRay = new Line();
-      }
-      camera.unproject(normalizedPoint, computedRay);
+      camera.unproject(normalizedPoint, unprojectedRay);
+      computedRay = unprojectedRay;
+      // Separators entered before this point didn't know the ray
+      bounds.noteCamera();
     }
   }
 
@@ -204,15 +389,105 @@ public class RayPickAction extends Action {
       original is still mutable. End users should not need to call
       this method. */
   public void addPickedPoint(PickedPoint p, float t) {
-    tempPickedPoints.add(new RayPickedPoint(t, p));
+    if (pickAll) {
+      tempPickedPoints.add(new RayPickedPoint(t, p));
+    } else if (t >= getMinDistance() && t < closestT) {
+      closestT = t;
+      closest = p;
+    }
   }
 
+  /** Registers an intersection at distance t along the computed ray
+      with the RayPickAction during scene graph traversal, returning
+      a PickedPoint whose path is set to the current path and whose
+      coordinate the caller should fill in. Returns null if the
+      intersection does not affect the result, because it is farther
+      than the closest point so far and only the closest point is
+      being picked. End users should not need to call this method. */
+  public PickedPoint addIntersection(float t) {
+    if (pickAll) {
+      PickedPoint p = new PickedPoint();
+      p.setCoord(new Vec3f());
+      p.setPath(getPath().copy());
+      addPickedPoint(p, t);
+      return p;
+    }
+    if (!(t >= getMinDistance() && t < closestT)) {
+      return null;
+    }
+    // Reuse the point from the previous pick
+    PickedPoint p = closestPoint;
+    Path path = closestPath;
+    Path cur = getPath();
+    path.clear();
+    for (int i = 0, n = cur.size(); i < n; i++) {
+      path.add(cur.get(i));
+    }
+    p.setPath(path);
+    p.setTexCoord(null);
+    p.setColor(null);
+    p.setNormal(null);
+    closestT = t;
+    closest = p;
+    return p;
+  }
+
+  // The bounds being accumulated by each enclosing Separator
+  private final BoundsStack bounds = new BoundsStack();
+  private final Box3f shapeBounds = new Box3f();
+  private static final Mat4f IDENTITY = new Mat4f();
+  static {
+    IDENTITY.makeIdent();
+  }
+
+  private Mat4f getModelMatrix() {
+    if (ModelMatrixElement.isEnabled(state)) {
+      return ModelMatrixElement.getInstance(state).getMatrix();
+    }
+    return IDENTITY;
+  }
+
+  private boolean pickAll = true;
+  private boolean cullBackfaces;
+
+  // When picking only the closest point, the closest point so far,
+  // and the point and path reused for it
+  private float closestT;
+  private PickedPoint closest;
+  private final PickedPoint closestPoint = new PickedPoint();
+  private final Path closestPath = new Path();
+  {
+    closestPoint.setCoord(new Vec3f());
+  }
+
+  // Storage for getLocalRay and getTUV
+  private final Line localRay = new Line();
+  // Storage for the ray computed from a Camera
+  private final Line unprojectedRay = new Line();
+  private final Mat4f worldToLocal = new Mat4f();
+  private final Vec3f localTmp = new Vec3f();
+  private float localDistanceScale = 1;
+  private final Vec3f tuv = new Vec3f();
+
   private void reset() {
+    bounds.clear();
+    if (normalizedPoint != null) {
+      // Wait for a Camera to compute the ray
+      computedRay = null;
+    }
+    closestT = Float.POSITIVE_INFINITY;
+    closest = null;
     tempPickedPoints.clear();
     pickedPoints.clear();
   }
 
   private void tabulate() {
+    if (!pickAll) {
+      if (closest != null) {
+        pickedPoints.add(closest);
+      }
+      return;
+    }
     Collections.sort(tempPickedPoints);
     for (RayPickedPoint p : tempPickedPoints) {
       pickedPoints.add(p.point);
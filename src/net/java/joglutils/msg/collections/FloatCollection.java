@@ -0,0 +1,517 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.collections;
+
+import java.nio.FloatBuffer;
+import java.util.BitSet;
+
+import net.java.joglutils.msg.impl.BufferFactory;
+import net.java.joglutils.msg.impl.BufferScope;
+
+/** The common base class of the collections of fixed-size float
+    vectors, such as {@link Vec3fCollection}. Provides bulk access to
+    the backing store in terms of raw floats; the subclasses provide
+    access to individual elements as vectors. Indices and sizes are
+    given in elements unless stated otherwise. <P>
+
+    Removing an element from the middle of a collection normally
+    moves all of the elements above it, which is expensive for
+    rapidly changing data such as particles. {@link #swapRemove
+    swapRemove} instead moves only the last element, and in
+    compacting mode (see {@link #setCompacting setCompacting})
+    removals merely mark elements as removed, leaving the indices of
+    all other elements unchanged, until the collection is compacted
+    in a single pass. <P>
+
+    Every modification increments a {@link #getModificationCount
+    modification count} and extends a dirty range of element indices,
+    so that consumers such as buffer uploaders and bounds caches can
+    tell whether, and where, the contents have changed. */
+
+public abstract class FloatCollection {
+  // Data is stored as a direct FloatBuffer; the limit is the number
+  // of floats in use and the position is always 0
+  FloatBuffer data;
+
+  // The number of floats per element
+  final int elementSize;
+
+  // Incremented on every modification of the contents
+  private long modCount;
+  // The range of elements modified since the dirty range was last
+  // cleared; empty if dirtyStart >= dirtyEnd
+  private int dirtyStart = Integer.MAX_VALUE;
+  private int dirtyEnd;
+
+  // The view most recently returned from getData and the backing
+  // store it was sliced from; reused while the backing store and
+  // size stay the same
+  private FloatBuffer view;
+  private FloatBuffer viewSource;
+
+  // In compacting mode, the elements marked as removed; null otherwise
+  private BitSet removed;
+  private int numRemoved;
+
+  /** Creates an empty collection with the backing store sized to hold
+      roughly the given number of elements. */
+  protected FloatCollection(int elementSize, int estimatedSize) {
+    this.elementSize = elementSize;
+    data = BufferFactory.newFloatBuffer(elementSize * estimatedSize);
+    data.limit(0);
+  }
+
+  /** Creates a collection which uses the given buffer as its backing
+      store without copying it. */
+  protected FloatCollection(int elementSize, FloatBuffer data) {
+    this.elementSize = elementSize;
+    if (data.remaining() % elementSize != 0) {
+      throw new IllegalArgumentException("Buffer size " + data.remaining() +
+                                         " is not a multiple of " + elementSize);
+    }
+    this.data = data.slice();
+  }
+
+  /** Returns the number of elements currently in this collection. */
+  public int size() {
+    return data.limit() / elementSize;
+  }
+
+  /** Returns the number of elements this collection can hold before
+      its backing store must be reallocated. */
+  public int capacity() {
+    return data.capacity() / elementSize;
+  }
+
+  /** Returns the number of floats in each element of this
+      collection. */
+  public int getElementSize() {
+    return elementSize;
+  }
+
+  /** Makes sure this collection can hold at least the given number of
+      elements without reallocating its backing store. */
+  public void ensureCapacity(int numElements) {
+    if (numElements > capacity()) {
+      // Grow at least geometrically so that repeated additions take
+      // amortized constant time
+      reallocate(Math.max(numElements, 2 * capacity()), false);
+    }
+  }
+
+  /** Shrinks the backing store of this collection to exactly its
+      current size. Buffers previously returned from {@link #getData
+      getData} must no longer be used. */
+  public void trimToSize() {
+    compact();
+    if (capacity() > size()) {
+      reallocate(size(), true);
+    }
+  }
+
+  /** Appends <CODE>len</CODE> floats from the given array, starting at
+      <CODE>off</CODE>, to this collection; <CODE>len</CODE> must be a
+      multiple of the element size. */
+  public void addAll(float[] src, int off, int len) {
+    checkMultiple(len);
+    int pos = data.limit();
+    ensureCapacity((pos + len) / elementSize);
+    FloatBuffer buf = data;
+    buf.limit(pos + len);
+    buf.position(pos);
+    buf.put(src, off, len);
+    buf.position(0);
+    modified(pos / elementSize, (pos + len) / elementSize);
+  }
+
+  /** Appends the remaining floats in the given buffer to this
+      collection, advancing the buffer's position to its limit; the
+      number of remaining floats must be a multiple of the element
+      size. */
+  public void addAll(FloatBuffer src) {
+    int len = src.remaining();
+    checkMultiple(len);
+    int pos = data.limit();
+    ensureCapacity((pos + len) / elementSize);
+    FloatBuffer buf = data;
+    buf.limit(pos + len);
+    buf.position(pos);
+    buf.put(src);
+    buf.position(0);
+    modified(pos / elementSize, (pos + len) / elementSize);
+  }
+
+  /** Overwrites the elements starting at the given index with
+      <CODE>len</CODE> floats from the given array, starting at
+      <CODE>off</CODE>. All of the elements written must already be
+      present in the collection. */
+  public void setRange(int index, float[] src, int off, int len) throws IndexOutOfBoundsException {
+    checkMultiple(len);
+    checkRange(index, len / elementSize);
+    FloatBuffer buf = data;
+    buf.position(index * elementSize);
+    buf.put(src, off, len);
+    buf.position(0);
+    modified(index, index + len / elementSize);
+  }
+
+  /** Overwrites the elements starting at the given index with the
+      remaining floats in the given buffer, advancing the buffer's
+      position to its limit. All of the elements written must already
+      be present in the collection. */
+  public void setRange(int index, FloatBuffer src) throws IndexOutOfBoundsException {
+    int len = src.remaining();
+    checkMultiple(len);
+    checkRange(index, len / elementSize);
+    FloatBuffer buf = data;
+    buf.position(index * elementSize);
+    buf.put(src);
+    buf.position(0);
+    modified(index, index + len / elementSize);
+  }
+
+  /** Copies <CODE>numElements</CODE> elements starting at the given
+      index into the given array, starting at <CODE>off</CODE>. */
+  public void getRange(int index, int numElements, float[] dest, int off) throws IndexOutOfBoundsException {
+    checkRange(index, numElements);
+    FloatBuffer buf = data;
+    buf.position(index * elementSize);
+    buf.get(dest, off, numElements * elementSize);
+    buf.position(0);
+  }
+
+  /** Removes the elements from index <CODE>from</CODE>, inclusive, to
+      <CODE>to</CODE>, exclusive, moving the following elements down
+      in a single copy; in compacting mode the elements are only
+      marked as removed. */
+  public void removeRange(int from, int to) throws IndexOutOfBoundsException {
+    if (from > to) {
+      throw new IndexOutOfBoundsException("" + from + " > " + to);
+    }
+    checkRange(from, to - from);
+    removeElements(from, to - from);
+  }
+
+  /** Removes the element at the given index in constant time by
+      moving the last element into its place, which changes the order
+      of the elements. */
+  public void swapRemove(int index) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    FloatBuffer buf = data;
+    int last = size() - 1;
+    if (removed != null && removed.get(index)) {
+      // It no longer needs to be compacted away
+      removed.clear(index);
+      --numRemoved;
+    }
+    if (index != last) {
+      for (int i = 0, src = last * elementSize, dest = index * elementSize; i < elementSize; i++) {
+        buf.put(dest + i, buf.get(src + i));
+      }
+      if (removed != null && removed.get(last)) {
+        removed.clear(last);
+        removed.set(index);
+      }
+      modified(index, index + 1);
+    } else {
+      ++modCount;
+    }
+    buf.limit(last * elementSize);
+  }
+
+  /** Enables or disables compacting mode. In compacting mode, {@link
+      #removeRange removeRange} and the <CODE>remove</CODE> methods of
+      the subclasses only mark elements as removed, in constant time.
+      Marked elements still count toward the size of the collection,
+      and the indices of the other elements stay the same, until the
+      collection is compacted: by {@link #compact compact}, or
+      automatically by {@link #getData getData} and when compacting
+      mode is disabled. */
+  public void setCompacting(boolean compacting) {
+    if (compacting) {
+      if (removed == null) {
+        removed = new BitSet();
+      }
+    } else if (removed != null) {
+      compact();
+      removed = null;
+    }
+  }
+
+  /** Indicates whether this collection is in compacting mode. */
+  public boolean isCompacting() {
+    return (removed != null);
+  }
+
+  /** Indicates whether the element at the given index has been marked
+      as removed and not yet compacted away. */
+  public boolean isRemoved(int index) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    return (removed != null && removed.get(index));
+  }
+
+  /** Returns the number of elements marked as removed and not yet
+      compacted away. */
+  public int getNumRemoved() {
+    return numRemoved;
+  }
+
+  /** Discards all elements marked as removed in a single pass,
+      preserving the order of the remaining ones. */
+  public void compact() {
+    if (numRemoved == 0) {
+      return;
+    }
+    FloatBuffer buf = data;
+    int n = size();
+    int write = removed.nextSetBit(0);
+    modified(write, n);
+    int start = removed.nextClearBit(write);
+    while (start < n) {
+      int end = removed.nextSetBit(start);
+      if (end < 0 || end > n) {
+        end = n;
+      }
+      // Move the run of live elements [start, end) down to write
+      FloatBuffer src = buf.duplicate();
+      src.limit(end * elementSize);
+      src.position(start * elementSize);
+      buf.position(write * elementSize);
+      buf.put(src);
+      write += end - start;
+      start = (end < n) ? removed.nextClearBit(end) : n;
+    }
+    buf.position(0);
+    buf.limit(write * elementSize);
+    removed.clear();
+    numRemoved = 0;
+  }
+
+  /** Removes all elements from this collection without releasing its
+      backing store. */
+  public void clear() {
+    data.limit(0);
+    ++modCount;
+    if (removed != null) {
+      removed.clear();
+    }
+    numRemoved = 0;
+  }
+
+  /** Releases the backing store of this collection back to the
+      BufferFactory immediately, rather than when it is garbage
+      collected. The collection is left empty and may be used again.
+      Buffers previously returned from {@link #getData getData} must
+      no longer be used. */
+  public void dispose() {
+    FloatBuffer buf = data;
+    data = BufferFactory.newFloatBuffer(0);
+    BufferFactory.release(buf);
+    clear();
+  }
+
+  /** Removes the backing store of this collection from the {@link
+      BufferScope BufferScope} which would release it, so that the
+      collection outlives the scope it was created in. Returns false
+      if no scope open on the current thread holds the store. */
+  public boolean keepStore() {
+    return BufferScope.exclude(data);
+  }
+
+  /** Returns the backing buffer of this collection, first compacting
+      away any elements marked as removed. Once this collection has
+      reallocated its backing store, which may happen whenever it
+      grows, the returned buffer no longer reflects its contents, but
+      remains safe to read until {@link #trimToSize trimToSize} or
+      {@link #dispose dispose} is called. The same buffer is returned
+      until the size or backing store of this collection changes.
+      Writes made through it are not recorded as modifications. */
+  public FloatBuffer getData() {
+    compact();
+    FloatBuffer buf = data;
+    FloatBuffer res = view;
+    if (res == null || viewSource != buf || res.capacity() != buf.limit()) {
+      buf.position(0);
+      res = buf.slice();
+      view = res;
+      viewSource = buf;
+    }
+    res.clear();
+    return res;
+  }
+
+  /** Returns the number of modifications made to this collection
+      since it was created. The count increases whenever elements are
+      added, removed or overwritten, so a consumer which remembers it
+      can later tell whether the contents have changed. */
+  public long getModificationCount() {
+    return modCount;
+  }
+
+  /** Returns the index of the first element modified since the dirty
+      range was last {@link #clearDirtyRange cleared}. The range is
+      empty if this is not less than {@link #getDirtyEnd
+      getDirtyEnd}. */
+  public int getDirtyStart() {
+    return dirtyStart;
+  }
+
+  /** Returns the index one past the last element modified since the
+      dirty range was last cleared, limited to the current size. Only
+      elements within the range may differ from what a consumer last
+      saw, although the size may also have changed. */
+  public int getDirtyEnd() {
+    return Math.min(dirtyEnd, size());
+  }
+
+  /** Indicates whether any elements still in this collection have
+      been modified since the dirty range was last cleared. */
+  public boolean isDirty() {
+    return dirtyStart < getDirtyEnd();
+  }
+
+  /** Clears the dirty range, typically after a consumer has caught up
+      with the modifications it describes. */
+  public void clearDirtyRange() {
+    dirtyStart = Integer.MAX_VALUE;
+    dirtyEnd = 0;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  // Makes room for one more element and returns the float offset at
+  // which it should be stored
+  final int grow() {
+    FloatBuffer buf = data;
+    int pos = buf.limit();
+    if (pos == buf.capacity()) {
+      ensureCapacity(pos / elementSize + 1);
+      buf = data;
+    }
+    buf.limit(pos + elementSize);
+    int index = pos / elementSize;
+    modified(index, index + 1);
+    return pos;
+  }
+
+  // Records that the elements from start, inclusive, to end,
+  // exclusive, have been modified
+  final void modified(int start, int end) {
+    ++modCount;
+    if (start < dirtyStart) {
+      dirtyStart = start;
+    }
+    if (end > dirtyEnd) {
+      dirtyEnd = end;
+    }
+  }
+
+  final void checkIndex(int index) throws IndexOutOfBoundsException {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("" + index + " >= " + size());
+    }
+  }
+
+  // Removes the given number of elements starting at the given
+  // index, either by marking them or by moving the following elements
+  // down
+  final void removeElements(int index, int count) {
+    if (removed != null) {
+      for (int i = index; i < index + count; i++) {
+        if (!removed.get(i)) {
+          removed.set(i);
+          ++numRemoved;
+        }
+      }
+    } else {
+      shift(index, count);
+    }
+  }
+
+  // Removes the given number of elements starting at the given index,
+  // moving the following elements down
+  final void shift(int index, int count) {
+    modified(index, size());
+    FloatBuffer buf = data;
+    int pos = index * elementSize;
+    int end = pos + count * elementSize;
+    if (end < buf.limit()) {
+      buf.position(end);
+      FloatBuffer rest = buf.slice();
+      buf.position(pos);
+      buf.put(rest);
+    }
+    buf.limit(buf.limit() - count * elementSize);
+    buf.position(0);
+  }
+
+  // Moves the contents to a new backing store of the given capacity.
+  // The old store is freed immediately only if views of it may no
+  // longer be used; otherwise it is left to the garbage collector, so
+  // that views kept across growth read stale data rather than freed
+  // memory
+  private void reallocate(int numElements, boolean release) {
+    FloatBuffer buf = data;
+    FloatBuffer newBuf = BufferFactory.newFloatBuffer(numElements * elementSize);
+    buf.position(0);
+    newBuf.put(buf);
+    newBuf.flip();
+    data = newBuf;
+    BufferScope.replace(buf, newBuf);
+    // Does nothing if the old buffer was supplied by the application
+    if (release) {
+      BufferFactory.release(buf);
+    } else {
+      BufferFactory.abandon(buf);
+    }
+  }
+
+  private void checkMultiple(int len) {
+    if (len % elementSize != 0) {
+      throw new IllegalArgumentException("Length " + len + " is not a multiple of " + elementSize);
+    }
+  }
+
+  final void checkRange(int index, int count) throws IndexOutOfBoundsException {
+    if (index < 0 || count < 0 || index + count > size()) {
+      throw new IndexOutOfBoundsException("" + index + " + " + count + " > " + size());
+    }
+  }
+}
@@ -0,0 +1,582 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.collections;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import net.java.joglutils.msg.impl.BufferFactory;
+import net.java.joglutils.msg.impl.BufferScope;
+
+/** A collection of vertex indices, as used by indexed geometry, which
+    stores them in the narrowest of unsigned bytes, shorts or ints
+    that can represent the largest index. The collection starts out
+    in its minimum type and widens itself automatically when an index
+    is added which does not fit; {@link #trimToSize trimToSize}
+    narrows it again if possible. Most meshes have fewer than 65535
+    vertices, so their indices take half or a quarter of the space
+    of ints. <P>
+
+    The collection can also hold primitive restart markers, which
+    are stored as the largest value of the current type, so that
+    OpenGL's fixed primitive restart index can be used when drawing
+    strips and fans. They are read back as {@link #RESTART
+    RESTART}. <P>
+
+    Every modification increments a {@link #getModificationCount
+    modification count}, so that caches derived from the indices,
+    such as picking acceleration structures, can tell whether they
+    have changed. */
+
+public class IndexCollection {
+  /** Indices are stored as unsigned bytes. The value of each type is
+      its size in bytes. */
+  public static final int UNSIGNED_BYTE  = 1;
+  /** Indices are stored as unsigned shorts. */
+  public static final int UNSIGNED_SHORT = 2;
+  /** Indices are stored as ints. */
+  public static final int UNSIGNED_INT   = 4;
+
+  /** The value representing a primitive restart marker. */
+  public static final int RESTART = -1;
+
+  // Exactly one of these is non-null, according to the type. The
+  // limit is the number of indices in use and the position is always 0
+  private ByteBuffer bytes;
+  private ShortBuffer shorts;
+  private IntBuffer ints;
+  private int type;
+  private int minType;
+
+  // The range of indices in use, excluding restart markers; only
+  // valid if rangeValid is set
+  private int minIndex;
+  private int maxIndex;
+  private boolean rangeValid;
+  private int numRestarts;
+
+  // Incremented on every modification of the contents
+  private long modCount;
+
+  // The view most recently returned from getData and the backing
+  // store it was sliced from; reused while the backing store and
+  // size stay the same
+  private Buffer view;
+  private Buffer viewSource;
+
+  /** Creates an empty IndexCollection. */
+  public IndexCollection() {
+    this(16);
+  }
+
+  /** Creates an empty IndexCollection with the backing store sized to
+      hold roughly the given number of indices. */
+  public IndexCollection(int estimatedSize) {
+    this(estimatedSize, UNSIGNED_BYTE);
+  }
+
+  /** Creates an empty IndexCollection with the backing store sized to
+      hold roughly the given number of indices, which is never stored
+      in a type narrower than the given one. Some OpenGL
+      implementations handle byte indices poorly, in which case a
+      minimum type of UNSIGNED_SHORT is appropriate. */
+  public IndexCollection(int estimatedSize, int minType) {
+    checkType(minType);
+    this.minType = minType;
+    type = minType;
+    setBuffer(allocate(type, estimatedSize));
+    clear();
+  }
+
+  /** Creates an IndexCollection of type UNSIGNED_INT which uses the
+      given buffer as its backing store without copying it, until the
+      collection is narrowed or must grow. The remaining elements of
+      the buffer become the contents of the collection. */
+  public IndexCollection(IntBuffer data) {
+    minType = UNSIGNED_BYTE;
+    type = UNSIGNED_INT;
+    ints = data.slice();
+    numRestarts = -1;
+  }
+
+  /** Returns the type in which indices are currently stored:
+      UNSIGNED_BYTE, UNSIGNED_SHORT or UNSIGNED_INT. */
+  public int getType() {
+    return type;
+  }
+
+  /** Returns the narrowest type in which this collection stores its
+      indices. */
+  public int getMinimumType() {
+    return minType;
+  }
+
+  /** Sets the narrowest type in which this collection stores its
+      indices, widening it immediately if necessary. */
+  public void setMinimumType(int minType) {
+    checkType(minType);
+    this.minType = minType;
+    if (type < minType) {
+      convert(minType, capacity(), false);
+    }
+  }
+
+  /** Returns the number of indices, including restart markers,
+      currently in this collection. */
+  public int size() {
+    return data().limit();
+  }
+
+  /** Returns the number of indices this collection can hold in its
+      current type before its backing store must be reallocated. */
+  public int capacity() {
+    return data().capacity();
+  }
+
+  /** Makes sure this collection can hold at least the given number of
+      indices in its current type without reallocating its backing
+      store. */
+  public void ensureCapacity(int numElements) {
+    if (numElements > capacity()) {
+      convert(type, Math.max(numElements, 2 * capacity()), false);
+    }
+  }
+
+  /** Returns the value used to mark a primitive restart in the buffer
+      returned by {@link #getData getData}, which depends on the
+      current type: 0xFF, 0xFFFF or 0xFFFFFFFF. This is the value to
+      pass to <CODE>glPrimitiveRestartIndex</CODE>. */
+  public int getRestartIndex() {
+    return restartValue(type);
+  }
+
+  /** Returns the number of primitive restart markers in this
+      collection. */
+  public int getNumRestarts() {
+    if (numRestarts < 0) {
+      computeRange();
+    }
+    return numRestarts;
+  }
+
+  /** Returns the smallest index in this collection, ignoring restart
+      markers, or 0 if there are none. Together with {@link
+      #getMaxIndex getMaxIndex} this gives the range of vertices
+      referenced, as needed by <CODE>glDrawRangeElements</CODE>. */
+  public int getMinIndex() {
+    if (!rangeValid) {
+      computeRange();
+    }
+    return minIndex;
+  }
+
+  /** Returns the largest index in this collection, ignoring restart
+      markers, or -1 if there are none. */
+  public int getMaxIndex() {
+    if (!rangeValid) {
+      computeRange();
+    }
+    return maxIndex;
+  }
+
+  /** Stores the given index, which must be non-negative or {@link
+      #RESTART RESTART}, at the given position. If the collection has
+      not grown to the given size, throws an exception. */
+  public void set(int position, int index) throws IndexOutOfBoundsException {
+    checkPosition(position);
+    checkIndex(index);
+    fit(index);
+    put(position, index);
+    rangeValid = false;
+    numRestarts = -1;
+    ++modCount;
+  }
+
+  /** Fetches the index at the given position, which is {@link
+      #RESTART RESTART} for a restart marker. If the collection has
+      not grown to the given size, throws an exception. */
+  public int get(int position) throws IndexOutOfBoundsException {
+    checkPosition(position);
+    return fetch(position);
+  }
+
+  /** Copies <CODE>count</CODE> indices starting at the given position
+      into the given array, starting at <CODE>off</CODE>. Restart
+      markers are copied as {@link #RESTART RESTART}. */
+  public void getRange(int position, int count, int[] dest, int off) throws IndexOutOfBoundsException {
+    if (position < 0 || count < 0 || position + count > size()) {
+      throw new IndexOutOfBoundsException("" + position + " + " + count + " > " + size());
+    }
+    if (type == UNSIGNED_INT) {
+      IntBuffer buf = ints;
+      buf.position(position);
+      buf.get(dest, off, count);
+      buf.position(0);
+    } else {
+      for (int i = 0; i < count; i++) {
+        dest[off + i] = fetch(position + i);
+      }
+    }
+  }
+
+  /** Adds the given index, which must be non-negative or {@link
+      #RESTART RESTART}, to this collection, widening or expanding it
+      if necessary. */
+  public void add(int index) {
+    checkIndex(index);
+    fit(index);
+    int pos = size();
+    if (pos == capacity()) {
+      ensureCapacity(pos + 1);
+    }
+    data().limit(pos + 1);
+    put(pos, index);
+    noteAdded(index);
+    ++modCount;
+  }
+
+  /** Adds a primitive restart marker to this collection. */
+  public void addRestart() {
+    add(RESTART);
+  }
+
+  /** Appends <CODE>len</CODE> indices from the given array, starting
+      at <CODE>off</CODE>, to this collection, widening it at most once
+      to fit the largest of them. */
+  public void addAll(int[] src, int off, int len) {
+    int max = -1;
+    for (int i = 0; i < len; i++) {
+      int index = src[off + i];
+      checkIndex(index);
+      max = Math.max(max, index);
+    }
+    fit(max);
+    int pos = size();
+    ensureCapacity(pos + len);
+    data().limit(pos + len);
+    if (type == UNSIGNED_INT) {
+      IntBuffer buf = ints;
+      buf.position(pos);
+      buf.put(src, off, len);
+      buf.position(0);
+    } else {
+      for (int i = 0; i < len; i++) {
+        put(pos + i, src[off + i]);
+      }
+    }
+    for (int i = 0; i < len; i++) {
+      noteAdded(src[off + i]);
+    }
+    ++modCount;
+  }
+
+  /** Appends the remaining indices in the given buffer to this
+      collection, advancing the buffer's position to its limit. */
+  public void addAll(IntBuffer src) {
+    int len = src.remaining();
+    int[] tmp = new int[Math.min(len, 1024)];
+    while (len > 0) {
+      int n = Math.min(len, tmp.length);
+      src.get(tmp, 0, n);
+      addAll(tmp, 0, n);
+      len -= n;
+    }
+  }
+
+  /** Removes all indices from this collection and returns it to its
+      minimum type, without releasing its backing store. */
+  public void clear() {
+    if (type != minType) {
+      // Reuse the storage in the narrower type
+      int bytesCapacity = capacity() * type;
+      convert(minType, bytesCapacity / minType, false);
+    }
+    data().limit(0);
+    minIndex = 0;
+    maxIndex = -1;
+    rangeValid = true;
+    numRestarts = 0;
+    ++modCount;
+  }
+
+  /** Narrows this collection to the narrowest type, no narrower than
+      the minimum type, which holds its largest index, and shrinks its
+      backing store to exactly its current size. Buffers previously
+      returned from {@link #getData getData} must no longer be
+      used. */
+  public void trimToSize() {
+    int newType = typeFor(getMaxIndex());
+    if (newType != type || capacity() > size()) {
+      convert(newType, size(), true);
+    }
+  }
+
+  /** Releases the backing store of this collection back to the
+      BufferFactory immediately. The collection is left empty and may
+      be used again. Buffers previously returned from {@link #getData
+      getData} must no longer be used. */
+  public void dispose() {
+    Buffer buf = data();
+    setBuffer(allocate(minType, 0));
+    type = minType;
+    BufferFactory.release(buf);
+    clear();
+  }
+
+  /** Removes the backing store of this collection from the {@link
+      BufferScope BufferScope} which would release it, so that the
+      collection outlives the scope it was created in. Returns false
+      if no scope open on the current thread holds the store. */
+  public boolean keepStore() {
+    return BufferScope.exclude(data());
+  }
+
+  /** Returns the backing buffer of this collection: a ByteBuffer,
+      ShortBuffer or IntBuffer depending on {@link #getType getType}.
+      Once this collection has reallocated its backing store, which
+      may happen whenever it grows or is widened, the returned buffer
+      no longer reflects its contents, but remains safe to read until
+      {@link #trimToSize trimToSize} or {@link #dispose dispose} is
+      called. The same buffer is returned until the size, type or
+      backing store of this collection changes. Writes made through it
+      are not recorded as modifications. */
+  public Buffer getData() {
+    Buffer buf = data();
+    Buffer res = view;
+    if (res == null || viewSource != buf || res.capacity() != buf.limit()) {
+      buf.position(0);
+      switch (type) {
+        case UNSIGNED_BYTE:  res = bytes.slice();  break;
+        case UNSIGNED_SHORT: res = shorts.slice(); break;
+        default:             res = ints.slice();   break;
+      }
+      view = res;
+      viewSource = buf;
+    }
+    res.clear();
+    return res;
+  }
+
+  /** Returns the number of modifications made to this collection
+      since it was created. The count increases whenever indices are
+      added or overwritten or the collection is cleared, so a consumer
+      which remembers it can later tell whether the contents have
+      changed. */
+  public long getModificationCount() {
+    return modCount;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private Buffer data() {
+    switch (type) {
+      case UNSIGNED_BYTE:  return bytes;
+      case UNSIGNED_SHORT: return shorts;
+      default:             return ints;
+    }
+  }
+
+  private void setBuffer(Buffer buf) {
+    bytes = (buf instanceof ByteBuffer) ? (ByteBuffer) buf : null;
+    shorts = (buf instanceof ShortBuffer) ? (ShortBuffer) buf : null;
+    ints = (buf instanceof IntBuffer) ? (IntBuffer) buf : null;
+  }
+
+  private static Buffer allocate(int type, int numElements) {
+    switch (type) {
+      case UNSIGNED_BYTE:  return BufferFactory.newByteBuffer(numElements);
+      case UNSIGNED_SHORT: return BufferFactory.newShortBuffer(numElements);
+      default:             return BufferFactory.newIntBuffer(numElements);
+    }
+  }
+
+  private static void checkType(int type) {
+    if (type != UNSIGNED_BYTE && type != UNSIGNED_SHORT && type != UNSIGNED_INT) {
+      throw new IllegalArgumentException("Illegal index type " + type);
+    }
+  }
+
+  private static void checkIndex(int index) {
+    if (index < RESTART) {
+      throw new IllegalArgumentException("Illegal index " + index);
+    }
+  }
+
+  private void checkPosition(int position) throws IndexOutOfBoundsException {
+    if (position < 0 || position >= size()) {
+      throw new IndexOutOfBoundsException("" + position + " >= " + size());
+    }
+  }
+
+  private static int restartValue(int type) {
+    switch (type) {
+      case UNSIGNED_BYTE:  return 0xFF;
+      case UNSIGNED_SHORT: return 0xFFFF;
+      default:             return 0xFFFFFFFF;
+    }
+  }
+
+  // Returns the narrowest type, no narrower than the minimum, which
+  // can hold the given index without colliding with the restart value
+  private int typeFor(int index) {
+    if (index < 0xFF && minType <= UNSIGNED_BYTE) {
+      return UNSIGNED_BYTE;
+    }
+    if (index < 0xFFFF && minType <= UNSIGNED_SHORT) {
+      return UNSIGNED_SHORT;
+    }
+    return UNSIGNED_INT;
+  }
+
+  // Widens this collection if necessary to hold the given index
+  private void fit(int index) {
+    int newType = typeFor(index);
+    if (newType > type) {
+      convert(newType, Math.max(capacity(), 1), false);
+    }
+  }
+
+  // Copies the contents into new storage of the given type and
+  // capacity, translating restart markers. The old storage is freed
+  // immediately only if views of it may no longer be used; otherwise
+  // it is left to the garbage collector
+  private void convert(int newType, int newCapacity, boolean release) {
+    Buffer old = data();
+    int n = old.limit();
+    Buffer buf = allocate(newType, newCapacity);
+    if (newType == type) {
+      old.position(0);
+      switch (type) {
+        case UNSIGNED_BYTE:  ((ByteBuffer) buf).put(bytes);   break;
+        case UNSIGNED_SHORT: ((ShortBuffer) buf).put(shorts); break;
+        default:             ((IntBuffer) buf).put(ints);     break;
+      }
+      old.position(0);
+    } else {
+      int[] tmp = new int[Math.min(n, 1024)];
+      for (int i = 0; i < n; i += tmp.length) {
+        int count = Math.min(tmp.length, n - i);
+        for (int j = 0; j < count; j++) {
+          tmp[j] = fetch(i + j);
+        }
+        for (int j = 0; j < count; j++) {
+          putInto(buf, newType, i + j, tmp[j]);
+        }
+      }
+    }
+    buf.position(0);
+    buf.limit(n);
+    type = newType;
+    setBuffer(buf);
+    BufferScope.replace(old, buf);
+    // Does nothing if the old buffer was supplied by the application
+    if (release) {
+      BufferFactory.release(old);
+    } else {
+      BufferFactory.abandon(old);
+    }
+  }
+
+  private int fetch(int position) {
+    int value;
+    switch (type) {
+      case UNSIGNED_BYTE:
+        value = bytes.get(position) & 0xFF;
+        return (value == 0xFF) ? RESTART : value;
+      case UNSIGNED_SHORT:
+        value = shorts.get(position) & 0xFFFF;
+        return (value == 0xFFFF) ? RESTART : value;
+      default:
+        return ints.get(position);
+    }
+  }
+
+  private void put(int position, int index) {
+    putInto(data(), type, position, index);
+  }
+
+  private static void putInto(Buffer buf, int type, int position, int index) {
+    switch (type) {
+      case UNSIGNED_BYTE:  ((ByteBuffer) buf).put(position, (byte) index);   break;
+      case UNSIGNED_SHORT: ((ShortBuffer) buf).put(position, (short) index); break;
+      default:             ((IntBuffer) buf).put(position, index);           break;
+    }
+  }
+
+  private void noteAdded(int index) {
+    if (index == RESTART) {
+      if (numRestarts >= 0) {
+        ++numRestarts;
+      }
+    } else if (rangeValid) {
+      if (maxIndex < 0) {
+        minIndex = index;
+        maxIndex = index;
+      } else {
+        minIndex = Math.min(minIndex, index);
+        maxIndex = Math.max(maxIndex, index);
+      }
+    }
+  }
+
+  private void computeRange() {
+    int min = 0;
+    int max = -1;
+    int restarts = 0;
+    for (int i = 0, n = size(); i < n; i++) {
+      int index = fetch(i);
+      if (index == RESTART) {
+        ++restarts;
+      } else if (max < 0) {
+        min = index;
+        max = index;
+      } else {
+        min = Math.min(min, index);
+        max = Math.max(max, index);
+      }
+    }
+    minIndex = min;
+    maxIndex = max;
+    rangeValid = true;
+    numRestarts = restarts;
+  }
+}
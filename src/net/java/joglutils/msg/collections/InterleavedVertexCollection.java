@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.collections;
+
+import java.nio.FloatBuffer;
+
+import net.java.joglutils.msg.math.Vec2f;
+import net.java.joglutils.msg.math.Vec3f;
+import net.java.joglutils.msg.math.Vec4f;
+
+/** A collection of vertices whose attributes (position, and
+    optionally normal, texture coordinate and color, as described by
+    a {@link VertexLayout}) are interleaved in a single direct
+    FloatBuffer. Compared to separate collections per attribute, this
+    lets OpenGL and the CPU fetch each vertex from one contiguous
+    stream. The per-attribute views returned by {@link
+    #getPositionData getPositionData} and friends are passed to OpenGL
+    together with the layout's stride. */
+
+public class InterleavedVertexCollection extends FloatCollection {
+  private final VertexLayout layout;
+
+  /** Creates an empty collection of vertices with the given layout. */
+  public InterleavedVertexCollection(VertexLayout layout) {
+    // Assume you'll probably want at least four vertices
+    this(layout, 4);
+  }
+
+  /** Creates an empty collection of vertices with the given layout,
+      with the backing store sized to hold roughly the given number of
+      vertices. */
+  public InterleavedVertexCollection(VertexLayout layout, int estimatedSize) {
+    super(layout.getStride(), estimatedSize);
+    this.layout = layout;
+  }
+
+  /** Creates a collection of vertices with the given layout which
+      uses the given buffer as its backing store without copying it.
+      The number of remaining elements of the buffer must be a
+      multiple of the layout's stride. */
+  public InterleavedVertexCollection(VertexLayout layout, FloatBuffer data) {
+    super(layout.getStride(), data);
+    this.layout = layout;
+  }
+
+  /** Returns the layout of the vertices in this collection. */
+  public VertexLayout getLayout() {
+    return layout;
+  }
+
+  /** Appends a vertex with the given attributes. Attributes which are
+      present in the layout but passed as null are set to zero. */
+  public void add(Vec3f position, Vec3f normal, Vec2f texCoord, Vec4f color) {
+    int base = grow();
+    FloatBuffer buf = data;
+    buf.put(base,     position.x());
+    buf.put(base + 1, position.y());
+    buf.put(base + 2, position.z());
+    int off = layout.getNormalOffset();
+    if (off >= 0) {
+      buf.put(base + off,     (normal != null) ? normal.x() : 0);
+      buf.put(base + off + 1, (normal != null) ? normal.y() : 0);
+      buf.put(base + off + 2, (normal != null) ? normal.z() : 0);
+    }
+    off = layout.getTexCoordOffset();
+    if (off >= 0) {
+      buf.put(base + off,     (texCoord != null) ? texCoord.x() : 0);
+      buf.put(base + off + 1, (texCoord != null) ? texCoord.y() : 0);
+    }
+    off = layout.getColorOffset();
+    if (off >= 0) {
+      buf.put(base + off,     (color != null) ? color.x() : 0);
+      buf.put(base + off + 1, (color != null) ? color.y() : 0);
+      buf.put(base + off + 2, (color != null) ? color.z() : 0);
+      buf.put(base + off + 3, (color != null) ? color.w() : 0);
+    }
+  }
+
+  /** Stores the position of the vertex at the given index. */
+  public void setPosition(int index, Vec3f position) throws IndexOutOfBoundsException {
+    put3(index, 0, position);
+  }
+
+  /** Fetches the position of the vertex at the given index. */
+  public void getPosition(int index, Vec3f dest) throws IndexOutOfBoundsException {
+    get3(index, 0, dest);
+  }
+
+  /** Stores the normal of the vertex at the given index. */
+  public void setNormal(int index, Vec3f normal) throws IndexOutOfBoundsException {
+    put3(index, offset(layout.getNormalOffset(), "normals"), normal);
+  }
+
+  /** Fetches the normal of the vertex at the given index. */
+  public void getNormal(int index, Vec3f dest) throws IndexOutOfBoundsException {
+    get3(index, offset(layout.getNormalOffset(), "normals"), dest);
+  }
+
+  /** Stores the texture coordinate of the vertex at the given index. */
+  public void setTexCoord(int index, Vec2f texCoord) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    modified(index, index + 1);
+    int base = index * elementSize + offset(layout.getTexCoordOffset(), "texture coordinates");
+    FloatBuffer buf = data;
+    buf.put(base,     texCoord.x());
+    buf.put(base + 1, texCoord.y());
+  }
+
+  /** Fetches the texture coordinate of the vertex at the given index. */
+  public void getTexCoord(int index, Vec2f dest) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    int base = index * elementSize + offset(layout.getTexCoordOffset(), "texture coordinates");
+    FloatBuffer buf = data;
+    dest.set(buf.get(base), buf.get(base + 1));
+  }
+
+  /** Stores the color of the vertex at the given index. */
+  public void setColor(int index, Vec4f color) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    modified(index, index + 1);
+    int base = index * elementSize + offset(layout.getColorOffset(), "colors");
+    FloatBuffer buf = data;
+    buf.put(base,     color.x());
+    buf.put(base + 1, color.y());
+    buf.put(base + 2, color.z());
+    buf.put(base + 3, color.w());
+  }
+
+  /** Fetches the color of the vertex at the given index. */
+  public void getColor(int index, Vec4f dest) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    int base = index * elementSize + offset(layout.getColorOffset(), "colors");
+    FloatBuffer buf = data;
+    dest.set(buf.get(base), buf.get(base + 1), buf.get(base + 2), buf.get(base + 3));
+  }
+
+  /** Returns a view of the backing buffer starting at the position
+      of the first vertex. Consecutive positions are {@link
+      VertexLayout#getStride stride} floats apart. */
+  public FloatBuffer getPositionData() {
+    return getData();
+  }
+
+  /** Returns a view of the backing buffer starting at the normal of
+      the first vertex, or null if the layout has no normals. */
+  public FloatBuffer getNormalData() {
+    return view(layout.getNormalOffset());
+  }
+
+  /** Returns a view of the backing buffer starting at the texture
+      coordinate of the first vertex, or null if the layout has no
+      texture coordinates. */
+  public FloatBuffer getTexCoordData() {
+    return view(layout.getTexCoordOffset());
+  }
+
+  /** Returns a view of the backing buffer starting at the color of
+      the first vertex, or null if the layout has no colors. */
+  public FloatBuffer getColorData() {
+    return view(layout.getColorOffset());
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private static int offset(int offset, String attribute) {
+    if (offset < 0) {
+      throw new IllegalStateException("Vertex layout has no " + attribute);
+    }
+    return offset;
+  }
+
+  private void put3(int index, int offset, Vec3f value) {
+    checkIndex(index);
+    modified(index, index + 1);
+    int base = index * elementSize + offset;
+    FloatBuffer buf = data;
+    buf.put(base,     value.x());
+    buf.put(base + 1, value.y());
+    buf.put(base + 2, value.z());
+  }
+
+  private void get3(int index, int offset, Vec3f dest) {
+    checkIndex(index);
+    int base = index * elementSize + offset;
+    FloatBuffer buf = data;
+    dest.set(buf.get(base), buf.get(base + 1), buf.get(base + 2));
+  }
+
+  private FloatBuffer view(int offset) {
+    if (offset < 0) {
+      return null;
+    }
+    compact();
+    FloatBuffer buf = data;
+    if (buf.limit() == 0) {
+      return getData();
+    }
+    buf.position(offset);
+    FloatBuffer res = buf.slice();
+    buf.position(0);
+    return res;
+  }
+}
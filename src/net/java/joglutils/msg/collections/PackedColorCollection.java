@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.collections;
+
+import java.nio.ByteBuffer;
+
+import net.java.joglutils.msg.impl.BufferFactory;
+import net.java.joglutils.msg.impl.BufferScope;
+import net.java.joglutils.msg.math.Vec4f;
+
+/** A collection of RGBA colors packed into four unsigned bytes each,
+    a quarter of the size of a {@link Vec4fCollection}. Colors are
+    exchanged as ints of the form <CODE>0xAABBGGRR</CODE>, and stored
+    as the bytes R, G, B and A in that order regardless of the
+    platform's byte order, which is the layout OpenGL expects for
+    four-component colors of type <CODE>GL_UNSIGNED_BYTE</CODE>. */
+
+public class PackedColorCollection {
+  private static final int ELEMENT_SIZE = 4;
+
+  // Data is stored as a direct ByteBuffer; the limit is the number
+  // of bytes in use and the position is always 0
+  private ByteBuffer data;
+
+  /** Creates an empty PackedColorCollection. */
+  public PackedColorCollection() {
+    this(4);
+  }
+
+  /** Creates an empty PackedColorCollection with the backing store
+      sized to hold roughly the given number of colors. */
+  public PackedColorCollection(int estimatedSize) {
+    data = BufferFactory.newByteBuffer(ELEMENT_SIZE * estimatedSize);
+    data.limit(0);
+  }
+
+  /** Packs the given color components, each in [0..1], into an int
+      of the form <CODE>0xAABBGGRR</CODE>, clamping them if
+      necessary. */
+  public static int pack(float r, float g, float b, float a) {
+    return ((VertexFormat.toUnsignedByte(a) & 0xFF) << 24) |
+           ((VertexFormat.toUnsignedByte(b) & 0xFF) << 16) |
+           ((VertexFormat.toUnsignedByte(g) & 0xFF) <<  8) |
+            (VertexFormat.toUnsignedByte(r) & 0xFF);
+  }
+
+  /** Returns the number of colors currently in this collection. */
+  public int size() {
+    return data.limit() / ELEMENT_SIZE;
+  }
+
+  /** Returns the number of colors this collection can hold before its
+      backing store must be reallocated. */
+  public int capacity() {
+    return data.capacity() / ELEMENT_SIZE;
+  }
+
+  /** Makes sure this collection can hold at least the given number of
+      colors without reallocating its backing store. */
+  public void ensureCapacity(int numElements) {
+    if (numElements > capacity()) {
+      reallocate(Math.max(numElements, 2 * capacity()));
+    }
+  }
+
+  /** Stores the given packed color at the given index. If the
+      collection has not grown to the given size, throws an
+      exception. */
+  public void set(int index, int abgr) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    put(index * ELEMENT_SIZE, abgr);
+  }
+
+  /** Stores the given color, with components in [0..1], at the given
+      index. If the collection has not grown to the given size,
+      throws an exception. */
+  public void set(int index, Vec4f value) throws IndexOutOfBoundsException {
+    set(index, pack(value.x(), value.y(), value.z(), value.w()));
+  }
+
+  /** Fetches the packed color at the given index. If the collection
+      has not grown to the given size, throws an exception. */
+  public int getPacked(int index) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    int base = index * ELEMENT_SIZE;
+    ByteBuffer buf = data;
+    return ((buf.get(base + 3) & 0xFF) << 24) |
+           ((buf.get(base + 2) & 0xFF) << 16) |
+           ((buf.get(base + 1) & 0xFF) <<  8) |
+            (buf.get(base)     & 0xFF);
+  }
+
+  /** Fetches the color at the given index as a Vec4f. If the
+      collection has not grown to the given size, throws an
+      exception. */
+  public Vec4f get(int index) throws IndexOutOfBoundsException {
+    Vec4f res = new Vec4f();
+    get(index, res);
+    return res;
+  }
+
+  /** Fetches the color at the given index into the given vector
+      without allocating. If the collection has not grown to the given
+      size, throws an exception. */
+  public void get(int index, Vec4f dest) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    int base = index * ELEMENT_SIZE;
+    ByteBuffer buf = data;
+    dest.set(VertexFormat.fromUnsignedByte(buf.get(base)),
+             VertexFormat.fromUnsignedByte(buf.get(base + 1)),
+             VertexFormat.fromUnsignedByte(buf.get(base + 2)),
+             VertexFormat.fromUnsignedByte(buf.get(base + 3)));
+  }
+
+  /** Adds the given packed color to this collection, expanding it if
+      necessary. */
+  public void add(int abgr) {
+    ByteBuffer buf = data;
+    int pos = buf.limit();
+    if (pos == buf.capacity()) {
+      ensureCapacity(pos / ELEMENT_SIZE + 1);
+      buf = data;
+    }
+    buf.limit(pos + ELEMENT_SIZE);
+    put(pos, abgr);
+  }
+
+  /** Adds the given color, with components in [0..1], to this
+      collection, expanding it if necessary. */
+  public void add(Vec4f value) {
+    add(pack(value.x(), value.y(), value.z(), value.w()));
+  }
+
+  /** Appends <CODE>len</CODE> packed colors from the given array,
+      starting at <CODE>off</CODE>, to this collection. */
+  public void addAll(int[] src, int off, int len) {
+    ensureCapacity(size() + len);
+    for (int i = 0; i < len; i++) {
+      add(src[off + i]);
+    }
+  }
+
+  /** Removes all colors from this collection without releasing its
+      backing store. */
+  public void clear() {
+    data.limit(0);
+  }
+
+  /** Releases the backing store of this collection back to the
+      BufferFactory immediately. The collection is left empty and may
+      be used again. Buffers previously returned from {@link #getData
+      getData} must no longer be used. */
+  public void dispose() {
+    ByteBuffer buf = data;
+    data = BufferFactory.newByteBuffer(0);
+    BufferFactory.release(buf);
+  }
+
+  /** Removes the backing store of this collection from the {@link
+      BufferScope BufferScope} which would release it, so that the
+      collection outlives the scope it was created in. Returns false
+      if no scope open on the current thread holds the store. */
+  public boolean keepStore() {
+    return BufferScope.exclude(data);
+  }
+
+  /** Returns the backing buffer of this collection. Once this
+      collection has reallocated its backing store, which may happen
+      whenever it grows, the returned buffer no longer reflects its
+      contents, but remains safe to read until {@link #dispose
+      dispose} is called. */
+  public ByteBuffer getData() {
+    ByteBuffer buf = data;
+    buf.position(0);
+    return buf.slice();
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private void put(int base, int abgr) {
+    ByteBuffer buf = data;
+    buf.put(base,     (byte) abgr);
+    buf.put(base + 1, (byte) (abgr >>> 8));
+    buf.put(base + 2, (byte) (abgr >>> 16));
+    buf.put(base + 3, (byte) (abgr >>> 24));
+  }
+
+  private void checkIndex(int index) throws IndexOutOfBoundsException {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("" + index + " >= " + size());
+    }
+  }
+
+  private void reallocate(int numElements) {
+    ByteBuffer buf = data;
+    ByteBuffer newBuf = BufferFactory.newByteBuffer(numElements * ELEMENT_SIZE);
+    buf.position(0);
+    newBuf.put(buf);
+    newBuf.flip();
+    data = newBuf;
+    BufferScope.replace(buf, newBuf);
+    // Views of the old store may still be in use, so leave it to the
+    // garbage collector
+    BufferFactory.abandon(buf);
+  }
+}
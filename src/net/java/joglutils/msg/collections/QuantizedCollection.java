@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.collections;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import net.java.joglutils.msg.impl.BufferFactory;
+import net.java.joglutils.msg.impl.BufferScope;
+
+/** The common base class of the collections of vectors stored in a
+    compact 16-bit format, either {@link VertexFormat#HALF_FLOAT
+    HALF_FLOAT} or {@link VertexFormat#NORMALIZED_SHORT
+    NORMALIZED_SHORT}. Each component is stored as a value
+    <CODE>n</CODE> such that the component is <CODE>offset + scale *
+    n</CODE>, where the scale and offset are fixed per collection and
+    per component. For normalized shorts <CODE>n</CODE> lies in
+    [-1..1], so the scale and offset are typically chosen from the
+    bounds of the data; half floats need no scale and offset but lose
+    precision for large values. Elements may be padded to keep them
+    aligned, so the distance between them in bytes is given by {@link
+    #getStrideInBytes getStrideInBytes}. <P>
+
+    Every modification increments a {@link #getModificationCount
+    modification count}, so that caches derived from the contents,
+    such as bounds and picking acceleration structures, can tell
+    whether they have changed. */
+
+public abstract class QuantizedCollection {
+  // Data is stored as a direct ShortBuffer; the limit is the number
+  // of shorts in use and the position is always 0
+  ShortBuffer data;
+
+  // The number of components in each vector, and the number of
+  // shorts each element occupies including any padding
+  final int numComponents;
+  final int elementSize;
+  final int format;
+  // Per-component scale and offset
+  final float[] scale;
+  final float[] offset;
+  // The scale from stored values to n, which is 1 for half floats
+  private final float unit;
+
+  // Incremented on every modification of the contents
+  private long modCount;
+
+  // The view most recently returned from getData and the backing
+  // store it was sliced from; reused while the backing store and
+  // size stay the same
+  private ShortBuffer view;
+  private ShortBuffer viewSource;
+
+  // The contents decoded to floats by getDecodedData, or null, and
+  // the modification count they were decoded at
+  private FloatBuffer decoded;
+  private long decodedModCount;
+
+  /** Creates an empty collection in the given format with the given
+      per-component scale and offset, and its backing store sized to
+      hold roughly the given number of elements. */
+  protected QuantizedCollection(int numComponents, int elementSize, int format,
+                                float[] scale, float[] offset, int estimatedSize) {
+    if (format != VertexFormat.HALF_FLOAT && format != VertexFormat.NORMALIZED_SHORT) {
+      throw new IllegalArgumentException("Illegal quantized vertex format " + format);
+    }
+    this.numComponents = numComponents;
+    this.elementSize = elementSize;
+    this.format = format;
+    this.scale = scale;
+    this.offset = offset;
+    unit = (format == VertexFormat.NORMALIZED_SHORT) ? 1.0f / VertexFormat.SHORT_SCALE : 1.0f;
+    data = BufferFactory.newShortBuffer(elementSize * estimatedSize);
+    data.limit(0);
+  }
+
+  /** Returns the format of the data in this collection, either
+      HALF_FLOAT or NORMALIZED_SHORT. */
+  public int getFormat() {
+    return format;
+  }
+
+  /** Returns the distance in bytes between consecutive elements in
+      the buffer returned by {@link #getData getData}. */
+  public int getStrideInBytes() {
+    return 2 * elementSize;
+  }
+
+  /** Returns the factor by which the raw stored values must be
+      multiplied to produce the normalized value <CODE>n</CODE>:
+      1/32767 for normalized shorts and 1 for half floats. OpenGL's
+      fixed-function pipeline does not normalize shorts in vertex and
+      texture coordinate arrays, so renderers apply this factor,
+      along with the scale and offset, using a transformation
+      matrix. */
+  public float getUnit() {
+    return unit;
+  }
+
+  /** Returns the number of elements currently in this collection. */
+  public int size() {
+    return data.limit() / elementSize;
+  }
+
+  /** Returns the number of elements this collection can hold before
+      its backing store must be reallocated. */
+  public int capacity() {
+    return data.capacity() / elementSize;
+  }
+
+  /** Makes sure this collection can hold at least the given number of
+      elements without reallocating its backing store. */
+  public void ensureCapacity(int numElements) {
+    if (numElements > capacity()) {
+      reallocate(Math.max(numElements, 2 * capacity()));
+    }
+  }
+
+  /** Appends <CODE>len</CODE> floats from the given array, starting at
+      <CODE>off</CODE>, to this collection, encoding them in this
+      collection's format; <CODE>len</CODE> must be a multiple of the
+      number of components per vector. */
+  public void addAll(float[] src, int off, int len) {
+    if (len % numComponents != 0) {
+      throw new IllegalArgumentException("Length " + len + " is not a multiple of " + numComponents);
+    }
+    int count = len / numComponents;
+    ensureCapacity(size() + count);
+    for (int i = 0; i < count; i++) {
+      int base = grow();
+      for (int c = 0; c < numComponents; c++) {
+        encode(base, c, src[off++]);
+      }
+    }
+  }
+
+  /** Removes all elements from this collection without releasing its
+      backing store. */
+  public void clear() {
+    data.limit(0);
+    ++modCount;
+  }
+
+  /** Releases the backing store of this collection back to the
+      BufferFactory immediately. The collection is left empty and may
+      be used again. Buffers previously returned from {@link #getData
+      getData} must no longer be used. */
+  public void dispose() {
+    ShortBuffer buf = data;
+    data = BufferFactory.newShortBuffer(0);
+    BufferFactory.release(buf);
+    if (decoded != null) {
+      BufferFactory.release(decoded);
+      decoded = null;
+    }
+    clear();
+  }
+
+  /** Removes the backing store of this collection from the {@link
+      BufferScope BufferScope} which would release it, so that the
+      collection outlives the scope it was created in. Returns false
+      if no scope open on the current thread holds the store. */
+  public boolean keepStore() {
+    if (decoded != null) {
+      BufferScope.exclude(decoded);
+    }
+    return BufferScope.exclude(data);
+  }
+
+  /** Returns the backing buffer of this collection, which holds the
+      encoded elements {@link #getStrideInBytes getStrideInBytes()}
+      bytes apart. Once this collection has reallocated its backing
+      store, which may happen whenever it grows, the returned buffer
+      no longer reflects its contents, but remains safe to read until
+      {@link #dispose dispose} is called. The same buffer is returned
+      until the size or backing store of this collection changes.
+      Writes made through it are not recorded as modifications. */
+  public ShortBuffer getData() {
+    ShortBuffer buf = data;
+    ShortBuffer res = view;
+    if (res == null || viewSource != buf || res.capacity() != buf.limit()) {
+      buf.position(0);
+      res = buf.slice();
+      view = res;
+      viewSource = buf;
+    }
+    res.clear();
+    return res;
+  }
+
+  /** Returns the contents of this collection decoded to 32-bit
+      floats, with the scale and offset applied, packed without
+      padding. Renderers use it in place of {@link #getData getData}
+      when the OpenGL implementation can't read the stored format, as
+      with half floats before OpenGL 3.0. The decoded buffer is kept
+      and only decoded again after the collection has been modified;
+      like the buffer returned from getData, it remains safe to read
+      until {@link #dispose dispose} is called. */
+  public FloatBuffer getDecodedData() {
+    int n = size() * numComponents;
+    FloatBuffer res = decoded;
+    if (res != null && decodedModCount == modCount && res.limit() == n) {
+      res.position(0);
+      return res;
+    }
+    if (res == null || res.capacity() < n) {
+      FloatBuffer old = res;
+      res = BufferFactory.newFloatBuffer(n);
+      // Released by the same scope as the backing store
+      if (old == null) {
+        BufferScope.attach(res, data);
+      } else {
+        BufferScope.replace(old, res);
+        // The old buffer may still be referenced by the OpenGL state
+        BufferFactory.abandon(old);
+      }
+      decoded = res;
+    }
+    res.clear();
+    for (int base = 0, i = 0; i < n; base += elementSize) {
+      for (int c = 0; c < numComponents; c++) {
+        res.put(i++, decode(base, c));
+      }
+    }
+    res.limit(n);
+    decodedModCount = modCount;
+    return res;
+  }
+
+  /** Returns the number of modifications made to this collection
+      since it was created. The count increases whenever elements are
+      added or overwritten or the collection is cleared, so a consumer
+      which remembers it can later tell whether the contents have
+      changed. */
+  public long getModificationCount() {
+    return modCount;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  // Makes room for one more element and returns the short offset at
+  // which it should be stored
+  final int grow() {
+    ShortBuffer buf = data;
+    int pos = buf.limit();
+    if (pos == buf.capacity()) {
+      ensureCapacity(pos / elementSize + 1);
+      buf = data;
+    }
+    buf.limit(pos + elementSize);
+    // Clear any padding
+    for (int i = numComponents; i < elementSize; i++) {
+      buf.put(pos + i, (short) 0);
+    }
+    return pos;
+  }
+
+  final void checkIndex(int index) throws IndexOutOfBoundsException {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("" + index + " >= " + size());
+    }
+  }
+
+  // Encodes the given value of the given component at the given
+  // short offset
+  final void encode(int base, int component, float value) {
+    float s = scale[component];
+    float n = (s == 0) ? 0 : (value - offset[component]) / s;
+    ++modCount;
+    data.put(base + component, (format == VertexFormat.NORMALIZED_SHORT) ?
+             VertexFormat.toNormalizedShort(n) : VertexFormat.toHalf(n));
+  }
+
+  // Decodes the given component at the given short offset
+  final float decode(int base, int component) {
+    short v = data.get(base + component);
+    float n = (format == VertexFormat.NORMALIZED_SHORT) ?
+      VertexFormat.fromNormalizedShort(v) : VertexFormat.fromHalf(v);
+    return offset[component] + scale[component] * n;
+  }
+
+  private void reallocate(int numElements) {
+    ShortBuffer buf = data;
+    ShortBuffer newBuf = BufferFactory.newShortBuffer(numElements * elementSize);
+    buf.position(0);
+    newBuf.put(buf);
+    newBuf.flip();
+    data = newBuf;
+    BufferScope.replace(buf, newBuf);
+    // Views of the old store may still be in use, so leave it to the
+    // garbage collector
+    BufferFactory.abandon(buf);
+  }
+}
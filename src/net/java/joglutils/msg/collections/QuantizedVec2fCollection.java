@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.collections;
+
+import net.java.joglutils.msg.math.Vec2f;
+
+/** A collection of Vec2f objects stored in a compact 16-bit format,
+    typically texture coordinates. Elements are tightly packed, four
+    bytes apart. */
+
+public class QuantizedVec2fCollection extends QuantizedCollection {
+  private static final int NUM_COMPONENTS = 2;
+  private static final int ELEMENT_SIZE = 2;
+
+  private final Vec2f scaleVec;
+  private final Vec2f offsetVec;
+
+  /** Creates an empty collection which stores normalized shorts
+      spanning [0..1] in each component, the usual range of texture
+      coordinates. */
+  public QuantizedVec2fCollection() {
+    this(new Vec2f(0, 0), new Vec2f(1, 1), 4);
+  }
+
+  /** Creates an empty collection which stores normalized shorts
+      spanning the given bounds, with the backing store sized to hold
+      roughly the given number of vectors; coordinates added later
+      must lie within the bounds, or they are clamped. */
+  public QuantizedVec2fCollection(Vec2f min, Vec2f max, int estimatedSize) {
+    this(VertexFormat.NORMALIZED_SHORT,
+         new Vec2f(0.5f * (max.x() - min.x()), 0.5f * (max.y() - min.y())),
+         new Vec2f(0.5f * (max.x() + min.x()), 0.5f * (max.y() + min.y())),
+         estimatedSize);
+  }
+
+  /** Creates an empty collection in the given format, either
+      HALF_FLOAT or NORMALIZED_SHORT, where each component is stored
+      as a value <CODE>n</CODE> such that the component is
+      <CODE>offset + scale * n</CODE>. */
+  public QuantizedVec2fCollection(int format, Vec2f scale, Vec2f offset, int estimatedSize) {
+    super(NUM_COMPONENTS, ELEMENT_SIZE, format,
+          new float[] { scale.x(), scale.y() },
+          new float[] { offset.x(), offset.y() },
+          estimatedSize);
+    scaleVec = new Vec2f(scale);
+    offsetVec = new Vec2f(offset);
+  }
+
+  /** Returns the per-component scale of this collection. The
+      returned vector must not be modified. */
+  public Vec2f getScale() {
+    return scaleVec;
+  }
+
+  /** Returns the per-component offset of this collection. The
+      returned vector must not be modified. */
+  public Vec2f getOffset() {
+    return offsetVec;
+  }
+
+  /** Stores the given Vec2f at the given index. If the collection has
+      not grown to the given size, throws an exception. */
+  public void set(int index, Vec2f value) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    int base = index * ELEMENT_SIZE;
+    encode(base, 0, value.x());
+    encode(base, 1, value.y());
+  }
+
+  /** Fetches the Vec2f at the given index. If the collection has not
+      grown to the given size, throws an exception. */
+  public Vec2f get(int index) throws IndexOutOfBoundsException {
+    Vec2f res = new Vec2f();
+    get(index, res);
+    return res;
+  }
+
+  /** Fetches the Vec2f at the given index into the given vector
+      without allocating. If the collection has not grown to the
+      given size, throws an exception. */
+  public void get(int index, Vec2f dest) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    int base = index * ELEMENT_SIZE;
+    dest.set(decode(base, 0), decode(base, 1));
+  }
+
+  /** Adds the given Vec2f to this collection, expanding it if
+      necessary. */
+  public void add(Vec2f value) {
+    int base = grow();
+    encode(base, 0, value.x());
+    encode(base, 1, value.y());
+  }
+}
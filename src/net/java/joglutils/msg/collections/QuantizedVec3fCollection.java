@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.collections;
+
+import net.java.joglutils.msg.math.Vec3f;
+
+/** A collection of Vec3f objects stored in a compact 16-bit format,
+    typically vertex positions. Each element occupies four shorts, the
+    last of which is padding, so that elements are 8-byte aligned.
+    Positions stored as normalized shorts keep a precision of roughly
+    1/65535 of the extent of the bounds they were quantized against;
+    half floats keep 11 significant bits relative to their
+    magnitude. */
+
+public class QuantizedVec3fCollection extends QuantizedCollection {
+  private static final int NUM_COMPONENTS = 3;
+  private static final int ELEMENT_SIZE = 4;
+
+  private final Vec3f scaleVec;
+  private final Vec3f offsetVec;
+
+  /** Creates an empty collection which stores the components directly
+      as half floats. */
+  public QuantizedVec3fCollection() {
+    this(VertexFormat.HALF_FLOAT, new Vec3f(1, 1, 1), new Vec3f(), 4);
+  }
+
+  /** Creates an empty collection which stores normalized shorts
+      spanning the given bounds; coordinates added later must lie
+      within them, or they are clamped. */
+  public QuantizedVec3fCollection(Vec3f min, Vec3f max) {
+    this(min, max, 4);
+  }
+
+  /** Creates an empty collection which stores normalized shorts
+      spanning the given bounds, with the backing store sized to hold
+      roughly the given number of vectors. */
+  public QuantizedVec3fCollection(Vec3f min, Vec3f max, int estimatedSize) {
+    this(VertexFormat.NORMALIZED_SHORT,
+         new Vec3f(0.5f * (max.x() - min.x()), 0.5f * (max.y() - min.y()), 0.5f * (max.z() - min.z())),
+         new Vec3f(0.5f * (max.x() + min.x()), 0.5f * (max.y() + min.y()), 0.5f * (max.z() + min.z())),
+         estimatedSize);
+  }
+
+  /** Creates an empty collection in the given format, either
+      HALF_FLOAT or NORMALIZED_SHORT, where each component is stored
+      as a value <CODE>n</CODE> such that the component is
+      <CODE>offset + scale * n</CODE>. */
+  public QuantizedVec3fCollection(int format, Vec3f scale, Vec3f offset, int estimatedSize) {
+    super(NUM_COMPONENTS, ELEMENT_SIZE, format,
+          new float[] { scale.x(), scale.y(), scale.z() },
+          new float[] { offset.x(), offset.y(), offset.z() },
+          estimatedSize);
+    scaleVec = new Vec3f(scale);
+    offsetVec = new Vec3f(offset);
+  }
+
+  /** Creates a collection of normalized shorts holding the contents
+      of the given collection, quantized against their bounds. */
+  public QuantizedVec3fCollection(Vec3fCollection src) {
+    this(bound(src, true), bound(src, false), src.size());
+    Vec3f tmp = new Vec3f();
+    for (int i = 0, n = src.size(); i < n; i++) {
+      src.get(i, tmp);
+      add(tmp);
+    }
+  }
+
+  /** Returns the per-component scale of this collection. The
+      returned vector must not be modified. */
+  public Vec3f getScale() {
+    return scaleVec;
+  }
+
+  /** Returns the per-component offset of this collection. The
+      returned vector must not be modified. */
+  public Vec3f getOffset() {
+    return offsetVec;
+  }
+
+  /** Stores the given Vec3f at the given index. If the collection has
+      not grown to the given size, throws an exception. */
+  public void set(int index, Vec3f value) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    encode(index * ELEMENT_SIZE, value);
+  }
+
+  /** Fetches the Vec3f at the given index. If the collection has not
+      grown to the given size, throws an exception. */
+  public Vec3f get(int index) throws IndexOutOfBoundsException {
+    Vec3f res = new Vec3f();
+    get(index, res);
+    return res;
+  }
+
+  /** Fetches the Vec3f at the given index into the given vector
+      without allocating. If the collection has not grown to the
+      given size, throws an exception. */
+  public void get(int index, Vec3f dest) throws IndexOutOfBoundsException {
+    checkIndex(index);
+    int base = index * ELEMENT_SIZE;
+    dest.set(decode(base, 0), decode(base, 1), decode(base, 2));
+  }
+
+  /** Adds the given Vec3f to this collection, expanding it if
+      necessary. */
+  public void add(Vec3f value) {
+    encode(grow(), value);
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private void encode(int base, Vec3f value) {
+    encode(base, 0, value.x());
+    encode(base, 1, value.y());
+    encode(base, 2, value.z());
+  }
+
+  private static Vec3f bound(Vec3fCollection src, boolean min) {
+    Vec3f res = new Vec3f();
+    Vec3f tmp = new Vec3f();
+    for (int i = 0, n = src.size(); i < n; i++) {
+      src.get(i, tmp);
+      if (i == 0) {
+        res.set(tmp);
+      } else {
+        for (int c = 0; c < 3; c++) {
+          res.set(c, min ? Math.min(res.get(c), tmp.get(c)) : Math.max(res.get(c), tmp.get(c)));
+        }
+      }
+    }
+    return res;
+  }
+}
@@ -39,17 +39,13 @@ package net.java.joglutils.msg.collections;
 
 import java.nio.FloatBuffer;
 
-import net.java.joglutils.msg.impl.BufferFactory;
 import net.java.joglutils.msg.math.Vec2f;
 
 /** Provides the abstraction of a collection of Vec2f objects while
     allowing access to the backing store in the form of a direct
     FloatBuffer to make it easy to pass down to OpenGL. */
 
-public class Vec2fCollection {
-  // Data is stored as a direct FloatBuffer
-  private FloatBuffer data;
-
+public class Vec2fCollection extends FloatCollection {
   private static final int ELEMENT_SIZE = 2;
 
   /** Creates an empty Vec2fCollection. */
@@ -61,21 +57,23 @@ public class Vec2fCollection {
   /** Creates an empty Vec2fCollection with the backing store sized to
       hold roughly the given number of vectors. */
   public Vec2fCollection(int estimatedSize) {
-    data = BufferFactory.newFloatBuffer(ELEMENT_SIZE * estimatedSize);
-    data.limit(0);
+    super(ELEMENT_SIZE, estimatedSize);
   }
 
-  /** Returns the number of Vec2fs currently in this collection. */
-  public int size() {
-    return data.limit() / ELEMENT_SIZE;
+  /** Creates a Vec2fCollection which uses the given buffer as its
+      backing store without copying it. The remaining elements of the
+      buffer, which must be a multiple of 2, become the contents of
+      the collection. The buffer should be direct, and in the native
+      byte order, in order to be passed to OpenGL. */
+  public Vec2fCollection(FloatBuffer data) {
+    super(ELEMENT_SIZE, data);
   }
 
   /** Stores the given Vec2f at the given index. If the collection has
       not grown to the given size, throws an exception. */
   public void set(int index, Vec2f value) throws IndexOutOfBoundsException {
-    if (index >= size()) {
-      throw new IndexOutOfBoundsException("" + index + " >= " + size());
-    }
+    checkIndex(index);
+    modified(index, index + 1);
     int base = index * ELEMENT_SIZE;
     FloatBuffer buf = data;
     buf.put(base,     value.x());
@@ -85,71 +83,36 @@ public class Vec2fCollection {
   /** Fetches the Vec2f at the given index. If the collection has not
       grown to the given size, throws an exception. */
   public Vec2f get(int index) throws IndexOutOfBoundsException {
-    if (index >= size()) {
-      throw new IndexOutOfBoundsException("" + index + " >= " + size());
-    }
+    Vec2f res = new Vec2f();
+    get(index, res);
+    return res;
+  }
+
+  /** Fetches the Vec2f at the given index into the given vector
+      without allocating. If the collection has not grown to the
+      given size, throws an exception. */
+  public void get(int index, Vec2f dest) throws IndexOutOfBoundsException {
+    checkIndex(index);
     int base = index * ELEMENT_SIZE;
-    // Note: could use a small pool of Vec2fs here if allocation rate
-    // is an issue. However, escape analysis should eventually take
-    // care of this.
     FloatBuffer buf = data;
-    return new Vec2f(buf.get(base), buf.get(base + 1));
+    dest.set(buf.get(base), buf.get(base + 1));
   }
 
   /** Adds the given Vec2f to this collection, expanding it if
       necessary. */
   public void add(Vec2f value) {
+    int base = grow();
     FloatBuffer buf = data;
-    if (buf.limit() == buf.capacity()) {
-      FloatBuffer newBuf = BufferFactory.newFloatBuffer(Math.max(buf.capacity() + ELEMENT_SIZE,
-                                                                 round((int) (buf.capacity() * 1.5f))));
-      newBuf.put(buf);
-      newBuf.rewind();
-      newBuf.limit(buf.limit());
-      data = newBuf;
-      buf = newBuf;
-    }
-    int pos = buf.limit();
-    buf.limit(pos + ELEMENT_SIZE);
-    buf.put(pos,     value.x());
-    buf.put(pos + 1, value.y());
+    buf.put(base,     value.x());
+    buf.put(base + 1, value.y());
   }
 
   /** Removes the given Vec2f from this collection. Moves all Vec2fs
-      above it down one slot. */
+      above it down one slot, unless the collection is in compacting
+      mode, in which case the Vec2f is only marked as removed. */
   public Vec2f remove(int index) throws IndexOutOfBoundsException {
-    if (index >= size()) {
-      throw new IndexOutOfBoundsException("" + index + " >= " + size());
-    }
-    FloatBuffer buf = data;
-    int pos = index * ELEMENT_SIZE;
-    Vec2f res = new Vec2f(buf.get(pos), buf.get(pos + 1));
-    if (index == size() - 1) {
-      // Simply lower the limit
-      buf.limit(buf.limit() - ELEMENT_SIZE);
-    } else {
-      buf.position(pos + ELEMENT_SIZE);
-      FloatBuffer rest = buf.slice();
-      buf.position(pos);
-      buf.put(rest);
-      buf.limit(buf.limit() - ELEMENT_SIZE);
-      buf.rewind();
-    }
+    Vec2f res = get(index);
+    removeElements(index, 1);
     return res;
   }
-  
-  /** Returns the backing buffer of this collection. */
-  public FloatBuffer getData() {
-    FloatBuffer buf = data;
-    buf.position(0);
-    return buf.slice();
-  }
-
-  //----------------------------------------------------------------------
-  // Internals only below this point
-  //
-
-  private static int round(int size) {
-    return size - (size % ELEMENT_SIZE);
-  }
 }
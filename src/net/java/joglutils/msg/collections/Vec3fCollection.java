@@ -39,17 +39,16 @@ package net.java.joglutils.msg.collections;
 
 import java.nio.FloatBuffer;
 
-import net.java.joglutils.msg.impl.BufferFactory;
+import net.java.joglutils.msg.math.Mat4f;
+import net.java.joglutils.msg.math.SingularMatrixException;
+import net.java.joglutils.msg.math.Vec3Array;
 import net.java.joglutils.msg.math.Vec3f;
 
 /** Provides the abstraction of a collection of Vec3f objects while
     allowing access to the backing store in the form of a direct
     FloatBuffer to make it easy to pass down to OpenGL. */
 
-public class Vec3fCollection {
-  // Data is stored as a direct FloatBuffer
-  private FloatBuffer data;
-
+public class Vec3fCollection extends FloatCollection {
   private static final int ELEMENT_SIZE = 3;
 
   /** Creates an empty Vec3fCollection. */
@@ -61,21 +60,23 @@ public class Vec3fCollection {
   /** Creates an empty Vec3fCollection with the backing store sized to
       hold roughly the given number of vectors. */
   public Vec3fCollection(int estimatedSize) {
-    data = BufferFactory.newFloatBuffer(ELEMENT_SIZE * estimatedSize);
-    data.limit(0);
+    super(ELEMENT_SIZE, estimatedSize);
   }
 
-  /** Returns the number of Vec3fs currently in this collection. */
-  public int size() {
-    return data.limit() / ELEMENT_SIZE;
+  /** Creates a Vec3fCollection which uses the given buffer as its
+      backing store without copying it. The remaining elements of the
+      buffer, which must be a multiple of 3, become the contents of
+      the collection. The buffer should be direct, and in the native
+      byte order, in order to be passed to OpenGL. */
+  public Vec3fCollection(FloatBuffer data) {
+    super(ELEMENT_SIZE, data);
   }
 
   /** Stores the given Vec3f at the given index. If the collection has
       not grown to the given size, throws an exception. */
   public void set(int index, Vec3f value) throws IndexOutOfBoundsException {
-    if (index >= size()) {
-      throw new IndexOutOfBoundsException("" + index + " >= " + size());
-    }
+    checkIndex(index);
+    modified(index, index + 1);
     int base = index * ELEMENT_SIZE;
     FloatBuffer buf = data;
     buf.put(base,     value.x());
@@ -86,72 +87,95 @@ public class Vec3fCollection {
   /** Fetches the Vec3f at the given index. If the collection has not
       grown to the given size, throws an exception. */
   public Vec3f get(int index) throws IndexOutOfBoundsException {
-    if (index >= size()) {
-      throw new IndexOutOfBoundsException("" + index + " >= " + size());
-    }
+    Vec3f res = new Vec3f();
+    get(index, res);
+    return res;
+  }
+
+  /** Fetches the Vec3f at the given index into the given vector
+      without allocating. If the collection has not grown to the
+      given size, throws an exception. */
+  public void get(int index, Vec3f dest) throws IndexOutOfBoundsException {
+    checkIndex(index);
     int base = index * ELEMENT_SIZE;
-    // Note: could use a small pool of Vec3fs here if allocation rate
-    // is an issue. However, escape analysis should eventually take
-    // care of this.
     FloatBuffer buf = data;
-    return new Vec3f(buf.get(base), buf.get(base + 1), buf.get(base + 2));
+    dest.set(buf.get(base), buf.get(base + 1), buf.get(base + 2));
   }
 
   /** Adds the given Vec3f to this collection, expanding it if
       necessary. */
   public void add(Vec3f value) {
+    int base = grow();
     FloatBuffer buf = data;
-    if (buf.limit() == buf.capacity()) {
-      FloatBuffer newBuf = BufferFactory.newFloatBuffer(Math.max(buf.capacity() + ELEMENT_SIZE,
-                                                                 round((int) (buf.capacity() * 1.5f))));
-      newBuf.put(buf);
-      newBuf.rewind();
-      newBuf.limit(buf.limit());
-      data = newBuf;
-      buf = newBuf;
-    }
-    int pos = buf.limit();
-    buf.limit(pos + ELEMENT_SIZE);
-    buf.put(pos,     value.x());
-    buf.put(pos + 1, value.y());
-    buf.put(pos + 2, value.z());
+    buf.put(base,     value.x());
+    buf.put(base + 1, value.y());
+    buf.put(base + 2, value.z());
   }
 
   /** Removes the given Vec3f from this collection. Moves all Vec3fs
-      above it down one slot. */
+      above it down one slot, unless the collection is in compacting
+      mode, in which case the Vec3f is only marked as removed. */
   public Vec3f remove(int index) throws IndexOutOfBoundsException {
-    if (index >= size()) {
-      throw new IndexOutOfBoundsException("" + index + " >= " + size());
-    }
-    FloatBuffer buf = data;
-    int pos = index * ELEMENT_SIZE;
-    Vec3f res = new Vec3f(buf.get(pos), buf.get(pos + 1), buf.get(pos + 2));
-    if (index == size() - 1) {
-      // Simply lower the limit
-      buf.limit(buf.limit() - ELEMENT_SIZE);
-    } else {
-      buf.position(pos + ELEMENT_SIZE);
-      FloatBuffer rest = buf.slice();
-      buf.position(pos);
-      buf.put(rest);
-      buf.limit(buf.limit() - ELEMENT_SIZE);
-      buf.rewind();
-    }
+    Vec3f res = get(index);
+    removeElements(index, 1);
     return res;
   }
-  
-  /** Returns the backing buffer of this collection. */
-  public FloatBuffer getData() {
+
+  /** Appends all of the vectors in the given structure-of-arrays
+      Vec3Array to this collection. */
+  public void addAll(Vec3Array src) {
+    int n = src.size();
+    int pos = data.limit();
+    ensureCapacity(pos / ELEMENT_SIZE + n);
     FloatBuffer buf = data;
-    buf.position(0);
-    return buf.slice();
+    buf.limit(pos + ELEMENT_SIZE * n);
+    src.getInterleaved(0, n, buf, pos);
+    modified(pos / ELEMENT_SIZE, pos / ELEMENT_SIZE + n);
+  }
+
+  /** Overwrites the elements starting at the given index with all of
+      the vectors in the given Vec3Array. All of the elements written
+      must already be present in the collection. */
+  public void setRange(int index, Vec3Array src) throws IndexOutOfBoundsException {
+    int n = src.size();
+    checkRange(index, n);
+    src.getInterleaved(0, n, data, ELEMENT_SIZE * index);
+    modified(index, index + n);
+  }
+
+  /** Copies as many elements as the given Vec3Array holds, starting
+      at the given index, into it. */
+  public void getRange(int index, Vec3Array dest) throws IndexOutOfBoundsException {
+    int n = dest.size();
+    checkRange(index, n);
+    dest.setInterleaved(0, n, data, ELEMENT_SIZE * index);
+  }
+
+  /** Transforms every Vec3f in this collection in place as a point by
+      the given matrix, which is assumed to be affine; for example, to
+      bake a transform into geometry. */
+  public void transformPoints(Mat4f mat) {
+    int n = size();
+    mat.transformPoints(data, 0, data, 0, n);
+    modified(0, n);
   }
 
-  //----------------------------------------------------------------------
-  // Internals only below this point
-  //
+  /** Transforms every Vec3f in this collection in place as a
+      direction by the upper left 3x3 of the given matrix. */
+  public void transformDirs(Mat4f mat) {
+    int n = size();
+    mat.transformDirs(data, 0, data, 0, n);
+    modified(0, n);
+  }
 
-  private static int round(int size) {
-    return size - (size % ELEMENT_SIZE);
+  /** Transforms every Vec3f in this collection in place as a surface
+      normal by the inverse transpose of the upper left 3x3 of the
+      given matrix. The results are not renormalized.
+      @throws SingularMatrixException if the upper left 3x3 is singular
+  */
+  public void transformNormals(Mat4f mat) throws SingularMatrixException {
+    int n = size();
+    mat.transformNormals(data, 0, data, 0, n);
+    modified(0, n);
   }
 }
@@ -39,17 +39,13 @@ package net.java.joglutils.msg.collections;
 
 import java.nio.FloatBuffer;
 
-import net.java.joglutils.msg.impl.BufferFactory;
 import net.java.joglutils.msg.math.Vec4f;
 
 /** Provides the abstraction of a collection of Vec4f objects while
     allowing access to the backing store in the form of a direct
     FloatBuffer to make it easy to pass down to OpenGL. */
 
-public class Vec4fCollection {
-  // Data is stored as a direct FloatBuffer
-  private FloatBuffer data;
-
+public class Vec4fCollection extends FloatCollection {
   private static final int ELEMENT_SIZE = 4;
 
   /** Creates an empty Vec4fCollection. */
@@ -61,21 +57,23 @@ public class Vec4fCollection {
   /** Creates an empty Vec4fCollection with the backing store sized to
       hold roughly the given number of vectors. */
   public Vec4fCollection(int estimatedSize) {
-    data = BufferFactory.newFloatBuffer(ELEMENT_SIZE * estimatedSize);
-    data.limit(0);
+    super(ELEMENT_SIZE, estimatedSize);
   }
 
-  /** Returns the number of Vec4fs currently in this collection. */
-  public int size() {
-    return data.limit() / ELEMENT_SIZE;
+  /** Creates a Vec4fCollection which uses the given buffer as its
+      backing store without copying it. The remaining elements of the
+      buffer, which must be a multiple of 4, become the contents of
+      the collection. The buffer should be direct, and in the native
+      byte order, in order to be passed to OpenGL. */
+  public Vec4fCollection(FloatBuffer data) {
+    super(ELEMENT_SIZE, data);
   }
 
   /** Stores the given Vec4f at the given index. If the collection has
       not grown to the given size, throws an exception. */
   public void set(int index, Vec4f value) throws IndexOutOfBoundsException {
-    if (index >= size()) {
-      throw new IndexOutOfBoundsException("" + index + " >= " + size());
-    }
+    checkIndex(index);
+    modified(index, index + 1);
     int base = index * ELEMENT_SIZE;
     FloatBuffer buf = data;
     buf.put(base,     value.x());
@@ -87,73 +85,38 @@ public class Vec4fCollection {
   /** Fetches the Vec4f at the given index. If the collection has not
       grown to the given size, throws an exception. */
   public Vec4f get(int index) throws IndexOutOfBoundsException {
-    if (index >= size()) {
-      throw new IndexOutOfBoundsException("" + index + " >= " + size());
-    }
+    Vec4f res = new Vec4f();
+    get(index, res);
+    return res;
+  }
+
+  /** Fetches the Vec4f at the given index into the given vector
+      without allocating. If the collection has not grown to the
+      given size, throws an exception. */
+  public void get(int index, Vec4f dest) throws IndexOutOfBoundsException {
+    checkIndex(index);
     int base = index * ELEMENT_SIZE;
-    // Note: could use a small pool of Vec4fs here if allocation rate
-    // is an issue. However, escape analysis should eventually take
-    // care of this.
     FloatBuffer buf = data;
-    return new Vec4f(buf.get(base), buf.get(base + 1), buf.get(base + 2), buf.get(base + 3));
+    dest.set(buf.get(base), buf.get(base + 1), buf.get(base + 2), buf.get(base + 3));
   }
 
   /** Adds the given Vec4f to this collection, expanding it if
       necessary. */
   public void add(Vec4f value) {
+    int base = grow();
     FloatBuffer buf = data;
-    if (buf.limit() == buf.capacity()) {
-      FloatBuffer newBuf = BufferFactory.newFloatBuffer(Math.max(buf.capacity() + ELEMENT_SIZE,
-                                                                 round((int) (buf.capacity() * 1.5f))));
-      newBuf.put(buf);
-      newBuf.rewind();
-      newBuf.limit(buf.limit());
-      data = newBuf;
-      buf = newBuf;
-    }
-    int pos = buf.limit();
-    buf.limit(pos + ELEMENT_SIZE);
-    buf.put(pos,     value.x());
-    buf.put(pos + 1, value.y());
-    buf.put(pos + 2, value.z());
-    buf.put(pos + 3, value.w());
+    buf.put(base,     value.x());
+    buf.put(base + 1, value.y());
+    buf.put(base + 2, value.z());
+    buf.put(base + 3, value.w());
   }
 
   /** Removes the given Vec4f from this collection. Moves all Vec4fs
-      above it down one slot. */
+      above it down one slot, unless the collection is in compacting
+      mode, in which case the Vec4f is only marked as removed. */
   public Vec4f remove(int index) throws IndexOutOfBoundsException {
-    if (index >= size()) {
-      throw new IndexOutOfBoundsException("" + index + " >= " + size());
-    }
-    FloatBuffer buf = data;
-    int pos = index * ELEMENT_SIZE;
-    Vec4f res = new Vec4f(buf.get(pos), buf.get(pos + 1), buf.get(pos + 2), buf.get(pos + 3));
-    if (index == size() - 1) {
-      // Simply lower the limit
-      buf.limit(buf.limit() - ELEMENT_SIZE);
-    } else {
-      buf.position(pos + ELEMENT_SIZE);
-      FloatBuffer rest = buf.slice();
-      buf.position(pos);
-      buf.put(rest);
-      buf.limit(buf.limit() - ELEMENT_SIZE);
-      buf.rewind();
-    }
+    Vec4f res = get(index);
+    removeElements(index, 1);
     return res;
   }
-  
-  /** Returns the backing buffer of this collection. */
-  public FloatBuffer getData() {
-    FloatBuffer buf = data;
-    buf.position(0);
-    return buf.slice();
-  }
-
-  //----------------------------------------------------------------------
-  // Internals only below this point
-  //
-
-  private static int round(int size) {
-    return size - (size % ELEMENT_SIZE);
-  }
 }
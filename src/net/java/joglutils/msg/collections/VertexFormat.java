@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.collections;
+
+/** Identifies the storage formats of vertex attributes, and converts
+    between them and floats. Collections in compact formats record
+    the format of their data so that it can be passed to OpenGL with
+    the right type and decoded on the CPU, for example for picking. */
+
+public class VertexFormat {
+  private VertexFormat() {}
+
+  /** 32-bit floats. */
+  public static final int FLOAT            = 1;
+  /** 16-bit IEEE half-precision floats. */
+  public static final int HALF_FLOAT       = 2;
+  /** Signed 16-bit integers representing values from -1 to 1. */
+  public static final int NORMALIZED_SHORT = 3;
+  /** Unsigned bytes representing values from 0 to 1. */
+  public static final int UNSIGNED_BYTE    = 4;
+
+  /** The scale between a NORMALIZED_SHORT and the value it represents. */
+  public static final float SHORT_SCALE = 32767.0f;
+
+  /** Returns the number of bytes per component in the given format. */
+  public static int getComponentSize(int format) {
+    switch (format) {
+      case FLOAT:            return 4;
+      case HALF_FLOAT:       return 2;
+      case NORMALIZED_SHORT: return 2;
+      case UNSIGNED_BYTE:    return 1;
+      default: throw new IllegalArgumentException("Illegal vertex format " + format);
+    }
+  }
+
+  /** Converts a normalized value in [-1..1] to a NORMALIZED_SHORT,
+      clamping it if necessary. */
+  public static short toNormalizedShort(float value) {
+    if (value >= 1.0f) return Short.MAX_VALUE;
+    if (value <= -1.0f) return -Short.MAX_VALUE;
+    return (short) Math.round(value * SHORT_SCALE);
+  }
+
+  /** Converts a NORMALIZED_SHORT to the value in [-1..1] it
+      represents. */
+  public static float fromNormalizedShort(short value) {
+    return Math.max(value / SHORT_SCALE, -1.0f);
+  }
+
+  /** Converts a float to the nearest half-precision float, returned
+      as its bit pattern. Values too large for half precision become
+      infinities. */
+  public static short toHalf(float value) {
+    int bits = Float.floatToRawIntBits(value);
+    int sign = (bits >>> 16) & 0x8000;
+    int exp = (bits >>> 23) & 0xff;
+    int mant = bits & 0x7fffff;
+    if (exp == 0xff) {
+      // Infinity or NaN
+      return (short) (sign | 0x7c00 | (mant != 0 ? 0x200 : 0));
+    }
+    int e = exp - 127 + 15;
+    if (e >= 0x1f) {
+      // Overflow
+      return (short) (sign | 0x7c00);
+    }
+    if (e <= 0) {
+      if (e < -10) {
+        // Underflows to zero
+        return (short) sign;
+      }
+      // Denormalized half; round to nearest, ties to even
+      mant |= 0x800000;
+      int shift = 14 - e;
+      int half = mant >> shift;
+      int rem = mant & ((1 << shift) - 1);
+      int mid = 1 << (shift - 1);
+      if (rem > mid || (rem == mid && (half & 1) != 0)) {
+        ++half;
+      }
+      return (short) (sign | half);
+    }
+    int half = (e << 10) | (mant >> 13);
+    int rem = mant & 0x1fff;
+    if (rem > 0x1000 || (rem == 0x1000 && (half & 1) != 0)) {
+      // May carry into the exponent, which correctly yields infinity
+      ++half;
+    }
+    return (short) (sign | half);
+  }
+
+  /** Converts the bit pattern of a half-precision float to a float. */
+  public static float fromHalf(short value) {
+    int h = value & 0xffff;
+    int sign = (h & 0x8000) << 16;
+    int exp = (h >>> 10) & 0x1f;
+    int mant = h & 0x3ff;
+    if (exp == 0) {
+      if (mant == 0) {
+        return Float.intBitsToFloat(sign);
+      }
+      // Denormalized; renormalize
+      exp = 1;
+      while ((mant & 0x400) == 0) {
+        mant <<= 1;
+        --exp;
+      }
+      mant &= 0x3ff;
+    } else if (exp == 0x1f) {
+      return Float.intBitsToFloat(sign | 0x7f800000 | (mant << 13));
+    }
+    return Float.intBitsToFloat(sign | ((exp - 15 + 127) << 23) | (mant << 13));
+  }
+
+  /** Converts an unsigned byte to the value in [0..1] it represents. */
+  public static float fromUnsignedByte(byte value) {
+    return (value & 0xff) / 255.0f;
+  }
+
+  /** Converts a value in [0..1] to an unsigned byte, clamping it if
+      necessary. */
+  public static byte toUnsignedByte(float value) {
+    if (value >= 1.0f) return (byte) 255;
+    if (value <= 0.0f) return 0;
+    return (byte) Math.round(value * 255.0f);
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.collections;
+
+/** Describes the layout of the vertices in an {@link
+    InterleavedVertexCollection}: which attributes are present, and
+    where each lies within a vertex. Every vertex has a 3-component
+    position; it may additionally have a 3-component normal, a
+    2-component texture coordinate and a 4-component (RGBA) color,
+    stored in that order. Offsets and strides are given in floats;
+    OpenGL expects strides in bytes, available from {@link
+    #getStrideInBytes getStrideInBytes}. */
+
+public class VertexLayout {
+  /** A layout with positions only. */
+  public static final VertexLayout POSITION = new VertexLayout(false, false, false);
+  /** A layout with positions and normals. */
+  public static final VertexLayout POSITION_NORMAL = new VertexLayout(true, false, false);
+  /** A layout with positions, normals and texture coordinates. */
+  public static final VertexLayout POSITION_NORMAL_TEXCOORD = new VertexLayout(true, true, false);
+  /** A layout with positions and texture coordinates. */
+  public static final VertexLayout POSITION_TEXCOORD = new VertexLayout(false, true, false);
+  /** A layout with positions and colors. */
+  public static final VertexLayout POSITION_COLOR = new VertexLayout(false, false, true);
+
+  private final int normalOffset;
+  private final int texCoordOffset;
+  private final int colorOffset;
+  private final int stride;
+
+  /** Creates a layout with a position and the given optional
+      attributes. */
+  public VertexLayout(boolean normals, boolean texCoords, boolean colors) {
+    int offset = 3;
+    normalOffset = normals ? offset : -1;
+    offset += normals ? 3 : 0;
+    texCoordOffset = texCoords ? offset : -1;
+    offset += texCoords ? 2 : 0;
+    colorOffset = colors ? offset : -1;
+    offset += colors ? 4 : 0;
+    stride = offset;
+  }
+
+  /** Returns the number of floats in each vertex. */
+  public int getStride() {
+    return stride;
+  }
+
+  /** Returns the number of bytes in each vertex. */
+  public int getStrideInBytes() {
+    return 4 * stride;
+  }
+
+  /** Returns the offset of the position within a vertex, which is
+      always 0. */
+  public int getPositionOffset() {
+    return 0;
+  }
+
+  /** Indicates whether the vertices have normals. */
+  public boolean hasNormals() {
+    return normalOffset >= 0;
+  }
+
+  /** Returns the offset of the normal within a vertex, or -1 if there
+      is none. */
+  public int getNormalOffset() {
+    return normalOffset;
+  }
+
+  /** Indicates whether the vertices have texture coordinates. */
+  public boolean hasTexCoords() {
+    return texCoordOffset >= 0;
+  }
+
+  /** Returns the offset of the texture coordinate within a vertex, or
+      -1 if there is none. */
+  public int getTexCoordOffset() {
+    return texCoordOffset;
+  }
+
+  /** Indicates whether the vertices have colors. */
+  public boolean hasColors() {
+    return colorOffset >= 0;
+  }
+
+  /** Returns the offset of the color within a vertex, or -1 if there
+      is none. */
+  public int getColorOffset() {
+    return colorOffset;
+  }
+
+  public boolean equals(Object arg) {
+    if (!(arg instanceof VertexLayout)) {
+      return false;
+    }
+    VertexLayout other = (VertexLayout) arg;
+    return (normalOffset == other.normalOffset &&
+            texCoordOffset == other.texCoordOffset &&
+            colorOffset == other.colorOffset);
+  }
+
+  public int hashCode() {
+    return (hasNormals() ? 1 : 0) | (hasTexCoords() ? 2 : 0) | (hasColors() ? 4 : 0);
+  }
+
+  public String toString() {
+    return "VertexLayout(position" +
+      (hasNormals()   ? ", normal"   : "") +
+      (hasTexCoords() ? ", texcoord" : "") +
+      (hasColors()    ? ", color"    : "") + ")";
+  }
+}
@@ -37,8 +37,10 @@
 
 package net.java.joglutils.msg.elements;
 
+import java.nio.Buffer;
 import java.nio.FloatBuffer;
 
+import net.java.joglutils.msg.collections.VertexFormat;
 import net.java.joglutils.msg.misc.State;
 import net.java.joglutils.msg.misc.StateIndex;
 
@@ -68,31 +70,91 @@ public class ColorElement extends Element {
     return (state.getDefaults().getElement(index) != null);
   }
 
-  // The actual color data
+  // The actual color data, if it is in floating-point format
   protected FloatBuffer colors;
+  // The color data in any format; the same as colors for floats
+  protected Buffer data;
+  // One of the constants in VertexFormat
+  protected int format = VertexFormat.FLOAT;
+  // The distance in bytes between consecutive elements, or 0 if tightly packed
+  protected int stride;
   // The color binding to material parameter (not yet implemented)
   protected int colorBinding;
 
   /** Sets the color data in the passed state. */
   public static void set(State state, FloatBuffer colors) {
-    getInstance(state).setElt(colors);
+    getInstance(state).setElt(colors, 0);
   }
 
-  /** Returns the color data in the passed state. */
+  /** Sets the color data in the passed state, where consecutive
+      elements are <CODE>stride</CODE> bytes apart within the buffer,
+      as for example in an interleaved vertex array. A stride of 0
+      indicates tightly packed data. */
+  public static void set(State state, FloatBuffer colors, int stride) {
+    getInstance(state).setElt(colors, stride);
+  }
+
+  /** Sets color data in any of the formats in {@link VertexFormat
+      VertexFormat} in the passed state; each stored value is
+      normalized according to its format. Packed RGBA colors, for
+      example, are passed as a ByteBuffer in the UNSIGNED_BYTE
+      format. */
+  public static void set(State state, Buffer data, int format, int stride) {
+    getInstance(state).setElt(data, format, stride);
+  }
+
+  /** Returns the color data in the passed state, or null if there is
+      none or it is not in floating-point format. */
   public static FloatBuffer get(State state) {
     return getInstance(state).colors;
   }
 
+  /** Returns the color data in the passed state in whatever format it
+      is stored. */
+  public static Buffer getData(State state) {
+    return getInstance(state).data;
+  }
+
+  /** Returns the format of the color data in the passed state, one of
+      the constants in {@link VertexFormat VertexFormat}. */
+  public static int getFormat(State state) {
+    return getInstance(state).format;
+  }
+
+  /** Returns the stride in bytes of the color data in the passed
+      state; 0 indicates tightly packed data. */
+  public static int getStride(State state) {
+    return getInstance(state).stride;
+  }
+
   public void push(State state) {
     ColorElement prev = (ColorElement) getNextInStack();
     if (prev != null) {
       // Pull down the data from the previous element
       colors = prev.colors;
+      data = prev.data;
+      format = prev.format;
+      stride = prev.stride;
     }
   }
 
   /** Sets the color data in this element. */
   public void setElt(FloatBuffer colors) {
-    this.colors = colors;
+    setElt(colors, 0);
+  }
+
+  /** Sets the color data and its stride in bytes in this element. */
+  public void setElt(FloatBuffer colors, int stride) {
+    setElt(colors, VertexFormat.FLOAT, stride);
+  }
+
+  /** Sets the color data in any format and its stride in bytes in
+      this element. */
+  public void setElt(Buffer data, int format, int stride) {
+    VertexFormat.getComponentSize(format);  // Validates the format
+    this.colors = (format == VertexFormat.FLOAT) ? (FloatBuffer) data : null;
+    this.data = data;
+    this.format = format;
+    this.stride = stride;
   }
 }
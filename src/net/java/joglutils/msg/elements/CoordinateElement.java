@@ -37,8 +37,11 @@
 
 package net.java.joglutils.msg.elements;
 
+import java.nio.Buffer;
 import java.nio.FloatBuffer;
 
+import net.java.joglutils.msg.collections.VertexFormat;
+import net.java.joglutils.msg.math.Vec3f;
 import net.java.joglutils.msg.misc.State;
 import net.java.joglutils.msg.misc.StateIndex;
 
@@ -68,29 +71,133 @@ public class CoordinateElement extends Element {
     return (state.getDefaults().getElement(index) != null);
   }
 
-  // The actual coordinate data
+  // The actual coordinate data, if it is in floating-point format
   protected FloatBuffer coords;
+  // The coordinate data in any format; the same as coords for floats
+  protected Buffer data;
+  // One of the constants in VertexFormat
+  protected int format = VertexFormat.FLOAT;
+  // The distance in bytes between consecutive elements, or 0 if tightly packed
+  protected int stride;
+  // For compact formats, maps the stored values to coordinates as
+  // offset + scale * value; null for identity
+  protected Vec3f scale;
+  protected Vec3f offset;
+  // The modification count of the collection the data came from, or
+  // 0 if unknown; lets caches derived from the data detect changes
+  protected long modificationCount;
 
   /** Sets the coordinate data in the passed state. */
   public static void set(State state, FloatBuffer coords) {
-    getInstance(state).setElt(coords);
+    getInstance(state).setElt(coords, 0);
   }
 
-  /** Returns the coordinate data in the passed state. */
+  /** Sets the coordinate data in the passed state, where consecutive
+      elements are <CODE>stride</CODE> bytes apart within the buffer,
+      as for example in an interleaved vertex array. A stride of 0
+      indicates tightly packed data. */
+  public static void set(State state, FloatBuffer coords, int stride) {
+    getInstance(state).setElt(coords, stride);
+  }
+
+  /** Sets coordinate data in any of the formats in {@link
+      VertexFormat VertexFormat} in the passed state. Each stored
+      value, normalized according to its format, is mapped to a
+      coordinate as <CODE>offset + scale * value</CODE>; either the
+      scale or the offset may be null to indicate 1 or 0,
+      respectively. The vectors are referenced, not copied. */
+  public static void set(State state, Buffer data, int format, int stride,
+                         Vec3f scale, Vec3f offset) {
+    getInstance(state).setElt(data, format, stride, scale, offset);
+  }
+
+  /** Returns the coordinate data in the passed state, or null if
+      there is none or it is not in floating-point format. */
   public static FloatBuffer get(State state) {
     return getInstance(state).coords;
   }
 
+  /** Returns the coordinate data in the passed state in whatever
+      format it is stored. */
+  public static Buffer getData(State state) {
+    return getInstance(state).data;
+  }
+
+  /** Returns the format of the coordinate data in the passed state,
+      one of the constants in {@link VertexFormat VertexFormat}. */
+  public static int getFormat(State state) {
+    return getInstance(state).format;
+  }
+
+  /** Returns the scale applied to the stored coordinate values in the
+      passed state, or null if there is none. */
+  public static Vec3f getScale(State state) {
+    return getInstance(state).scale;
+  }
+
+  /** Returns the offset applied to the stored coordinate values in
+      the passed state, or null if there is none. */
+  public static Vec3f getOffset(State state) {
+    return getInstance(state).offset;
+  }
+
+  /** Returns the stride in bytes of the coordinate data in the passed
+      state; 0 indicates tightly packed data. */
+  public static int getStride(State state) {
+    return getInstance(state).stride;
+  }
+
+  /** Records the modification count of the collection from which the
+      coordinate data in the passed state was taken, such as {@link
+      net.java.joglutils.msg.collections.FloatCollection#getModificationCount
+      FloatCollection.getModificationCount}. Caches derived from the
+      coordinates, such as a shape's picking acceleration structure,
+      compare it to detect changes made in place. Must be called after
+      the data is set, which resets it to 0. */
+  public static void setModificationCount(State state, long modificationCount) {
+    getInstance(state).modificationCount = modificationCount;
+  }
+
+  /** Returns the modification count of the coordinate data in the
+      passed state, or 0 if it is not known. */
+  public static long getModificationCount(State state) {
+    return getInstance(state).modificationCount;
+  }
+
   public void push(State state) {
     CoordinateElement prev = (CoordinateElement) getNextInStack();
     if (prev != null) {
       // Pull down the data from the previous element
       coords = prev.coords;
+      data = prev.data;
+      format = prev.format;
+      stride = prev.stride;
+      scale = prev.scale;
+      offset = prev.offset;
+      modificationCount = prev.modificationCount;
     }
   }
 
   /** Sets the coordinate data in this element. */
   public void setElt(FloatBuffer coords) {
-    this.coords = coords;
+    setElt(coords, 0);
+  }
+
+  /** Sets the coordinate data and its stride in bytes in this element. */
+  public void setElt(FloatBuffer coords, int stride) {
+    setElt(coords, VertexFormat.FLOAT, stride, null, null);
+  }
+
+  /** Sets the coordinate data in any format, its stride in bytes, and
+      the scale and offset applied to its values in this element. */
+  public void setElt(Buffer data, int format, int stride, Vec3f scale, Vec3f offset) {
+    VertexFormat.getComponentSize(format);  // Validates the format
+    this.coords = (format == VertexFormat.FLOAT) ? (FloatBuffer) data : null;
+    this.data = data;
+    this.format = format;
+    this.stride = stride;
+    this.scale = scale;
+    this.offset = offset;
+    this.modificationCount = 0;
   }
 }
@@ -37,7 +37,7 @@
 
 package net.java.joglutils.msg.elements;
 
-import java.nio.FloatBuffer;
+import java.nio.Buffer;
 
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.glu.GLU;
@@ -79,11 +79,23 @@ public class GLColorElement extends ColorElement {
     enabled = prev.enabled;
     // Put things back the way they were
     setEnabled(shouldBeEnabled);
+    if (data != null && (data != prev.data || format != prev.format || stride != prev.stride)) {
+      bind();
+    }
   }
 
-  public void setElt(FloatBuffer colors) {
-    super.setElt(colors);
-    setEnabled(colors != null);
+  public void setElt(Buffer data, int format, int stride) {
+    super.setElt(data, format, stride);
+    if (data != null) {
+      // The data may have changed even if the array is already enabled
+      bind();
+    }
+    setEnabled(data != null);
+  }
+
+  private void bind() {
+    GL2 gl = GLU.getCurrentGL().getGL2();
+    gl.glColorPointer(4, GLCoordinateElement.glType(format), stride, data);
   }
 
   private void setEnabled(boolean enabled) {
@@ -92,7 +104,6 @@ public class GLColorElement extends ColorElement {
     this.enabled = enabled;
     GL2 gl = GLU.getCurrentGL().getGL2();
     if (enabled) {
-      gl.glColorPointer(4, GL2.GL_FLOAT, 0, colors);
       gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
     } else {
       gl.glDisableClientState(GL2.GL_COLOR_ARRAY);
@@ -37,11 +37,14 @@
 
 package net.java.joglutils.msg.elements;
 
-import java.nio.FloatBuffer;
+import java.nio.Buffer;
 
+import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.glu.GLU;
 
+import net.java.joglutils.msg.collections.VertexFormat;
+import net.java.joglutils.msg.math.Vec3f;
 import net.java.joglutils.msg.misc.State;
 
 /** Represents the current set of coordinates, which are assembled to
@@ -60,6 +63,16 @@ public class GLCoordinateElement extends CoordinateElement {
     defaultState.setElement(tmp.getStateIndex(), tmp);
   }
 
+  /** Returns true if the given OpenGL context can read vertex arrays
+      in {@link VertexFormat#HALF_FLOAT HALF_FLOAT} format, which
+      requires OpenGL 3.0 or the ARB_half_float_vertex extension. Data
+      in that format must otherwise be widened to floats before it is
+      set in this element. */
+  public static boolean isHalfFloatSupported(GL gl) {
+    return (gl.isExtensionAvailable("GL_VERSION_3_0") ||
+            gl.isExtensionAvailable("GL_ARB_half_float_vertex"));
+  }
+
   // Whether the OpenGL state is currently enabled
   private boolean enabled;
 
@@ -78,11 +91,36 @@ public class GLCoordinateElement extends CoordinateElement {
     enabled = prev.enabled;
     // Put things back the way they were
     setEnabled(shouldBeEnabled);
+    if (data != null && (data != prev.data || format != prev.format || stride != prev.stride)) {
+      bind();
+    }
+  }
+
+  public void setElt(Buffer data, int format, int stride, Vec3f scale, Vec3f offset) {
+    super.setElt(data, format, stride, scale, offset);
+    if (data != null) {
+      // The data may have changed even if the array is already enabled
+      bind();
+    }
+    setEnabled(data != null);
   }
 
-  public void setElt(FloatBuffer coords) {
-    super.setElt(coords);
-    setEnabled(coords != null);
+  private void bind() {
+    GL2 gl = GLU.getCurrentGL().getGL2();
+    gl.glVertexPointer(3, glType(format), stride, data);
+  }
+
+  // Maps one of the constants in VertexFormat to the corresponding
+  // OpenGL data type; the fixed-function pipeline normalizes only
+  // integer colors, so other attributes are scaled by the caller
+  static int glType(int format) {
+    switch (format) {
+      case VertexFormat.FLOAT:            return GL2.GL_FLOAT;
+      case VertexFormat.HALF_FLOAT:       return GL2.GL_HALF_FLOAT;
+      case VertexFormat.NORMALIZED_SHORT: return GL2.GL_SHORT;
+      case VertexFormat.UNSIGNED_BYTE:    return GL2.GL_UNSIGNED_BYTE;
+      default: throw new IllegalArgumentException("Illegal vertex format " + format);
+    }
   }
 
   private void setEnabled(boolean enabled) {
@@ -91,7 +129,6 @@ public class GLCoordinateElement extends CoordinateElement {
     this.enabled = enabled;
     GL2 gl = GLU.getCurrentGL().getGL2();
     if (enabled) {
-      gl.glVertexPointer(3, GL2.GL_FLOAT, 0, coords);
       gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
     } else {
       gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
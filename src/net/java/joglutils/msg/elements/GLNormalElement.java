@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.elements;
+
+import java.nio.FloatBuffer;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.glu.GLU;
+
+import net.java.joglutils.msg.misc.State;
+
+/** Represents the current set of per-vertex normals, which are used
+    to light drawn geometry, and causes side-effects in OpenGL. */
+
+public class GLNormalElement extends NormalElement {
+  // Boilerplate for concrete element subclasses
+  public Element newInstance() {
+    return new GLNormalElement();
+  }
+  public static GLNormalElement getInstance(State state) {
+    return (GLNormalElement) NormalElement.getInstance(state);
+  }
+  public static void enable(State defaultState) {
+    Element tmp = new GLNormalElement();
+    defaultState.setElement(tmp.getStateIndex(), tmp);
+  }
+
+  // Whether the OpenGL state is currently enabled
+  private boolean enabled;
+
+  public void push(State state) {
+    super.push(state);
+    // Copy enabled state from previous element if any
+    GLNormalElement prev = (GLNormalElement) getNextInStack();
+    if (prev != null) {
+      enabled = prev.enabled;
+    }
+  }
+
+  public void pop(State state, Element previousTopElement) {
+    GLNormalElement prev = (GLNormalElement) previousTopElement;
+    boolean shouldBeEnabled = enabled;
+    enabled = prev.enabled;
+    // Put things back the way they were
+    setEnabled(shouldBeEnabled);
+    if (normals != null && (normals != prev.normals || stride != prev.stride)) {
+      bind();
+    }
+  }
+
+  public void setElt(FloatBuffer normals, int stride) {
+    super.setElt(normals, stride);
+    if (normals != null) {
+      // The data may have changed even if the array is already enabled
+      bind();
+    }
+    setEnabled(normals != null);
+  }
+
+  private void bind() {
+    GL2 gl = GLU.getCurrentGL().getGL2();
+    gl.glNormalPointer(GL2.GL_FLOAT, stride, normals);
+  }
+
+  private void setEnabled(boolean enabled) {
+    if (this.enabled == enabled)
+      return;  // No OpenGL work to do
+    this.enabled = enabled;
+    GL2 gl = GLU.getCurrentGL().getGL2();
+    if (enabled) {
+      gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+    } else {
+      gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+    }
+  }
+}
@@ -37,11 +37,12 @@
 
 package net.java.joglutils.msg.elements;
 
-import java.nio.FloatBuffer;
+import java.nio.Buffer;
 
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.glu.GLU;
 
+import net.java.joglutils.msg.math.Vec2f;
 import net.java.joglutils.msg.misc.State;
 
 /** Represents the current set of texture coordinates, which are
@@ -79,11 +80,23 @@ public class GLTextureCoordinateElement extends TextureCoordinateElement {
     enabled = prev.enabled;
     // Put things back the way they were
     setEnabled(shouldBeEnabled);
+    if (data != null && (data != prev.data || format != prev.format || stride != prev.stride)) {
+      bind();
+    }
   }
 
-  public void setElt(FloatBuffer coords) {
-    super.setElt(coords);
-    setEnabled(coords != null);
+  public void setElt(Buffer data, int format, int stride, Vec2f scale, Vec2f offset) {
+    super.setElt(data, format, stride, scale, offset);
+    if (data != null) {
+      // The data may have changed even if the array is already enabled
+      bind();
+    }
+    setEnabled(data != null);
+  }
+
+  private void bind() {
+    GL2 gl = GLU.getCurrentGL().getGL2();
+    gl.glTexCoordPointer(2, GLCoordinateElement.glType(format), stride, data);
   }
 
   private void setEnabled(boolean enabled) {
@@ -96,7 +109,6 @@ public class GLTextureCoordinateElement extends TextureCoordinateElement {
       // that we only enable the texture coordinate array if we both
       // have a TextureCoordinateElement and a TextureElement active
       // (a little error checking for the application)
-      gl.glTexCoordPointer(2, GL2.GL_FLOAT, 0, coords);
       gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
     } else {
       gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
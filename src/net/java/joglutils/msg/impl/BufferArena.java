@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/** The per-thread state of the BufferFactory: for each size class,
+    the chunks which have free blocks. All chunk bookkeeping is done
+    by the owning thread without locking; blocks released by other
+    threads are queued and handed back the next time the owner
+    allocates or releases a block. Once the owner has terminated, the
+    threads releasing its blocks drain the queue themselves, taking
+    turns under the arena's lock, so that the chunks of a thread which
+    is gone are still reclaimed. */
+
+final class BufferArena {
+  final Thread owner;
+  private final int chunkSize;
+  private final ArrayList<BufferChunk>[] available;
+  private final ConcurrentLinkedQueue<BufferBlock> remoteFrees = new ConcurrentLinkedQueue<BufferBlock>();
+
+  // The chunk and block index of the most recent allocation
+  BufferChunk allocChunk;
+  int allocIndex;
+
+  BufferArena(Thread owner, int numSizeClasses, int chunkSize) {
+    this.owner = owner;
+    this.chunkSize = chunkSize;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ArrayList<BufferChunk>[] lists = new ArrayList[numSizeClasses];
+    available = lists;
+    for (int i = 0; i < numSizeClasses; i++) {
+      available[i] = new ArrayList<BufferChunk>();
+    }
+  }
+
+  /** Allocates a block of the given size class and returns a
+      ByteBuffer covering its first <CODE>numBytes</CODE> bytes. The
+      block is recorded in {@link #allocChunk allocChunk} and {@link
+      #allocIndex allocIndex}. Owner thread only. */
+  ByteBuffer allocate(int sizeClass, int blockSize, int numBytes) {
+    drainRemoteFrees();
+    ArrayList<BufferChunk> list = available[sizeClass];
+    BufferChunk chunk;
+    if (list.isEmpty()) {
+      chunk = new BufferChunk(this, sizeClass, blockSize, chunkSize);
+      BufferFactory.chunkReserved(chunk.memory.capacity());
+      chunk.available = true;
+      list.add(chunk);
+    } else {
+      chunk = list.get(list.size() - 1);
+    }
+    int index = chunk.allocate();
+    if (chunk.isFull()) {
+      list.remove(list.size() - 1);
+      chunk.available = false;
+    }
+    allocChunk = chunk;
+    allocIndex = index;
+    return chunk.slice(index, numBytes);
+  }
+
+  /** Returns the given block to its chunk. May be called from any
+      thread. */
+  void free(BufferBlock block) {
+    if (Thread.currentThread() == owner) {
+      drainRemoteFrees();
+      freeLocal(block);
+    } else {
+      remoteFrees.add(block);
+      // The owner's termination happens-before isAlive returning
+      // false, so it no longer touches the chunks
+      if (!owner.isAlive()) {
+        synchronized (this) {
+          drainRemoteFrees();
+        }
+      }
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private void drainRemoteFrees() {
+    BufferBlock block;
+    while ((block = remoteFrees.poll()) != null) {
+      freeLocal(block);
+    }
+  }
+
+  private void freeLocal(BufferBlock block) {
+    BufferChunk chunk = block.chunk;
+    ArrayList<BufferChunk> list = available[chunk.sizeClass];
+    if (block.leaked) {
+      chunk.leak();
+    } else {
+      chunk.free(block.index);
+      if (!chunk.available) {
+        chunk.available = true;
+        list.add(chunk);
+      }
+    }
+    if (chunk.isUnused()) {
+      // Keep one chunk of each size class around to avoid thrashing;
+      // let the rest be collected
+      if (chunk.available && list.size() > 1) {
+        list.remove(chunk);
+        chunk.available = false;
+        BufferFactory.chunkReserved(-chunk.memory.capacity());
+      } else if (!chunk.available) {
+        // Every block was dropped without being released
+        BufferFactory.chunkReserved(-chunk.memory.capacity());
+      }
+    }
+  }
+}
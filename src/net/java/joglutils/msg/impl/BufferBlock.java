@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.impl;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/** Records where a Buffer handed out by the BufferFactory lives, so
+    that it can be found again when the Buffer is released. Refers
+    weakly to the Buffer, so that Buffers which are dropped without
+    being released can be noticed. */
+
+final class BufferBlock extends WeakReference<Buffer> {
+  // The chunk containing this block, or null for a dedicated allocation
+  final BufferChunk chunk;
+  // Index of the block within its chunk
+  final int index;
+  // Number of bytes requested, and number set aside
+  final int bytesInUse;
+  final int bytesReserved;
+  // Identity hash code of the Buffer, and next block in the same
+  // BufferRegistry bucket
+  final int hash;
+  BufferBlock next;
+  // Set when the Buffer was collected without having been released
+  boolean leaked;
+  // For a dedicated allocation, the ByteBuffer owning the memory, so
+  // that it can be freed explicitly on release
+  ByteBuffer memory;
+  // Where the Buffer was allocated, if leak detection is enabled
+  Throwable allocationSite;
+
+  BufferBlock(Buffer buffer, ReferenceQueue<Buffer> queue,
+              BufferChunk chunk, int index, int bytesInUse, int bytesReserved) {
+    super(buffer, queue);
+    this.chunk = chunk;
+    this.index = index;
+    this.bytesInUse = bytesInUse;
+    this.bytesReserved = bytesReserved;
+    this.hash = System.identityHashCode(buffer);
+  }
+}
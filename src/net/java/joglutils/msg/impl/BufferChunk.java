@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.impl;
+
+import java.nio.ByteBuffer;
+
+/** A direct ByteBuffer divided into equally-sized blocks, all of one
+    size class, together with a stack of the blocks which are free.
+    Only ever touched by the thread owning its arena, or under the
+    arena's lock once that thread has terminated. */
+
+final class BufferChunk {
+  final BufferArena arena;
+  final ByteBuffer memory;
+  final int sizeClass;
+  final int blockSize;
+  final int numBlocks;
+  private final int[] freeBlocks;
+  private int numFree;
+  // Number of blocks handed out and not yet released; a chunk with
+  // no live blocks can be discarded
+  private int refCount;
+  // Number of blocks whose Buffers were collected without being
+  // released. These can never safely be reused, since views of the
+  // Buffer may still exist.
+  private int numLeaked;
+  // Whether the arena currently holds this chunk on its list of
+  // chunks with free blocks
+  boolean available;
+
+  BufferChunk(BufferArena arena, int sizeClass, int blockSize, int chunkSize) {
+    this.arena = arena;
+    this.sizeClass = sizeClass;
+    this.blockSize = blockSize;
+    numBlocks = chunkSize / blockSize;
+    memory = ByteBuffer.allocateDirect(numBlocks * blockSize);
+    freeBlocks = new int[numBlocks];
+    // Hand out blocks in address order
+    for (int i = 0; i < numBlocks; i++) {
+      freeBlocks[i] = numBlocks - 1 - i;
+    }
+    numFree = numBlocks;
+  }
+
+  boolean isFull() {
+    return numFree == 0;
+  }
+
+  /** Indicates whether all blocks which may still be in use have
+      been released. */
+  boolean isUnused() {
+    return refCount == numLeaked;
+  }
+
+  int allocate() {
+    ++refCount;
+    return freeBlocks[--numFree];
+  }
+
+  void free(int index) {
+    // Clear the block so that it reads as freshly allocated memory
+    ByteBuffer mem = memory;
+    int base = index * blockSize;
+    for (int i = 0; i < blockSize; i += 8) {
+      mem.putLong(base + i, 0);
+    }
+    freeBlocks[numFree++] = index;
+    --refCount;
+  }
+
+  void leak() {
+    ++numLeaked;
+  }
+
+  /** Returns a ByteBuffer covering the first <CODE>numBytes</CODE>
+      bytes of the given block. */
+  ByteBuffer slice(int index, int numBytes) {
+    ByteBuffer dup = memory.duplicate();
+    int base = index * blockSize;
+    dup.limit(base + numBytes);
+    dup.position(base);
+    return dup.slice();
+  }
+}
@@ -37,11 +37,17 @@
 
 package net.java.joglutils.msg.impl;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.jogamp.common.nio.Buffers;
 
@@ -49,95 +55,275 @@ import com.jogamp.common.nio.Buffers;
     small direct Buffer is allocated there is a large amount of
     rounding up which occurs. This BufferFactory allocates direct
     Buffers in chunks and hands out slices of those chunks to
-    clients. */
+    clients. <P>
+
+    Requests are rounded up to a power-of-two size class of at most
+    {@link #MAX_BLOCK_SIZE MAX_BLOCK_SIZE} bytes, and each chunk holds
+    blocks of a single size class. Each thread allocates from its own
+    set of chunks, so concurrent allocation does not contend on a
+    lock. Larger requests get a dedicated direct Buffer. <P>
+
+    A Buffer which is no longer needed should be passed to {@link
+    #release release}, which makes its block available for reuse;
+    chunks none of whose blocks are in use are discarded. The Buffer,
+    and any views or slices of it, must not be used after it has been
+    released. A Buffer which is simply dropped is never reused, since
+    views of it may still be reachable, but its memory is reclaimed
+    once the rest of its chunk is no longer in use. <P>
+
+    The memory of a dedicated Buffer is freed as soon as it is
+    released, rather than when the garbage collector gets around to
+    it, which avoids exhausting the direct memory limit when large
+    models are loaded and unloaded. A {@link BufferScope BufferScope}
+    releases everything allocated while it was open. <P>
+
+    If the system property <CODE>{@value #LEAK_DETECTION_PROPERTY}</CODE>
+    is set to true, or {@link #setLeakDetection setLeakDetection} is
+    called, the allocation site of each Buffer is recorded and a
+    report is printed to System.err for every Buffer which is garbage
+    collected without having been released. */
 
 public class BufferFactory {
-  private static ByteBuffer   curByteBuf;
-  private static ShortBuffer  curShortBuf;
-  private static IntBuffer    curIntBuf;
-  private static FloatBuffer  curFloatBuf;
-  private static DoubleBuffer curDoubleBuf;
-
-  // I believe the rounding-up size of direct Buffers on Unix platforms is 8K
-  private static final int CHUNK_SIZE = 8 * 1024;
-
-  public static synchronized ByteBuffer newByteBuffer(final int numElements) {
-    final int sz = numElements * Buffers.SIZEOF_BYTE;
-    if (sz > CHUNK_SIZE) {
-      // Just allocate a fresh ByteBuffer and don't worry about
-      // rounding up its allocation size and re-using the end portion
-      return Buffers.newDirectByteBuffer(numElements);
+  /** The largest request, in bytes, which is served from a shared
+      chunk rather than with a dedicated Buffer. */
+  public static final int MAX_BLOCK_SIZE = 8 * 1024;
+
+  /** The system property which enables leak detection at startup. */
+  public static final String LEAK_DETECTION_PROPERTY = "net.java.joglutils.msg.bufferLeakDetection";
+
+  public static ByteBuffer newByteBuffer(final int numElements) {
+    return (ByteBuffer) allocate(numElements * Buffers.SIZEOF_BYTE, BYTE);
+  }
+
+  public static ShortBuffer newShortBuffer(final int numElements) {
+    return (ShortBuffer) allocate(numElements * Buffers.SIZEOF_SHORT, SHORT);
+  }
+
+  public static IntBuffer newIntBuffer(final int numElements) {
+    return (IntBuffer) allocate(numElements * Buffers.SIZEOF_INT, INT);
+  }
+
+  public static FloatBuffer newFloatBuffer(final int numElements) {
+    return (FloatBuffer) allocate(numElements * Buffers.SIZEOF_FLOAT, FLOAT);
+  }
+
+  public static DoubleBuffer newDoubleBuffer(final int numElements) {
+    return (DoubleBuffer) allocate(numElements * Buffers.SIZEOF_DOUBLE, DOUBLE);
+  }
+
+  /** Releases a Buffer previously returned from one of the
+      allocation methods in this class, making its storage available
+      for reuse. May be called from any thread. Returns false, and
+      does nothing, if the Buffer was not allocated by this class or
+      has already been released; in particular, slices and views of
+      an allocated Buffer can not be released themselves. Accessing a
+      released Buffer larger than {@link #MAX_BLOCK_SIZE
+      MAX_BLOCK_SIZE}, or any view of it, may crash the JVM, since its
+      memory has been returned to the operating system. */
+  public static boolean release(final Buffer buffer) {
+    expungeCollected();
+    final BufferBlock block = registry.remove(buffer);
+    if (block == null) {
+      return false;
     }
-    if (curByteBuf == null || curByteBuf.remaining() < numElements) {
-      curByteBuf = Buffers.newDirectByteBuffer(CHUNK_SIZE / Buffers.SIZEOF_BYTE);
+    block.clear();
+    bytesInUse.add(-block.bytesInUse);
+    if (block.chunk == null) {
+      bytesReserved.add(-block.bytesReserved);
+      DirectBufferCleaner.free(block.memory);
+      block.memory = null;
+    } else {
+      block.chunk.arena.free(block);
     }
-    curByteBuf.limit(curByteBuf.position() + numElements);
-    final ByteBuffer res = curByteBuf.slice();
-    curByteBuf.position(curByteBuf.limit());
-    return res;
+    return true;
   }
 
-  public static synchronized ShortBuffer newShortBuffer(final int numElements) {
-    final int sz = numElements * Buffers.SIZEOF_SHORT;
-    if (sz > CHUNK_SIZE) {
-      // Just allocate a fresh ShortBuffer and don't worry about
-      // rounding up its allocation size and re-using the end portion
-      return Buffers.newDirectShortBuffer(numElements);
+  /** Gives up a Buffer previously returned from one of the
+      allocation methods in this class whose views may still be in
+      use, for example by another thread. Unlike {@link #release
+      release}, its storage is not reused or freed while the Buffer or
+      any view of it is reachable, but is reclaimed by the garbage
+      collector afterward; it is not reported as a leak. May be called
+      from any thread. Returns false, and does nothing, if the Buffer
+      was not allocated by this class or has already been released or
+      abandoned. */
+  public static boolean abandon(final Buffer buffer) {
+    expungeCollected();
+    final BufferBlock block = registry.remove(buffer);
+    if (block == null) {
+      return false;
     }
-    if (curShortBuf == null || curShortBuf.remaining() < numElements) {
-      curShortBuf = Buffers.newDirectShortBuffer(CHUNK_SIZE / Buffers.SIZEOF_SHORT);
+    block.clear();
+    bytesInUse.add(-block.bytesInUse);
+    if (block.chunk == null) {
+      bytesReserved.add(-block.bytesReserved);
+      block.memory = null;
+    } else {
+      // Never reused; the chunk's memory is collected once all of its
+      // blocks are out of use and the views are unreachable
+      block.leaked = true;
+      block.chunk.arena.free(block);
     }
-    curShortBuf.limit(curShortBuf.position() + numElements);
-    final ShortBuffer res = curShortBuf.slice();
-    curShortBuf.position(curShortBuf.limit());
-    return res;
+    return true;
   }
 
-  public static synchronized IntBuffer newIntBuffer(final int numElements) {
-    final int sz = numElements * Buffers.SIZEOF_INT;
-    if (sz > CHUNK_SIZE) {
-      // Just allocate a fresh IntBuffer and don't worry about
-      // rounding up its allocation size and re-using the end portion
-      return Buffers.newDirectIntBuffer(numElements);
-    }
-    if (curIntBuf == null || curIntBuf.remaining() < numElements) {
-      curIntBuf = Buffers.newDirectIntBuffer(CHUNK_SIZE / Buffers.SIZEOF_INT);
+  /** Unmaps a buffer obtained from <CODE>FileChannel.map</CODE>
+      immediately, rather than when it is garbage collected, so that
+      its file can for example be deleted or replaced. The buffer must
+      not be a slice or view, and neither it nor any view of it may
+      be accessed again, or the JVM may crash. Returns false if the
+      buffer could not be unmapped explicitly, in which case it is
+      unmapped when garbage collected. */
+  public static boolean unmap(final MappedByteBuffer buffer) {
+    return DirectBufferCleaner.free(buffer);
+  }
+
+  /** Enables or disables leak detection for Buffers allocated from
+      now on. */
+  public static void setLeakDetection(final boolean enabled) {
+    leakDetection = enabled;
+  }
+
+  /** Indicates whether leak detection is enabled. */
+  public static boolean getLeakDetection() {
+    return leakDetection;
+  }
+
+  /** Returns the number of Buffers which have been garbage collected
+      without having been released. Counted whether or not leak
+      detection is enabled. */
+  public static long getNumLeaked() {
+    return numLeaked.sum();
+  }
+
+  /** Returns the number of bytes of direct memory currently set aside
+      by this class, including free blocks within chunks. */
+  public static long getBytesReserved() {
+    return bytesReserved.sum();
+  }
+
+  /** Returns the number of bytes requested by the Buffers which are
+      currently allocated and have not been released or collected. */
+  public static long getBytesInUse() {
+    return bytesInUse.sum();
+  }
+
+  /** Returns the fraction of the reserved bytes which are not in use,
+      from 0 to 1. This includes both free blocks and the rounding up
+      of requests to their size classes. */
+  public static float getFragmentation() {
+    final long reserved = getBytesReserved();
+    if (reserved <= 0) {
+      return 0;
     }
-    curIntBuf.limit(curIntBuf.position() + numElements);
-    final IntBuffer res = curIntBuf.slice();
-    curIntBuf.position(curIntBuf.limit());
-    return res;
+    return Math.max(0, 1.0f - (float) ((double) getBytesInUse() / (double) reserved));
   }
 
-  public static synchronized FloatBuffer newFloatBuffer(final int numElements) {
-    final int sz = numElements * Buffers.SIZEOF_FLOAT;
-    if (sz > CHUNK_SIZE) {
-      // Just allocate a fresh FloatBuffer and don't worry about
-      // rounding up its allocation size and re-using the end portion
-      return Buffers.newDirectFloatBuffer(numElements);
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  // Size of the chunks blocks are carved from
+  private static final int CHUNK_SIZE = 64 * 1024;
+  // Size classes are powers of two from 16 bytes to MAX_BLOCK_SIZE
+  private static final int MIN_BLOCK_SHIFT = 4;
+  private static final int NUM_SIZE_CLASSES =
+    Integer.numberOfTrailingZeros(MAX_BLOCK_SIZE) - MIN_BLOCK_SHIFT + 1;
+
+  private static final LongAdder bytesReserved = new LongAdder();
+  private static final LongAdder bytesInUse = new LongAdder();
+  private static final LongAdder numLeaked = new LongAdder();
+  private static volatile boolean leakDetection = Boolean.getBoolean(LEAK_DETECTION_PROPERTY);
+
+  private static final BufferRegistry registry = new BufferRegistry();
+  private static final ReferenceQueue<Buffer> collected = new ReferenceQueue<Buffer>();
+
+  private static final ThreadLocal<BufferArena> arenas = new ThreadLocal<BufferArena>() {
+      protected BufferArena initialValue() {
+        return new BufferArena(Thread.currentThread(), NUM_SIZE_CLASSES, CHUNK_SIZE);
+      }
+    };
+
+  // Element types of the Buffers handed out
+  private static final int BYTE   = 0;
+  private static final int SHORT  = 1;
+  private static final int INT    = 2;
+  private static final int FLOAT  = 3;
+  private static final int DOUBLE = 4;
+
+  private static Buffer allocate(final int numBytes, final int type) {
+    expungeCollected();
+    if (numBytes == 0) {
+      // Nothing to reclaim
+      return view(ByteBuffer.allocateDirect(0).order(ByteOrder.nativeOrder()), type);
     }
-    if (curFloatBuf == null || curFloatBuf.remaining() < numElements) {
-      curFloatBuf = Buffers.newDirectFloatBuffer(CHUNK_SIZE / Buffers.SIZEOF_FLOAT);
+    final Buffer res;
+    final BufferBlock block;
+    if (numBytes > MAX_BLOCK_SIZE) {
+      final ByteBuffer memory = ByteBuffer.allocateDirect(numBytes);
+      res = view(memory.order(ByteOrder.nativeOrder()), type);
+      block = new BufferBlock(res, collected, null, -1, numBytes, numBytes);
+      block.memory = memory;
+      bytesReserved.add(numBytes);
+    } else {
+      final int sizeClass = sizeClass(numBytes);
+      final int blockSize = 1 << (sizeClass + MIN_BLOCK_SHIFT);
+      final BufferArena arena = arenas.get();
+      final ByteBuffer bytes = arena.allocate(sizeClass, blockSize, numBytes);
+      res = view(bytes.order(ByteOrder.nativeOrder()), type);
+      block = new BufferBlock(res, collected, arena.allocChunk, arena.allocIndex, numBytes, blockSize);
     }
-    curFloatBuf.limit(curFloatBuf.position() + numElements);
-    final FloatBuffer res = curFloatBuf.slice();
-    curFloatBuf.position(curFloatBuf.limit());
+    if (leakDetection) {
+      block.allocationSite = new Throwable("Allocation site");
+    }
+    bytesInUse.add(numBytes);
+    registry.add(block);
+    BufferScope.allocated(res);
     return res;
   }
 
-  public static synchronized DoubleBuffer newDoubleBuffer(final int numElements) {
-    final int sz = numElements * Buffers.SIZEOF_DOUBLE;
-    if (sz > CHUNK_SIZE) {
-      // Just allocate a fresh DoubleBuffer and don't worry about
-      // rounding up its allocation size and re-using the end portion
-      return Buffers.newDirectDoubleBuffer(numElements);
+  private static Buffer view(final ByteBuffer bytes, final int type) {
+    switch (type) {
+      case SHORT:  return bytes.asShortBuffer();
+      case INT:    return bytes.asIntBuffer();
+      case FLOAT:  return bytes.asFloatBuffer();
+      case DOUBLE: return bytes.asDoubleBuffer();
+      default:     return bytes;
     }
-    if (curDoubleBuf == null || curDoubleBuf.remaining() < numElements) {
-      curDoubleBuf = Buffers.newDirectDoubleBuffer(CHUNK_SIZE / Buffers.SIZEOF_DOUBLE);
+  }
+
+  private static int sizeClass(final int numBytes) {
+    final int shift = 32 - Integer.numberOfLeadingZeros(Math.max(numBytes, 1 << MIN_BLOCK_SHIFT) - 1);
+    return shift - MIN_BLOCK_SHIFT;
+  }
+
+  // Accounts for Buffers which were dropped without being released
+  private static void expungeCollected() {
+    Reference<? extends Buffer> ref;
+    while ((ref = collected.poll()) != null) {
+      final BufferBlock block = (BufferBlock) ref;
+      if (registry.remove(block)) {
+        numLeaked.increment();
+        if (block.allocationSite != null) {
+          System.err.println("BufferFactory: " + block.bytesInUse +
+                             "-byte buffer was garbage collected without being released");
+          block.allocationSite.printStackTrace();
+        }
+        bytesInUse.add(-block.bytesInUse);
+        if (block.chunk == null) {
+          bytesReserved.add(-block.bytesReserved);
+          // Slices of the buffer may still be reachable, so the
+          // memory can only be freed by the garbage collector
+          block.memory = null;
+        } else {
+          block.leaked = true;
+          block.chunk.arena.free(block);
+        }
+      }
     }
-    curDoubleBuf.limit(curDoubleBuf.position() + numElements);
-    final DoubleBuffer res = curDoubleBuf.slice();
-    curDoubleBuf.position(curDoubleBuf.limit());
-    return res;
+  }
+
+  static void chunkReserved(final long numBytes) {
+    bytesReserved.add(numBytes);
   }
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.impl;
+
+import java.nio.Buffer;
+
+/** Maps Buffers handed out by the BufferFactory, by identity, to the
+    blocks describing them. Buffers cannot be used as keys of an
+    ordinary map since their equality depends on their contents. The
+    table is divided into independently locked segments so that
+    threads allocating concurrently rarely contend. */
+
+final class BufferRegistry {
+  private static final int SEGMENT_BITS = 6;
+  private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+  BufferRegistry() {
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment();
+    }
+  }
+
+  void add(BufferBlock block) {
+    segmentFor(block.hash).add(block);
+  }
+
+  /** Removes and returns the block for the given Buffer, or returns
+      null if the Buffer is not registered. */
+  BufferBlock remove(Buffer buffer) {
+    int hash = System.identityHashCode(buffer);
+    return segmentFor(hash).remove(hash, buffer, null);
+  }
+
+  /** Removes the given block, whose Buffer may already have been
+      collected. Returns false if it was not registered. */
+  boolean remove(BufferBlock block) {
+    return segmentFor(block.hash).remove(block.hash, null, block) != null;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private Segment segmentFor(int hash) {
+    return segments[hash & (segments.length - 1)];
+  }
+
+  private static final class Segment {
+    private BufferBlock[] table = new BufferBlock[16];
+    private int size;
+
+    synchronized void add(BufferBlock block) {
+      if (size >= 2 * table.length) {
+        rehash();
+      }
+      int idx = bucket(block.hash, table.length);
+      block.next = table[idx];
+      table[idx] = block;
+      ++size;
+    }
+
+    // Finds the block either by its Buffer or by identity
+    synchronized BufferBlock remove(int hash, Buffer buffer, BufferBlock block) {
+      int idx = bucket(hash, table.length);
+      BufferBlock prev = null;
+      for (BufferBlock cur = table[idx]; cur != null; prev = cur, cur = cur.next) {
+        if (cur == block || (buffer != null && cur.get() == buffer)) {
+          if (prev == null) {
+            table[idx] = cur.next;
+          } else {
+            prev.next = cur.next;
+          }
+          cur.next = null;
+          --size;
+          return cur;
+        }
+      }
+      return null;
+    }
+
+    private void rehash() {
+      BufferBlock[] newTable = new BufferBlock[2 * table.length];
+      for (int i = 0; i < table.length; i++) {
+        BufferBlock cur = table[i];
+        while (cur != null) {
+          BufferBlock next = cur.next;
+          int idx = bucket(cur.hash, newTable.length);
+          cur.next = newTable[idx];
+          newTable[idx] = cur;
+          cur = next;
+        }
+      }
+      table = newTable;
+    }
+
+    private static int bucket(int hash, int length) {
+      return (hash >>> SEGMENT_BITS) & (length - 1);
+    }
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.impl;
+
+import java.nio.Buffer;
+
+/** Releases all of the Buffers allocated by the {@link BufferFactory
+    BufferFactory} on the current thread while it is open. Intended
+    for temporary storage, such as the intermediate arrays built while
+    loading a model:
+
+<PRE>
+    try (BufferScope scope = BufferScope.open()) {
+      ...
+    }
+</PRE>
+
+    Buffers which must outlive the scope can be removed from it with
+    {@link #keep keep}. The backing stores of the collections in
+    {@link net.java.joglutils.msg.collections} are released by the
+    scope the collection was created in, which acts like disposing of
+    the collection, except that the collection must no longer be
+    used afterward. A collection moves the registration of its store
+    to each new store as it grows, with {@link #replace replace}, so
+    that growing within another scope, or within none, does not
+    change which scope releases it. Collections which must outlive
+    their scope are removed from it with their <CODE>keepStore</CODE>
+    methods. Scopes nest; a scope must be closed on the thread which
+    opened it, after any scopes opened within it. */
+
+public class BufferScope implements AutoCloseable {
+  private final BufferScope parent;
+  private final Thread owner;
+  private Buffer[] buffers = new Buffer[16];
+  private int numBuffers;
+  private boolean closed;
+
+  private BufferScope(BufferScope parent) {
+    this.parent = parent;
+    owner = Thread.currentThread();
+  }
+
+  /** Opens a new scope on the current thread, nested within any scope
+      which is already open. */
+  public static BufferScope open() {
+    BufferScope scope = new BufferScope(current.get());
+    current.set(scope);
+    return scope;
+  }
+
+  /** Removes the given Buffer from this scope so that it is not
+      released when the scope is closed. Returns false if the Buffer
+      was not allocated within this scope. */
+  public boolean keep(Buffer buffer) {
+    int i = indexOf(buffer);
+    if (i < 0) {
+      return false;
+    }
+    System.arraycopy(buffers, i + 1, buffers, i, numBuffers - i - 1);
+    buffers[--numBuffers] = null;
+    return true;
+  }
+
+  /** Removes the given Buffer from whichever scope open on the
+      current thread it was allocated in, so that no scope releases
+      it. Intended for storage whose lifetime has nothing to do with
+      the scope it happens to be allocated in, such as the payloads of
+      a scene graph read from a file. Returns false if no open scope
+      holds the Buffer. */
+  public static boolean exclude(Buffer buffer) {
+    for (BufferScope scope = current.get(); scope != null; scope = scope.parent) {
+      if (scope.keep(buffer)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Makes the given replacement Buffer, such as the new backing store
+      of a collection which has grown, released by the same scope as
+      the original Buffer it replaces. The replacement is removed from
+      whichever scope open on the current thread it was allocated in,
+      and takes the place of the original in the open scope holding
+      that, if any. Returns false, leaving the replacement in no
+      scope, if no open scope holds the original. */
+  public static boolean replace(Buffer original, Buffer replacement) {
+    exclude(replacement);
+    for (BufferScope scope = current.get(); scope != null; scope = scope.parent) {
+      int i = scope.indexOf(original);
+      if (i >= 0) {
+        scope.buffers[i] = replacement;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Makes the given Buffer, such as a cache derived from the backing
+      store of a collection, released by the same scope as the given
+      owner Buffer. The Buffer is removed from whichever scope open on
+      the current thread it was allocated in, and added to the open
+      scope holding the owner, if any. Returns false, leaving the
+      Buffer in no scope, if no open scope holds the owner. */
+  public static boolean attach(Buffer buffer, Buffer owner) {
+    exclude(buffer);
+    for (BufferScope scope = current.get(); scope != null; scope = scope.parent) {
+      if (scope.indexOf(owner) >= 0) {
+        scope.add(buffer);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns the number of Buffers which will be released when this
+      scope is closed. Some of them may already have been released
+      explicitly. */
+  public int getNumBuffers() {
+    return numBuffers;
+  }
+
+  /** Releases all Buffers allocated within this scope, except those
+      passed to {@link #keep keep}, and makes the enclosing scope, if
+      any, current again.
+
+      @throws IllegalStateException if called from a different thread
+      than the one which opened this scope, or while a scope opened
+      within it is still open
+  */
+  public void close() {
+    if (closed) {
+      return;
+    }
+    if (Thread.currentThread() != owner) {
+      throw new IllegalStateException("BufferScope must be closed on the thread which opened it");
+    }
+    if (current.get() != this) {
+      throw new IllegalStateException("Nested BufferScope has not been closed");
+    }
+    closed = true;
+    current.set(parent);
+    for (int i = numBuffers - 1; i >= 0; i--) {
+      BufferFactory.release(buffers[i]);
+      buffers[i] = null;
+    }
+    numBuffers = 0;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private static final ThreadLocal<BufferScope> current = new ThreadLocal<BufferScope>();
+
+  // Called by the BufferFactory for each Buffer it allocates
+  static void allocated(Buffer buffer) {
+    BufferScope scope = current.get();
+    if (scope != null) {
+      scope.add(buffer);
+    }
+  }
+
+  // Searches from the most recently allocated Buffers, which are the
+  // ones most often looked up
+  private int indexOf(Buffer buffer) {
+    for (int i = numBuffers - 1; i >= 0; i--) {
+      if (buffers[i] == buffer) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void add(Buffer buffer) {
+    if (numBuffers == buffers.length) {
+      Buffer[] newBuffers = new Buffer[2 * buffers.length];
+      System.arraycopy(buffers, 0, newBuffers, 0, numBuffers);
+      buffers = newBuffers;
+    }
+    buffers[numBuffers++] = buffer;
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.impl;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/** Frees the native memory of a direct ByteBuffer immediately rather
+    than when the ByteBuffer is garbage collected. There is no public
+    API for this; on Java 9 and later sun.misc.Unsafe.invokeCleaner is
+    used, and on earlier versions the buffer's internal Cleaner. If
+    neither is accessible, freeing is left to the garbage collector. */
+
+final class DirectBufferCleaner {
+  private DirectBufferCleaner() {}
+
+  /** Frees the memory of the given buffer, which must be a direct
+      ByteBuffer obtained from ByteBuffer.allocateDirect, not a slice,
+      duplicate or view of one. The buffer and every view of it must
+      never be accessed again. Returns false if the memory could not
+      be freed explicitly. */
+  static boolean free(ByteBuffer buf) {
+    if (!buf.isDirect()) {
+      return false;
+    }
+    try {
+      if (invokeCleaner != null) {
+        invokeCleaner.invoke(unsafe, buf);
+        return true;
+      }
+      if (cleanerMethod != null) {
+        Object cleaner = cleanerMethod.invoke(buf);
+        if (cleaner != null) {
+          cleanMethod.invoke(cleaner);
+          return true;
+        }
+      }
+    } catch (Exception e) {
+      // Fall through and let the garbage collector free the memory
+    }
+    return false;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private static Object unsafe;
+  private static Method invokeCleaner;
+  private static Method cleanerMethod;
+  private static Method cleanMethod;
+
+  static {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method m = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field f = unsafeClass.getDeclaredField("theUnsafe");
+      f.setAccessible(true);
+      unsafe = f.get(null);
+      invokeCleaner = m;
+    } catch (Exception e) {
+      // Not Java 9 or later; try the Java 8 mechanism
+      try {
+        ByteBuffer probe = ByteBuffer.allocateDirect(1);
+        Method cm = probe.getClass().getMethod("cleaner");
+        cm.setAccessible(true);
+        Object cleaner = cm.invoke(probe);
+        Method clean = cleaner.getClass().getMethod("clean");
+        clean.setAccessible(true);
+        cleanerMethod = cm;
+        cleanMethod = clean;
+      } catch (Exception e2) {
+        // Leave freeing to the garbage collector
+      }
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.impl;
+
+/** Scalar Moller-Trumbore test of a ray against a range of a
+    TriangleBatch, one triangle at a time. */
+
+final class ScalarTriangleKernel {
+  private ScalarTriangleKernel() {}
+
+  static final float EPSILON = 0.000001f;
+
+  /** See TriangleBatchKernel.intersect. */
+  static int intersect(TriangleBatch batch, int start, int end,
+                       float ox, float oy, float oz,
+                       float dx, float dy, float dz,
+                       float tMin, float tMax,
+                       boolean cullBackfaces, boolean anyHit,
+                       float[] tuv) {
+    final float[] v0x = batch.v0x, v0y = batch.v0y, v0z = batch.v0z;
+    final float[] e1x = batch.e1x, e1y = batch.e1y, e1z = batch.e1z;
+    final float[] e2x = batch.e2x, e2y = batch.e2y, e2z = batch.e2z;
+    int best = -1;
+    float bestT = tMax;
+    for (int i = start; i < end; i++) {
+      final float ax = e1x[i], ay = e1y[i], az = e1z[i];
+      final float bx = e2x[i], by = e2y[i], bz = e2z[i];
+      // pvec = dir x edge2
+      final float px = dy * bz - dz * by;
+      final float py = dz * bx - dx * bz;
+      final float pz = dx * by - dy * bx;
+      final float det = ax * px + ay * py + az * pz;
+      if (cullBackfaces ? (det < EPSILON) : (det > -EPSILON && det < EPSILON)) {
+        continue;
+      }
+      final float invDet = 1.0f / det;
+      final float sx = ox - v0x[i], sy = oy - v0y[i], sz = oz - v0z[i];
+      final float u = (sx * px + sy * py + sz * pz) * invDet;
+      if (u < 0.0f || u > 1.0f) {
+        continue;
+      }
+      // qvec = tvec x edge1
+      final float qx = sy * az - sz * ay;
+      final float qy = sz * ax - sx * az;
+      final float qz = sx * ay - sy * ax;
+      final float v = (dx * qx + dy * qy + dz * qz) * invDet;
+      if (v < 0.0f || u + v > 1.0f) {
+        continue;
+      }
+      final float t = (bx * qx + by * qy + bz * qz) * invDet;
+      if (t < tMin || t > bestT) {
+        continue;
+      }
+      best = i;
+      bestT = t;
+      tuv[0] = t;
+      tuv[1] = u;
+      tuv[2] = v;
+      if (anyHit) {
+        break;
+      }
+    }
+    return best;
+  }
+}
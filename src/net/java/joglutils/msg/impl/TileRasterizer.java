@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** A software rasterizer which renders triangles into an integer ID
+    buffer with a depth buffer, for picking by looking up the ID
+    under a point on the screen. <P>
+
+    Triangles are given in clip coordinates, as produced by a
+    projection * viewing * model matrix, and are clipped against the
+    near plane; each pixel stores the ID of the nearest triangle
+    covering its center, or -1. The screen is divided into square
+    tiles, each triangle is binned into the tiles its bounds overlap,
+    and the tiles are then rasterized independently in parallel on
+    the common fork-join pool. */
+
+public class TileRasterizer {
+  /** The width and height of a tile in pixels */
+  public static final int TILE_SIZE = 32;
+
+  /** Creates a rasterizer with the given buffer size in pixels.
+
+      @throws IllegalArgumentException if either dimension is not
+      positive
+  */
+  public TileRasterizer(int width, int height) {
+    setSize(width, height);
+  }
+
+  /** Sets the buffer size in pixels and discards all triangles. The
+      contents of the buffers are undefined until the next call to
+      {@link #rasterize rasterize}.
+
+      @throws IllegalArgumentException if either dimension is not
+      positive
+  */
+  public void setSize(int width, int height) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Buffer size " + width + "x" + height + " is empty");
+    }
+    this.width = width;
+    this.height = height;
+    tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+    tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+    ids = new int[width * height];
+    depths = new float[width * height];
+    tileStart = new int[tilesX * tilesY + 1];
+    clear();
+  }
+
+  /** Returns the width of the buffer in pixels. */
+  public int getWidth() {
+    return width;
+  }
+
+  /** Returns the height of the buffer in pixels. */
+  public int getHeight() {
+    return height;
+  }
+
+  /** Discards all triangles added since the last rasterization. */
+  public void clear() {
+    numTriangles = 0;
+  }
+
+  /** Adds a triangle with the given ID and with vertices in clip
+      coordinates (x, y, z, w). Parts of the triangle in front of the
+      near plane are clipped off, and parts outside the viewport are
+      ignored when rasterizing. Both windings are drawn. */
+  public void addTriangle(float x0, float y0, float z0, float w0,
+                          float x1, float y1, float z1, float w1,
+                          float x2, float y2, float z2, float w2,
+                          int id) {
+    // Distances from the near plane, z = -w
+    float d0 = z0 + w0, d1 = z1 + w1, d2 = z2 + w2;
+    if (d0 >= 0 && d1 >= 0 && d2 >= 0) {
+      addScreenTriangle(x0, y0, z0, w0, x1, y1, z1, w1, x2, y2, z2, w2, id);
+      return;
+    }
+    if (d0 < 0 && d1 < 0 && d2 < 0) {
+      return;
+    }
+
+    // Clip against the near plane, yielding a triangle or a quad
+    float[] in = clipIn;
+    float[] out = clipOut;
+    in[0] = x0; in[1] = y0; in[ 2] = z0; in[ 3] = w0;
+    in[4] = x1; in[5] = y1; in[ 6] = z1; in[ 7] = w1;
+    in[8] = x2; in[9] = y2; in[10] = z2; in[11] = w2;
+    int n = 0;
+    for (int j = 0; j < 3; j++) {
+      int p = 4 * j;
+      int q = 4 * ((j + 1) % 3);
+      float dp = in[p + 2] + in[p + 3];
+      float dq = in[q + 2] + in[q + 3];
+      if (dp >= 0) {
+        System.arraycopy(in, p, out, 4 * n++, 4);
+      }
+      if ((dp >= 0) != (dq >= 0)) {
+        float t = dp / (dp - dq);
+        for (int k = 0; k < 4; k++) {
+          out[4 * n + k] = in[p + k] + t * (in[q + k] - in[p + k]);
+        }
+        ++n;
+      }
+    }
+    for (int j = 1; j + 1 < n; j++) {
+      int p = 4 * j, q = 4 * (j + 1);
+      addScreenTriangle(out[0], out[1], out[2], out[3],
+                        out[p], out[p + 1], out[p + 2], out[p + 3],
+                        out[q], out[q + 1], out[q + 2], out[q + 3],
+                        id);
+    }
+  }
+
+  /** Renders the triangles added since the last rasterization into
+      the ID and depth buffers, replacing their contents, and discards
+      the triangles. */
+  public void rasterize() {
+    bin();
+    int numTiles = tilesX * tilesY;
+    if (numTiles > 1 && ForkJoinPool.getCommonPoolParallelism() > 1) {
+      ForkJoinPool.commonPool().invoke(new RasterTask(0, numTiles));
+    } else {
+      rasterizeTiles(0, numTiles);
+    }
+    numTriangles = 0;
+  }
+
+  /** Returns the ID stored at the given pixel by the last
+      rasterization, or -1 if no triangle covers it. Pixel (0, 0) is at
+      the lower left.
+
+      @throws IndexOutOfBoundsException if the pixel is outside the
+      buffer
+  */
+  public int getID(int x, int y) {
+    if (x < 0 || x >= width || y < 0 || y >= height) {
+      throw new IndexOutOfBoundsException("Pixel (" + x + ", " + y + ") outside " + width + "x" + height + " buffer");
+    }
+    return ids[y * width + x];
+  }
+
+  /** Returns the depth, in normalized device coordinates, stored at
+      the given pixel by the last rasterization, or positive infinity
+      if no triangle covers it.
+
+      @throws IndexOutOfBoundsException if the pixel is outside the
+      buffer
+  */
+  public float getDepth(int x, int y) {
+    if (x < 0 || x >= width || y < 0 || y >= height) {
+      throw new IndexOutOfBoundsException("Pixel (" + x + ", " + y + ") outside " + width + "x" + height + " buffer");
+    }
+    return depths[y * width + x];
+  }
+
+  /** Returns the ID buffer, in rows from the bottom of the screen up.
+      The returned array must not be modified. */
+  public int[] getIDs() {
+    return ids;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private int width;
+  private int height;
+  private int tilesX;
+  private int tilesY;
+  private int[] ids;
+  private float[] depths;
+
+  // The triangles in screen coordinates, with vertices in pixels and
+  // depths in normalized device coordinates, wound counterclockwise
+  private int numTriangles;
+  private float[] sx = new float[3 * 64];
+  private float[] sy = new float[3 * 64];
+  private float[] sz = new float[3 * 64];
+  private int[] triangleIDs = new int[64];
+  // The pixel bounds (minX, minY, maxX, maxY) of each triangle,
+  // clamped to the buffer
+  private int[] pixelBounds = new int[4 * 64];
+
+  // Triangles binned into tiles: those of tile t are
+  // tileTriangles[tileStart[t] .. tileStart[t + 1] - 1], in the order
+  // they were added
+  private int[] tileStart;
+  private int[] tileTriangles = new int[64];
+
+  private final float[] clipIn = new float[12];
+  private final float[] clipOut = new float[16];
+
+  // Adds a triangle lying behind the near plane, dividing through by
+  // w and mapping to pixels
+  private void addScreenTriangle(float x0, float y0, float z0, float w0,
+                                 float x1, float y1, float z1, float w1,
+                                 float x2, float y2, float z2, float w2,
+                                 int id) {
+    float s0 = 1.0f / w0, s1 = 1.0f / w1, s2 = 1.0f / w2;
+    float px0 = (x0 * s0 + 1) * 0.5f * width, py0 = (y0 * s0 + 1) * 0.5f * height;
+    float px1 = (x1 * s1 + 1) * 0.5f * width, py1 = (y1 * s1 + 1) * 0.5f * height;
+    float px2 = (x2 * s2 + 1) * 0.5f * width, py2 = (y2 * s2 + 1) * 0.5f * height;
+    float area = (px1 - px0) * (py2 - py0) - (px2 - px0) * (py1 - py0);
+    if (!(area != 0)) {
+      // Degenerate, or not finite
+      return;
+    }
+
+    // Pixel centers lie at half-integer coordinates
+    int minX = Math.max((int) Math.ceil(Math.min(px0, Math.min(px1, px2)) - 0.5f), 0);
+    int minY = Math.max((int) Math.ceil(Math.min(py0, Math.min(py1, py2)) - 0.5f), 0);
+    int maxX = Math.min((int) Math.floor(Math.max(px0, Math.max(px1, px2)) - 0.5f), width - 1);
+    int maxY = Math.min((int) Math.floor(Math.max(py0, Math.max(py1, py2)) - 0.5f), height - 1);
+    if (minX > maxX || minY > maxY) {
+      return;
+    }
+
+    if (numTriangles == triangleIDs.length) {
+      int len = 2 * numTriangles;
+      sx = Arrays.copyOf(sx, 3 * len);
+      sy = Arrays.copyOf(sy, 3 * len);
+      sz = Arrays.copyOf(sz, 3 * len);
+      triangleIDs = Arrays.copyOf(triangleIDs, len);
+      pixelBounds = Arrays.copyOf(pixelBounds, 4 * len);
+    }
+    int i = numTriangles++;
+    int v = 3 * i;
+    sx[v] = px0; sy[v] = py0; sz[v] = z0 * s0;
+    if (area > 0) {
+      sx[v + 1] = px1; sy[v + 1] = py1; sz[v + 1] = z1 * s1;
+      sx[v + 2] = px2; sy[v + 2] = py2; sz[v + 2] = z2 * s2;
+    } else {
+      sx[v + 1] = px2; sy[v + 1] = py2; sz[v + 1] = z2 * s2;
+      sx[v + 2] = px1; sy[v + 2] = py1; sz[v + 2] = z1 * s1;
+    }
+    triangleIDs[i] = id;
+    int b = 4 * i;
+    pixelBounds[b    ] = minX;
+    pixelBounds[b + 1] = minY;
+    pixelBounds[b + 2] = maxX;
+    pixelBounds[b + 3] = maxY;
+  }
+
+  // Sorts the triangles into the tiles their pixel bounds overlap
+  private void bin() {
+    int numTiles = tilesX * tilesY;
+    int[] start = tileStart;
+    Arrays.fill(start, 0);
+    int total = 0;
+    for (int i = 0; i < numTriangles; i++) {
+      int b = 4 * i;
+      int tx0 = pixelBounds[b] / TILE_SIZE, ty0 = pixelBounds[b + 1] / TILE_SIZE;
+      int tx1 = pixelBounds[b + 2] / TILE_SIZE, ty1 = pixelBounds[b + 3] / TILE_SIZE;
+      for (int ty = ty0; ty <= ty1; ty++) {
+        for (int tx = tx0; tx <= tx1; tx++) {
+          ++start[ty * tilesX + tx + 1];
+        }
+      }
+      total += (tx1 - tx0 + 1) * (ty1 - ty0 + 1);
+    }
+    for (int t = 0; t < numTiles; t++) {
+      start[t + 1] += start[t];
+    }
+    if (tileTriangles.length < total) {
+      tileTriangles = new int[Math.max(total, 2 * tileTriangles.length)];
+    }
+    // Fill each tile's range, using the start of the following tile
+    // as the cursor and restoring it afterward
+    int[] tris = tileTriangles;
+    for (int i = 0; i < numTriangles; i++) {
+      int b = 4 * i;
+      int tx0 = pixelBounds[b] / TILE_SIZE, ty0 = pixelBounds[b + 1] / TILE_SIZE;
+      int tx1 = pixelBounds[b + 2] / TILE_SIZE, ty1 = pixelBounds[b + 3] / TILE_SIZE;
+      for (int ty = ty0; ty <= ty1; ty++) {
+        for (int tx = tx0; tx <= tx1; tx++) {
+          tris[start[ty * tilesX + tx]++] = i;
+        }
+      }
+    }
+    for (int t = numTiles; t > 0; t--) {
+      start[t] = start[t - 1];
+    }
+    start[0] = 0;
+  }
+
+  private void rasterizeTiles(int first, int end) {
+    for (int t = first; t < end; t++) {
+      rasterizeTile(t);
+    }
+  }
+
+  private void rasterizeTile(int tile) {
+    final int tx0 = (tile % tilesX) * TILE_SIZE;
+    final int ty0 = (tile / tilesX) * TILE_SIZE;
+    final int tx1 = Math.min(tx0 + TILE_SIZE, width) - 1;
+    final int ty1 = Math.min(ty0 + TILE_SIZE, height) - 1;
+    final int[] ids = this.ids;
+    final float[] depths = this.depths;
+    final int width = this.width;
+    for (int y = ty0; y <= ty1; y++) {
+      Arrays.fill(ids, y * width + tx0, y * width + tx1 + 1, -1);
+      Arrays.fill(depths, y * width + tx0, y * width + tx1 + 1, Float.POSITIVE_INFINITY);
+    }
+
+    for (int k = tileStart[tile], end = tileStart[tile + 1]; k < end; k++) {
+      final int i = tileTriangles[k];
+      final int v = 3 * i;
+      final float x0 = sx[v], y0 = sy[v], z0 = sz[v];
+      final float x1 = sx[v + 1], y1 = sy[v + 1], z1 = sz[v + 1];
+      final float x2 = sx[v + 2], y2 = sy[v + 2], z2 = sz[v + 2];
+      final int id = triangleIDs[i];
+      final int b = 4 * i;
+      final int minX = Math.max(pixelBounds[b], tx0);
+      final int minY = Math.max(pixelBounds[b + 1], ty0);
+      final int maxX = Math.min(pixelBounds[b + 2], tx1);
+      final int maxY = Math.min(pixelBounds[b + 3], ty1);
+      if (minX > maxX || minY > maxY) {
+        continue;
+      }
+
+      // Edge functions, positive inside the counterclockwise
+      // triangle, stepped incrementally across the pixels; e0 is
+      // opposite vertex 0, and so on
+      final float a0 = y1 - y2, b0 = x2 - x1;
+      final float a1 = y2 - y0, b1 = x0 - x2;
+      final float a2 = y0 - y1, b2 = x1 - x0;
+      final float invArea = 1.0f / (b2 * (y2 - y0) - (x2 - x0) * (y1 - y0));
+      final float px = minX + 0.5f, py = minY + 0.5f;
+      float r0 = a0 * (px - x1) + b0 * (py - y1);
+      float r1 = a1 * (px - x2) + b1 * (py - y2);
+      float r2 = a2 * (px - x0) + b2 * (py - y0);
+      for (int y = minY; y <= maxY; y++) {
+        float e0 = r0, e1 = r1, e2 = r2;
+        int p = y * width + minX;
+        for (int x = minX; x <= maxX; x++, p++) {
+          if (e0 >= 0 && e1 >= 0 && e2 >= 0) {
+            float z = (e0 * z0 + e1 * z1 + e2 * z2) * invArea;
+            if (z < depths[p] && z <= 1) {
+              depths[p] = z;
+              ids[p] = id;
+            }
+          }
+          e0 += a0;
+          e1 += a1;
+          e2 += a2;
+        }
+        r0 += b0;
+        r1 += b1;
+        r2 += b2;
+      }
+    }
+  }
+
+  // Splits the tiles in halves until the pieces are small enough to
+  // run on one thread
+  private class RasterTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int first;
+    private final int end;
+
+    RasterTask(int first, int end) {
+      this.first = first;
+      this.end = end;
+    }
+
+    protected void compute() {
+      if (end - first <= 2) {
+        rasterizeTiles(first, end);
+        return;
+      }
+      int mid = (first + end) >>> 1;
+      invokeAll(new RasterTask(first, mid), new RasterTask(mid, end));
+    }
+  }
+}
@@ -0,0 +1,646 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.impl;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.java.joglutils.msg.math.Box3f;
+import net.java.joglutils.msg.math.Frustum;
+import net.java.joglutils.msg.math.Line;
+import net.java.joglutils.msg.math.Vec3f;
+
+/** A bounding volume hierarchy over a batch of triangles, for ray
+    queries in logarithmic rather than linear time. The hierarchy is
+    a binary tree of axis-aligned boxes whose splits are chosen with
+    the surface area heuristic; large inputs are built in parallel on
+    the common fork-join pool.
+
+    <P> Building reorders the triangles so that each leaf refers to a
+    contiguous range of them; {@link #getTriangles getTriangles}
+    returns the reordered batch, and {@link #getTriangleIndex
+    getTriangleIndex} maps positions in it back to positions in the
+    original batch. A TriangleBVH is immutable once built and may be
+    queried from several threads at once. */
+
+public class TriangleBVH {
+  /** Receives the intersections found by {@link #intersectAll
+      intersectAll}. */
+  public static interface HitCallback {
+    /** Called for each triangle the ray hits, with the triangle's
+        position in {@link #getTriangles getTriangles}, and the
+        parametric t and barycentric (u, v) of the intersection. */
+    public void hit(int index, float t, float u, float v);
+  }
+
+  /** Receives the triangles found by {@link #select select}. */
+  public static interface SelectCallback {
+    /** Called for each triangle selected, with its position in
+        {@link #getTriangles getTriangles}. Returns false to stop the
+        search. */
+    public boolean selected(int index);
+  }
+
+  /** The largest number of triangles stored in a leaf unless another
+      limit is given to the constructor: 8, or the number of triangles
+      the ray/triangle kernel tests at once if that is larger, such as
+      16 with the vectorized kernel on AVX-512. The kernel tests any
+      remainder shorter than a vector one triangle at a time, so
+      smaller leaves would never reach its vector path; larger leaves
+      also make a smaller tree, at the price of testing more triangles
+      per leaf. TriangleBVHBenchmark measures the tradeoff for a range
+      of leaf sizes. */
+  public static final int DEFAULT_MAX_LEAF_SIZE = Math.max(8, TriangleBatchKernel.laneCount());
+
+  // The number of bins along each axis when evaluating splits
+  private static final int NUM_BINS = 16;
+  // Estimated cost of visiting an interior node relative to testing
+  // one triangle
+  private static final float TRAVERSAL_COST = 1.0f;
+  // Subtrees with more triangles than this are built in parallel
+  private static final int PARALLEL_GRAIN = 4096;
+  // Depth of the traversal stack; the build keeps trees shallower
+  private static final int MAX_DEPTH = 64;
+
+  private final TriangleBatch triangles;
+  private final int[] triangleIndex;
+
+  // Node i has bounds nodeBounds[6 * i .. 6 * i + 5] as (minX, minY,
+  // minZ, maxX, maxY, maxZ). For a leaf, nodeCount[i] > 0 and
+  // nodeFirst[i] is its first triangle; for an interior node,
+  // nodeCount[i] == 0 and its children are nodeFirst[i] and
+  // nodeFirst[i] + 1. Node 0 is the root.
+  private final float[] nodeBounds;
+  private final int[] nodeFirst;
+  private final int[] nodeCount;
+  private final int numNodes;
+
+  /** Builds a hierarchy over the given triangles, which are copied. */
+  public TriangleBVH(TriangleBatch batch) {
+    this(batch, DEFAULT_MAX_LEAF_SIZE);
+  }
+
+  /** Builds a hierarchy over the given triangles, which are copied,
+      with at most the given number of triangles in each leaf except
+      where the tree would otherwise grow too deep.
+
+      @throws IllegalArgumentException if maxLeafSize is less than 1
+  */
+  public TriangleBVH(TriangleBatch batch, int maxLeafSize) {
+    if (maxLeafSize < 1) {
+      throw new IllegalArgumentException("Leaf size " + maxLeafSize + " is less than 1");
+    }
+    final int n = batch.size();
+    Builder b = new Builder(batch);
+    b.maxLeafSize = maxLeafSize;
+    int maxNodes = Math.max(2 * n - 1, 1);
+    nodeBounds = new float[6 * maxNodes];
+    nodeFirst = new int[maxNodes];
+    nodeCount = new int[maxNodes];
+    b.nodeBounds = nodeBounds;
+    b.nodeFirst = nodeFirst;
+    b.nodeCount = nodeCount;
+    b.nextNode.set(1);
+    if (n == 0) {
+      // An empty root which no ray hits
+      for (int i = 0; i < 3; i++) {
+        nodeBounds[i] = Float.POSITIVE_INFINITY;
+        nodeBounds[i + 3] = Float.NEGATIVE_INFINITY;
+      }
+      nodeCount[0] = 0;
+      nodeFirst[0] = -1;
+    } else if (n > PARALLEL_GRAIN) {
+      ForkJoinPool.commonPool().invoke(new BuildTask(b, 0, 0, n, 0));
+    } else {
+      b.build(0, 0, n, 0);
+    }
+    numNodes = b.nextNode.get();
+
+    // Lay the triangles out in leaf order
+    triangleIndex = b.perm;
+    triangles = new TriangleBatch(n);
+    Vec3f v0 = new Vec3f(), v1 = new Vec3f(), v2 = new Vec3f();
+    for (int i = 0; i < n; i++) {
+      batch.get(triangleIndex[i], v0, v1, v2);
+      triangles.add(v0, v1, v2);
+    }
+  }
+
+  /** Returns the triangles of this hierarchy in leaf order. The
+      returned batch must not be modified. */
+  public TriangleBatch getTriangles() {
+    return triangles;
+  }
+
+  /** Returns the position in the batch this hierarchy was built from
+      of the triangle at the given position of {@link #getTriangles
+      getTriangles}. */
+  public int getTriangleIndex(int index) {
+    return triangleIndex[index];
+  }
+
+  /** Returns the number of nodes in this hierarchy. */
+  public int getNumNodes() {
+    return numNodes;
+  }
+
+  /** Fetches the bounds of all of the triangles into dest. */
+  public void getBounds(Box3f dest) {
+    dest.getMin().set(nodeBounds[0], nodeBounds[1], nodeBounds[2]);
+    dest.getMax().set(nodeBounds[3], nodeBounds[4], nodeBounds[5]);
+  }
+
+  /** Finds the triangle nearest to the ray's point along the ray,
+      considering only intersections whose parametric t lies in [tMin,
+      tMax]. Returns its position in {@link #getTriangles
+      getTriangles}, storing the t and barycentric u and v of the
+      intersection into tuv, or returns -1 if no triangle is hit. If
+      cullBackfaces is true, triangles whose vertices appear clockwise
+      from the ray's point are ignored. */
+  public int intersect(Line ray, float tMin, float tMax, boolean cullBackfaces, Vec3f tuv) {
+    final Vec3f p = ray.getPoint();
+    final Vec3f d = ray.getDirection();
+    final float ox = p.x(), oy = p.y(), oz = p.z();
+    final float ix = 1.0f / d.x(), iy = 1.0f / d.y(), iz = 1.0f / d.z();
+    final float[] b = nodeBounds;
+    final Scratch scratch = SCRATCH.get();
+    final int[] stack = scratch.stack;
+    final float[] hit = scratch.tuv;
+    int sp = 0;
+    int best = -1;
+    float bestT = tMax;
+    int node = 0;
+    if (boxEntry(b, 0, ox, oy, oz, ix, iy, iz, tMin, bestT) == Float.POSITIVE_INFINITY) {
+      return -1;
+    }
+    while (true) {
+      int count = nodeCount[node];
+      if (count > 0) {
+        int first = nodeFirst[node];
+        int res = TriangleBatchKernel.intersect(triangles, first, first + count,
+                                                ox, oy, oz, d.x(), d.y(), d.z(),
+                                                tMin, bestT, cullBackfaces, false, hit);
+        if (res >= 0) {
+          best = res;
+          bestT = hit[0];
+          tuv.set(hit[0], hit[1], hit[2]);
+        }
+      } else if (nodeFirst[node] >= 0) {
+        // Visit the nearer child first and defer the other
+        int left = nodeFirst[node];
+        int right = left + 1;
+        float tl = boxEntry(b, left, ox, oy, oz, ix, iy, iz, tMin, bestT);
+        float tr = boxEntry(b, right, ox, oy, oz, ix, iy, iz, tMin, bestT);
+        if (tl != Float.POSITIVE_INFINITY) {
+          if (tr != Float.POSITIVE_INFINITY) {
+            if (tr < tl) {
+              stack[sp++] = left;
+              node = right;
+            } else {
+              stack[sp++] = right;
+              node = left;
+            }
+          } else {
+            node = left;
+          }
+          continue;
+        } else if (tr != Float.POSITIVE_INFINITY) {
+          node = right;
+          continue;
+        }
+      }
+      if (sp == 0) {
+        return best;
+      }
+      node = stack[--sp];
+    }
+  }
+
+  /** Reports every triangle the ray hits with a parametric t in
+      [tMin, tMax] to the given callback, in no particular order. */
+  public void intersectAll(Line ray, float tMin, float tMax, boolean cullBackfaces, HitCallback cb) {
+    final Vec3f p = ray.getPoint();
+    final Vec3f d = ray.getDirection();
+    final float ox = p.x(), oy = p.y(), oz = p.z();
+    final float ix = 1.0f / d.x(), iy = 1.0f / d.y(), iz = 1.0f / d.z();
+    final float[] b = nodeBounds;
+    final Scratch scratch = SCRATCH.get();
+    final int[] stack = scratch.stack;
+    final float[] tuv = scratch.tuv;
+    int sp = 0;
+    stack[sp++] = 0;
+    while (sp > 0) {
+      int node = stack[--sp];
+      if (boxEntry(b, node, ox, oy, oz, ix, iy, iz, tMin, tMax) == Float.POSITIVE_INFINITY) {
+        continue;
+      }
+      int count = nodeCount[node];
+      if (count > 0) {
+        for (int i = nodeFirst[node], end = i + count; i < end; i++) {
+          if (TriangleBatchKernel.intersect(triangles, i, i + 1,
+                                            ox, oy, oz, d.x(), d.y(), d.z(),
+                                            tMin, tMax, cullBackfaces, false, tuv) >= 0) {
+            cb.hit(i, tuv[0], tuv[1], tuv[2]);
+          }
+        }
+      } else if (nodeFirst[node] >= 0) {
+        stack[sp++] = nodeFirst[node];
+        stack[sp++] = nodeFirst[node] + 1;
+      }
+    }
+  }
+
+  /** Reports to the given callback, in no particular order, every
+      triangle which intersects the frustum, or if contained is true,
+      every triangle lying entirely inside it. The frustum must be in
+      the coordinate system of the triangles. Subtrees whose bounds
+      lie entirely inside the frustum are reported without testing
+      their triangles, and only triangles in leaves straddling it are
+      tested individually. Returns false if the callback stopped the
+      search. */
+  public boolean select(Frustum frustum, boolean contained, SelectCallback cb) {
+    final float[] b = nodeBounds;
+    final TriangleBatch tris = triangles;
+    final int[] stack = SCRATCH.get().stack;
+    int sp = 0;
+    stack[sp++] = 0;
+    while (sp > 0) {
+      int node = stack[--sp];
+      // Nodes known to be inside the frustum are stacked complemented
+      boolean inside = (node < 0);
+      if (inside) {
+        node = ~node;
+      } else {
+        int base = 6 * node;
+        if (b[base] > b[base + 3]) {
+          // Empty
+          continue;
+        }
+        int res = frustum.classifyBox(0.5f * (b[base    ] + b[base + 3]),
+                                      0.5f * (b[base + 1] + b[base + 4]),
+                                      0.5f * (b[base + 2] + b[base + 5]),
+                                      0.5f * (b[base + 3] - b[base    ]),
+                                      0.5f * (b[base + 4] - b[base + 1]),
+                                      0.5f * (b[base + 5] - b[base + 2]));
+        if (res == Frustum.OUTSIDE) {
+          continue;
+        }
+        inside = (res == Frustum.INSIDE);
+      }
+      int count = nodeCount[node];
+      if (count > 0) {
+        for (int i = nodeFirst[node], end = i + count; i < end; i++) {
+          if (!inside) {
+            float x = tris.v0x[i], y = tris.v0y[i], z = tris.v0z[i];
+            int res = frustum.classifyTriangle(x, y, z,
+                                               x + tris.e1x[i], y + tris.e1y[i], z + tris.e1z[i],
+                                               x + tris.e2x[i], y + tris.e2y[i], z + tris.e2z[i]);
+            if (res == Frustum.OUTSIDE || (contained && res != Frustum.INSIDE)) {
+              continue;
+            }
+          }
+          if (!cb.selected(i)) {
+            return false;
+          }
+        }
+      } else if (nodeFirst[node] >= 0) {
+        int left = nodeFirst[node];
+        stack[sp++] = inside ? ~left : left;
+        stack[sp++] = inside ? ~(left + 1) : left + 1;
+      }
+    }
+    return true;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  // Storage for queries, kept per thread so that queries from
+  // several threads neither allocate nor interfere
+  private static class Scratch {
+    final int[] stack = new int[MAX_DEPTH];
+    final float[] tuv = new float[3];
+  }
+  private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+      protected Scratch initialValue() {
+        return new Scratch();
+      }
+    };
+
+  // Returns the parametric t at which the ray enters the given node's
+  // box within [tMin, tMax], or positive infinity if it misses. The
+  // comparisons are arranged so that the NaNs arising from rays
+  // parallel to a slab and starting on it are ignored.
+  private static float boxEntry(float[] b, int node,
+                                float ox, float oy, float oz,
+                                float ix, float iy, float iz,
+                                float tMin, float tMax) {
+    final int i = 6 * node;
+    float t0 = (b[i    ] - ox) * ix, t1 = (b[i + 3] - ox) * ix;
+    float enter = tMin, exit = tMax;
+    float lo = (t0 < t1) ? t0 : t1, hi = (t0 < t1) ? t1 : t0;
+    if (lo > enter) enter = lo;
+    if (hi < exit)  exit = hi;
+    t0 = (b[i + 1] - oy) * iy; t1 = (b[i + 4] - oy) * iy;
+    lo = (t0 < t1) ? t0 : t1; hi = (t0 < t1) ? t1 : t0;
+    if (lo > enter) enter = lo;
+    if (hi < exit)  exit = hi;
+    t0 = (b[i + 2] - oz) * iz; t1 = (b[i + 5] - oz) * iz;
+    lo = (t0 < t1) ? t0 : t1; hi = (t0 < t1) ? t1 : t0;
+    if (lo > enter) enter = lo;
+    if (hi < exit)  exit = hi;
+    return (enter <= exit) ? enter : Float.POSITIVE_INFINITY;
+  }
+
+  // Holds the per-triangle data used while building, shared by the
+  // tasks building different subtrees
+  private static class Builder {
+    // Bounds and centroid of each triangle, kept in the same order as
+    // perm so that the passes over a node's range are sequential
+    final float[] triMin;
+    final float[] triMax;
+    final float[] centroid;
+    // The triangles of the input batch, reordered into leaf order
+    final int[] perm;
+    float[] nodeBounds;
+    int[] nodeFirst;
+    int[] nodeCount;
+    int maxLeafSize;
+    final AtomicInteger nextNode = new AtomicInteger();
+
+    Builder(TriangleBatch batch) {
+      int n = batch.size();
+      triMin = new float[3 * n];
+      triMax = new float[3 * n];
+      centroid = new float[3 * n];
+      perm = new int[n];
+      float[][] v0 = { batch.v0x, batch.v0y, batch.v0z };
+      float[][] e1 = { batch.e1x, batch.e1y, batch.e1z };
+      float[][] e2 = { batch.e2x, batch.e2y, batch.e2z };
+      for (int i = 0; i < n; i++) {
+        perm[i] = i;
+        for (int a = 0; a < 3; a++) {
+          float p0 = v0[a][i];
+          float p1 = p0 + e1[a][i];
+          float p2 = p0 + e2[a][i];
+          float lo = Math.min(p0, Math.min(p1, p2));
+          float hi = Math.max(p0, Math.max(p1, p2));
+          triMin[3 * i + a] = lo;
+          triMax[3 * i + a] = hi;
+          centroid[3 * i + a] = 0.5f * (lo + hi);
+        }
+      }
+    }
+
+    // Fills in the given node for the triangles perm[start..end), and
+    // returns the two children still to be built, if any, as
+    // (split << 32 | left), or -1 for a leaf
+    long makeNode(int node, int start, int end, int depth) {
+      final float[] nb = nodeBounds;
+      final int o = 6 * node;
+      float bx0 = Float.POSITIVE_INFINITY, by0 = bx0, bz0 = bx0;
+      float bx1 = Float.NEGATIVE_INFINITY, by1 = bx1, bz1 = bx1;
+      float cx0 = Float.POSITIVE_INFINITY, cy0 = cx0, cz0 = cx0;
+      float cx1 = Float.NEGATIVE_INFINITY, cy1 = cx1, cz1 = cx1;
+      for (int i = start; i < end; i++) {
+        int t = 3 * i;
+        bx0 = Math.min(bx0, triMin[t]);     by0 = Math.min(by0, triMin[t + 1]); bz0 = Math.min(bz0, triMin[t + 2]);
+        bx1 = Math.max(bx1, triMax[t]);     by1 = Math.max(by1, triMax[t + 1]); bz1 = Math.max(bz1, triMax[t + 2]);
+        cx0 = Math.min(cx0, centroid[t]);   cy0 = Math.min(cy0, centroid[t + 1]); cz0 = Math.min(cz0, centroid[t + 2]);
+        cx1 = Math.max(cx1, centroid[t]);   cy1 = Math.max(cy1, centroid[t + 1]); cz1 = Math.max(cz1, centroid[t + 2]);
+      }
+      nb[o] = bx0; nb[o + 1] = by0; nb[o + 2] = bz0;
+      nb[o + 3] = bx1; nb[o + 4] = by1; nb[o + 5] = bz1;
+
+      int count = end - start;
+      if (count <= maxLeafSize || depth >= MAX_DEPTH - 2) {
+        return makeLeaf(node, start, count);
+      }
+
+      // Bin the triangles along all three axes in one pass; an axis
+      // along which the centroids coincide puts everything in bin 0
+      // and so offers no split
+      float[] cmin = { cx0, cy0, cz0 };
+      float[] scale = new float[3];
+      for (int a = 0; a < 3; a++) {
+        float extent = ((a == 0) ? cx1 : ((a == 1) ? cy1 : cz1)) - cmin[a];
+        scale[a] = (extent > 0) ? NUM_BINS / extent : 0;
+      }
+      int[] binCount = new int[3 * NUM_BINS];
+      float[] binBounds = new float[6 * 3 * NUM_BINS];
+      for (int k = 0; k < 3 * NUM_BINS; k++) {
+        resetBounds(binBounds, k);
+      }
+      for (int i = start; i < end; i++) {
+        int t = 3 * i;
+        float x0 = triMin[t], y0 = triMin[t + 1], z0 = triMin[t + 2];
+        float x1 = triMax[t], y1 = triMax[t + 1], z1 = triMax[t + 2];
+        for (int a = 0; a < 3; a++) {
+          int bin = a * NUM_BINS + binOf(centroid[t + a], cmin[a], scale[a]);
+          binCount[bin]++;
+          int b = 6 * bin;
+          if (x0 < binBounds[b])     binBounds[b]     = x0;
+          if (y0 < binBounds[b + 1]) binBounds[b + 1] = y0;
+          if (z0 < binBounds[b + 2]) binBounds[b + 2] = z0;
+          if (x1 > binBounds[b + 3]) binBounds[b + 3] = x1;
+          if (y1 > binBounds[b + 4]) binBounds[b + 4] = y1;
+          if (z1 > binBounds[b + 5]) binBounds[b + 5] = z1;
+        }
+      }
+
+      // For each axis, sweep from the right to get the area of each
+      // right side, then from the left to evaluate the cost of each
+      // split
+      int bestAxis = -1;
+      int bestBin = -1;
+      float bestCost = Float.POSITIVE_INFINITY;
+      float[] rightArea = new float[NUM_BINS];
+      float[] acc = new float[6];
+      for (int axis = 0; axis < 3; axis++) {
+        int first = axis * NUM_BINS;
+        resetBounds(acc, 0);
+        for (int k = NUM_BINS - 1; k > 0; k--) {
+          mergeBounds(acc, binBounds, first + k);
+          rightArea[k] = area(acc);
+        }
+        resetBounds(acc, 0);
+        int leftCount = 0;
+        for (int k = 0; k < NUM_BINS - 1; k++) {
+          mergeBounds(acc, binBounds, first + k);
+          leftCount += binCount[first + k];
+          int rightCount = count - leftCount;
+          if (leftCount == 0 || rightCount == 0) {
+            continue;
+          }
+          float cost = area(acc) * leftCount + rightArea[k + 1] * rightCount;
+          if (cost < bestCost) {
+            bestCost = cost;
+            bestAxis = axis;
+            bestBin = k;
+          }
+        }
+      }
+
+      float parentArea = area(nb, o);
+      int mid;
+      if (bestAxis < 0) {
+        // All centroids coincide; split the range in half
+        if (count <= 4 * maxLeafSize) {
+          return makeLeaf(node, start, count);
+        }
+        mid = start + count / 2;
+      } else {
+        float splitCost = TRAVERSAL_COST + bestCost / parentArea;
+        if (splitCost >= count && count <= 4 * maxLeafSize) {
+          return makeLeaf(node, start, count);
+        }
+        // Partition perm so that bins 0..bestBin come first
+        float min = cmin[bestAxis], s = scale[bestAxis];
+        int i = start, j = end - 1;
+        while (i <= j) {
+          if (binOf(centroid[3 * i + bestAxis], min, s) <= bestBin) {
+            i++;
+          } else {
+            swap(i, j);
+            j--;
+          }
+        }
+        mid = i;
+      }
+      int left = nextNode.getAndAdd(2);
+      nodeFirst[node] = left;
+      nodeCount[node] = 0;
+      return ((long) mid << 32) | left;
+    }
+
+    void build(int node, int start, int end, int depth) {
+      long children = makeNode(node, start, end, depth);
+      if (children >= 0) {
+        int left = (int) children;
+        int mid = (int) (children >>> 32);
+        build(left, start, mid, depth + 1);
+        build(left + 1, mid, end, depth + 1);
+      }
+    }
+
+    private long makeLeaf(int node, int start, int count) {
+      nodeFirst[node] = start;
+      nodeCount[node] = count;
+      return -1;
+    }
+
+    private void swap(int i, int j) {
+      int tmp = perm[i]; perm[i] = perm[j]; perm[j] = tmp;
+      swap3(triMin, i, j);
+      swap3(triMax, i, j);
+      swap3(centroid, i, j);
+    }
+
+    private static void swap3(float[] a, int i, int j) {
+      for (int k = 0, p = 3 * i, q = 3 * j; k < 3; k++, p++, q++) {
+        float tmp = a[p]; a[p] = a[q]; a[q] = tmp;
+      }
+    }
+
+    private static int binOf(float c, float min, float scale) {
+      int bin = (int) ((c - min) * scale);
+      return (bin < 0) ? 0 : ((bin >= NUM_BINS) ? NUM_BINS - 1 : bin);
+    }
+
+    private static void resetBounds(float[] b, int k) {
+      int o = 6 * k;
+      b[o] = b[o + 1] = b[o + 2] = Float.POSITIVE_INFINITY;
+      b[o + 3] = b[o + 4] = b[o + 5] = Float.NEGATIVE_INFINITY;
+    }
+
+    private static void mergeBounds(float[] acc, float[] b, int k) {
+      int o = 6 * k;
+      for (int a = 0; a < 3; a++) {
+        acc[a] = Math.min(acc[a], b[o + a]);
+        acc[3 + a] = Math.max(acc[3 + a], b[o + 3 + a]);
+      }
+    }
+
+    private static float area(float[] b) {
+      return area(b, 0);
+    }
+
+    private static float area(float[] b, int o) {
+      float dx = b[o + 3] - b[o], dy = b[o + 4] - b[o + 1], dz = b[o + 5] - b[o + 2];
+      if (!(dx >= 0)) {
+        return 0;
+      }
+      return dx * dy + dy * dz + dz * dx;
+    }
+  }
+
+  // Builds a subtree, forking the children of large nodes
+  private static class BuildTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Builder builder;
+    private final int node;
+    private final int start;
+    private final int end;
+    private final int depth;
+
+    BuildTask(Builder builder, int node, int start, int end, int depth) {
+      this.builder = builder;
+      this.node = node;
+      this.start = start;
+      this.end = end;
+      this.depth = depth;
+    }
+
+    protected void compute() {
+      if (end - start <= PARALLEL_GRAIN) {
+        builder.build(node, start, end, depth);
+        return;
+      }
+      long children = builder.makeNode(node, start, end, depth);
+      if (children >= 0) {
+        int left = (int) children;
+        int mid = (int) (children >>> 32);
+        invokeAll(new BuildTask(builder, left, start, mid, depth + 1),
+                  new BuildTask(builder, left + 1, mid, end, depth + 1));
+      }
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.impl;
+
+import java.util.Arrays;
+
+import net.java.joglutils.msg.math.Line;
+import net.java.joglutils.msg.math.Vec3f;
+
+/** A batch of triangles stored in structure-of-arrays form for
+    testing one ray against many triangles at a time. Each triangle
+    is stored as its first vertex and the two edges leaving it, which
+    is the form the Moller-Trumbore test used by {@link
+    RayTriangleIntersection RayTriangleIntersection} consumes, so no
+    per-test setup is needed.
+
+    <P> On JDK 16 and later, when the <CODE>jdk.incubator.vector</CODE>
+    module is present (for example, by running with
+    <CODE>--add-modules jdk.incubator.vector</CODE>), the tests are
+    performed on as many triangles at once as the CPU's vector
+    registers hold: 8 with AVX2, 16 with AVX-512. Otherwise a scalar
+    loop is used. The results are the same either way. */
+
+public class TriangleBatch {
+  // First vertex of each triangle
+  float[] v0x, v0y, v0z;
+  // Edge from vertex 0 to vertex 1
+  float[] e1x, e1y, e1z;
+  // Edge from vertex 0 to vertex 2
+  float[] e2x, e2y, e2z;
+  private int size;
+
+  // Scratch space for the kernels' (t, u, v) output
+  private final float[] tuvTmp = new float[3];
+
+  /** Creates an empty batch. */
+  public TriangleBatch() {
+    this(16);
+  }
+
+  /** Creates an empty batch with room for roughly the given number of
+      triangles. */
+  public TriangleBatch(int estimatedSize) {
+    allocate(Math.max(estimatedSize, 1));
+  }
+
+  /** Returns the number of triangles in this batch. */
+  public int size() {
+    return size;
+  }
+
+  /** Removes all triangles from this batch. */
+  public void clear() {
+    size = 0;
+  }
+
+  /** Appends the triangle with the given vertices to this batch and
+      returns its index. */
+  public int add(Vec3f vert0, Vec3f vert1, Vec3f vert2) {
+    if (size == v0x.length) {
+      allocate(2 * size);
+    }
+    int index = size++;
+    set(index, vert0, vert1, vert2);
+    return index;
+  }
+
+  /** Replaces the triangle at the given index. */
+  public void set(int index, Vec3f vert0, Vec3f vert1, Vec3f vert2) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("" + index + " >= " + size);
+    }
+    v0x[index] = vert0.x();
+    v0y[index] = vert0.y();
+    v0z[index] = vert0.z();
+    e1x[index] = vert1.x() - vert0.x();
+    e1y[index] = vert1.y() - vert0.y();
+    e1z[index] = vert1.z() - vert0.z();
+    e2x[index] = vert2.x() - vert0.x();
+    e2y[index] = vert2.y() - vert0.y();
+    e2z[index] = vert2.z() - vert0.z();
+  }
+
+  /** Fetches the vertices of the triangle at the given index. */
+  public void get(int index, Vec3f vert0, Vec3f vert1, Vec3f vert2) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("" + index + " >= " + size);
+    }
+    float x = v0x[index], y = v0y[index], z = v0z[index];
+    vert0.set(x, y, z);
+    vert1.set(x + e1x[index], y + e1y[index], z + e1z[index]);
+    vert2.set(x + e2x[index], y + e2y[index], z + e2z[index]);
+  }
+
+  /** Computes the point of the triangle at the given index whose
+      barycentric coordinates are (u, v), that is, vert0 + u * (vert1
+      - vert0) + v * (vert2 - vert0), into dest. */
+  public void getPoint(int index, float u, float v, Vec3f dest) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("" + index + " >= " + size);
+    }
+    dest.set(v0x[index] + u * e1x[index] + v * e2x[index],
+             v0y[index] + u * e1y[index] + v * e2y[index],
+             v0z[index] + u * e1z[index] + v * e2z[index]);
+  }
+
+  /** Finds the triangle of this batch nearest to the ray's point
+      along the ray, considering only intersections whose parametric t
+      lies in [tMin, tMax]. Returns its index, storing the t and the
+      barycentric u and v of the intersection into tuv, or returns -1
+      if no triangle is hit. If cullBackfaces is true, triangles whose
+      vertices appear clockwise as seen from the ray's point are
+      ignored. */
+  public int intersect(Line ray, float tMin, float tMax, boolean cullBackfaces, Vec3f tuv) {
+    return intersect(ray, 0, size, tMin, tMax, cullBackfaces, tuv);
+  }
+
+  /** Like {@link #intersect(Line, float, float, boolean, Vec3f)
+      intersect}, but only considers the count triangles starting at
+      the given index. */
+  public int intersect(Line ray, int start, int count,
+                       float tMin, float tMax, boolean cullBackfaces, Vec3f tuv) {
+    int res = run(ray, start, count, tMin, tMax, cullBackfaces, false);
+    if (res >= 0) {
+      tuv.set(tuvTmp[0], tuvTmp[1], tuvTmp[2]);
+    }
+    return res;
+  }
+
+  /** Indicates whether the ray hits any triangle of this batch with a
+      parametric t in [tMin, tMax]; for example, to test line of sight.
+      Returns as soon as one hit is found. */
+  public boolean intersectsAny(Line ray, float tMin, float tMax, boolean cullBackfaces) {
+    return intersectsAny(ray, 0, size, tMin, tMax, cullBackfaces);
+  }
+
+  /** Like {@link #intersectsAny(Line, float, float, boolean)
+      intersectsAny}, but only considers the count triangles starting
+      at the given index. */
+  public boolean intersectsAny(Line ray, int start, int count,
+                               float tMin, float tMax, boolean cullBackfaces) {
+    return (run(ray, start, count, tMin, tMax, cullBackfaces, true) >= 0);
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private int run(Line ray, int start, int count,
+                  float tMin, float tMax, boolean cullBackfaces, boolean anyHit) {
+    if (start < 0 || count < 0 || start + count > size) {
+      throw new IndexOutOfBoundsException("Range " + start + " + " + count + " exceeds size " + size);
+    }
+    Vec3f p = ray.getPoint();
+    Vec3f d = ray.getDirection();
+    return TriangleBatchKernel.intersect(this, start, start + count,
+                                         p.x(), p.y(), p.z(), d.x(), d.y(), d.z(),
+                                         tMin, tMax, cullBackfaces, anyHit, tuvTmp);
+  }
+
+  private void allocate(int capacity) {
+    if (v0x == null) {
+      v0x = new float[capacity]; v0y = new float[capacity]; v0z = new float[capacity];
+      e1x = new float[capacity]; e1y = new float[capacity]; e1z = new float[capacity];
+      e2x = new float[capacity]; e2y = new float[capacity]; e2z = new float[capacity];
+    } else {
+      v0x = Arrays.copyOf(v0x, capacity); v0y = Arrays.copyOf(v0y, capacity); v0z = Arrays.copyOf(v0z, capacity);
+      e1x = Arrays.copyOf(e1x, capacity); e1y = Arrays.copyOf(e1y, capacity); e1z = Arrays.copyOf(e1z, capacity);
+      e2x = Arrays.copyOf(e2x, capacity); e2y = Arrays.copyOf(e2y, capacity); e2z = Arrays.copyOf(e2z, capacity);
+    }
+  }
+}
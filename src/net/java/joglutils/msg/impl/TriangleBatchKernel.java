@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.impl;
+
+/** Tests a ray against a range of a TriangleBatch. This version is
+    used on JDKs older than 16; the multi-release jar supplies one
+    which uses the Vector API where it is available. */
+
+final class TriangleBatchKernel {
+  private TriangleBatchKernel() {}
+
+  /** Returns the index of the hit triangle in [start, end) closest
+      to the ray's origin, or the first one found if anyHit is true,
+      storing its (t, u, v) into tuv; or -1 if there is none. */
+  static int intersect(TriangleBatch batch, int start, int end,
+                       float ox, float oy, float oz,
+                       float dx, float dy, float dz,
+                       float tMin, float tMax,
+                       boolean cullBackfaces, boolean anyHit,
+                       float[] tuv) {
+    return ScalarTriangleKernel.intersect(batch, start, end, ox, oy, oz, dx, dy, dz,
+                                          tMin, tMax, cullBackfaces, anyHit, tuv);
+  }
+
+  /** Returns the number of triangles tested at once; ranges shorter
+      than this are tested one triangle at a time. */
+  static int laneCount() {
+    return 1;
+  }
+}
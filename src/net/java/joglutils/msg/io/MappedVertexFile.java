@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.java.joglutils.msg.collections.Vec3fCollection;
+import net.java.joglutils.msg.impl.BufferFactory;
+import net.java.joglutils.msg.nodes.Coordinate3;
+
+/** Memory-maps raw arrays of 32-bit floats in a file, such as vertex
+    dumps written by a preprocessing tool, directly into collections
+    without reading or copying them. Pages are loaded on demand by the
+    operating system, and processes mapping the same file share its
+    page cache. <P>
+
+    In READ_ONLY mode attempts to modify the mapped collections throw
+    ReadOnlyBufferException; in COPY_ON_WRITE mode modifications are
+    private to this process and never written back to the file. In
+    either mode, adding elements to a mapped collection copies it into
+    newly allocated memory. <P>
+
+    A single mapping is limited to 2 GB, so larger files are mapped
+    as several collections, for example one per Coordinate3 node (see
+    {@link #mapVec3fChunks mapVec3fChunks}). Mapped collections remain
+    valid after {@link #close close} is called, and each region is
+    unmapped when the garbage collector finds it unreferenced. An
+    application which needs the address space back sooner, and knows
+    that nothing reads the regions any more, may call {@link
+    #closeAndUnmap closeAndUnmap} instead. */
+
+public class MappedVertexFile implements Closeable {
+  /** Maps the file read-only. */
+  public static final int READ_ONLY     = 1;
+  /** Maps the file copy-on-write. This requires write access to the
+      file, although the file itself is never modified. */
+  public static final int COPY_ON_WRITE = 2;
+
+  /** The largest number of 3-component vectors which can be mapped
+      into a single collection. */
+  public static final int MAX_VEC3F_PER_MAPPING = Integer.MAX_VALUE / 12;
+
+  private final RandomAccessFile raf;
+  private final FileChannel channel;
+  private final int mode;
+  private final ByteOrder order;
+  private final List<MappedByteBuffer> mappings = new ArrayList<MappedByteBuffer>();
+
+  /** Opens the given file, whose floats are in the native byte order,
+      in the given mode, either READ_ONLY or COPY_ON_WRITE. */
+  public MappedVertexFile(File file, int mode) throws IOException {
+    this(file, mode, ByteOrder.nativeOrder());
+  }
+
+  /** Opens the given file, whose floats are in the given byte order,
+      in the given mode, either READ_ONLY or COPY_ON_WRITE. Data in a
+      byte order other than the native one can be read and picked, but
+      not rendered by OpenGL without converting it first. */
+  public MappedVertexFile(File file, int mode, ByteOrder order) throws IOException {
+    if (mode != READ_ONLY && mode != COPY_ON_WRITE) {
+      throw new IllegalArgumentException("Illegal mapping mode " + mode);
+    }
+    this.mode = mode;
+    this.order = order;
+    raf = new RandomAccessFile(file, (mode == COPY_ON_WRITE) ? "rw" : "r");
+    channel = raf.getChannel();
+  }
+
+  /** Returns the size of the file in bytes. */
+  public long size() throws IOException {
+    return channel.size();
+  }
+
+  /** Maps <CODE>numFloats</CODE> floats starting at the given byte
+      offset in the file, which must be a multiple of 4. */
+  public FloatBuffer mapFloats(long byteOffset, int numFloats) throws IOException {
+    if (byteOffset % 4 != 0) {
+      throw new IllegalArgumentException("Offset " + byteOffset + " is not a multiple of 4");
+    }
+    if (numFloats < 0 || numFloats > Integer.MAX_VALUE / 4) {
+      throw new IllegalArgumentException("Can not map " + numFloats + " floats at once");
+    }
+    long numBytes = 4L * numFloats;
+    MappedByteBuffer buf;
+    synchronized (mappings) {
+      if (!channel.isOpen()) {
+        throw new IOException("File has been closed");
+      }
+      if (byteOffset < 0 || byteOffset + numBytes > channel.size()) {
+        throw new IOException("Region " + byteOffset + " + " + numBytes +
+                              " lies outside the file of size " + channel.size());
+      }
+      buf = channel.map((mode == COPY_ON_WRITE) ? FileChannel.MapMode.PRIVATE : FileChannel.MapMode.READ_ONLY,
+                        byteOffset, numBytes);
+      mappings.add(buf);
+    }
+    buf.order(order);
+    return buf.asFloatBuffer();
+  }
+
+  /** Maps <CODE>numVectors</CODE> consecutive 3-component vectors
+      starting at the given byte offset in the file into a
+      Vec3fCollection. */
+  public Vec3fCollection mapVec3f(long byteOffset, int numVectors) throws IOException {
+    if (numVectors > MAX_VEC3F_PER_MAPPING) {
+      throw new IllegalArgumentException("Can not map " + numVectors + " vectors at once");
+    }
+    return new Vec3fCollection(mapFloats(byteOffset, 3 * numVectors));
+  }
+
+  /** Maps all of the 3-component vectors from the given byte offset to
+      the end of the file, ignoring any trailing partial vector, into
+      as many Vec3fCollections as necessary, each holding at most
+      <CODE>maxVectorsPerChunk</CODE> vectors. */
+  public Vec3fCollection[] mapVec3fChunks(long byteOffset, int maxVectorsPerChunk) throws IOException {
+    if (maxVectorsPerChunk <= 0) {
+      throw new IllegalArgumentException("Illegal chunk size " + maxVectorsPerChunk);
+    }
+    int chunkSize = Math.min(maxVectorsPerChunk, MAX_VEC3F_PER_MAPPING);
+    long numVectors = Math.max(0, (channel.size() - byteOffset) / 12);
+    int numChunks = (int) ((numVectors + chunkSize - 1) / chunkSize);
+    Vec3fCollection[] res = new Vec3fCollection[numChunks];
+    for (int i = 0; i < numChunks; i++) {
+      int n = (int) Math.min(chunkSize, numVectors - (long) i * chunkSize);
+      res[i] = mapVec3f(byteOffset + 12L * i * chunkSize, n);
+    }
+    return res;
+  }
+
+  /** Creates a Coordinate3 node whose data is mapped from
+      <CODE>numVertices</CODE> vertices starting at the given byte
+      offset in the file. */
+  public Coordinate3 mapCoordinate3(long byteOffset, int numVertices) throws IOException {
+    Coordinate3 coords = new Coordinate3();
+    coords.setData(mapVec3f(byteOffset, numVertices));
+    return coords;
+  }
+
+  /** Closes the file. Regions already mapped remain valid, so the
+      collections and buffers returned from this object, and nodes
+      using them, may still be used; each region is unmapped once it
+      is garbage collected. */
+  public void close() throws IOException {
+    synchronized (mappings) {
+      raf.close();
+      mappings.clear();
+    }
+  }
+
+  /** Closes the file and unmaps every region mapped through this
+      object immediately, rather than when it is garbage collected.
+      This is only safe once the collections and buffers returned from
+      this object have been disposed of and no node, OpenGL call or
+      other thread can read them any more: reading an unmapped region
+      crashes the JVM. */
+  public void closeAndUnmap() throws IOException {
+    synchronized (mappings) {
+      raf.close();
+      for (MappedByteBuffer buf : mappings) {
+        BufferFactory.unmap(buf);
+      }
+      mappings.clear();
+    }
+  }
+}
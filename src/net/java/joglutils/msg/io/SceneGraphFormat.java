@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.io;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+/** Constants and helpers shared by the scene graph reader and
+    writer. The file layout is:
+
+<PRE>
+    header       magic "MSGB", byte order of payloads, version,
+                 page size, number of payloads, number of nodes,
+                 root node id, length of the structure section
+    directory    for each payload: kind, element count, file offset
+    structure    one record per node, children before their parents
+    payloads     raw vertex and index arrays, each page-aligned
+</PRE>
+
+    The header, directory and structure are always big-endian; the
+    payloads are written in the native byte order of the writing
+    machine, which is recorded in the header.
+*/
+
+class SceneGraphFormat {
+  static final byte[] MAGIC = { 'M', 'S', 'G', 'B' };
+  static final int VERSION = 1;
+  static final int PAGE_SIZE = 4096;
+
+  static final int HEADER_SIZE    = 32;
+  static final int DIRECTORY_ENTRY_SIZE = 16;
+
+  static final byte BIG_ENDIAN    = 0;
+  static final byte LITTLE_ENDIAN = 1;
+
+  // Payload kinds
+  static final int VEC2F = 1;
+  static final int VEC3F = 2;
+  static final int VEC4F = 3;
+  static final int INT   = 4;
+
+  // Node tags
+  static final int GROUP                = 1;
+  static final int SEPARATOR            = 2;
+  static final int TRANSFORM            = 3;
+  static final int COORDINATE3          = 4;
+  static final int TEXTURE_COORDINATE2  = 5;
+  static final int COLOR4               = 6;
+  static final int TRIANGLE_SET         = 7;
+  static final int INDEXED_TRIANGLE_SET = 8;
+  static final int TEXTURE2             = 9;
+
+  /** Indicates an absent payload or node reference. */
+  static final int NONE = -1;
+
+  static byte encodeOrder(ByteOrder order) {
+    return (order == ByteOrder.BIG_ENDIAN) ? BIG_ENDIAN : LITTLE_ENDIAN;
+  }
+
+  static ByteOrder decodeOrder(byte order) throws IOException {
+    switch (order) {
+      case BIG_ENDIAN:    return ByteOrder.BIG_ENDIAN;
+      case LITTLE_ENDIAN: return ByteOrder.LITTLE_ENDIAN;
+      default: throw new IOException("Illegal byte order " + order);
+    }
+  }
+
+  /** Returns the number of floats or ints per element of the given
+      payload kind. */
+  static int componentsPerElement(int kind) throws IOException {
+    switch (kind) {
+      case VEC2F: return 2;
+      case VEC3F: return 3;
+      case VEC4F: return 4;
+      case INT:   return 1;
+      default: throw new IOException("Illegal payload kind " + kind);
+    }
+  }
+
+  static long align(long offset) {
+    return (offset + PAGE_SIZE - 1) & ~((long) PAGE_SIZE - 1);
+  }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import net.java.joglutils.msg.collections.Vec2fCollection;
+import net.java.joglutils.msg.collections.Vec3fCollection;
+import net.java.joglutils.msg.collections.Vec4fCollection;
+import net.java.joglutils.msg.impl.BufferFactory;
+import net.java.joglutils.msg.impl.BufferScope;
+import net.java.joglutils.msg.math.Mat4f;
+import net.java.joglutils.msg.nodes.Color4;
+import net.java.joglutils.msg.nodes.Coordinate3;
+import net.java.joglutils.msg.nodes.Group;
+import net.java.joglutils.msg.nodes.IndexedTriangleSet;
+import net.java.joglutils.msg.nodes.Node;
+import net.java.joglutils.msg.nodes.Separator;
+import net.java.joglutils.msg.nodes.Texture2;
+import net.java.joglutils.msg.nodes.TextureCoordinate2;
+import net.java.joglutils.msg.nodes.Transform;
+import net.java.joglutils.msg.nodes.TriangleSet;
+
+/** Reads a scene graph written by {@link SceneGraphWriter}. <P>
+
+    When the file was written on a machine of the same byte order,
+    vertex and index arrays are memory-mapped straight into the
+    direct buffers behind the loaded collections rather than being
+    copied or parsed. The mappings are private, so modifying a loaded
+    collection does not modify the file; the mapped pages are only
+    copied when they are written to. (Private mappings require the
+    file to be writable; for a read-only file the mappings are
+    read-only as well, and loaded collections may be grown but not
+    modified in place.) Otherwise the arrays are read
+    and converted to the native byte order. Each array must be
+    smaller than 2 GB, the largest size of a Java buffer; larger
+    ones are rejected with an IOException. <P>
+
+    Texture2 nodes are set up to load their images lazily from the
+    recorded URLs the first time they are rendered. */
+
+public class SceneGraphReader {
+  private SceneGraphReader() {}
+
+  /** Reads the scene graph in the given file, memory-mapping its
+      vertex and index arrays when possible, and returns its root. */
+  public static Node read(File file) throws IOException {
+    return read(file, true);
+  }
+
+  /** Reads the scene graph in the given file and returns its root. If
+      <CODE>map</CODE> is false, vertex and index arrays are always
+      copied into newly allocated buffers, which allows the file to
+      be deleted or rewritten while the graph is in use. */
+  public static Node read(File file, boolean map) throws IOException {
+    // Opening the file for writing is only needed for private
+    // mappings; nothing is ever written back to it
+    boolean writable = map && file.canWrite();
+    RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+    try {
+      return read(raf.getChannel(), map, writable);
+    } finally {
+      raf.close();
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private static Node read(FileChannel channel, boolean map, boolean writable) throws IOException {
+    ByteBuffer header = readFully(channel, 0, SceneGraphFormat.HEADER_SIZE);
+    for (int i = 0; i < SceneGraphFormat.MAGIC.length; i++) {
+      if (header.get() != SceneGraphFormat.MAGIC[i]) {
+        throw new IOException("Not a scene graph file");
+      }
+    }
+    ByteOrder order = SceneGraphFormat.decodeOrder(header.get());
+    header.position(header.position() + 3);
+    int version = header.getInt();
+    if (version != SceneGraphFormat.VERSION) {
+      throw new IOException("Unsupported scene graph file version " + version);
+    }
+    int pageSize = header.getInt();
+    int numPayloads = header.getInt();
+    int numNodes = header.getInt();
+    int rootId = header.getInt();
+    int structureLength = header.getInt();
+    if (numPayloads < 0 || numNodes <= 0 || rootId < 0 || rootId >= numNodes || structureLength < 0) {
+      throw new IOException("Corrupt scene graph file header");
+    }
+
+    // Payloads
+    map = map && (order == ByteOrder.nativeOrder()) && (pageSize % SceneGraphFormat.PAGE_SIZE == 0);
+    ByteBuffer directory = readFully(channel, SceneGraphFormat.HEADER_SIZE,
+                                     checkedProduct(numPayloads, SceneGraphFormat.DIRECTORY_ENTRY_SIZE));
+    int[] kinds = new int[numPayloads];
+    Object[] payloads = new Object[numPayloads];
+    for (int i = 0; i < numPayloads; i++) {
+      int kind = directory.getInt();
+      int count = directory.getInt();
+      long offset = directory.getLong();
+      if (count < 0 || offset < 0) {
+        throw new IOException("Corrupt scene graph payload directory");
+      }
+      // Each payload must fit in a single direct buffer
+      int numComponents = checkedProduct(count, SceneGraphFormat.componentsPerElement(kind));
+      checkedProduct(numComponents, 4);
+      if (offset + 4L * numComponents > channel.size()) {
+        throw new IOException("Corrupt scene graph payload directory");
+      }
+      Buffer data = readPayload(channel, kind, numComponents, offset, order, map, writable);
+      kinds[i] = kind;
+      switch (kind) {
+        case SceneGraphFormat.VEC2F: payloads[i] = new Vec2fCollection((FloatBuffer) data); break;
+        case SceneGraphFormat.VEC3F: payloads[i] = new Vec3fCollection((FloatBuffer) data); break;
+        case SceneGraphFormat.VEC4F: payloads[i] = new Vec4fCollection((FloatBuffer) data); break;
+        default:                     payloads[i] = data; break;
+      }
+    }
+
+    // Structure
+    ByteBuffer structureBuf = readFully(channel,
+                                        SceneGraphFormat.HEADER_SIZE +
+                                        (long) numPayloads * SceneGraphFormat.DIRECTORY_ENTRY_SIZE,
+                                        structureLength);
+    DataInputStream structure = new DataInputStream(new ByteArrayInputStream(structureBuf.array()));
+    Node[] nodes = new Node[numNodes];
+    for (int i = 0; i < numNodes; i++) {
+      nodes[i] = readNode(structure, nodes, i, payloads, kinds);
+    }
+    return nodes[rootId];
+  }
+
+  private static Node readNode(DataInputStream in, Node[] nodes, int id,
+                               Object[] payloads, int[] kinds) throws IOException {
+    int tag = in.readByte();
+    switch (tag) {
+      case SceneGraphFormat.GROUP:
+      case SceneGraphFormat.SEPARATOR: {
+        Group group = (tag == SceneGraphFormat.SEPARATOR) ? new Separator() : new Group();
+        int numChildren = in.readInt();
+        for (int i = 0; i < numChildren; i++) {
+          int childId = in.readInt();
+          // Children are always written before their parents
+          if (childId < 0 || childId >= id) {
+            throw new IOException("Illegal child reference " + childId + " in node " + id);
+          }
+          group.addChild(nodes[childId]);
+        }
+        return group;
+      }
+
+      case SceneGraphFormat.TRANSFORM: {
+        Mat4f mat = new Mat4f();
+        for (int i = 0; i < 4; i++) {
+          for (int j = 0; j < 4; j++) {
+            mat.set(i, j, in.readFloat());
+          }
+        }
+        Transform transform = new Transform();
+        transform.setTransform(mat);
+        return transform;
+      }
+
+      case SceneGraphFormat.COORDINATE3: {
+        Coordinate3 coords = new Coordinate3();
+        coords.setData((Vec3fCollection) getPayload(in.readInt(), SceneGraphFormat.VEC3F, payloads, kinds));
+        return coords;
+      }
+
+      case SceneGraphFormat.TEXTURE_COORDINATE2: {
+        TextureCoordinate2 texCoords = new TextureCoordinate2();
+        texCoords.setData((Vec2fCollection) getPayload(in.readInt(), SceneGraphFormat.VEC2F, payloads, kinds));
+        return texCoords;
+      }
+
+      case SceneGraphFormat.COLOR4: {
+        Color4 colors = new Color4();
+        colors.setData((Vec4fCollection) getPayload(in.readInt(), SceneGraphFormat.VEC4F, payloads, kinds));
+        return colors;
+      }
+
+      case SceneGraphFormat.TRIANGLE_SET: {
+        TriangleSet triSet = new TriangleSet();
+        triSet.setNumTriangles(in.readInt());
+        return triSet;
+      }
+
+      case SceneGraphFormat.INDEXED_TRIANGLE_SET: {
+        IndexedTriangleSet triSet = new IndexedTriangleSet();
+        triSet.setIndices((IntBuffer) getPayload(in.readInt(), SceneGraphFormat.INT, payloads, kinds));
+        return triSet;
+      }
+
+      case SceneGraphFormat.TEXTURE2: {
+        Texture2 texture = new Texture2();
+        texture.setTexEnvMode(in.readInt());
+        if (in.readBoolean()) {
+          URL url = new URL(in.readUTF());
+          boolean mipmap = in.readBoolean();
+          String suffix = in.readBoolean() ? in.readUTF() : null;
+          texture.setTexture(url, mipmap, suffix);
+        }
+        return texture;
+      }
+
+      default:
+        throw new IOException("Unknown node tag " + tag + " for node " + id);
+    }
+  }
+
+  private static Object getPayload(int id, int kind, Object[] payloads, int[] kinds) throws IOException {
+    if (id == SceneGraphFormat.NONE) {
+      return null;
+    }
+    if (id < 0 || id >= payloads.length || kinds[id] != kind) {
+      throw new IOException("Illegal payload reference " + id);
+    }
+    return payloads[id];
+  }
+
+  private static Buffer readPayload(FileChannel channel, int kind, int numComponents, long offset,
+                                    ByteOrder order, boolean map, boolean writable) throws IOException {
+    boolean isFloat = (kind != SceneGraphFormat.INT);
+    if (map && numComponents > 0) {
+      ByteBuffer bytes = channel.map(writable ? FileChannel.MapMode.PRIVATE : FileChannel.MapMode.READ_ONLY,
+                                     offset, 4L * numComponents);
+      bytes.order(order);
+      return isFloat ? (Buffer) bytes.asFloatBuffer() : (Buffer) bytes.asIntBuffer();
+    }
+
+    // Read straight into the payload's storage, then swap it to the
+    // native byte order in place if necessary
+    ByteBuffer bytes = BufferFactory.newByteBuffer(4 * numComponents);
+    while (bytes.hasRemaining()) {
+      if (channel.read(bytes, offset + bytes.position()) < 0) {
+        throw new IOException("Unexpected end of scene graph file");
+      }
+    }
+    bytes.clear();
+    if (order != ByteOrder.nativeOrder()) {
+      IntBuffer src = bytes.duplicate().order(order).asIntBuffer();
+      IntBuffer dst = bytes.asIntBuffer();
+      for (int i = 0; i < numComponents; i++) {
+        dst.put(i, src.get(i));
+      }
+    }
+    // The payloads become the storage of the scene graph's
+    // collections, which outlive any BufferScope the reader runs in
+    BufferScope.exclude(bytes);
+    return isFloat ? (Buffer) bytes.asFloatBuffer() : (Buffer) bytes.asIntBuffer();
+  }
+
+  // Multiplies two sizes read from the file, rejecting products which
+  // don't fit in an int rather than letting them wrap around
+  private static int checkedProduct(int a, int b) throws IOException {
+    try {
+      return Math.multiplyExact(a, b);
+    } catch (ArithmeticException e) {
+      throw new IOException("Scene graph payload too large: " + a + " * " + b);
+    }
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long offset, int length) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(length);
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, offset + buf.position()) < 0) {
+        throw new IOException("Unexpected end of scene graph file");
+      }
+    }
+    buf.flip();
+    return buf;
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.java.joglutils.msg.collections.IndexCollection;
+import net.java.joglutils.msg.math.Mat4f;
+import net.java.joglutils.msg.nodes.Color4;
+import net.java.joglutils.msg.nodes.Coordinate3;
+import net.java.joglutils.msg.nodes.Group;
+import net.java.joglutils.msg.nodes.IndexedTriangleSet;
+import net.java.joglutils.msg.nodes.Node;
+import net.java.joglutils.msg.nodes.Separator;
+import net.java.joglutils.msg.nodes.Texture2;
+import net.java.joglutils.msg.nodes.TextureCoordinate2;
+import net.java.joglutils.msg.nodes.Transform;
+import net.java.joglutils.msg.nodes.TriangleSet;
+
+/** Writes a scene graph to a file in the format understood by {@link
+    SceneGraphReader}. The supported nodes are Group, Separator,
+    Transform, Coordinate3, TextureCoordinate2, Color4, TriangleSet,
+    IndexedTriangleSet and Texture2; subclasses of these are not
+    supported, since their additional state would be lost. Nodes and
+    collections which are referenced more than once in the graph are
+    written only once and are shared again when the graph is read
+    back. <P>
+
+    Texture2 nodes are written as references to the URL their image
+    was loaded from, not as image data. A Texture2 which was set up
+    from a stream, an image or a TextureRenderer has no such URL and
+    is written without an image. */
+
+public class SceneGraphWriter {
+  private final Map<Node, Integer> nodeIds = new IdentityHashMap<Node, Integer>();
+  private final Map<Object, Integer> payloadIds = new IdentityHashMap<Object, Integer>();
+  private final List<Buffer> payloads = new ArrayList<Buffer>();
+  private final List<Integer> payloadKinds = new ArrayList<Integer>();
+  private final ByteArrayOutputStream structureBytes = new ByteArrayOutputStream();
+  private final DataOutputStream structure = new DataOutputStream(structureBytes);
+
+  private SceneGraphWriter() {}
+
+  /** Writes the scene graph rooted at the given node to the given
+      file, replacing its previous contents. */
+  public static void write(Node root, File file) throws IOException {
+    SceneGraphWriter writer = new SceneGraphWriter();
+    int rootId = writer.writeNode(root);
+    writer.structure.flush();
+    writer.writeFile(rootId, file);
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private static final int STAGING_SIZE = 64 * 1024;
+
+  /** Writes the record for the given node, after those of its
+      children, and returns its id. */
+  private int writeNode(Node node) throws IOException {
+    Integer id = nodeIds.get(node);
+    if (id != null) {
+      return id.intValue();
+    }
+
+    Class<?> c = node.getClass();
+    if (c == Group.class || c == Separator.class) {
+      Group group = (Group) node;
+      int[] childIds = new int[group.getNumChildren()];
+      for (int i = 0; i < childIds.length; i++) {
+        childIds[i] = writeNode(group.getChild(i));
+      }
+      structure.writeByte((c == Separator.class) ? SceneGraphFormat.SEPARATOR : SceneGraphFormat.GROUP);
+      structure.writeInt(childIds.length);
+      for (int i = 0; i < childIds.length; i++) {
+        structure.writeInt(childIds[i]);
+      }
+    } else if (c == Transform.class) {
+      Mat4f mat = ((Transform) node).getTransform();
+      structure.writeByte(SceneGraphFormat.TRANSFORM);
+      for (int i = 0; i < 4; i++) {
+        for (int j = 0; j < 4; j++) {
+          structure.writeFloat(mat.get(i, j));
+        }
+      }
+    } else if (c == Coordinate3.class) {
+      Coordinate3 coords = (Coordinate3) node;
+      structure.writeByte(SceneGraphFormat.COORDINATE3);
+      structure.writeInt(coords.getData() == null ? SceneGraphFormat.NONE :
+                         addPayload(coords.getData(), coords.getData().getData(), SceneGraphFormat.VEC3F));
+    } else if (c == TextureCoordinate2.class) {
+      TextureCoordinate2 texCoords = (TextureCoordinate2) node;
+      structure.writeByte(SceneGraphFormat.TEXTURE_COORDINATE2);
+      structure.writeInt(texCoords.getData() == null ? SceneGraphFormat.NONE :
+                         addPayload(texCoords.getData(), texCoords.getData().getData(), SceneGraphFormat.VEC2F));
+    } else if (c == Color4.class) {
+      Color4 colors = (Color4) node;
+      structure.writeByte(SceneGraphFormat.COLOR4);
+      structure.writeInt(colors.getData() == null ? SceneGraphFormat.NONE :
+                         addPayload(colors.getData(), colors.getData().getData(), SceneGraphFormat.VEC4F));
+    } else if (c == TriangleSet.class) {
+      structure.writeByte(SceneGraphFormat.TRIANGLE_SET);
+      structure.writeInt(((TriangleSet) node).getNumTriangles());
+    } else if (c == IndexedTriangleSet.class) {
+      IndexCollection indices = ((IndexedTriangleSet) node).getIndexData();
+      structure.writeByte(SceneGraphFormat.INDEXED_TRIANGLE_SET);
+      structure.writeInt(indices == null ? SceneGraphFormat.NONE :
+                         addPayload(indices, toIntBuffer(indices), SceneGraphFormat.INT));
+    } else if (c == Texture2.class) {
+      Texture2 texture = (Texture2) node;
+      URL url = texture.getSourceURL();
+      structure.writeByte(SceneGraphFormat.TEXTURE2);
+      structure.writeInt(texture.getTexEnvMode());
+      structure.writeBoolean(url != null);
+      if (url != null) {
+        structure.writeUTF(url.toExternalForm());
+        structure.writeBoolean(texture.getSourceMipmap());
+        structure.writeBoolean(texture.getSourceSuffix() != null);
+        if (texture.getSourceSuffix() != null) {
+          structure.writeUTF(texture.getSourceSuffix());
+        }
+      }
+    } else {
+      throw new IOException("Unsupported node type " + c.getName());
+    }
+
+    id = Integer.valueOf(nodeIds.size());
+    nodeIds.put(node, id);
+    return id.intValue();
+  }
+
+  // Indices are always written as ints; narrower ones are widened
+  private static IntBuffer toIntBuffer(IndexCollection indices) {
+    if (indices.getType() == IndexCollection.UNSIGNED_INT) {
+      return (IntBuffer) indices.getData();
+    }
+    int[] tmp = new int[indices.size()];
+    indices.getRange(0, tmp.length, tmp, 0);
+    return IntBuffer.wrap(tmp);
+  }
+
+  private int addPayload(Object owner, Buffer data, int kind) {
+    Integer id = payloadIds.get(owner);
+    if (id == null) {
+      id = Integer.valueOf(payloads.size());
+      payloadIds.put(owner, id);
+      payloads.add(data);
+      payloadKinds.add(Integer.valueOf(kind));
+    }
+    return id.intValue();
+  }
+
+  private void writeFile(int rootId, File file) throws IOException {
+    int numPayloads = payloads.size();
+    int structureLength = structureBytes.size();
+    long[] offsets = new long[numPayloads];
+    long offset = SceneGraphFormat.align(SceneGraphFormat.HEADER_SIZE +
+                                         (long) numPayloads * SceneGraphFormat.DIRECTORY_ENTRY_SIZE +
+                                         structureLength);
+    for (int i = 0; i < numPayloads; i++) {
+      offsets[i] = offset;
+      offset = SceneGraphFormat.align(offset + 4L * payloads.get(i).remaining());
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(SceneGraphFormat.HEADER_SIZE +
+                                            numPayloads * SceneGraphFormat.DIRECTORY_ENTRY_SIZE +
+                                            structureLength);
+    header.put(SceneGraphFormat.MAGIC);
+    header.put(SceneGraphFormat.encodeOrder(ByteOrder.nativeOrder()));
+    header.put((byte) 0);
+    header.put((byte) 0);
+    header.put((byte) 0);
+    header.putInt(SceneGraphFormat.VERSION);
+    header.putInt(SceneGraphFormat.PAGE_SIZE);
+    header.putInt(numPayloads);
+    header.putInt(nodeIds.size());
+    header.putInt(rootId);
+    header.putInt(structureLength);
+    for (int i = 0; i < numPayloads; i++) {
+      int kind = payloadKinds.get(i).intValue();
+      header.putInt(kind);
+      header.putInt(payloads.get(i).remaining() / SceneGraphFormat.componentsPerElement(kind));
+      header.putLong(offsets[i]);
+    }
+    header.put(structureBytes.toByteArray());
+    header.flip();
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      FileChannel channel = raf.getChannel();
+      channel.truncate(0);
+      writeFully(channel, header, 0);
+      ByteBuffer staging = ByteBuffer.allocateDirect(STAGING_SIZE).order(ByteOrder.nativeOrder());
+      for (int i = 0; i < numPayloads; i++) {
+        writePayload(channel, payloads.get(i), offsets[i], staging);
+      }
+      // Pad the file out so the last payload can be mapped a whole page at a time
+      if (channel.size() < offset) {
+        ByteBuffer pad = ByteBuffer.allocate(1);
+        writeFully(channel, pad, offset - 1);
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static void writePayload(FileChannel channel, Buffer data, long offset,
+                                   ByteBuffer staging) throws IOException {
+    FloatBuffer floats = (data instanceof FloatBuffer) ? ((FloatBuffer) data).duplicate() : null;
+    IntBuffer ints = (data instanceof IntBuffer) ? ((IntBuffer) data).duplicate() : null;
+    Buffer src = (floats != null) ? floats : ints;
+    while (src.hasRemaining()) {
+      staging.clear();
+      int n = Math.min(staging.remaining() / 4, src.remaining());
+      if (floats != null) {
+        FloatBuffer chunk = floats.duplicate();
+        chunk.limit(chunk.position() + n);
+        staging.asFloatBuffer().put(chunk);
+      } else {
+        IntBuffer chunk = ints.duplicate();
+        chunk.limit(chunk.position() + n);
+        staging.asIntBuffer().put(chunk);
+      }
+      src.position(src.position() + n);
+      staging.limit(4 * n);
+      writeFully(channel, staging, offset);
+      offset += 4 * n;
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buf, long offset) throws IOException {
+    while (buf.hasRemaining()) {
+      offset += channel.write(buf, offset);
+    }
+  }
+}
@@ -56,6 +56,24 @@ public class Box3f {
   public void  setMax(Vec3f max) { this.max.set(max); }
   public Vec3f getMax()          { return max;        }
 
+  /** Sets this box to the given one. */
+  public void set(Box3f box) {
+    min.set(box.min);
+    max.set(box.max);
+  }
+
+  /** Makes this box empty, so that extending it by a point or box
+      yields exactly that point or box. */
+  public void makeEmpty() {
+    min.set(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+    max.set(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+  }
+
+  /** Returns true if this box contains no points. */
+  public boolean isEmpty() {
+    return !(min.x() <= max.x() && min.y() <= max.y() && min.z() <= max.z());
+  }
+
   public Vec3f getCenter() {
     return new Vec3f(0.5f * (min.x() + max.x()),
                      0.5f * (min.y() + max.y()),
@@ -79,4 +97,52 @@ public class Box3f {
     if (box.max.y() > max.y()) max.setY(box.max.y());
     if (box.max.z() > max.z()) max.setZ(box.max.z());
   }
+
+  /** Extends this box to enclose the given box transformed by the
+      given affine matrix. Rather than transforming the eight corners,
+      this transforms the center and the half-extents, taking absolute
+      values of the matrix's upper 3x3. */
+  public void extendBy(Box3f box, Mat4f xform) {
+    if (box.isEmpty()) {
+      return;
+    }
+    Vec3f bmin = box.min, bmax = box.max;
+    float cx = 0.5f * (bmin.x() + bmax.x()), ex = 0.5f * (bmax.x() - bmin.x());
+    float cy = 0.5f * (bmin.y() + bmax.y()), ey = 0.5f * (bmax.y() - bmin.y());
+    float cz = 0.5f * (bmin.z() + bmax.z()), ez = 0.5f * (bmax.z() - bmin.z());
+    for (int i = 0; i < 3; i++) {
+      float m0 = xform.get(i, 0), m1 = xform.get(i, 1), m2 = xform.get(i, 2);
+      float c = m0 * cx + m1 * cy + m2 * cz + xform.get(i, 3);
+      float e = Math.abs(m0) * ex + Math.abs(m1) * ey + Math.abs(m2) * ez;
+      float lo = c - e, hi = c + e;
+      if (lo < min.get(i)) min.set(i, lo);
+      if (hi > max.get(i)) max.set(i, hi);
+    }
+  }
+
+  /** Returns the parametric t at which the given ray enters this box,
+      or tMin if the ray starts inside it, considering only the part
+      of the ray between tMin and tMax. Returns
+      Float.POSITIVE_INFINITY if that part of the ray misses the box. */
+  public float intersectRay(Line ray, float tMin, float tMax) {
+    if (isEmpty()) {
+      return Float.POSITIVE_INFINITY;
+    }
+    Vec3f p = ray.getPoint();
+    Vec3f d = ray.getDirection();
+    float enter = tMin, exit = tMax;
+    for (int i = 0; i < 3; i++) {
+      float inv = 1.0f / d.get(i);
+      float t0 = (min.get(i) - p.get(i)) * inv;
+      float t1 = (max.get(i) - p.get(i)) * inv;
+      // Written so that the NaNs from a ray lying in a slab's
+      // boundary plane leave the interval unchanged
+      if (t0 > t1) {
+        float tmp = t0; t0 = t1; t1 = tmp;
+      }
+      if (t0 > enter) enter = t0;
+      if (t1 < exit)  exit = t1;
+    }
+    return (enter <= exit) ? enter : Float.POSITIVE_INFINITY;
+  }
 }
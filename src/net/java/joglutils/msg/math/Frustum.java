@@ -0,0 +1,548 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.math;
+
+/** Represents a view frustum as six inward-facing planes, and
+    classifies bounding volumes against it. The planes are extracted
+    from a combined projection and viewing matrix, so the frustum is
+    in whatever space that matrix transforms from; passing
+    projection * viewing yields a world-space frustum.
+
+    <P> Besides per-object tests, bulk methods classify many boxes or
+    spheres whose parameters are stored in structure-of-arrays form,
+    i.e., one float array per coordinate. These run as a single
+    branch-free pass over the arrays and are the preferred way of
+    culling large sets of objects. */
+
+public class Frustum {
+  /** Classification of a volume entirely outside the frustum */
+  public static final int OUTSIDE      = 0;
+  /** Classification of a volume which straddles at least one plane
+      of the frustum. Conservative; some such volumes may actually be
+      outside. */
+  public static final int INTERSECTING = 1;
+  /** Classification of a volume entirely inside the frustum */
+  public static final int INSIDE       = 2;
+
+  /** Index of the left plane */
+  public static final int LEFT   = 0;
+  /** Index of the right plane */
+  public static final int RIGHT  = 1;
+  /** Index of the bottom plane */
+  public static final int BOTTOM = 2;
+  /** Index of the top plane */
+  public static final int TOP    = 3;
+  /** Index of the near plane */
+  public static final int NEAR   = 4;
+  /** Index of the far plane */
+  public static final int FAR    = 5;
+
+  /** The number of planes in a frustum */
+  public static final int NUM_PLANES = 6;
+
+  // Plane i is (a[i], b[i], c[i], d[i]) with a unit normal pointing
+  // into the frustum; a point p is inside when a*x + b*y + c*z + d >= 0
+  private final float[] a = new float[NUM_PLANES];
+  private final float[] b = new float[NUM_PLANES];
+  private final float[] c = new float[NUM_PLANES];
+  private final float[] d = new float[NUM_PLANES];
+
+  /** Creates a frustum which contains all of space. */
+  public Frustum() {
+    for (int i = 0; i < NUM_PLANES; i++) {
+      d[i] = Float.POSITIVE_INFINITY;
+    }
+  }
+
+  /** Creates a frustum from the given combined projection and viewing
+      matrix. */
+  public Frustum(Mat4f projView) {
+    set(projView);
+  }
+
+  /** Extracts the planes of this frustum from the given combined
+      projection and viewing matrix, which assumes column vectors as
+      does the rest of this package. */
+  public void set(Mat4f projView) {
+    final float m00 = projView.get(0, 0), m01 = projView.get(0, 1), m02 = projView.get(0, 2), m03 = projView.get(0, 3);
+    final float m10 = projView.get(1, 0), m11 = projView.get(1, 1), m12 = projView.get(1, 2), m13 = projView.get(1, 3);
+    final float m20 = projView.get(2, 0), m21 = projView.get(2, 1), m22 = projView.get(2, 2), m23 = projView.get(2, 3);
+    final float m30 = projView.get(3, 0), m31 = projView.get(3, 1), m32 = projView.get(3, 2), m33 = projView.get(3, 3);
+    setPlane(LEFT,   m30 + m00, m31 + m01, m32 + m02, m33 + m03);
+    setPlane(RIGHT,  m30 - m00, m31 - m01, m32 - m02, m33 - m03);
+    setPlane(BOTTOM, m30 + m10, m31 + m11, m32 + m12, m33 + m13);
+    setPlane(TOP,    m30 - m10, m31 - m11, m32 - m12, m33 - m13);
+    setPlane(NEAR,   m30 + m20, m31 + m21, m32 + m22, m33 + m23);
+    setPlane(FAR,    m30 - m20, m31 - m21, m32 - m22, m33 - m23);
+  }
+
+  /** Sets this frustum to be equivalent to the given one. */
+  public void set(Frustum arg) {
+    System.arraycopy(arg.a, 0, a, 0, NUM_PLANES);
+    System.arraycopy(arg.b, 0, b, 0, NUM_PLANES);
+    System.arraycopy(arg.c, 0, c, 0, NUM_PLANES);
+    System.arraycopy(arg.d, 0, d, 0, NUM_PLANES);
+  }
+
+  /** Sets this frustum to the given one expressed in another
+      coordinate system, where mat maps points from that coordinate
+      system into the one src is in. For example, passing a
+      world-space frustum and an object's model matrix yields the
+      frustum in the object's local coordinate system, against which
+      its local bounds may be classified directly. src may be this
+      frustum. */
+  public void transform(Frustum src, Mat4f mat) {
+    for (int i = 0; i < NUM_PLANES; i++) {
+      float pa = src.a[i], pb = src.b[i], pc = src.c[i], pd = src.d[i];
+      if (pd == Float.POSITIVE_INFINITY) {
+        // Never rejects, in any coordinate system
+        setPlane(i, 0, 0, 0, 0);
+        continue;
+      }
+      // The plane is a row vector; a point p is inside when
+      // plane * (mat * p) >= 0, i.e., (plane * mat) * p >= 0
+      setPlane(i,
+               pa * mat.get(0, 0) + pb * mat.get(1, 0) + pc * mat.get(2, 0) + pd * mat.get(3, 0),
+               pa * mat.get(0, 1) + pb * mat.get(1, 1) + pc * mat.get(2, 1) + pd * mat.get(3, 1),
+               pa * mat.get(0, 2) + pb * mat.get(1, 2) + pc * mat.get(2, 2) + pd * mat.get(3, 2),
+               pa * mat.get(0, 3) + pb * mat.get(1, 3) + pc * mat.get(2, 3) + pd * mat.get(3, 3));
+    }
+  }
+
+  /** Fetches the given plane, one of LEFT, RIGHT, BOTTOM, TOP, NEAR
+      or FAR, as (a, b, c, d) where (a, b, c) is the unit normal
+      pointing into the frustum and a point p is on the inside when
+      a*p.x + b*p.y + c*p.z + d >= 0. */
+  public void getPlane(int which, Vec4f dest) {
+    dest.set(a[which], b[which], c[which], d[which]);
+  }
+
+  /** Returns the signed distance from the given point to the given
+      plane; positive distances are on the inside. */
+  public float distance(int which, Vec3f point) {
+    return a[which] * point.x() + b[which] * point.y() + c[which] * point.z() + d[which];
+  }
+
+  /** Indicates whether the given point is inside this frustum. */
+  public boolean contains(Vec3f point) {
+    for (int i = 0; i < NUM_PLANES; i++) {
+      if (distance(i, point) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Classifies the given axis-aligned box as OUTSIDE, INTERSECTING
+      or INSIDE. */
+  public int classify(Box3f box) {
+    Vec3f min = box.getMin();
+    Vec3f max = box.getMax();
+    return classifyBox(0.5f * (min.x() + max.x()),
+                       0.5f * (min.y() + max.y()),
+                       0.5f * (min.z() + max.z()),
+                       0.5f * (max.x() - min.x()),
+                       0.5f * (max.y() - min.y()),
+                       0.5f * (max.z() - min.z()));
+  }
+
+  /** Classifies the given sphere as OUTSIDE, INTERSECTING or
+      INSIDE. */
+  public int classify(Sphere sphere) {
+    Vec3f center = sphere.getCenter();
+    return classifySphere(center.x(), center.y(), center.z(), sphere.getRadius());
+  }
+
+  /** Classifies the triangle with the given vertices as OUTSIDE,
+      INTERSECTING or INSIDE. Unlike the classification of boxes and
+      spheres this is exact: a triangle straddling planes is clipped
+      against them to tell whether any of it remains inside. */
+  public int classifyTriangle(Vec3f v0, Vec3f v1, Vec3f v2) {
+    return classifyTriangle(v0.x(), v0.y(), v0.z(),
+                            v1.x(), v1.y(), v1.z(),
+                            v2.x(), v2.y(), v2.z());
+  }
+
+  /** Classifies the triangle with vertices (x0, y0, z0), (x1, y1, z1)
+      and (x2, y2, z2) as OUTSIDE, INTERSECTING or INSIDE; see {@link
+      #classifyTriangle(Vec3f, Vec3f, Vec3f) classifyTriangle}. Uses
+      temporary storage in this object, so must not be called on the
+      same Frustum from several threads at once. */
+  public int classifyTriangle(float x0, float y0, float z0,
+                              float x1, float y1, float z1,
+                              float x2, float y2, float z2) {
+    boolean inside = true;
+    for (int i = 0; i < NUM_PLANES; i++) {
+      float d0 = a[i] * x0 + b[i] * y0 + c[i] * z0 + d[i];
+      float d1 = a[i] * x1 + b[i] * y1 + c[i] * z1 + d[i];
+      float d2 = a[i] * x2 + b[i] * y2 + c[i] * z2 + d[i];
+      if (d0 < 0 && d1 < 0 && d2 < 0) {
+        return OUTSIDE;
+      }
+      if (d0 < 0 || d1 < 0 || d2 < 0) {
+        inside = false;
+      }
+    }
+    if (inside) {
+      return INSIDE;
+    }
+
+    // The triangle straddles some planes; clip it against each in
+    // turn and see whether anything is left
+    float[] in = clipIn;
+    float[] out = clipOut;
+    in[0] = x0; in[1] = y0; in[2] = z0;
+    in[3] = x1; in[4] = y1; in[5] = z1;
+    in[6] = x2; in[7] = y2; in[8] = z2;
+    int n = 3;
+    for (int i = 0; i < NUM_PLANES; i++) {
+      int m = 0;
+      for (int j = 0; j < n; j++) {
+        int p = 3 * j;
+        int q = 3 * ((j + 1 == n) ? 0 : j + 1);
+        float dp = a[i] * in[p] + b[i] * in[p + 1] + c[i] * in[p + 2] + d[i];
+        float dq = a[i] * in[q] + b[i] * in[q + 1] + c[i] * in[q + 2] + d[i];
+        if (dp >= 0) {
+          out[3 * m    ] = in[p    ];
+          out[3 * m + 1] = in[p + 1];
+          out[3 * m + 2] = in[p + 2];
+          ++m;
+        }
+        if ((dp >= 0) != (dq >= 0)) {
+          float t = dp / (dp - dq);
+          out[3 * m    ] = in[p    ] + t * (in[q    ] - in[p    ]);
+          out[3 * m + 1] = in[p + 1] + t * (in[q + 1] - in[p + 1]);
+          out[3 * m + 2] = in[p + 2] + t * (in[q + 2] - in[p + 2]);
+          ++m;
+        }
+      }
+      if (m == 0) {
+        return OUTSIDE;
+      }
+      float[] tmp = in; in = out; out = tmp;
+      n = m;
+    }
+    return INTERSECTING;
+  }
+
+  /** Classifies the axis-aligned box with the given center and
+      half-extents as OUTSIDE, INTERSECTING or INSIDE. */
+  public int classifyBox(float cx, float cy, float cz, float ex, float ey, float ez) {
+    int res = INSIDE;
+    for (int i = 0; i < NUM_PLANES; i++) {
+      float dist = a[i] * cx + b[i] * cy + c[i] * cz + d[i];
+      float r = Math.abs(a[i]) * ex + Math.abs(b[i]) * ey + Math.abs(c[i]) * ez;
+      if (dist < -r) {
+        return OUTSIDE;
+      }
+      if (dist < r) {
+        res = INTERSECTING;
+      }
+    }
+    return res;
+  }
+
+  /** Classifies the sphere with the given center and radius as
+      OUTSIDE, INTERSECTING or INSIDE. */
+  public int classifySphere(float cx, float cy, float cz, float radius) {
+    int res = INSIDE;
+    for (int i = 0; i < NUM_PLANES; i++) {
+      float dist = a[i] * cx + b[i] * cy + c[i] * cz + d[i];
+      if (dist < -radius) {
+        return OUTSIDE;
+      }
+      if (dist < radius) {
+        res = INTERSECTING;
+      }
+    }
+    return res;
+  }
+
+  /** Classifies count axis-aligned boxes, stored in structure-of-arrays
+      form starting at index off of the given arrays, as OUTSIDE,
+      INTERSECTING or INSIDE. Box i has center (cx[i], cy[i], cz[i])
+      and half-extents (ex[i], ey[i], ez[i]). Its classification is
+      stored in results[i - off + resultsOff]. Returns the number of
+      boxes which are not OUTSIDE. */
+  public int classifyBoxes(float[] cx, float[] cy, float[] cz,
+                           float[] ex, float[] ey, float[] ez,
+                           int off, int count,
+                           byte[] results, int resultsOff) {
+    checkRange(cx, off, count);
+    checkRange(cy, off, count);
+    checkRange(cz, off, count);
+    checkRange(ex, off, count);
+    checkRange(ey, off, count);
+    checkRange(ez, off, count);
+    checkResults(results, resultsOff, count);
+
+    // Pull the planes into locals; the loop body is then straight-line
+    // code with no array accesses other than the object data
+    final float a0 = a[0], b0 = b[0], c0 = c[0], d0 = d[0];
+    final float a1 = a[1], b1 = b[1], c1 = c[1], d1 = d[1];
+    final float a2 = a[2], b2 = b[2], c2 = c[2], d2 = d[2];
+    final float a3 = a[3], b3 = b[3], c3 = c[3], d3 = d[3];
+    final float a4 = a[4], b4 = b[4], c4 = c[4], d4 = d[4];
+    final float a5 = a[5], b5 = b[5], c5 = c[5], d5 = d[5];
+    final float aa0 = Math.abs(a0), ab0 = Math.abs(b0), ac0 = Math.abs(c0);
+    final float aa1 = Math.abs(a1), ab1 = Math.abs(b1), ac1 = Math.abs(c1);
+    final float aa2 = Math.abs(a2), ab2 = Math.abs(b2), ac2 = Math.abs(c2);
+    final float aa3 = Math.abs(a3), ab3 = Math.abs(b3), ac3 = Math.abs(c3);
+    final float aa4 = Math.abs(a4), ab4 = Math.abs(b4), ac4 = Math.abs(c4);
+    final float aa5 = Math.abs(a5), ab5 = Math.abs(b5), ac5 = Math.abs(c5);
+
+    int numVisible = 0;
+    for (int i = off, j = resultsOff, end = off + count; i < end; i++, j++) {
+      final float x = cx[i], y = cy[i], z = cz[i];
+      final float u = ex[i], v = ey[i], w = ez[i];
+      // For each plane, the distance of the center and the projected
+      // radius of the box
+      final float s0 = a0 * x + b0 * y + c0 * z + d0, r0 = aa0 * u + ab0 * v + ac0 * w;
+      final float s1 = a1 * x + b1 * y + c1 * z + d1, r1 = aa1 * u + ab1 * v + ac1 * w;
+      final float s2 = a2 * x + b2 * y + c2 * z + d2, r2 = aa2 * u + ab2 * v + ac2 * w;
+      final float s3 = a3 * x + b3 * y + c3 * z + d3, r3 = aa3 * u + ab3 * v + ac3 * w;
+      final float s4 = a4 * x + b4 * y + c4 * z + d4, r4 = aa4 * u + ab4 * v + ac4 * w;
+      final float s5 = a5 * x + b5 * y + c5 * z + d5, r5 = aa5 * u + ab5 * v + ac5 * w;
+      // Outside if the box is wholly behind any plane; inside if it is
+      // wholly in front of all of them. The tests are done on the sign
+      // bits so that there are no branches in the loop
+      final int outer = (Float.floatToRawIntBits(s0 + r0) | Float.floatToRawIntBits(s1 + r1) |
+                         Float.floatToRawIntBits(s2 + r2) | Float.floatToRawIntBits(s3 + r3) |
+                         Float.floatToRawIntBits(s4 + r4) | Float.floatToRawIntBits(s5 + r5)) >>> 31;
+      final int inner = (Float.floatToRawIntBits(s0 - r0) | Float.floatToRawIntBits(s1 - r1) |
+                         Float.floatToRawIntBits(s2 - r2) | Float.floatToRawIntBits(s3 - r3) |
+                         Float.floatToRawIntBits(s4 - r4) | Float.floatToRawIntBits(s5 - r5)) >>> 31;
+      final int res = (INSIDE - inner) & ~(-outer);
+      results[j] = (byte) res;
+      numVisible += 1 - outer;
+    }
+    return numVisible;
+  }
+
+  /** Classifies count spheres, stored in structure-of-arrays form
+      starting at index off of the given arrays, as OUTSIDE,
+      INTERSECTING or INSIDE. Sphere i has center (cx[i], cy[i], cz[i])
+      and radius radius[i]. Its classification is stored in results[i
+      - off + resultsOff]. Returns the number of spheres which are not
+      OUTSIDE. */
+  public int classifySpheres(float[] cx, float[] cy, float[] cz, float[] radius,
+                             int off, int count,
+                             byte[] results, int resultsOff) {
+    checkRange(cx, off, count);
+    checkRange(cy, off, count);
+    checkRange(cz, off, count);
+    checkRange(radius, off, count);
+    checkResults(results, resultsOff, count);
+
+    final float a0 = a[0], b0 = b[0], c0 = c[0], d0 = d[0];
+    final float a1 = a[1], b1 = b[1], c1 = c[1], d1 = d[1];
+    final float a2 = a[2], b2 = b[2], c2 = c[2], d2 = d[2];
+    final float a3 = a[3], b3 = b[3], c3 = c[3], d3 = d[3];
+    final float a4 = a[4], b4 = b[4], c4 = c[4], d4 = d[4];
+    final float a5 = a[5], b5 = b[5], c5 = c[5], d5 = d[5];
+
+    int numVisible = 0;
+    for (int i = off, j = resultsOff, end = off + count; i < end; i++, j++) {
+      final float x = cx[i], y = cy[i], z = cz[i], r = radius[i];
+      final float s0 = a0 * x + b0 * y + c0 * z + d0;
+      final float s1 = a1 * x + b1 * y + c1 * z + d1;
+      final float s2 = a2 * x + b2 * y + c2 * z + d2;
+      final float s3 = a3 * x + b3 * y + c3 * z + d3;
+      final float s4 = a4 * x + b4 * y + c4 * z + d4;
+      final float s5 = a5 * x + b5 * y + c5 * z + d5;
+      final int outer = (Float.floatToRawIntBits(s0 + r) | Float.floatToRawIntBits(s1 + r) |
+                         Float.floatToRawIntBits(s2 + r) | Float.floatToRawIntBits(s3 + r) |
+                         Float.floatToRawIntBits(s4 + r) | Float.floatToRawIntBits(s5 + r)) >>> 31;
+      final int inner = (Float.floatToRawIntBits(s0 - r) | Float.floatToRawIntBits(s1 - r) |
+                         Float.floatToRawIntBits(s2 - r) | Float.floatToRawIntBits(s3 - r) |
+                         Float.floatToRawIntBits(s4 - r) | Float.floatToRawIntBits(s5 - r)) >>> 31;
+      final int res = (INSIDE - inner) & ~(-outer);
+      results[j] = (byte) res;
+      numVisible += 1 - outer;
+    }
+    return numVisible;
+  }
+
+  /** Classifies boxes like {@link #classifyBoxes(float[], float[],
+      float[], float[], float[], float[], int, int, byte[], int)
+      classifyBoxes}, exploiting frame-to-frame coherency. For each box,
+      planeHints[i - off + resultsOff] holds the index of the plane
+      which rejected it in an earlier call, or a negative value if
+      none did; that plane is tested first, and the hint is updated.
+      When most objects stay outside for the same reason from one
+      frame to the next, this rejects them after a single plane test.
+      A new array of hints should be filled with -1. */
+  public int classifyBoxes(float[] cx, float[] cy, float[] cz,
+                           float[] ex, float[] ey, float[] ez,
+                           int off, int count,
+                           byte[] results, int resultsOff,
+                           byte[] planeHints) {
+    checkRange(cx, off, count);
+    checkRange(cy, off, count);
+    checkRange(cz, off, count);
+    checkRange(ex, off, count);
+    checkRange(ey, off, count);
+    checkRange(ez, off, count);
+    checkResults(results, resultsOff, count);
+    checkResults(planeHints, resultsOff, count);
+
+    final float[] a = this.a, b = this.b, c = this.c, d = this.d;
+    int numVisible = 0;
+    for (int i = off, j = resultsOff, end = off + count; i < end; i++, j++) {
+      final float x = cx[i], y = cy[i], z = cz[i];
+      final float u = ex[i], v = ey[i], w = ez[i];
+      final int hint = planeHints[j];
+      int res = INSIDE;
+      int rejecting = -1;
+      for (int k = 0; k < NUM_PLANES; k++) {
+        // Visit the hinted plane first, then the rest in order
+        final int p = (k == 0 && hint >= 0) ? hint : ((hint >= 0 && k <= hint) ? k - 1 : k);
+        final float s = a[p] * x + b[p] * y + c[p] * z + d[p];
+        final float r = Math.abs(a[p]) * u + Math.abs(b[p]) * v + Math.abs(c[p]) * w;
+        if (s < -r) {
+          res = OUTSIDE;
+          rejecting = p;
+          break;
+        }
+        if (s < r) {
+          res = INTERSECTING;
+        }
+      }
+      results[j] = (byte) res;
+      planeHints[j] = (byte) rejecting;
+      if (res != OUTSIDE) {
+        ++numVisible;
+      }
+    }
+    return numVisible;
+  }
+
+  /** Classifies spheres like {@link #classifySpheres(float[], float[],
+      float[], float[], int, int, byte[], int) classifySpheres},
+      exploiting frame-to-frame coherency; see {@link
+      #classifyBoxes(float[], float[], float[], float[], float[],
+      float[], int, int, byte[], int, byte[]) classifyBoxes} for the
+      meaning of planeHints. */
+  public int classifySpheres(float[] cx, float[] cy, float[] cz, float[] radius,
+                             int off, int count,
+                             byte[] results, int resultsOff,
+                             byte[] planeHints) {
+    checkRange(cx, off, count);
+    checkRange(cy, off, count);
+    checkRange(cz, off, count);
+    checkRange(radius, off, count);
+    checkResults(results, resultsOff, count);
+    checkResults(planeHints, resultsOff, count);
+
+    final float[] a = this.a, b = this.b, c = this.c, d = this.d;
+    int numVisible = 0;
+    for (int i = off, j = resultsOff, end = off + count; i < end; i++, j++) {
+      final float x = cx[i], y = cy[i], z = cz[i], r = radius[i];
+      final int hint = planeHints[j];
+      int res = INSIDE;
+      int rejecting = -1;
+      for (int k = 0; k < NUM_PLANES; k++) {
+        final int p = (k == 0 && hint >= 0) ? hint : ((hint >= 0 && k <= hint) ? k - 1 : k);
+        final float s = a[p] * x + b[p] * y + c[p] * z + d[p];
+        if (s < -r) {
+          res = OUTSIDE;
+          rejecting = p;
+          break;
+        }
+        if (s < r) {
+          res = INTERSECTING;
+        }
+      }
+      results[j] = (byte) res;
+      planeHints[j] = (byte) rejecting;
+      if (res != OUTSIDE) {
+        ++numVisible;
+      }
+    }
+    return numVisible;
+  }
+
+  public String toString() {
+    StringBuffer buf = new StringBuffer();
+    buf.append("[");
+    for (int i = 0; i < NUM_PLANES; i++) {
+      if (i > 0) {
+        buf.append(", ");
+      }
+      buf.append("(" + a[i] + ", " + b[i] + ", " + c[i] + ", " + d[i] + ")");
+    }
+    buf.append("]");
+    return buf.toString();
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  // Polygons being clipped by classifyTriangle; clipping a triangle
+  // against each plane adds at most one vertex
+  private final float[] clipIn  = new float[3 * (3 + NUM_PLANES)];
+  private final float[] clipOut = new float[3 * (3 + NUM_PLANES)];
+
+  private void setPlane(int which, float pa, float pb, float pc, float pd) {
+    float len = (float) Math.sqrt(pa * pa + pb * pb + pc * pc);
+    if (len == 0) {
+      // Degenerate plane, as for an infinite far plane; never rejects
+      a[which] = b[which] = c[which] = 0;
+      d[which] = Float.POSITIVE_INFINITY;
+      return;
+    }
+    float s = 1.0f / len;
+    a[which] = pa * s;
+    b[which] = pb * s;
+    c[which] = pc * s;
+    d[which] = pd * s;
+  }
+
+  private static void checkRange(float[] arr, int off, int count) {
+    if (off < 0 || count < 0 || off + count > arr.length) {
+      throw new IndexOutOfBoundsException("Range " + off + " + " + count + " exceeds array length " + arr.length);
+    }
+  }
+
+  private static void checkResults(byte[] arr, int off, int count) {
+    if (off < 0 || count < 0 || off + count > arr.length) {
+      throw new IndexOutOfBoundsException("Range " + off + " + " + count + " exceeds array length " + arr.length);
+    }
+  }
+}
@@ -145,6 +145,9 @@ public class Line {
       throw new RuntimeException("Line.recalc: ERROR: direction was the zero vector " +
                                  "(not allowed)");
     }
-    alongVec.set(point.minus(direction.times(point.dot(direction))));
+    float dotp = point.dot(direction);
+    alongVec.set(point.x() - dotp * direction.x(),
+                 point.y() - dotp * direction.y(),
+                 point.z() - dotp * direction.z());
   }
 }
@@ -38,6 +38,8 @@
 package net.java.joglutils.msg.math;
 
 import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /** A (very incomplete) 4x4 matrix class. Representation assumes
     row-major order and multiplication by column vectors on the
@@ -59,24 +61,16 @@ public class Mat4f {
 
   /** Sets this matrix to the identity matrix */
   public void makeIdent() {
-    for (int i = 0; i < 4; i++) {
-      for (int j = 0; j < 4; j++) {
-        if (i == j) {
-          set(i, j, 1.0f);
-        } else {
-          set(i, j, 0.0f);
-        }
-      }
-    }
+    final float[] d = data;
+    d[ 0] = 1; d[ 1] = 0; d[ 2] = 0; d[ 3] = 0;
+    d[ 4] = 0; d[ 5] = 1; d[ 6] = 0; d[ 7] = 0;
+    d[ 8] = 0; d[ 9] = 0; d[10] = 1; d[11] = 0;
+    d[12] = 0; d[13] = 0; d[14] = 0; d[15] = 1;
   }
 
   /** Sets this matrix to be equivalent to the given one */
   public void set(Mat4f arg) {
-    float[] mine = data;
-    float[] yours = arg.data;
-    for (int i = 0; i < mine.length; i++) {
-      mine[i] = yours[i];
-    }
+    System.arraycopy(arg.data, 0, data, 0, 16);
   }
 
   /** Gets the (i,j)th element of this matrix, where i is the row
@@ -146,100 +140,285 @@ public class Mat4f {
       upper left 3x3; negates translation in rightmost column and
       transforms by inverted rotation. */
   public void invertRigid() {
+    final float[] d = data;
     float t;
     // Transpose upper left 3x3
-    t = get(0, 1);
-    set(0, 1, get(1, 0));
-    set(1, 0, t);
-    t = get(0, 2);
-    set(0, 2, get(2, 0));
-    set(2, 0, t);
-    t = get(1, 2);
-    set(1, 2, get(2, 1));
-    set(2, 1, t);
-    // Transform negative translation by this
-    Vec3f negTrans = new Vec3f(-get(0, 3), -get(1, 3), -get(2, 3));
-    Vec3f trans = new Vec3f();
-    xformDir(negTrans, trans);
-    set(0, 3, trans.x());
-    set(1, 3, trans.y());
-    set(2, 3, trans.z());
+    t = d[1]; d[1] = d[4]; d[4] = t;
+    t = d[2]; d[2] = d[8]; d[8] = t;
+    t = d[6]; d[6] = d[9]; d[9] = t;
+    // Transform negative translation by the transposed rotation
+    final float tx = d[3], ty = d[7], tz = d[11];
+    d[ 3] = -(d[0] * tx + d[1] * ty + d[ 2] * tz);
+    d[ 7] = -(d[4] * tx + d[5] * ty + d[ 6] * tz);
+    d[11] = -(d[8] * tx + d[9] * ty + d[10] * tz);
   }
 
-  /** Performs general 4x4 matrix inversion.
+  /** Performs general 4x4 matrix inversion in place. Affine matrices
+      (those whose bottom row is [0 0 0 1]) are recognized and
+      inverted more cheaply.
       @throws SingularMatrixException if this matrix is singular (i.e., non-invertible)
   */
   public void invert() throws SingularMatrixException {
-    invertGeneral(this);
+    invert(this);
+  }
+
+  /** Stores the inverse of this matrix into dest without modifying
+      this one, unless dest is this matrix. Affine matrices (those
+      whose bottom row is [0 0 0 1]) are recognized and inverted more
+      cheaply. No objects are allocated.
+      @throws SingularMatrixException if this matrix is singular (i.e., non-invertible)
+  */
+  public void invert(Mat4f dest) throws SingularMatrixException {
+    if (isAffine()) {
+      invertAffine(dest);
+    } else {
+      invertGeneral(dest);
+    }
+  }
+
+  /** Returns the determinant of this matrix. */
+  public float determinant() {
+    final float[] d = data;
+    final float a00 = d[ 0], a01 = d[ 1], a02 = d[ 2], a03 = d[ 3];
+    final float a10 = d[ 4], a11 = d[ 5], a12 = d[ 6], a13 = d[ 7];
+    final float a20 = d[ 8], a21 = d[ 9], a22 = d[10], a23 = d[11];
+    final float a30 = d[12], a31 = d[13], a32 = d[14], a33 = d[15];
+    if (isAffine()) {
+      return (a00 * (a11 * a22 - a12 * a21) +
+              a01 * (a12 * a20 - a10 * a22) +
+              a02 * (a10 * a21 - a11 * a20));
+    }
+    return ((a00 * a11 - a10 * a01) * (a22 * a33 - a32 * a23) -
+            (a00 * a12 - a10 * a02) * (a21 * a33 - a31 * a23) +
+            (a00 * a13 - a10 * a03) * (a21 * a32 - a31 * a22) +
+            (a01 * a12 - a11 * a02) * (a20 * a33 - a30 * a23) -
+            (a01 * a13 - a11 * a03) * (a20 * a32 - a30 * a22) +
+            (a02 * a13 - a12 * a03) * (a20 * a31 - a30 * a21));
   }
 
-  /** Returns this * b; creates new matrix */
+  /** Indicates whether the bottom row of this matrix is [0 0 0 1], as
+      is the case for any combination of rotations, scales and
+      translations. */
+  public boolean isAffine() {
+    final float[] d = data;
+    return (d[12] == 0.0f && d[13] == 0.0f && d[14] == 0.0f && d[15] == 1.0f);
+  }
+
+  /** Returns this * b; creates new matrix. See {@link #mul(Mat4f,
+      Mat4f) mul(a, b)} for a version which does not allocate. */
   public Mat4f mul(Mat4f b) {
     Mat4f tmp = new Mat4f();
     tmp.mul(this, b);
     return tmp;
   }
 
-  /** this = a * b */
+  /** this = a * b. Either argument may be this matrix. */
   public void mul(Mat4f a, Mat4f b) {
-    for (int rc = 0; rc < 4; rc++)
-      for (int cc = 0; cc < 4; cc++) {
-        float tmp = 0.0f;
-        for (int i = 0; i < 4; i++)
-          tmp += a.get(rc, i) * b.get(i, cc);
-        set(rc, cc, tmp);
-      }
+    final float[] x = a.data;
+    final float[] y = b.data;
+    // Read everything before writing, so that a or b may alias this
+    final float a00 = x[ 0], a01 = x[ 1], a02 = x[ 2], a03 = x[ 3];
+    final float a10 = x[ 4], a11 = x[ 5], a12 = x[ 6], a13 = x[ 7];
+    final float a20 = x[ 8], a21 = x[ 9], a22 = x[10], a23 = x[11];
+    final float a30 = x[12], a31 = x[13], a32 = x[14], a33 = x[15];
+    final float b00 = y[ 0], b01 = y[ 1], b02 = y[ 2], b03 = y[ 3];
+    final float b10 = y[ 4], b11 = y[ 5], b12 = y[ 6], b13 = y[ 7];
+    final float b20 = y[ 8], b21 = y[ 9], b22 = y[10], b23 = y[11];
+    final float b30 = y[12], b31 = y[13], b32 = y[14], b33 = y[15];
+    final float[] d = data;
+    d[ 0] = a00 * b00 + a01 * b10 + a02 * b20 + a03 * b30;
+    d[ 1] = a00 * b01 + a01 * b11 + a02 * b21 + a03 * b31;
+    d[ 2] = a00 * b02 + a01 * b12 + a02 * b22 + a03 * b32;
+    d[ 3] = a00 * b03 + a01 * b13 + a02 * b23 + a03 * b33;
+    d[ 4] = a10 * b00 + a11 * b10 + a12 * b20 + a13 * b30;
+    d[ 5] = a10 * b01 + a11 * b11 + a12 * b21 + a13 * b31;
+    d[ 6] = a10 * b02 + a11 * b12 + a12 * b22 + a13 * b32;
+    d[ 7] = a10 * b03 + a11 * b13 + a12 * b23 + a13 * b33;
+    d[ 8] = a20 * b00 + a21 * b10 + a22 * b20 + a23 * b30;
+    d[ 9] = a20 * b01 + a21 * b11 + a22 * b21 + a23 * b31;
+    d[10] = a20 * b02 + a21 * b12 + a22 * b22 + a23 * b32;
+    d[11] = a20 * b03 + a21 * b13 + a22 * b23 + a23 * b33;
+    d[12] = a30 * b00 + a31 * b10 + a32 * b20 + a33 * b30;
+    d[13] = a30 * b01 + a31 * b11 + a32 * b21 + a33 * b31;
+    d[14] = a30 * b02 + a31 * b12 + a32 * b22 + a33 * b32;
+    d[15] = a30 * b03 + a31 * b13 + a32 * b23 + a33 * b33;
   }
-  
+
+  /** this = a * b, where a and b are both affine; that is, their
+      bottom rows are (0, 0, 0, 1), as for any combination of
+      rotations, scales and translations. Roughly 40% cheaper than
+      {@link #mul(Mat4f, Mat4f) mul}. Either argument may be this
+      matrix. */
+  public void mulAffine(Mat4f a, Mat4f b) {
+    final float[] x = a.data;
+    final float[] y = b.data;
+    final float a00 = x[0], a01 = x[1], a02 = x[ 2], a03 = x[ 3];
+    final float a10 = x[4], a11 = x[5], a12 = x[ 6], a13 = x[ 7];
+    final float a20 = x[8], a21 = x[9], a22 = x[10], a23 = x[11];
+    final float b00 = y[0], b01 = y[1], b02 = y[ 2], b03 = y[ 3];
+    final float b10 = y[4], b11 = y[5], b12 = y[ 6], b13 = y[ 7];
+    final float b20 = y[8], b21 = y[9], b22 = y[10], b23 = y[11];
+    final float[] d = data;
+    d[ 0] = a00 * b00 + a01 * b10 + a02 * b20;
+    d[ 1] = a00 * b01 + a01 * b11 + a02 * b21;
+    d[ 2] = a00 * b02 + a01 * b12 + a02 * b22;
+    d[ 3] = a00 * b03 + a01 * b13 + a02 * b23 + a03;
+    d[ 4] = a10 * b00 + a11 * b10 + a12 * b20;
+    d[ 5] = a10 * b01 + a11 * b11 + a12 * b21;
+    d[ 6] = a10 * b02 + a11 * b12 + a12 * b22;
+    d[ 7] = a10 * b03 + a11 * b13 + a12 * b23 + a13;
+    d[ 8] = a20 * b00 + a21 * b10 + a22 * b20;
+    d[ 9] = a20 * b01 + a21 * b11 + a22 * b21;
+    d[10] = a20 * b02 + a21 * b12 + a22 * b22;
+    d[11] = a20 * b03 + a21 * b13 + a22 * b23 + a23;
+    d[12] = 0; d[13] = 0; d[14] = 0; d[15] = 1;
+  }
+
   /** Transpose this matrix in place. */
   public void transpose() {
+    final float[] d = data;
     float t;
-    for (int i = 0; i < 4; i++) {
-      for (int j = 0; j < i; j++) {
-        t = get(i, j);
-        set(i, j, get(j, i));
-        set(j, i, t);
-      }
-    }
+    t = d[ 1]; d[ 1] = d[ 4]; d[ 4] = t;
+    t = d[ 2]; d[ 2] = d[ 8]; d[ 8] = t;
+    t = d[ 3]; d[ 3] = d[12]; d[12] = t;
+    t = d[ 6]; d[ 6] = d[ 9]; d[ 9] = t;
+    t = d[ 7]; d[ 7] = d[13]; d[13] = t;
+    t = d[11]; d[11] = d[14]; d[14] = t;
   }
 
-  /** Multiply a 4D vector by this matrix. NOTE: src and dest must be
-      different vectors. */
+  /** Multiply a 4D vector by this matrix. src and dest may be the
+      same vector. */
   public void xformVec(Vec4f src, Vec4f dest) {
-    for (int rc = 0; rc < 4; rc++) {
-      float tmp = 0.0f;
-      for (int cc = 0; cc < 4; cc++) {
-        tmp += get(rc, cc) * src.get(cc);
-      }
-      dest.set(rc, tmp);
-    }
+    final float[] d = data;
+    final float x = src.x(), y = src.y(), z = src.z(), w = src.w();
+    dest.set(d[ 0] * x + d[ 1] * y + d[ 2] * z + d[ 3] * w,
+             d[ 4] * x + d[ 5] * y + d[ 6] * z + d[ 7] * w,
+             d[ 8] * x + d[ 9] * y + d[10] * z + d[11] * w,
+             d[12] * x + d[13] * y + d[14] * z + d[15] * w);
   }
 
   /** Transforms a 3D vector as though it had a homogeneous coordinate
       and assuming that this matrix represents only rigid
-      transformations; i.e., is not a full transformation. NOTE: src
-      and dest must be different vectors. */
+      transformations; i.e., is not a full transformation. Equivalent
+      to {@link #transformPoint transformPoint}. */
   public void xformPt(Vec3f src, Vec3f dest) {
-    for (int rc = 0; rc < 3; rc++) {
-      float tmp = 0.0f;
-      for (int cc = 0; cc < 3; cc++) {
-        tmp += get(rc, cc) * src.get(cc);
-      }
-      tmp += get(rc, 3);
-      dest.set(rc, tmp);
+    transformPoint(src, dest);
+  }
+
+  /** Transforms count tightly packed points (x, y, z triples) from
+      src, starting at float offset srcOff, by this matrix, assuming
+      that it is affine, and stores the results into dst starting at
+      float offset dstOff. src and dst may be the same array with the
+      same offset, but otherwise must not overlap. */
+  public void transformPoints(float[] src, int srcOff, float[] dst, int dstOff, int count) {
+    batchTransform(affineRows(new float[12], true), src, srcOff, dst, dstOff, count);
+  }
+
+  /** Transforms count tightly packed points from src, starting at
+      float offset srcOff, by this matrix, assuming that it is affine,
+      and stores the results into dst starting at float offset dstOff.
+      The positions of the buffers are ignored and left unchanged. src
+      and dst may be the same buffer with the same offset, but
+      otherwise must not overlap. */
+  public void transformPoints(FloatBuffer src, int srcOff, FloatBuffer dst, int dstOff, int count) {
+    batchTransform(affineRows(new float[12], true), src, srcOff, dst, dstOff, count);
+  }
+
+  /** Transforms count tightly packed directions from src by the upper
+      left 3x3 of this matrix; see {@link #transformPoints(float[],
+      int, float[], int, int) transformPoints}. */
+  public void transformDirs(float[] src, int srcOff, float[] dst, int dstOff, int count) {
+    batchTransform(affineRows(new float[12], false), src, srcOff, dst, dstOff, count);
+  }
+
+  /** Transforms count tightly packed directions from src by the upper
+      left 3x3 of this matrix; see {@link #transformPoints(FloatBuffer,
+      int, FloatBuffer, int, int) transformPoints}. */
+  public void transformDirs(FloatBuffer src, int srcOff, FloatBuffer dst, int dstOff, int count) {
+    batchTransform(affineRows(new float[12], false), src, srcOff, dst, dstOff, count);
+  }
+
+  /** Transforms count tightly packed surface normals from src by the
+      inverse transpose of the upper left 3x3 of this matrix, so that
+      they remain perpendicular to transformed surfaces under
+      non-uniform scales. The results are not renormalized. See {@link
+      #transformPoints(float[], int, float[], int, int)
+      transformPoints}.
+      @throws SingularMatrixException if the upper left 3x3 is singular
+  */
+  public void transformNormals(float[] src, int srcOff, float[] dst, int dstOff, int count)
+    throws SingularMatrixException {
+    batchTransform(normalRows(new float[12]), src, srcOff, dst, dstOff, count);
+  }
+
+  /** Transforms count tightly packed surface normals from src by the
+      inverse transpose of the upper left 3x3 of this matrix. The
+      results are not renormalized. See {@link
+      #transformPoints(FloatBuffer, int, FloatBuffer, int, int)
+      transformPoints}.
+      @throws SingularMatrixException if the upper left 3x3 is singular
+  */
+  public void transformNormals(FloatBuffer src, int srcOff, FloatBuffer dst, int dstOff, int count)
+    throws SingularMatrixException {
+    batchTransform(normalRows(new float[12]), src, srcOff, dst, dstOff, count);
+  }
+
+  /** Sets the number of elements at and above which the batch
+      transformation methods split their work across the threads of
+      the common fork-join pool. 0, the default, disables
+      multi-threaded transformation. */
+  public static void setParallelThreshold(int numElements) {
+    if (numElements < 0) {
+      throw new IllegalArgumentException("Negative threshold " + numElements);
     }
+    parallelThreshold = numElements;
   }
-  
-  /** Transforms src using only the upper left 3x3. NOTE: src and dest
-      must be different vectors. */
+
+  /** Returns the number of elements at and above which the batch
+      transformation methods use multiple threads, or 0 if they never
+      do. */
+  public static int getParallelThreshold() {
+    return parallelThreshold;
+  }
+
+  /** Transforms src using only the upper left 3x3. Equivalent to
+      {@link #transformDir transformDir}. */
   public void xformDir(Vec3f src, Vec3f dest) {
-    for (int rc = 0; rc < 3; rc++) {
-      float tmp = 0.0f;
-      for (int cc = 0; cc < 3; cc++) {
-        tmp += get(rc, cc) * src.get(cc);
-      }
-      dest.set(rc, tmp);
-    }
+    transformDir(src, dest);
+  }
+
+  /** Transforms the point src by this matrix, assuming that it is
+      affine (the bottom row is ignored). src and dest may be the same
+      vector. */
+  public void transformPoint(Vec3f src, Vec3f dest) {
+    final float[] d = data;
+    final float x = src.x(), y = src.y(), z = src.z();
+    dest.set(d[0] * x + d[1] * y + d[ 2] * z + d[ 3],
+             d[4] * x + d[5] * y + d[ 6] * z + d[ 7],
+             d[8] * x + d[9] * y + d[10] * z + d[11]);
+  }
+
+  /** Transforms the point src by this matrix, including the
+      homogeneous divide, as is necessary for projection matrices. src
+      and dest may be the same vector. */
+  public void transformPointProjective(Vec3f src, Vec3f dest) {
+    final float[] d = data;
+    final float x = src.x(), y = src.y(), z = src.z();
+    final float w = d[12] * x + d[13] * y + d[14] * z + d[15];
+    final float s = 1.0f / w;
+    dest.set((d[0] * x + d[1] * y + d[ 2] * z + d[ 3]) * s,
+             (d[4] * x + d[5] * y + d[ 6] * z + d[ 7]) * s,
+             (d[8] * x + d[9] * y + d[10] * z + d[11]) * s);
+  }
+
+  /** Transforms the direction src by the upper left 3x3 of this
+      matrix. src and dest may be the same vector. */
+  public void transformDir(Vec3f src, Vec3f dest) {
+    final float[] d = data;
+    final float x = src.x(), y = src.y(), z = src.z();
+    dest.set(d[0] * x + d[1] * y + d[ 2] * z,
+             d[4] * x + d[5] * y + d[ 6] * z,
+             d[8] * x + d[9] * y + d[10] * z);
   }
 
   /** Transforms the given line (origin plus direction) by this
@@ -255,21 +434,29 @@ public class Mat4f {
   /** Copies data in column-major (OpenGL format) order into passed
       float array, which must have length 16 or greater. */
   public void getColumnMajorData(float[] out) {
-    for (int i = 0; i < 4; i++) {
-      for (int j = 0; j < 4; j++) {
-        out[4 * j + i] = get(i, j);
-      }
-    }
+    getColumnMajorData(out, 0);
   }
 
   /** Copies data in column-major (OpenGL format) order into passed
-      float buffer, which must have 16 or more remaining elements. */
+      float array, starting at the given offset. */
+  public void getColumnMajorData(float[] out, int offset) {
+    final float[] d = data;
+    final int o = offset;
+    out[o     ] = d[0]; out[o +  1] = d[4]; out[o +  2] = d[ 8]; out[o +  3] = d[12];
+    out[o +  4] = d[1]; out[o +  5] = d[5]; out[o +  6] = d[ 9]; out[o +  7] = d[13];
+    out[o +  8] = d[2]; out[o +  9] = d[6]; out[o + 10] = d[10]; out[o + 11] = d[14];
+    out[o + 12] = d[3]; out[o + 13] = d[7]; out[o + 14] = d[11]; out[o + 15] = d[15];
+  }
+
+  /** Copies data in column-major (OpenGL format) order into the first
+      16 elements of the passed float buffer, regardless of its
+      position. */
   public void getColumnMajorData(FloatBuffer out) {
-    for (int i = 0; i < 4; i++) {
-      for (int j = 0; j < 4; j++) {
-        out.put(4 * j + i, get(i, j));
-      }
-    }
+    final float[] d = data;
+    out.put( 0, d[0]); out.put( 1, d[4]); out.put( 2, d[ 8]); out.put( 3, d[12]);
+    out.put( 4, d[1]); out.put( 5, d[5]); out.put( 6, d[ 9]); out.put( 7, d[13]);
+    out.put( 8, d[2]); out.put( 9, d[6]); out.put(10, d[10]); out.put(11, d[14]);
+    out.put(12, d[3]); out.put(13, d[7]); out.put(14, d[11]); out.put(15, d[15]);
   }
 
   /** Returns the matrix data in row-major format, which is the
@@ -281,9 +468,9 @@ public class Mat4f {
   /** Stores the matrix data into the passed FloatBuffer in row-major
       format, which is the opposite of OpenGL's convention. */
   public void getRowMajorData(FloatBuffer out) {
-    for (int i = 0; i < 16; i++) {
-      out.put(i, data[i]);
-    }
+    final int pos = out.position();
+    out.put(data);
+    out.position(pos);
   }
 
   public Matf toMatf() {
@@ -309,296 +496,258 @@ public class Mat4f {
   // Internals only below this point
   //
 
-  // The following code was borrowed from Java 3D's vecmath implementation
-
-  private void invertGeneral(Mat4f m1) {
-    double temp[] = new double[16];
-    double result[] = new double[16];
-    int row_perm[] = new int[4];
-    int i, r, c;
-
-    // Use LU decomposition and backsubstitution code specifically
-    // for floating-point 4x4 matrices.
-
-    // Copy source matrix to t1tmp 
-    temp[0] = m1.get(0, 0);
-    temp[1] = m1.get(0, 1);
-    temp[2] = m1.get(0, 2);
-    temp[3] = m1.get(0, 3);
- 
-    temp[4] = m1.get(1, 0);
-    temp[5] = m1.get(1, 1);
-    temp[6] = m1.get(1, 2);
-    temp[7] = m1.get(1, 3);
- 
-    temp[8] = m1.get(2, 0);
-    temp[9] = m1.get(2, 1);
-    temp[10] = m1.get(2, 2);
-    temp[11] = m1.get(2, 3);
- 
-    temp[12] = m1.get(3, 0);
-    temp[13] = m1.get(3, 1);
-    temp[14] = m1.get(3, 2);
-    temp[15] = m1.get(3, 3);
-
-    // Calculate LU decomposition: Is the matrix singular? 
-    if (!luDecomposition(temp, row_perm)) {
-      // Matrix has no inverse 
+  private void invertAffine(Mat4f dest) {
+    final float[] d = data;
+    final float a00 = d[0], a01 = d[1], a02 = d[ 2], a03 = d[ 3];
+    final float a10 = d[4], a11 = d[5], a12 = d[ 6], a13 = d[ 7];
+    final float a20 = d[8], a21 = d[9], a22 = d[10], a23 = d[11];
+
+    // Cofactors of the upper left 3x3
+    final float c00 = a11 * a22 - a12 * a21;
+    final float c01 = a12 * a20 - a10 * a22;
+    final float c02 = a10 * a21 - a11 * a20;
+    final float det = a00 * c00 + a01 * c01 + a02 * c02;
+    if (det == 0.0f) {
       throw new SingularMatrixException();
     }
+    final float s = 1.0f / det;
+
+    final float b00 = c00 * s;
+    final float b01 = (a02 * a21 - a01 * a22) * s;
+    final float b02 = (a01 * a12 - a02 * a11) * s;
+    final float b10 = c01 * s;
+    final float b11 = (a00 * a22 - a02 * a20) * s;
+    final float b12 = (a02 * a10 - a00 * a12) * s;
+    final float b20 = c02 * s;
+    final float b21 = (a01 * a20 - a00 * a21) * s;
+    final float b22 = (a00 * a11 - a01 * a10) * s;
+
+    final float[] r = dest.data;
+    r[ 0] = b00; r[ 1] = b01; r[ 2] = b02;
+    r[ 3] = -(b00 * a03 + b01 * a13 + b02 * a23);
+    r[ 4] = b10; r[ 5] = b11; r[ 6] = b12;
+    r[ 7] = -(b10 * a03 + b11 * a13 + b12 * a23);
+    r[ 8] = b20; r[ 9] = b21; r[10] = b22;
+    r[11] = -(b20 * a03 + b21 * a13 + b22 * a23);
+    r[12] = 0; r[13] = 0; r[14] = 0; r[15] = 1;
+  }
 
-    // Perform back substitution on the identity matrix 
-    for(i=0;i<16;i++) result[i] = 0.0;
-    result[0] = 1.0; result[5] = 1.0; result[10] = 1.0; result[15] = 1.0;
-    luBacksubstitution(temp, row_perm, result);
-
-    set(0, 0, (float)result[0]);
-    set(0, 1, (float)result[1]);
-    set(0, 2, (float)result[2]);
-    set(0, 3, (float)result[3]);
-
-    set(1, 0, (float)result[4]);
-    set(1, 1, (float)result[5]);
-    set(1, 2, (float)result[6]);
-    set(1, 3, (float)result[7]);
- 
-    set(2, 0, (float)result[8]);
-    set(2, 1, (float)result[9]);
-    set(2, 2, (float)result[10]);
-    set(2, 3, (float)result[11]);
- 
-    set(3, 0, (float)result[12]);
-    set(3, 1, (float)result[13]);
-    set(3, 2, (float)result[14]);
-    set(3, 3, (float)result[15]);
-  }
-
-  /**
-   * Given a 4x4 array "matrix0", this function replaces it with the 
-   * LU decomposition of a row-wise permutation of itself.  The input 
-   * parameters are "matrix0" and "dimen".  The array "matrix0" is also 
-   * an output parameter.  The vector "row_perm[4]" is an output 
-   * parameter that contains the row permutations resulting from partial 
-   * pivoting.  The output parameter "even_row_xchg" is 1 when the 
-   * number of row exchanges is even, or -1 otherwise.  Assumes data 
-   * type is always double.
-   *
-   * This function is similar to luDecomposition, except that it
-   * is tuned specifically for 4x4 matrices.
-   *
-   * @return true if the matrix is nonsingular, or false otherwise.
-   */
-  //
-  // Reference: Press, Flannery, Teukolsky, Vetterling, 
-  //	      _Numerical_Recipes_in_C_, Cambridge University Press, 
-  //	      1988, pp 40-45.
-  //
-  static boolean luDecomposition(double[] matrix0,
-                                 int[] row_perm) {
-
-    double row_scale[] = new double[4];
-
-    // Determine implicit scaling information by looping over rows 
-    {
-      int i, j;
-      int ptr, rs;
-      double big, temp;
-
-      ptr = 0;
-      rs = 0;
-
-      // For each row ... 
-      i = 4;
-      while (i-- != 0) {
-        big = 0.0;
-
-        // For each column, find the largest element in the row 
-        j = 4;
-        while (j-- != 0) {
-          temp = matrix0[ptr++];
-          temp = Math.abs(temp);
-          if (temp > big) {
-            big = temp;
-          }
-        }
+  // The cofactor expansion cancels badly in float for
+  // ill-conditioned and projective matrices, so the minors and the
+  // determinant are computed in double and only the result is
+  // rounded; the affine path stays in float
+  private void invertGeneral(Mat4f dest) {
+    final float[] d = data;
+    final double a00 = d[ 0], a01 = d[ 1], a02 = d[ 2], a03 = d[ 3];
+    final double a10 = d[ 4], a11 = d[ 5], a12 = d[ 6], a13 = d[ 7];
+    final double a20 = d[ 8], a21 = d[ 9], a22 = d[10], a23 = d[11];
+    final double a30 = d[12], a31 = d[13], a32 = d[14], a33 = d[15];
+
+    // 2x2 minors of the top two and bottom two rows
+    final double s0 = a00 * a11 - a10 * a01;
+    final double s1 = a00 * a12 - a10 * a02;
+    final double s2 = a00 * a13 - a10 * a03;
+    final double s3 = a01 * a12 - a11 * a02;
+    final double s4 = a01 * a13 - a11 * a03;
+    final double s5 = a02 * a13 - a12 * a03;
+    final double c0 = a20 * a31 - a30 * a21;
+    final double c1 = a20 * a32 - a30 * a22;
+    final double c2 = a20 * a33 - a30 * a23;
+    final double c3 = a21 * a32 - a31 * a22;
+    final double c4 = a21 * a33 - a31 * a23;
+    final double c5 = a22 * a33 - a32 * a23;
+
+    final double det = s0 * c5 - s1 * c4 + s2 * c3 + s3 * c2 - s4 * c1 + s5 * c0;
+    if (det == 0.0) {
+      throw new SingularMatrixException();
+    }
+    final double s = 1.0 / det;
+
+    // Adjugate divided by the determinant
+    final float[] r = dest.data;
+    r[ 0] = (float) (( a11 * c5 - a12 * c4 + a13 * c3) * s);
+    r[ 1] = (float) ((-a01 * c5 + a02 * c4 - a03 * c3) * s);
+    r[ 2] = (float) (( a31 * s5 - a32 * s4 + a33 * s3) * s);
+    r[ 3] = (float) ((-a21 * s5 + a22 * s4 - a23 * s3) * s);
+    r[ 4] = (float) ((-a10 * c5 + a12 * c2 - a13 * c1) * s);
+    r[ 5] = (float) (( a00 * c5 - a02 * c2 + a03 * c1) * s);
+    r[ 6] = (float) ((-a30 * s5 + a32 * s2 - a33 * s1) * s);
+    r[ 7] = (float) (( a20 * s5 - a22 * s2 + a23 * s1) * s);
+    r[ 8] = (float) (( a10 * c4 - a11 * c2 + a13 * c0) * s);
+    r[ 9] = (float) ((-a00 * c4 + a01 * c2 - a03 * c0) * s);
+    r[10] = (float) (( a30 * s4 - a31 * s2 + a33 * s0) * s);
+    r[11] = (float) ((-a20 * s4 + a21 * s2 - a23 * s0) * s);
+    r[12] = (float) ((-a10 * c3 + a11 * c1 - a12 * c0) * s);
+    r[13] = (float) (( a00 * c3 - a01 * c1 + a02 * c0) * s);
+    r[14] = (float) ((-a30 * s3 + a31 * s1 - a32 * s0) * s);
+    r[15] = (float) (( a20 * s3 - a21 * s1 + a22 * s0) * s);
+  }
 
-        // Is the matrix singular? 
-        if (big == 0.0) {
-          return false;
-        }
-        row_scale[rs++] = 1.0 / big;
-      }
+  private static volatile int parallelThreshold;
+  // The smallest number of elements handed to a single thread
+  private static final int MIN_PARALLEL_CHUNK = 8192;
+
+  // Stores the top three rows of this matrix into rows, with the
+  // translation zeroed if it is not wanted
+  private float[] affineRows(float[] rows, boolean translate) {
+    System.arraycopy(data, 0, rows, 0, 12);
+    if (!translate) {
+      rows[3] = rows[7] = rows[11] = 0;
+    }
+    return rows;
+  }
+
+  // Stores the inverse transpose of the upper left 3x3 of this
+  // matrix into rows, with zero translation
+  private float[] normalRows(float[] rows) throws SingularMatrixException {
+    final float[] d = data;
+    final float a00 = d[0], a01 = d[1], a02 = d[ 2];
+    final float a10 = d[4], a11 = d[5], a12 = d[ 6];
+    final float a20 = d[8], a21 = d[9], a22 = d[10];
+    // The inverse transpose is the cofactor matrix divided by the
+    // determinant
+    final float c00 = a11 * a22 - a12 * a21;
+    final float c01 = a12 * a20 - a10 * a22;
+    final float c02 = a10 * a21 - a11 * a20;
+    final float det = a00 * c00 + a01 * c01 + a02 * c02;
+    if (det == 0.0f) {
+      throw new SingularMatrixException();
     }
+    final float s = 1.0f / det;
+    rows[ 0] = c00 * s;
+    rows[ 1] = c01 * s;
+    rows[ 2] = c02 * s;
+    rows[ 4] = (a02 * a21 - a01 * a22) * s;
+    rows[ 5] = (a00 * a22 - a02 * a20) * s;
+    rows[ 6] = (a01 * a20 - a00 * a21) * s;
+    rows[ 8] = (a01 * a12 - a02 * a11) * s;
+    rows[ 9] = (a02 * a10 - a00 * a12) * s;
+    rows[10] = (a00 * a11 - a01 * a10) * s;
+    rows[3] = rows[7] = rows[11] = 0;
+    return rows;
+  }
 
-    {
-      int j;
-      int mtx;
-
-      mtx = 0;
-
-      // For all columns, execute Crout's method 
-      for (j = 0; j < 4; j++) {
-        int i, imax, k;
-        int target, p1, p2;
-        double sum, big, temp;
-
-        // Determine elements of upper diagonal matrix U 
-        for (i = 0; i < j; i++) {
-          target = mtx + (4*i) + j;
-          sum = matrix0[target];
-          k = i;
-          p1 = mtx + (4*i);
-          p2 = mtx + j;
-          while (k-- != 0) {
-            sum -= matrix0[p1] * matrix0[p2];
-            p1++;
-            p2 += 4;
-          }
-          matrix0[target] = sum;
-        }
+  private static void batchTransform(float[] rows,
+                                     float[] src, int srcOff,
+                                     float[] dst, int dstOff,
+                                     int count) {
+    checkBatch(src.length, srcOff, dst.length, dstOff, count);
+    if (useThreads(count)) {
+      ForkJoinPool.commonPool().invoke(new BatchTask(rows, src, null, srcOff, dst, null, dstOff, count));
+    } else {
+      transformRange(rows, src, srcOff, dst, dstOff, count);
+    }
+  }
 
-        // Search for largest pivot element and calculate
-        // intermediate elements of lower diagonal matrix L.
-        big = 0.0;
-        imax = -1;
-        for (i = j; i < 4; i++) {
-          target = mtx + (4*i) + j;
-          sum = matrix0[target];
-          k = j;
-          p1 = mtx + (4*i);
-          p2 = mtx + j;
-          while (k-- != 0) {
-            sum -= matrix0[p1] * matrix0[p2];
-            p1++;
-            p2 += 4;
-          }
-          matrix0[target] = sum;
-
-          // Is this the best pivot so far? 
-          if ((temp = row_scale[i] * Math.abs(sum)) >= big) {
-            big = temp;
-            imax = i;
-          }
-        }
+  private static void batchTransform(float[] rows,
+                                     FloatBuffer src, int srcOff,
+                                     FloatBuffer dst, int dstOff,
+                                     int count) {
+    checkBatch(src.limit(), srcOff, dst.limit(), dstOff, count);
+    if (src.hasArray() && dst.hasArray()) {
+      // Heap buffers go through the array kernel, which the JIT vectorizes
+      batchTransform(rows,
+                     src.array(), src.arrayOffset() + srcOff,
+                     dst.array(), dst.arrayOffset() + dstOff,
+                     count);
+    } else if (useThreads(count)) {
+      ForkJoinPool.commonPool().invoke(new BatchTask(rows, null, src, srcOff, null, dst, dstOff, count));
+    } else {
+      transformRange(rows, src, srcOff, dst, dstOff, count);
+    }
+  }
 
-        if (imax < 0) {
-          throw new RuntimeException("Logic error: imax < 0");
-        }
+  private static void checkBatch(int srcLen, int srcOff, int dstLen, int dstOff, int count) {
+    if (count < 0 || srcOff < 0 || dstOff < 0 ||
+        srcOff + 3L * count > srcLen || dstOff + 3L * count > dstLen) {
+      throw new IndexOutOfBoundsException("Transforming " + count + " elements from offset " + srcOff +
+                                          " of " + srcLen + " to offset " + dstOff + " of " + dstLen);
+    }
+  }
 
-        // Is a row exchange necessary? 
-        if (j != imax) {
-          // Yes: exchange rows 
-          k = 4;
-          p1 = mtx + (4*imax);
-          p2 = mtx + (4*j);
-          while (k-- != 0) {
-            temp = matrix0[p1];
-            matrix0[p1++] = matrix0[p2];
-            matrix0[p2++] = temp;
-          }
-
-          // Record change in scale factor 
-          row_scale[imax] = row_scale[j];
-        }
+  private static boolean useThreads(int count) {
+    int threshold = parallelThreshold;
+    return (threshold > 0 && count >= threshold &&
+            count >= 2 * MIN_PARALLEL_CHUNK &&
+            ForkJoinPool.getCommonPoolParallelism() > 1);
+  }
 
-        // Record row permutation 
-        row_perm[j] = imax;
+  // Straight-line loop with no calls or branches so that the JIT can
+  // unroll and vectorize it
+  private static void transformRange(float[] rows,
+                                     float[] src, int srcOff,
+                                     float[] dst, int dstOff,
+                                     int count) {
+    final float m00 = rows[0], m01 = rows[1], m02 = rows[ 2], m03 = rows[ 3];
+    final float m10 = rows[4], m11 = rows[5], m12 = rows[ 6], m13 = rows[ 7];
+    final float m20 = rows[8], m21 = rows[9], m22 = rows[10], m23 = rows[11];
+    for (int i = 0, s = srcOff, d = dstOff; i < count; i++, s += 3, d += 3) {
+      final float x = src[s], y = src[s + 1], z = src[s + 2];
+      dst[d    ] = m00 * x + m01 * y + m02 * z + m03;
+      dst[d + 1] = m10 * x + m11 * y + m12 * z + m13;
+      dst[d + 2] = m20 * x + m21 * y + m22 * z + m23;
+    }
+  }
 
-        // Is the matrix singular 
-        if (matrix0[(mtx + (4*j) + j)] == 0.0) {
-          return false;
-        }
+  private static void transformRange(float[] rows,
+                                     FloatBuffer src, int srcOff,
+                                     FloatBuffer dst, int dstOff,
+                                     int count) {
+    final float m00 = rows[0], m01 = rows[1], m02 = rows[ 2], m03 = rows[ 3];
+    final float m10 = rows[4], m11 = rows[5], m12 = rows[ 6], m13 = rows[ 7];
+    final float m20 = rows[8], m21 = rows[9], m22 = rows[10], m23 = rows[11];
+    for (int i = 0, s = srcOff, d = dstOff; i < count; i++, s += 3, d += 3) {
+      final float x = src.get(s), y = src.get(s + 1), z = src.get(s + 2);
+      dst.put(d,     m00 * x + m01 * y + m02 * z + m03);
+      dst.put(d + 1, m10 * x + m11 * y + m12 * z + m13);
+      dst.put(d + 2, m20 * x + m21 * y + m22 * z + m23);
+    }
+  }
 
-        // Divide elements of lower diagonal matrix L by pivot 
-        if (j != (4-1)) {
-          temp = 1.0 / (matrix0[(mtx + (4*j) + j)]);
-          target = mtx + (4*(j+1)) + j;
-          i = 3 - j;
-          while (i-- != 0) {
-            matrix0[target] *= temp;
-            target += 4;
-          }
-        }
-      }
+  // Splits a batch transformation in halves until the pieces are
+  // small enough to run on one thread. Exactly one of the array and
+  // buffer pairs is non-null.
+  private static class BatchTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final float[] rows;
+    private final float[] srcArray;
+    private final FloatBuffer srcBuffer;
+    private final int srcOff;
+    private final float[] dstArray;
+    private final FloatBuffer dstBuffer;
+    private final int dstOff;
+    private final int count;
+
+    BatchTask(float[] rows,
+              float[] srcArray, FloatBuffer srcBuffer, int srcOff,
+              float[] dstArray, FloatBuffer dstBuffer, int dstOff,
+              int count) {
+      this.rows = rows;
+      this.srcArray = srcArray;
+      this.srcBuffer = srcBuffer;
+      this.srcOff = srcOff;
+      this.dstArray = dstArray;
+      this.dstBuffer = dstBuffer;
+      this.dstOff = dstOff;
+      this.count = count;
     }
 
-    return true;
-  }
-
-  /**
-   * Solves a set of linear equations.  The input parameters "matrix1",
-   * and "row_perm" come from luDecompostionD4x4 and do not change
-   * here.  The parameter "matrix2" is a set of column vectors assembled
-   * into a 4x4 matrix of floating-point values.  The procedure takes each
-   * column of "matrix2" in turn and treats it as the right-hand side of the
-   * matrix equation Ax = LUx = b.  The solution vector replaces the
-   * original column of the matrix.
-   *
-   * If "matrix2" is the identity matrix, the procedure replaces its contents
-   * with the inverse of the matrix from which "matrix1" was originally
-   * derived.
-   */
-  //
-  // Reference: Press, Flannery, Teukolsky, Vetterling, 
-  //	      _Numerical_Recipes_in_C_, Cambridge University Press, 
-  //	      1988, pp 44-45.
-  //
-  static void luBacksubstitution(double[] matrix1,
-                                 int[] row_perm,
-                                 double[] matrix2) {
-
-    int i, ii, ip, j, k;
-    int rp;
-    int cv, rv;
-	
-    //	rp = row_perm;
-    rp = 0;
-
-    // For each column vector of matrix2 ... 
-    for (k = 0; k < 4; k++) {
-      //	    cv = &(matrix2[0][k]);
-      cv = k;
-      ii = -1;
-
-      // Forward substitution 
-      for (i = 0; i < 4; i++) {
-        double sum;
-
-        ip = row_perm[rp+i];
-        sum = matrix2[cv+4*ip];
-        matrix2[cv+4*ip] = matrix2[cv+4*i];
-        if (ii >= 0) {
-          //		    rv = &(matrix1[i][0]);
-          rv = i*4;
-          for (j = ii; j <= i-1; j++) {
-            sum -= matrix1[rv+j] * matrix2[cv+4*j];
-          }
-        }
-        else if (sum != 0.0) {
-          ii = i;
+    protected void compute() {
+      if (count < 2 * MIN_PARALLEL_CHUNK) {
+        if (srcArray != null) {
+          transformRange(rows, srcArray, srcOff, dstArray, dstOff, count);
+        } else {
+          transformRange(rows, srcBuffer, srcOff, dstBuffer, dstOff, count);
         }
-        matrix2[cv+4*i] = sum;
+        return;
       }
-
-      // Backsubstitution 
-      //	    rv = &(matrix1[3][0]);
-      rv = 3*4;
-      matrix2[cv+4*3] /= matrix1[rv+3];
-
-      rv -= 4;
-      matrix2[cv+4*2] = (matrix2[cv+4*2] -
-                         matrix1[rv+3] * matrix2[cv+4*3]) / matrix1[rv+2];
-
-      rv -= 4;
-      matrix2[cv+4*1] = (matrix2[cv+4*1] -
-                         matrix1[rv+2] * matrix2[cv+4*2] -
-                         matrix1[rv+3] * matrix2[cv+4*3]) / matrix1[rv+1];
-
-      rv -= 4;
-      matrix2[cv+4*0] = (matrix2[cv+4*0] -
-                         matrix1[rv+1] * matrix2[cv+4*1] -
-                         matrix1[rv+2] * matrix2[cv+4*2] -
-                         matrix1[rv+3] * matrix2[cv+4*3]) / matrix1[rv+0];
+      int half = count / 2;
+      int rest = count - half;
+      invokeAll(new BatchTask(rows, srcArray, srcBuffer, srcOff,
+                              dstArray, dstBuffer, dstOff, half),
+                new BatchTask(rows, srcArray, srcBuffer, srcOff + 3 * half,
+                              dstArray, dstBuffer, dstOff + 3 * half, rest));
     }
   }
 }
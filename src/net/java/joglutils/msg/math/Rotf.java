@@ -42,6 +42,8 @@ package net.java.joglutils.msg.math;
 
 public class Rotf {
   private static float EPSILON = 1.0e-7f;
+  // Threshold below which slerp falls back to normalized lerp
+  private static final float SLERP_EPSILON = 1.0e-4f;
 
   // Representation is a quaternion. Element 0 is the scalar part (=
   // cos(theta/2)), elements 1..3 the imaginary/"vector" part (=
@@ -95,11 +97,13 @@ public class Rotf {
     float halfTheta = angle / 2.0f;
     q0 = (float) Math.cos(halfTheta);
     float sinHalfTheta = (float) Math.sin(halfTheta);
-    Vec3f realAxis = new Vec3f(axis);
-    realAxis.normalize();
-    q1 = realAxis.x() * sinHalfTheta;
-    q2 = realAxis.y() * sinHalfTheta;
-    q3 = realAxis.z() * sinHalfTheta;
+    float len = axis.length();
+    if (len != 0.0f) {
+      sinHalfTheta /= len;
+    }
+    q1 = axis.x() * sinHalfTheta;
+    q2 = axis.y() * sinHalfTheta;
+    q3 = axis.z() * sinHalfTheta;
   }
 
   /** Sets this rotation to the contents of the passed one. */
@@ -207,6 +211,60 @@ public class Rotf {
           a.q1 * b.q2 - a.q2 * b.q1);
   }
 
+  /** Sets this rotation to the spherical linear interpolation between
+      a and b, where an alpha of 0 yields a and an alpha of 1 yields
+      b. Takes the shorter of the two possible paths. Both a and b
+      should be unit quaternions. "this" may be the same as a or b. */
+  public void slerp(Rotf a, Rotf b, float alpha) {
+    float dotp = a.q0 * b.q0 + a.q1 * b.q1 + a.q2 * b.q2 + a.q3 * b.q3;
+    float sign = 1.0f;
+    if (dotp < 0.0f) {
+      dotp = -dotp;
+      sign = -1.0f;
+    }
+    if (dotp > 1.0f - SLERP_EPSILON) {
+      // The rotations are very close; avoid dividing by a tiny sine
+      nlerp(a, b, alpha);
+      return;
+    }
+    float theta = (float) Math.acos(dotp);
+    float ooSinTheta = 1.0f / (float) Math.sin(theta);
+    float wa = (float) Math.sin((1.0f - alpha) * theta) * ooSinTheta;
+    float wb = sign * (float) Math.sin(alpha * theta) * ooSinTheta;
+    float n0 = wa * a.q0 + wb * b.q0;
+    float n1 = wa * a.q1 + wb * b.q1;
+    float n2 = wa * a.q2 + wb * b.q2;
+    float n3 = wa * a.q3 + wb * b.q3;
+    q0 = n0;
+    q1 = n1;
+    q2 = n2;
+    q3 = n3;
+  }
+
+  /** Sets this rotation to the normalized linear interpolation
+      between a and b, where an alpha of 0 yields a and an alpha of 1
+      yields b. Cheaper than {@link #slerp slerp} but does not have
+      constant angular velocity. Takes the shorter of the two possible
+      paths. "this" may be the same as a or b. */
+  public void nlerp(Rotf a, Rotf b, float alpha) {
+    float dotp = a.q0 * b.q0 + a.q1 * b.q1 + a.q2 * b.q2 + a.q3 * b.q3;
+    float wa = 1.0f - alpha;
+    float wb = (dotp < 0.0f) ? -alpha : alpha;
+    q0 = wa * a.q0 + wb * b.q0;
+    q1 = wa * a.q1 + wb * b.q1;
+    q2 = wa * a.q2 + wb * b.q2;
+    q3 = wa * a.q3 + wb * b.q3;
+    float len = length();
+    if (len == 0.0f) {
+      init();
+    } else {
+      q0 /= len;
+      q1 /= len;
+      q2 /= len;
+      q3 /= len;
+    }
+  }
+
   /** Turns this rotation into a 3x3 rotation matrix. NOTE: only
       mutates the upper-left 3x3 of the passed Mat4f. Implementation
       from B. K. P. Horn's <u>Robot Vision</u> textbook. */
@@ -277,13 +335,21 @@ public class Rotf {
       Horn's <u>Robot Vision</u>. NOTE: src and dest must be different
       vectors. */
   public void rotateVector(Vec3f src, Vec3f dest) {
-    Vec3f qVec = new Vec3f(q1, q2, q3);
-    Vec3f qCrossX = qVec.cross(src);
-    Vec3f qCrossXCrossQ = qCrossX.cross(qVec);
-    qCrossX.scale(2.0f * q0);
-    qCrossXCrossQ.scale(-2.0f);
-    dest.add(src, qCrossX);
-    dest.add(dest, qCrossXCrossQ);
+    float x = src.x();
+    float y = src.y();
+    float z = src.z();
+    // qCrossX = qVec cross src
+    float cx = q2 * z - q3 * y;
+    float cy = q3 * x - q1 * z;
+    float cz = q1 * y - q2 * x;
+    // qCrossXCrossQ = qCrossX cross qVec
+    float ccx = cy * q3 - cz * q2;
+    float ccy = cz * q1 - cx * q3;
+    float ccz = cx * q2 - cy * q1;
+    float s = 2.0f * q0;
+    dest.set(x + s * cx - 2.0f * ccx,
+             y + s * cy - 2.0f * ccy,
+             z + s * cz - 2.0f * ccz);
   }
 
   /** Rotate a vector by this quaternion, returning newly-allocated result. */
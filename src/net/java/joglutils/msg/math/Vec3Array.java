@@ -0,0 +1,534 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.math;
+
+import java.nio.FloatBuffer;
+
+/** A fixed-size array of 3D vectors stored in structure-of-arrays
+    form: one array each of x, y and z components. Bulk operations
+    over the whole array run as simple loops over the component
+    arrays, without a Vec3f object per vector, and the component
+    arrays may be passed directly to other bulk kernels such as those
+    in {@link Frustum Frustum}.
+
+    <P> A Vec3Array is backed either by three float arrays or by three
+    FloatBuffers, which are typically direct. The array-backed form is
+    faster, because the JIT can vectorize loops over arrays. Vectors
+    may be converted to and from the interleaved x, y, z layout used
+    by OpenGL and by Vec3fCollection with {@link #getInterleaved
+    getInterleaved} and {@link #setInterleaved setInterleaved}.
+
+    <P> Operations taking other arrays, such as {@link #add add}, require
+    all of them to be the same size, and allow any of them to be this
+    array. */
+
+public class Vec3Array {
+  private final int size;
+  // Non-null when backed by arrays
+  private final float[] x;
+  private final float[] y;
+  private final float[] z;
+  // Non-null when backed by buffers; absolute indices from 0
+  private final FloatBuffer bx;
+  private final FloatBuffer by;
+  private final FloatBuffer bz;
+
+  /** Creates an array-backed Vec3Array of the given size, with all
+      vectors zero. */
+  public Vec3Array(int size) {
+    this(new float[size], new float[size], new float[size]);
+  }
+
+  /** Creates a Vec3Array backed by the given component arrays, which
+      must all be the same length, without copying them. */
+  public Vec3Array(float[] x, float[] y, float[] z) {
+    if (x.length != y.length || x.length != z.length) {
+      throw new IllegalArgumentException("Component arrays have different lengths " +
+                                         x.length + ", " + y.length + ", " + z.length);
+    }
+    this.size = x.length;
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    this.bx = this.by = this.bz = null;
+  }
+
+  /** Creates a Vec3Array backed by the remaining elements of the given
+      component buffers, which must all have the same number
+      remaining, without copying them. */
+  public Vec3Array(FloatBuffer x, FloatBuffer y, FloatBuffer z) {
+    if (x.remaining() != y.remaining() || x.remaining() != z.remaining()) {
+      throw new IllegalArgumentException("Component buffers have different sizes " +
+                                         x.remaining() + ", " + y.remaining() + ", " + z.remaining());
+    }
+    this.size = x.remaining();
+    this.x = this.y = this.z = null;
+    this.bx = x.slice();
+    this.by = y.slice();
+    this.bz = z.slice();
+  }
+
+  /** Returns the number of vectors in this array. */
+  public int size() {
+    return size;
+  }
+
+  /** Indicates whether this Vec3Array is backed by float arrays, in
+      which case {@link #getX getX} and friends return them. */
+  public boolean hasArrays() {
+    return (x != null);
+  }
+
+  /** Returns the array of x components backing this Vec3Array, or null
+      if it is backed by buffers. */
+  public float[] getX() { return x; }
+  /** Returns the array of y components backing this Vec3Array, or null
+      if it is backed by buffers. */
+  public float[] getY() { return y; }
+  /** Returns the array of z components backing this Vec3Array, or null
+      if it is backed by buffers. */
+  public float[] getZ() { return z; }
+
+  /** Returns the x components of this Vec3Array as a FloatBuffer
+      sharing its storage. */
+  public FloatBuffer getXBuffer() { return (x != null) ? FloatBuffer.wrap(x) : bx.duplicate(); }
+  /** Returns the y components of this Vec3Array as a FloatBuffer
+      sharing its storage. */
+  public FloatBuffer getYBuffer() { return (y != null) ? FloatBuffer.wrap(y) : by.duplicate(); }
+  /** Returns the z components of this Vec3Array as a FloatBuffer
+      sharing its storage. */
+  public FloatBuffer getZBuffer() { return (z != null) ? FloatBuffer.wrap(z) : bz.duplicate(); }
+
+  /** Stores the given vector at the given index. */
+  public void set(int index, Vec3f value) {
+    set(index, value.x(), value.y(), value.z());
+  }
+
+  /** Stores the given components at the given index. */
+  public void set(int index, float vx, float vy, float vz) {
+    checkIndex(index);
+    if (x != null) {
+      x[index] = vx;
+      y[index] = vy;
+      z[index] = vz;
+    } else {
+      bx.put(index, vx);
+      by.put(index, vy);
+      bz.put(index, vz);
+    }
+  }
+
+  /** Fetches the vector at the given index into dest. */
+  public void get(int index, Vec3f dest) {
+    checkIndex(index);
+    if (x != null) {
+      dest.set(x[index], y[index], z[index]);
+    } else {
+      dest.set(bx.get(index), by.get(index), bz.get(index));
+    }
+  }
+
+  /** Copies count vectors starting at the given index into dest in
+      interleaved x, y, z order, starting at float offset destOff. */
+  public void getInterleaved(int index, int count, float[] dest, int destOff) {
+    checkRange(index, count);
+    if (x != null) {
+      for (int i = index, j = destOff, end = index + count; i < end; i++, j += 3) {
+        dest[j    ] = x[i];
+        dest[j + 1] = y[i];
+        dest[j + 2] = z[i];
+      }
+    } else {
+      for (int i = index, j = destOff, end = index + count; i < end; i++, j += 3) {
+        dest[j    ] = bx.get(i);
+        dest[j + 1] = by.get(i);
+        dest[j + 2] = bz.get(i);
+      }
+    }
+  }
+
+  /** Copies count vectors starting at the given index into dest in
+      interleaved x, y, z order, starting at absolute float offset
+      destOff. The position of dest is ignored and left unchanged. */
+  public void getInterleaved(int index, int count, FloatBuffer dest, int destOff) {
+    checkRange(index, count);
+    if (dest.hasArray()) {
+      getInterleaved(index, count, dest.array(), dest.arrayOffset() + destOff);
+    } else if (x != null) {
+      for (int i = index, j = destOff, end = index + count; i < end; i++, j += 3) {
+        dest.put(j,     x[i]);
+        dest.put(j + 1, y[i]);
+        dest.put(j + 2, z[i]);
+      }
+    } else {
+      for (int i = index, j = destOff, end = index + count; i < end; i++, j += 3) {
+        dest.put(j,     bx.get(i));
+        dest.put(j + 1, by.get(i));
+        dest.put(j + 2, bz.get(i));
+      }
+    }
+  }
+
+  /** Stores count vectors from src, which holds them in interleaved
+      x, y, z order starting at float offset srcOff, into this array
+      starting at the given index. */
+  public void setInterleaved(int index, int count, float[] src, int srcOff) {
+    checkRange(index, count);
+    if (x != null) {
+      for (int i = index, j = srcOff, end = index + count; i < end; i++, j += 3) {
+        x[i] = src[j];
+        y[i] = src[j + 1];
+        z[i] = src[j + 2];
+      }
+    } else {
+      for (int i = index, j = srcOff, end = index + count; i < end; i++, j += 3) {
+        bx.put(i, src[j]);
+        by.put(i, src[j + 1]);
+        bz.put(i, src[j + 2]);
+      }
+    }
+  }
+
+  /** Stores count vectors from src, which holds them in interleaved
+      x, y, z order starting at absolute float offset srcOff, into
+      this array starting at the given index. The position of src is
+      ignored and left unchanged. */
+  public void setInterleaved(int index, int count, FloatBuffer src, int srcOff) {
+    checkRange(index, count);
+    if (src.hasArray()) {
+      setInterleaved(index, count, src.array(), src.arrayOffset() + srcOff);
+    } else if (x != null) {
+      for (int i = index, j = srcOff, end = index + count; i < end; i++, j += 3) {
+        x[i] = src.get(j);
+        y[i] = src.get(j + 1);
+        z[i] = src.get(j + 2);
+      }
+    } else {
+      for (int i = index, j = srcOff, end = index + count; i < end; i++, j += 3) {
+        bx.put(i, src.get(j));
+        by.put(i, src.get(j + 1));
+        bz.put(i, src.get(j + 2));
+      }
+    }
+  }
+
+  /** Sets every vector in this array to the given one. */
+  public void fill(Vec3f value) {
+    final float vx = value.x(), vy = value.y(), vz = value.z();
+    final int n = size;
+    if (x != null) {
+      for (int i = 0; i < n; i++) {
+        x[i] = vx;
+        y[i] = vy;
+        z[i] = vz;
+      }
+    } else {
+      for (int i = 0; i < n; i++) {
+        bx.put(i, vx);
+        by.put(i, vy);
+        bz.put(i, vz);
+      }
+    }
+  }
+
+  /** Sets this array to be equivalent to the given one. */
+  public void set(Vec3Array src) {
+    checkSize(src);
+    if (src == this) {
+      return;
+    }
+    if (x != null && src.x != null) {
+      System.arraycopy(src.x, 0, x, 0, size);
+      System.arraycopy(src.y, 0, y, 0, size);
+      System.arraycopy(src.z, 0, z, 0, size);
+    } else {
+      getXBuffer().put(src.getXBuffer());
+      getYBuffer().put(src.getYBuffer());
+      getZBuffer().put(src.getZBuffer());
+    }
+  }
+
+  /** this[i] = a[i] + b[i] for every i */
+  public void add(Vec3Array a, Vec3Array b) {
+    checkSize(a);
+    checkSize(b);
+    final int n = size;
+    if (allArrays(a, b)) {
+      final float[] ax = a.x, ay = a.y, az = a.z;
+      final float[] cx = b.x, cy = b.y, cz = b.z;
+      final float[] dx = x, dy = y, dz = z;
+      for (int i = 0; i < n; i++) {
+        dx[i] = ax[i] + cx[i];
+        dy[i] = ay[i] + cy[i];
+        dz[i] = az[i] + cz[i];
+      }
+    } else {
+      for (int i = 0; i < n; i++) {
+        set(i, a.xAt(i) + b.xAt(i), a.yAt(i) + b.yAt(i), a.zAt(i) + b.zAt(i));
+      }
+    }
+  }
+
+  /** this[i] = a[i] - b[i] for every i */
+  public void sub(Vec3Array a, Vec3Array b) {
+    checkSize(a);
+    checkSize(b);
+    final int n = size;
+    if (allArrays(a, b)) {
+      final float[] ax = a.x, ay = a.y, az = a.z;
+      final float[] cx = b.x, cy = b.y, cz = b.z;
+      final float[] dx = x, dy = y, dz = z;
+      for (int i = 0; i < n; i++) {
+        dx[i] = ax[i] - cx[i];
+        dy[i] = ay[i] - cy[i];
+        dz[i] = az[i] - cz[i];
+      }
+    } else {
+      for (int i = 0; i < n; i++) {
+        set(i, a.xAt(i) - b.xAt(i), a.yAt(i) - b.yAt(i), a.zAt(i) - b.zAt(i));
+      }
+    }
+  }
+
+  /** this[i] = a[i] x b[i] for every i */
+  public void cross(Vec3Array a, Vec3Array b) {
+    checkSize(a);
+    checkSize(b);
+    final int n = size;
+    if (allArrays(a, b)) {
+      final float[] ax = a.x, ay = a.y, az = a.z;
+      final float[] cx = b.x, cy = b.y, cz = b.z;
+      final float[] dx = x, dy = y, dz = z;
+      for (int i = 0; i < n; i++) {
+        // Load everything first so that a or b may be this array
+        final float px = ax[i], py = ay[i], pz = az[i];
+        final float qx = cx[i], qy = cy[i], qz = cz[i];
+        dx[i] = py * qz - pz * qy;
+        dy[i] = pz * qx - px * qz;
+        dz[i] = px * qy - py * qx;
+      }
+    } else {
+      for (int i = 0; i < n; i++) {
+        final float px = a.xAt(i), py = a.yAt(i), pz = a.zAt(i);
+        final float qx = b.xAt(i), qy = b.yAt(i), qz = b.zAt(i);
+        set(i, py * qz - pz * qy, pz * qx - px * qz, px * qy - py * qx);
+      }
+    }
+  }
+
+  /** this[i] = a[i] + t * (b[i] - a[i]) for every i */
+  public void lerp(Vec3Array a, Vec3Array b, float t) {
+    checkSize(a);
+    checkSize(b);
+    final int n = size;
+    if (allArrays(a, b)) {
+      final float[] ax = a.x, ay = a.y, az = a.z;
+      final float[] cx = b.x, cy = b.y, cz = b.z;
+      final float[] dx = x, dy = y, dz = z;
+      for (int i = 0; i < n; i++) {
+        final float px = ax[i], py = ay[i], pz = az[i];
+        dx[i] = px + t * (cx[i] - px);
+        dy[i] = py + t * (cy[i] - py);
+        dz[i] = pz + t * (cz[i] - pz);
+      }
+    } else {
+      for (int i = 0; i < n; i++) {
+        final float px = a.xAt(i), py = a.yAt(i), pz = a.zAt(i);
+        set(i, px + t * (b.xAt(i) - px), py + t * (b.yAt(i) - py), pz + t * (b.zAt(i) - pz));
+      }
+    }
+  }
+
+  /** Multiplies every vector in this array by the given scalar. */
+  public void scale(float s) {
+    final int n = size;
+    if (x != null) {
+      final float[] dx = x, dy = y, dz = z;
+      for (int i = 0; i < n; i++) {
+        dx[i] *= s;
+        dy[i] *= s;
+        dz[i] *= s;
+      }
+    } else {
+      for (int i = 0; i < n; i++) {
+        set(i, s * xAt(i), s * yAt(i), s * zAt(i));
+      }
+    }
+  }
+
+  /** Normalizes every vector in this array to unit length. Zero-length
+      vectors are left unchanged. */
+  public void normalize() {
+    final int n = size;
+    if (x != null) {
+      final float[] dx = x, dy = y, dz = z;
+      for (int i = 0; i < n; i++) {
+        final float vx = dx[i], vy = dy[i], vz = dz[i];
+        final float lenSq = vx * vx + vy * vy + vz * vz;
+        final float s = (lenSq > 0) ? (float) (1.0 / Math.sqrt(lenSq)) : 1.0f;
+        dx[i] = vx * s;
+        dy[i] = vy * s;
+        dz[i] = vz * s;
+      }
+    } else {
+      for (int i = 0; i < n; i++) {
+        final float vx = xAt(i), vy = yAt(i), vz = zAt(i);
+        final float lenSq = vx * vx + vy * vy + vz * vz;
+        final float s = (lenSq > 0) ? (float) (1.0 / Math.sqrt(lenSq)) : 1.0f;
+        set(i, vx * s, vy * s, vz * s);
+      }
+    }
+  }
+
+  /** Stores the dot product of this[i] and b[i] into dest[i +
+      destOff] for every i. */
+  public void dot(Vec3Array b, float[] dest, int destOff) {
+    checkSize(b);
+    final int n = size;
+    if (destOff < 0 || destOff + n > dest.length) {
+      throw new IndexOutOfBoundsException("Destination range " + destOff + " + " + n +
+                                          " exceeds array length " + dest.length);
+    }
+    if (allArrays(this, b)) {
+      final float[] ax = x, ay = y, az = z;
+      final float[] cx = b.x, cy = b.y, cz = b.z;
+      for (int i = 0; i < n; i++) {
+        dest[destOff + i] = ax[i] * cx[i] + ay[i] * cy[i] + az[i] * cz[i];
+      }
+    } else {
+      for (int i = 0; i < n; i++) {
+        dest[destOff + i] = xAt(i) * b.xAt(i) + yAt(i) * b.yAt(i) + zAt(i) * b.zAt(i);
+      }
+    }
+  }
+
+  /** Computes the axis-aligned bounding box of the vectors in this
+      array into dest. If the array is empty, the box's minimum is
+      left at positive infinity and its maximum at negative
+      infinity. */
+  public void getBounds(Box3f dest) {
+    float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+    float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+    final int n = size;
+    if (x != null) {
+      final float[] sx = x, sy = y, sz = z;
+      // Each component is reduced in its own loop, which the JIT can
+      // vectorize more readily than one loop updating six accumulators
+      for (int i = 0; i < n; i++) {
+        minX = Math.min(minX, sx[i]);
+        maxX = Math.max(maxX, sx[i]);
+      }
+      for (int i = 0; i < n; i++) {
+        minY = Math.min(minY, sy[i]);
+        maxY = Math.max(maxY, sy[i]);
+      }
+      for (int i = 0; i < n; i++) {
+        minZ = Math.min(minZ, sz[i]);
+        maxZ = Math.max(maxZ, sz[i]);
+      }
+    } else {
+      for (int i = 0; i < n; i++) {
+        final float vx = bx.get(i), vy = by.get(i), vz = bz.get(i);
+        minX = Math.min(minX, vx);
+        maxX = Math.max(maxX, vx);
+        minY = Math.min(minY, vy);
+        maxY = Math.max(maxY, vy);
+        minZ = Math.min(minZ, vz);
+        maxZ = Math.max(maxZ, vz);
+      }
+    }
+    dest.getMin().set(minX, minY, minZ);
+    dest.getMax().set(maxX, maxY, maxZ);
+  }
+
+  /** Transforms every vector in this array as a point by the given
+      matrix, which is assumed to be affine. */
+  public void transformPoints(Mat4f mat) {
+    final float m00 = mat.get(0, 0), m01 = mat.get(0, 1), m02 = mat.get(0, 2), m03 = mat.get(0, 3);
+    final float m10 = mat.get(1, 0), m11 = mat.get(1, 1), m12 = mat.get(1, 2), m13 = mat.get(1, 3);
+    final float m20 = mat.get(2, 0), m21 = mat.get(2, 1), m22 = mat.get(2, 2), m23 = mat.get(2, 3);
+    final int n = size;
+    if (x != null) {
+      final float[] dx = x, dy = y, dz = z;
+      for (int i = 0; i < n; i++) {
+        final float vx = dx[i], vy = dy[i], vz = dz[i];
+        dx[i] = m00 * vx + m01 * vy + m02 * vz + m03;
+        dy[i] = m10 * vx + m11 * vy + m12 * vz + m13;
+        dz[i] = m20 * vx + m21 * vy + m22 * vz + m23;
+      }
+    } else {
+      for (int i = 0; i < n; i++) {
+        final float vx = xAt(i), vy = yAt(i), vz = zAt(i);
+        set(i,
+            m00 * vx + m01 * vy + m02 * vz + m03,
+            m10 * vx + m11 * vy + m12 * vz + m13,
+            m20 * vx + m21 * vy + m22 * vz + m23);
+      }
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private float xAt(int i) { return (x != null) ? x[i] : bx.get(i); }
+  private float yAt(int i) { return (y != null) ? y[i] : by.get(i); }
+  private float zAt(int i) { return (z != null) ? z[i] : bz.get(i); }
+
+  private boolean allArrays(Vec3Array a, Vec3Array b) {
+    return (x != null && a.x != null && b.x != null);
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("" + index + " >= " + size);
+    }
+  }
+
+  private void checkRange(int index, int count) {
+    if (index < 0 || count < 0 || index + count > size) {
+      throw new IndexOutOfBoundsException("Range " + index + " + " + count + " exceeds size " + size);
+    }
+  }
+
+  private void checkSize(Vec3Array other) {
+    if (other.size != size) {
+      throw new IllegalArgumentException("Size mismatch: " + other.size + " != " + size);
+    }
+  }
+}
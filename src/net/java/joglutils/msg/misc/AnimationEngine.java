@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.misc;
+
+/** Drives a set of {@link Interpolator Interpolators} from a {@link
+    Time Time} source. The application calls {@link #tick tick} once
+    per frame, typically just before rendering. Interpolators which
+    have settled are dropped from the set of active interpolators, so
+    the cost of a tick is proportional to the number of objects
+    actually in motion. No storage is allocated during a tick. */
+
+public class AnimationEngine {
+  private Interpolator[] active = new Interpolator[16];
+  private int numActive;
+
+  /** Starts (or restarts) the given interpolator. Its start time is
+      taken from the Time source at the next call to {@link #tick
+      tick}. */
+  public void start(Interpolator interp) {
+    if (interp.engine != null && interp.engine != this) {
+      interp.engine.stop(interp);
+    }
+    interp.startTime = Double.NaN;
+    if (interp.activeIndex < 0) {
+      if (numActive == active.length) {
+        Interpolator[] newActive = new Interpolator[2 * active.length];
+        System.arraycopy(active, 0, newActive, 0, numActive);
+        active = newActive;
+      }
+      interp.activeIndex = numActive;
+      interp.engine = this;
+      active[numActive++] = interp;
+    }
+  }
+
+  /** Stops the given interpolator, leaving its target at whatever
+      value it was most recently set to. */
+  public void stop(Interpolator interp) {
+    if (interp.engine == this && interp.activeIndex >= 0) {
+      remove(interp.activeIndex);
+    }
+  }
+
+  /** Stops all active interpolators. */
+  public void stopAll() {
+    while (numActive > 0) {
+      remove(numActive - 1);
+    }
+  }
+
+  /** Updates all active interpolators to the current time of the
+      given Time source. Note that this does not call {@link
+      Time#update Time.update()}; the application should do that
+      once per frame. Returns true if any interpolators are still
+      active afterward, in which case the application should schedule
+      another frame. */
+  public boolean tick(Time time) {
+    double now = time.time();
+    int i = 0;
+    while (i < numActive) {
+      if (active[i].update(now)) {
+        // Settled; the last active interpolator moves into this slot
+        remove(i);
+      } else {
+        ++i;
+      }
+    }
+    return isAnimating();
+  }
+
+  /** Indicates whether any interpolators are currently active. */
+  public boolean isAnimating() {
+    return (numActive > 0);
+  }
+
+  /** Returns the number of currently active interpolators. */
+  public int getNumActive() {
+    return numActive;
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private void remove(int index) {
+    Interpolator interp = active[index];
+    interp.activeIndex = -1;
+    interp.engine = null;
+    int last = --numActive;
+    if (index != last) {
+      active[index] = active[last];
+      active[index].activeIndex = index;
+    }
+    active[last] = null;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.misc;
+
+import net.java.joglutils.msg.collections.Vec4fCollection;
+import net.java.joglutils.msg.math.Vec4f;
+
+/** Interpolates a 4-valued color and writes it in place into a range
+    of entries of a {@link
+    net.java.joglutils.msg.collections.Vec4fCollection
+    Vec4fCollection}, such as the data of a {@link
+    net.java.joglutils.msg.nodes.Color4 Color4} node. */
+
+public class ColorInterpolator extends Interpolator {
+  private Vec4fCollection target;
+  private int firstIndex;
+  private int count;
+  private Vec4f from  = new Vec4f();
+  private Vec4f to    = new Vec4f();
+  private Vec4f value = new Vec4f();
+
+  /** Creates a ColorInterpolator which writes into count entries of
+      the given collection, starting at firstIndex. */
+  public ColorInterpolator(Vec4fCollection target, int firstIndex, int count) {
+    setTarget(target, firstIndex, count);
+  }
+
+  /** Sets the range of entries of the given collection this
+      interpolator writes into. */
+  public void setTarget(Vec4fCollection target, int firstIndex, int count) {
+    if (target == null)
+      throw new IllegalArgumentException("target may not be null");
+    if (firstIndex < 0 || count < 0)
+      throw new IllegalArgumentException("firstIndex and count must not be negative");
+    this.target = target;
+    this.firstIndex = firstIndex;
+    this.count = count;
+  }
+
+  /** Returns the collection this interpolator writes into. */
+  public Vec4fCollection getTarget() {
+    return target;
+  }
+
+  /** Sets the start and end colors of this interpolator. */
+  public void set(Vec4f from, Vec4f to) {
+    this.from.set(from);
+    this.to.set(to);
+  }
+
+  /** Makes the current color of the first entry of the target range
+      the start color and the given color the end color; used to
+      redirect an animation which may be in progress without a
+      discontinuity. The interpolator must be (re-)started for this to
+      take effect. */
+  public void retarget(Vec4f to) {
+    if (count > 0 && firstIndex < target.size()) {
+      target.get(firstIndex, from);
+    } else {
+      from.set(value);
+    }
+    this.to.set(to);
+  }
+
+  /** Returns the start color of this interpolator. */
+  public Vec4f getFrom() {
+    return from;
+  }
+
+  /** Returns the end color of this interpolator. */
+  public Vec4f getTo() {
+    return to;
+  }
+
+  protected void apply(float alpha) {
+    value.set(from.x() + (to.x() - from.x()) * alpha,
+              from.y() + (to.y() - from.y()) * alpha,
+              from.z() + (to.z() - from.z()) * alpha,
+              from.w() + (to.w() - from.w()) * alpha);
+    for (int i = 0; i < count; i++) {
+      target.set(firstIndex + i, value);
+    }
+  }
+}
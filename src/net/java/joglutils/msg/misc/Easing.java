@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.misc;
+
+/** Maps the linear progress of an animation, in the range [0..1], to
+    an eased progress value, also nominally in the range [0..1]. Some
+    commonly used curves are provided as constants. */
+
+public interface Easing {
+  /** Returns the eased progress for the given linear progress t,
+      where 0 <= t <= 1. Implementations must map 0 to 0 and 1 to 1. */
+  public float ease(float t);
+
+  /** Constant velocity. */
+  public static final Easing LINEAR = new Easing() {
+      public float ease(float t) {
+        return t;
+      }
+    };
+
+  /** Starts slowly and accelerates (quadratic). */
+  public static final Easing EASE_IN = new Easing() {
+      public float ease(float t) {
+        return t * t;
+      }
+    };
+
+  /** Starts quickly and decelerates (quadratic). */
+  public static final Easing EASE_OUT = new Easing() {
+      public float ease(float t) {
+        return t * (2.0f - t);
+      }
+    };
+
+  /** Accelerates, then decelerates (smoothstep). */
+  public static final Easing EASE_IN_OUT = new Easing() {
+      public float ease(float t) {
+        return t * t * (3.0f - 2.0f * t);
+      }
+    };
+
+  /** Starts quickly and decelerates more strongly than {@link
+      #EASE_OUT} (cubic). */
+  public static final Easing EASE_OUT_CUBIC = new Easing() {
+      public float ease(float t) {
+        float u = 1.0f - t;
+        return 1.0f - u * u * u;
+      }
+    };
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.misc;
+
+/** The abstract base class for all interpolators driven by an {@link
+    AnimationEngine AnimationEngine}. An interpolator maps the elapsed
+    time since it was started, through an {@link Easing Easing} curve,
+    to a progress value in the range [0..1], and writes the
+    corresponding interpolated value into its target in place. Once
+    its duration has elapsed the interpolator is considered settled
+    and is no longer updated by the engine. <P>
+
+    The default duration is one second and the default easing curve
+    is {@link Easing#EASE_IN_OUT EASE_IN_OUT}.
+*/
+
+public abstract class Interpolator {
+  private float duration = 1.0f;
+  private Easing easing = Easing.EASE_IN_OUT;
+
+  // Start time in the engine's Time base; NaN indicates that the
+  // interpolator should start at the next tick of the engine
+  double startTime = Double.NaN;
+  // Index in the engine's list of active interpolators, or -1 if this
+  // interpolator is settled
+  int activeIndex = -1;
+  AnimationEngine engine;
+
+  /** Sets the duration of this interpolator, in seconds. */
+  public void setDuration(float duration) {
+    if (duration < 0) {
+      throw new IllegalArgumentException("duration must not be negative");
+    }
+    this.duration = duration;
+  }
+
+  /** Returns the duration of this interpolator, in seconds. */
+  public float getDuration() {
+    return duration;
+  }
+
+  /** Sets the easing curve applied to the progress of this interpolator. */
+  public void setEasing(Easing easing) {
+    if (easing == null) {
+      throw new IllegalArgumentException("easing may not be null");
+    }
+    this.easing = easing;
+  }
+
+  /** Returns the easing curve applied to the progress of this interpolator. */
+  public Easing getEasing() {
+    return easing;
+  }
+
+  /** Indicates whether this interpolator has reached its end value
+      (or was never started) and is therefore not being updated. */
+  public boolean isSettled() {
+    return (activeIndex < 0);
+  }
+
+  /** Writes the value corresponding to the given eased progress,
+      nominally in the range [0..1], into the target of this
+      interpolator. Called by the engine at most once per tick. */
+  protected abstract void apply(float alpha);
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  // Called by the AnimationEngine once per tick. Returns true if this
+  // interpolator has settled.
+  boolean update(double time) {
+    if (Double.isNaN(startTime)) {
+      startTime = time;
+    }
+    float t = 1.0f;
+    if (duration > 0) {
+      t = (float) ((time - startTime) / duration);
+    }
+    if (t >= 1.0f) {
+      apply(1.0f);
+      return true;
+    }
+    if (t < 0.0f) {
+      t = 0.0f;
+    }
+    apply(easing.ease(t));
+    return false;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.misc;
+
+import net.java.joglutils.msg.math.Mat4f;
+import net.java.joglutils.msg.math.Vec3f;
+import net.java.joglutils.msg.nodes.Transform;
+
+/** Interpolates the translation component of a {@link
+    net.java.joglutils.msg.nodes.Transform Transform} node. The
+    remainder of the Transform's matrix is not touched. The new matrix
+    is passed to {@link net.java.joglutils.msg.nodes.Transform#setTransform
+    setTransform}, so that it is published through the Transform's
+    Stage, if any, and invalidates the bounds cached above it. */
+
+public class PositionInterpolator extends Interpolator {
+  private Transform target;
+  private Vec3f from  = new Vec3f();
+  private Vec3f to    = new Vec3f();
+  private Vec3f value = new Vec3f();
+  // The matrix written into the target
+  private Mat4f mat = new Mat4f();
+
+  /** Creates a PositionInterpolator which writes into the given Transform. */
+  public PositionInterpolator(Transform target) {
+    setTarget(target);
+  }
+
+  /** Sets the Transform this interpolator writes into. */
+  public void setTarget(Transform target) {
+    if (target == null)
+      throw new IllegalArgumentException("target may not be null");
+    this.target = target;
+  }
+
+  /** Returns the Transform this interpolator writes into. */
+  public Transform getTarget() {
+    return target;
+  }
+
+  /** Sets the start and end positions of this interpolator. */
+  public void set(Vec3f from, Vec3f to) {
+    this.from.set(from);
+    this.to.set(to);
+  }
+
+  /** Makes the current translation of the target the start position
+      and the given position the end position; used to redirect an
+      animation which may be in progress without a discontinuity. The
+      interpolator must be (re-)started for this to take effect. */
+  public void retarget(Vec3f to) {
+    target.getStagedTransform(mat);
+    from.set(mat.get(0, 3), mat.get(1, 3), mat.get(2, 3));
+    this.to.set(to);
+  }
+
+  /** Returns the start position of this interpolator. */
+  public Vec3f getFrom() {
+    return from;
+  }
+
+  /** Returns the end position of this interpolator. */
+  public Vec3f getTo() {
+    return to;
+  }
+
+  protected void apply(float alpha) {
+    value.set(from.x() + (to.x() - from.x()) * alpha,
+              from.y() + (to.y() - from.y()) * alpha,
+              from.z() + (to.z() - from.z()) * alpha);
+    target.getStagedTransform(mat);
+    mat.setTranslation(value);
+    target.setTransform(mat);
+  }
+}
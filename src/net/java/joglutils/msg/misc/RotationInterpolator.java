@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.misc;
+
+import net.java.joglutils.msg.math.Mat4f;
+import net.java.joglutils.msg.math.Rotf;
+import net.java.joglutils.msg.nodes.Transform;
+
+/** Interpolates the rotation component (the upper-left 3x3) of a
+    {@link net.java.joglutils.msg.nodes.Transform Transform} node,
+    using either spherical linear interpolation (the default) or the
+    cheaper normalized linear interpolation. Any scale in the
+    upper-left 3x3 of the target is overwritten; the translation is
+    not touched. The new matrix is passed to {@link
+    net.java.joglutils.msg.nodes.Transform#setTransform setTransform},
+    so that it is published through the Transform's Stage, if any,
+    and invalidates the bounds cached above it. */
+
+public class RotationInterpolator extends Interpolator {
+  private Transform target;
+  private Rotf from  = new Rotf();
+  private Rotf to    = new Rotf();
+  private Rotf value = new Rotf();
+  private boolean slerp = true;
+  // The matrix written into the target
+  private Mat4f mat = new Mat4f();
+
+  /** Creates a RotationInterpolator which writes into the given Transform. */
+  public RotationInterpolator(Transform target) {
+    setTarget(target);
+  }
+
+  /** Sets the Transform this interpolator writes into. */
+  public void setTarget(Transform target) {
+    if (target == null)
+      throw new IllegalArgumentException("target may not be null");
+    this.target = target;
+  }
+
+  /** Returns the Transform this interpolator writes into. */
+  public Transform getTarget() {
+    return target;
+  }
+
+  /** Sets the start and end rotations of this interpolator. */
+  public void set(Rotf from, Rotf to) {
+    this.from.set(from);
+    this.to.set(to);
+  }
+
+  /** Makes the current rotation of the target the start rotation and
+      the given rotation the end rotation; used to redirect an
+      animation which may be in progress without a discontinuity. The
+      interpolator must be (re-)started for this to take effect. */
+  public void retarget(Rotf to) {
+    target.getStagedTransform(mat);
+    from.fromMatrix(mat);
+    this.to.set(to);
+  }
+
+  /** Returns the start rotation of this interpolator. */
+  public Rotf getFrom() {
+    return from;
+  }
+
+  /** Returns the end rotation of this interpolator. */
+  public Rotf getTo() {
+    return to;
+  }
+
+  /** Selects spherical linear interpolation (true, the default) or
+      normalized linear interpolation (false). The latter does not
+      have constant angular velocity but is cheaper to compute and is
+      usually indistinguishable for small rotations. */
+  public void setSlerp(boolean slerp) {
+    this.slerp = slerp;
+  }
+
+  /** Indicates whether spherical linear interpolation is being used. */
+  public boolean getSlerp() {
+    return slerp;
+  }
+
+  protected void apply(float alpha) {
+    if (slerp) {
+      value.slerp(from, to, alpha);
+    } else {
+      value.nlerp(from, to, alpha);
+    }
+    target.getStagedTransform(mat);
+    value.toMatrix(mat);
+    target.setTransform(mat);
+  }
+}
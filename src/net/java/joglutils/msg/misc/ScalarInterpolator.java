@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.misc;
+
+/** Interpolates a single floating-point value. Subclasses may
+    override {@link #valueChanged valueChanged} to push the value into
+    a target; otherwise the current value may simply be queried with
+    {@link #getValue getValue}. */
+
+public class ScalarInterpolator extends Interpolator {
+  private float from;
+  private float to;
+  private float value;
+
+  /** Sets the start and end values of this interpolator. */
+  public void set(float from, float to) {
+    this.from = from;
+    this.to = to;
+  }
+
+  /** Makes the current value the start value and the given value the
+      end value; used to redirect an animation which may be in
+      progress without a discontinuity. The interpolator must be
+      (re-)started for this to take effect. */
+  public void retarget(float to) {
+    set(value, to);
+  }
+
+  /** Immediately sets the current value, and both the start and end
+      values, to the given value. */
+  public void jumpTo(float value) {
+    set(value, value);
+    apply(1.0f);
+  }
+
+  /** Returns the start value of this interpolator. */
+  public float getFrom() {
+    return from;
+  }
+
+  /** Returns the end value of this interpolator. */
+  public float getTo() {
+    return to;
+  }
+
+  /** Returns the most recently computed value of this interpolator. */
+  public float getValue() {
+    return value;
+  }
+
+  protected void apply(float alpha) {
+    value = from + (to - from) * alpha;
+    valueChanged(value);
+  }
+
+  /** Called each time the value of this interpolator is recomputed.
+      The default implementation does nothing. */
+  protected void valueChanged(float value) {}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.misc;
+
+import net.java.joglutils.msg.nodes.Shape;
+
+/** Represents a shape selected for example by a BoxSelectAction,
+    along with the indices of its selected triangles if they were
+    requested. */
+
+public class SelectedShape {
+  private Path path;
+  private int[] triangleIndices;
+
+  /** Creates a SelectedShape with the given path, which is retained
+      rather than copied, and triangle indices, which may be null. */
+  public SelectedShape(Path path, int[] triangleIndices) {
+    this.path = path;
+    this.triangleIndices = triangleIndices;
+  }
+
+  /** Returns the path to the selected shape. */
+  public Path getPath() {
+    return path;
+  }
+
+  /** Returns the selected shape, the last node in its path. */
+  public Shape getShape() {
+    return (Shape) path.get(path.size() - 1);
+  }
+
+  /** Returns the indices of the selected triangles of the shape, as
+      passed to the {@link TriangleCallback TriangleCallback} by the
+      shape's <CODE>generateTriangles</CODE> method, in increasing
+      order, or null if triangles were not being selected. */
+  public int[] getTriangleIndices() {
+    return triangleIndices;
+  }
+}
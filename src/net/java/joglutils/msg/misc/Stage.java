@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.misc;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/** Double-buffers changes to a scene graph so that it can be updated
+    from threads other than the one rendering it. <P>
+
+    Nodes which support staging (currently Group and its subclasses,
+    Transform, Coordinate3 and TriangleSet) keep two views of their
+    state once a Stage has been set on them: the published view,
+    which is seen by actions traversing the graph, and the staged
+    view, which is modified by the node's setters. The first
+    modification after a publish posts the node to the Stage; {@link
+    #publish publish} then copies the staged view of every posted
+    node into its published view. The rendering thread should call
+    publish at a frame boundary, or set the Stage on its {@link
+    net.java.joglutils.msg.actions.GLRenderAction GLRenderAction}, which
+    publishes at the start of each traversal. <P>
+
+    Unchanged nodes are not touched by a publish, and collections such
+    as the Vec3fCollection referenced by a Coordinate3 are shared
+    between the two views rather than copied. Consequently a
+    collection which has been published must not be modified in place
+    by another thread; build a new collection and set it on the node
+    instead. <P>
+
+    Changes made between {@link #beginUpdate beginUpdate} and {@link
+    #endUpdate endUpdate} are published together: if a publish is
+    attempted while an update is in progress it is deferred to the
+    next frame rather than waiting, so the rendering thread never
+    blocks on the updating threads. */
+
+public class Stage {
+  private final ConcurrentLinkedQueue<Stageable> pending = new ConcurrentLinkedQueue<Stageable>();
+  private final ReentrantReadWriteLock updateLock = new ReentrantReadWriteLock();
+
+  /** Posts a node's pending changes to be made visible at the next
+      publish. May be called from any thread. */
+  public void post(Stageable change) {
+    pending.add(change);
+  }
+
+  /** Begins a group of changes which should become visible together.
+      May be called from any number of threads at once; each call must
+      be matched by a call to {@link #endUpdate endUpdate} from the
+      same thread. Blocks only while a publish is in progress. */
+  public void beginUpdate() {
+    updateLock.readLock().lock();
+  }
+
+  /** Ends a group of changes begun with {@link #beginUpdate
+      beginUpdate}. */
+  public void endUpdate() {
+    updateLock.readLock().unlock();
+  }
+
+  /** Indicates whether any changes are waiting to be published. */
+  public boolean hasPendingChanges() {
+    return !pending.isEmpty();
+  }
+
+  /** Makes all pending changes visible. Must be called on the thread
+      which traverses the scene graph, and not during a traversal.
+      Returns false without publishing anything if another thread is
+      between {@link #beginUpdate beginUpdate} and {@link #endUpdate
+      endUpdate}. */
+  public boolean publish() {
+    if (!updateLock.writeLock().tryLock()) {
+      return false;
+    }
+    try {
+      Stageable change;
+      while ((change = pending.poll()) != null) {
+        change.publish();
+      }
+      return true;
+    } finally {
+      updateLock.writeLock().unlock();
+    }
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.misc;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import net.java.joglutils.msg.collections.VertexFormat;
+import net.java.joglutils.msg.elements.ColorElement;
+import net.java.joglutils.msg.elements.CoordinateElement;
+import net.java.joglutils.msg.elements.NormalElement;
+import net.java.joglutils.msg.elements.TextureCoordinateElement;
+import net.java.joglutils.msg.math.Vec2f;
+import net.java.joglutils.msg.math.Vec3f;
+import net.java.joglutils.msg.math.Vec4f;
+
+/** Reads the attributes of individual vertices out of the vertex
+    arrays in the current state, taking their strides and formats
+    into account. Attributes stored in the compact formats of {@link
+    VertexFormat VertexFormat} are decoded to floats, including the
+    scale and offset of quantized coordinates. Used by shapes to
+    generate triangles for operations such as picking. */
+
+public class VertexAttributeReader {
+  private final Attribute coords = new Attribute(3);
+  private final Attribute normals = new Attribute(3);
+  private final Attribute texCoords = new Attribute(2);
+  private final Attribute colors = new Attribute(4);
+
+  /** Fetches the vertex arrays from the given state. Returns false if
+      there are no coordinates, in which case there is nothing to
+      read. */
+  public boolean setUp(State state) {
+    coords.clear();
+    normals.clear();
+    texCoords.clear();
+    colors.clear();
+    if (CoordinateElement.isEnabled(state)) {
+      Vec3f scale = CoordinateElement.getScale(state);
+      Vec3f offset = CoordinateElement.getOffset(state);
+      coords.set(CoordinateElement.getData(state),
+                 CoordinateElement.getFormat(state),
+                 CoordinateElement.getStride(state));
+      for (int i = 0; i < 3; i++) {
+        coords.scale[i] = (scale == null) ? 1 : scale.get(i);
+        coords.offset[i] = (offset == null) ? 0 : offset.get(i);
+      }
+    }
+    if (!coords.isPresent()) {
+      return false;
+    }
+    if (NormalElement.isEnabled(state)) {
+      normals.set(NormalElement.get(state), VertexFormat.FLOAT,
+                  NormalElement.getStride(state));
+    }
+    if (TextureCoordinateElement.isEnabled(state)) {
+      Vec2f scale = TextureCoordinateElement.getScale(state);
+      Vec2f offset = TextureCoordinateElement.getOffset(state);
+      texCoords.set(TextureCoordinateElement.getData(state),
+                    TextureCoordinateElement.getFormat(state),
+                    TextureCoordinateElement.getStride(state));
+      for (int i = 0; i < 2; i++) {
+        texCoords.scale[i] = (scale == null) ? 1 : scale.get(i);
+        texCoords.offset[i] = (offset == null) ? 0 : offset.get(i);
+      }
+    }
+    if (ColorElement.isEnabled(state)) {
+      colors.set(ColorElement.getData(state),
+                 ColorElement.getFormat(state),
+                 ColorElement.getStride(state));
+    }
+    return true;
+  }
+
+  /** Indicates whether the current state contains normals. */
+  public boolean hasNormals() {
+    return normals.isPresent();
+  }
+
+  /** Indicates whether the current state contains texture
+      coordinates. */
+  public boolean hasTexCoords() {
+    return texCoords.isPresent();
+  }
+
+  /** Indicates whether the current state contains colors. */
+  public boolean hasColors() {
+    return colors.isPresent();
+  }
+
+  /** Returns the number of vertices in the current coordinates. */
+  public int getNumVertices() {
+    return coords.getNumElements();
+  }
+
+  /** Sets up the given PrimitiveVertex with storage for each of the
+      attributes present in the current state, and none for the
+      others. */
+  public void initVertex(PrimitiveVertex v) {
+    v.setCoord(new Vec3f());
+    v.setNormal(hasNormals() ? new Vec3f() : null);
+    v.setTexCoord(hasTexCoords() ? new Vec2f() : null);
+    v.setColor(hasColors() ? new Vec4f() : null);
+  }
+
+  /** Reads the attributes of the vertex with the given index into the
+      given PrimitiveVertex, which must have been set up by {@link
+      #initVertex initVertex}. */
+  public void read(int index, PrimitiveVertex v) {
+    Attribute a = coords;
+    int base = index * a.stride;
+    v.getCoord().set(a.get(base, 0), a.get(base, 1), a.get(base, 2));
+    a = normals;
+    if (a.isPresent()) {
+      base = index * a.stride;
+      v.getNormal().set(a.get(base, 0), a.get(base, 1), a.get(base, 2));
+    }
+    a = texCoords;
+    if (a.isPresent()) {
+      base = index * a.stride;
+      v.getTexCoord().set(a.get(base, 0), a.get(base, 1));
+    }
+    a = colors;
+    if (a.isPresent()) {
+      base = index * a.stride;
+      v.getColor().set(a.get(base, 0), a.get(base, 1), a.get(base, 2), a.get(base, 3));
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  // One vertex array, viewed according to its format
+  static class Attribute {
+    final int numComponents;
+    final float[] scale;
+    final float[] offset;
+    int format;
+    // The distance between elements in components
+    int stride;
+    // Exactly one of these is non-null if the attribute is present
+    FloatBuffer floats;
+    ShortBuffer shorts;
+    ByteBuffer bytes;
+
+    Attribute(int numComponents) {
+      this.numComponents = numComponents;
+      scale = new float[numComponents];
+      offset = new float[numComponents];
+    }
+
+    void clear() {
+      floats = null;
+      shorts = null;
+      bytes = null;
+      for (int i = 0; i < numComponents; i++) {
+        scale[i] = 1;
+        offset[i] = 0;
+      }
+    }
+
+    void set(Buffer data, int format, int byteStride) {
+      this.format = format;
+      if (data == null) {
+        return;
+      }
+      int size = VertexFormat.getComponentSize(format);
+      stride = (byteStride == 0) ? numComponents : byteStride / size;
+      switch (format) {
+        case VertexFormat.FLOAT:            floats = (FloatBuffer) data; break;
+        case VertexFormat.HALF_FLOAT:
+        case VertexFormat.NORMALIZED_SHORT: shorts = (ShortBuffer) data; break;
+        case VertexFormat.UNSIGNED_BYTE:    bytes = (ByteBuffer) data;   break;
+      }
+    }
+
+    boolean isPresent() {
+      return (floats != null || shorts != null || bytes != null);
+    }
+
+    int getNumElements() {
+      int n = (floats != null) ? floats.remaining() :
+              (shorts != null) ? shorts.remaining() :
+              (bytes != null) ? bytes.remaining() : 0;
+      // The last element need not be padded out to a full stride
+      return (n < numComponents) ? 0 : (n - numComponents) / stride + 1;
+    }
+
+    // Returns the decoded value of the given component of the element
+    // starting at the given index
+    float get(int base, int component) {
+      float n;
+      switch (format) {
+        case VertexFormat.FLOAT:
+          return floats.get(base + component);
+        case VertexFormat.HALF_FLOAT:
+          n = VertexFormat.fromHalf(shorts.get(base + component));
+          break;
+        case VertexFormat.NORMALIZED_SHORT:
+          n = VertexFormat.fromNormalizedShort(shorts.get(base + component));
+          break;
+        default:
+          n = VertexFormat.fromUnsignedByte(bytes.get(base + component));
+          break;
+      }
+      return offset[component] + scale[component] * n;
+    }
+  }
+}
@@ -38,7 +38,10 @@
 package net.java.joglutils.msg.nodes;
 
 import net.java.joglutils.msg.actions.Action;
+import net.java.joglutils.msg.actions.BoxSelectAction;
 import net.java.joglutils.msg.actions.GLRenderAction;
+import net.java.joglutils.msg.actions.IDBufferPickAction;
+import net.java.joglutils.msg.actions.MultiRayPickAction;
 import net.java.joglutils.msg.actions.RayPickAction;
 import net.java.joglutils.msg.elements.GLModelMatrixElement;
 import net.java.joglutils.msg.elements.GLProjectionMatrixElement;
@@ -52,7 +55,6 @@ import net.java.joglutils.msg.math.Rotf;
 import net.java.joglutils.msg.math.SingularMatrixException;
 import net.java.joglutils.msg.math.Vec2f;
 import net.java.joglutils.msg.math.Vec3f;
-import net.java.joglutils.msg.math.Vec4f;
 
 /** Represents a camera which is used to view the scene. The camera
     should be added to the scene graph before the geometry it is
@@ -77,6 +79,18 @@ public abstract class Camera extends Node {
   protected Mat4f projMatrix;
   protected Mat4f viewMatrix;
 
+  // The cached inverse of the product of the projection and viewing
+  // matrices, used for unprojection. Subclasses should set the dirty
+  // flag whenever they recompute the projection matrix.
+  protected boolean invProjViewDirty;
+  private Mat4f invProjViewMatrix;
+
+  // Temporaries used during unprojection
+  private Vec2f unprojPoint = new Vec2f();
+  private Vec3f unprojTo    = new Vec3f();
+  private Vec3f unprojFrom  = new Vec3f();
+  private Vec3f unprojDir   = new Vec3f();
+
   static {
     // Enable the elements this node affects for known actions
     // Note that all of these elements are interdependent
@@ -87,6 +101,18 @@ public abstract class Camera extends Node {
     ModelMatrixElement     .enable(RayPickAction.getDefaultState());
     ProjectionMatrixElement.enable(RayPickAction.getDefaultState());
     ViewingMatrixElement   .enable(RayPickAction.getDefaultState());
+
+    ModelMatrixElement     .enable(MultiRayPickAction.getDefaultState());
+    ProjectionMatrixElement.enable(MultiRayPickAction.getDefaultState());
+    ViewingMatrixElement   .enable(MultiRayPickAction.getDefaultState());
+
+    ModelMatrixElement     .enable(BoxSelectAction.getDefaultState());
+    ProjectionMatrixElement.enable(BoxSelectAction.getDefaultState());
+    ViewingMatrixElement   .enable(BoxSelectAction.getDefaultState());
+
+    ModelMatrixElement     .enable(IDBufferPickAction.getDefaultState());
+    ProjectionMatrixElement.enable(IDBufferPickAction.getDefaultState());
+    ViewingMatrixElement   .enable(IDBufferPickAction.getDefaultState());
   }
 
   public Camera() {
@@ -95,8 +121,10 @@ public abstract class Camera extends Node {
 
     projMatrix = new Mat4f();
     viewMatrix = new Mat4f();
+    invProjViewMatrix = new Mat4f();
     projDirty = true;
     viewDirty = true;
+    invProjViewDirty = true;
   }
 
   /** Sets the position of the camera. */
@@ -178,6 +206,7 @@ public abstract class Camera extends Node {
     if (viewDirty) {
       viewMatrix.makeIdent();
       viewDirty = false;
+      invProjViewDirty = true;
 
       viewMatrix.setRotation(getOrientation());
       viewMatrix.setTranslation(getPosition());
@@ -202,46 +231,90 @@ public abstract class Camera extends Node {
     return line;
   }
 
+  /** Returns the inverse of the product of the projection and
+      viewing matrices, which maps normalized device coordinates back
+      in to world coordinates. The result is cached and only
+      recomputed when the camera's parameters change. Callers should
+      not mutate the returned matrix.
+
+      @throws SingularMatrixException if the combined matrix is singular
+  */
+  public Mat4f getInverseProjectionViewingMatrix() throws SingularMatrixException {
+    if (projDirty || viewDirty) {
+      invProjViewDirty = true;
+    }
+    Mat4f proj = getProjectionMatrix();
+    Mat4f view = getViewingMatrix();
+    if (invProjViewDirty) {
+      invProjViewMatrix.mul(proj, view);
+      invProjViewMatrix.invert();
+      invProjViewDirty = false;
+    }
+    return invProjViewMatrix;
+  }
+
   /** Un-projects the given on-screen point in to the given line in 3D
       space (in world coordinates) which can be used for picking or
       other operations. The x and y coordinates of the point must be
       in normalized coordinates, where (0, 0) is the lower-left corner
-      of the viewport and (1, 1) is the upper-right. */
+      of the viewport and (1, 1) is the upper-right. Does not allocate
+      any storage. */
   public void unproject(Vec2f point, Line line) throws SingularMatrixException {
-    // First, we are going to compute the 3D point which corresponds
-    // to the given point on the near plane. Map the screen
-    // coordinates to the (-1, 1) range. Note that because the camera
-    // points down the -Z axis, we use as the initial Z coordinate of
-    // the 3D point we need to unproject the negation of the near
-    // distance.
-    Vec4f pt3d = new Vec4f(2 * point.x() - 1,
-                           2 * point.y() - 1,
-                           -getNearDistance(),
-                           1);
-    // Compute the cumulative view and projection matrices
-    Mat4f mat = new Mat4f();
-    mat.mul(getProjectionMatrix(), getViewingMatrix());
-    // Compute the inverse of this matrix
-    mat.invert();
-    // Multiply
-    Vec4f unproj = new Vec4f();
-    mat.xformVec(pt3d, unproj);
-    if (unproj.w() == 0) {
-      // FIXME: is this the right exception to throw in this case?
-      throw new SingularMatrixException();
+    Mat4f mat = getInverseProjectionViewingMatrix();
+    unprojectPoint(mat, point, unprojTo);
+    getRayStartPoint(point, unprojTo, unprojFrom);
+    unprojDir.sub(unprojTo, unprojFrom);
+
+    //    System.err.println("unprojected point: " + unprojTo);
+    //    System.err.println("unprojected dir  : " + unprojDir);
+
+    line.setPoint(unprojFrom);
+    line.setDirection(unprojDir);
+  }
+
+  /** Un-projects many on-screen points at once in to the given lines
+      in 3D space (in world coordinates). The normalizedXY array
+      contains (x, y) pairs in normalized coordinates, where (0, 0) is
+      the lower-left corner of the viewport and (1, 1) is the
+      upper-right; one line is computed for each element of the lines
+      array, which must already be populated. */
+  public void unproject(float[] normalizedXY, Line[] lines) throws SingularMatrixException {
+    Mat4f mat = getInverseProjectionViewingMatrix();
+    for (int i = 0; i < lines.length; i++) {
+      unprojPoint.set(normalizedXY[2 * i], normalizedXY[2 * i + 1]);
+      unprojectPoint(mat, unprojPoint, unprojTo);
+      getRayStartPoint(unprojPoint, unprojTo, unprojFrom);
+      unprojDir.sub(unprojTo, unprojFrom);
+      lines[i].setPoint(unprojFrom);
+      lines[i].setDirection(unprojDir);
+    }
+  }
+
+  /** Un-projects many on-screen points at once, storing the resulting
+      rays (in world coordinates) in packed form. The (x, y) pairs of
+      normalized coordinates are read from normalizedXY starting at
+      the given offset. The start point of the ray for point i is
+      stored in rayPoints at index 3 * i, and its normalized
+      direction in rayDirections at index 3 * i. Does not allocate
+      any storage and inverts the combined projection and viewing
+      matrices at most once. */
+  public void unproject(float[] normalizedXY, int offset, int numPoints,
+                        float[] rayPoints, float[] rayDirections) throws SingularMatrixException {
+    Mat4f mat = getInverseProjectionViewingMatrix();
+    for (int i = 0; i < numPoints; i++) {
+      unprojPoint.set(normalizedXY[offset + 2 * i], normalizedXY[offset + 2 * i + 1]);
+      unprojectPoint(mat, unprojPoint, unprojTo);
+      getRayStartPoint(unprojPoint, unprojTo, unprojFrom);
+      unprojDir.sub(unprojTo, unprojFrom);
+      unprojDir.normalize();
+      int base = 3 * i;
+      rayPoints[base    ] = unprojFrom.x();
+      rayPoints[base + 1] = unprojFrom.y();
+      rayPoints[base + 2] = unprojFrom.z();
+      rayDirections[base    ] = unprojDir.x();
+      rayDirections[base + 1] = unprojDir.y();
+      rayDirections[base + 2] = unprojDir.z();
     }
-    float ooW = 1.0f / unproj.w();
-    Vec3f to = new Vec3f(unproj.x() * ooW,
-                         unproj.y() * ooW,
-                         unproj.z() * ooW);
-    Vec3f from = getRayStartPoint(point, to);
-    Vec3f dir  = to.minus(from);
-
-    //    System.err.println("unprojected point: " + to);
-    //    System.err.println("unprojected dir  : " + dir);
-
-    line.setPoint(from);
-    line.setDirection(dir);
   }
 
   /** Computes the start point of a ray for picking, given a point in
@@ -249,6 +322,14 @@ public abstract class Camera extends Node {
       which that point unprojects to. */
   protected abstract Vec3f getRayStartPoint(Vec2f point, Vec3f unprojectedPoint);
 
+  /** Computes the start point of a ray for picking in to the given
+      vector. The default implementation delegates to {@link
+      #getRayStartPoint(Vec2f, Vec3f)}; subclasses should override
+      this to avoid allocating storage. */
+  protected void getRayStartPoint(Vec2f point, Vec3f unprojectedPoint, Vec3f dest) {
+    dest.set(getRayStartPoint(point, unprojectedPoint));
+  }
+
   public void doAction(Action action) {
     if (ViewingMatrixElement.isEnabled(action.getState())) {
       ViewingMatrixElement.set(action.getState(), getViewingMatrix());
@@ -262,4 +343,43 @@ public abstract class Camera extends Node {
     doAction(action);
     action.recomputeRay(this);
   }
+
+  public void multiRayPick(MultiRayPickAction action) {
+    doAction(action);
+    action.recomputeRays(this);
+  }
+
+  public void boxSelect(BoxSelectAction action) {
+    doAction(action);
+    action.recomputeFrustum(this);
+  }
+
+  public void idBufferPick(IDBufferPickAction action) {
+    doAction(action);
+    action.setCamera(this);
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  // Maps the given point in normalized screen coordinates through the
+  // given inverse projection / viewing matrix. Note that because the
+  // camera points down the -Z axis, we use as the initial Z
+  // coordinate of the 3D point we need to unproject the negation of
+  // the near distance.
+  private void unprojectPoint(Mat4f mat, Vec2f point, Vec3f dest) throws SingularMatrixException {
+    float x = 2 * point.x() - 1;
+    float y = 2 * point.y() - 1;
+    float z = -getNearDistance();
+    float w = mat.get(3, 0) * x + mat.get(3, 1) * y + mat.get(3, 2) * z + mat.get(3, 3);
+    if (w == 0) {
+      // FIXME: is this the right exception to throw in this case?
+      throw new SingularMatrixException();
+    }
+    float ooW = 1.0f / w;
+    dest.set((mat.get(0, 0) * x + mat.get(0, 1) * y + mat.get(0, 2) * z + mat.get(0, 3)) * ooW,
+             (mat.get(1, 0) * x + mat.get(1, 1) * y + mat.get(1, 2) * z + mat.get(1, 3)) * ooW,
+             (mat.get(2, 0) * x + mat.get(2, 1) * y + mat.get(2, 2) * z + mat.get(2, 3)) * ooW);
+  }
 }
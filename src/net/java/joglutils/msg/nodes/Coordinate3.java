@@ -38,38 +38,131 @@
 package net.java.joglutils.msg.nodes;
 
 import net.java.joglutils.msg.actions.Action;
+import net.java.joglutils.msg.actions.BoxSelectAction;
 import net.java.joglutils.msg.actions.GLRenderAction;
+import net.java.joglutils.msg.actions.IDBufferPickAction;
+import net.java.joglutils.msg.actions.MultiRayPickAction;
 import net.java.joglutils.msg.actions.RayPickAction;
 import net.java.joglutils.msg.collections.Vec3fCollection;
 import net.java.joglutils.msg.elements.CoordinateElement;
 import net.java.joglutils.msg.elements.GLCoordinateElement;
+import net.java.joglutils.msg.misc.Stage;
+import net.java.joglutils.msg.misc.Stageable;
 
 /** Represents a set of 3-dimensional vertices which can be assembled
-    into shapes. */
+    into shapes. <P>
+
+    If a {@link Stage Stage} has been set on this node, the collection
+    passed to {@link #setData setData} becomes visible to traversals
+    only when the Stage is published. The collection is shared, not
+    copied; once published it must not be modified from another
+    thread. */
 
 public class Coordinate3 extends Node {
-  private Vec3fCollection data;
+  private volatile Vec3fCollection data;
+  private Stage stage;
+  // Under a Stage, the data most recently set and whether it is
+  // waiting to be published; guarded by this object's lock
+  private Vec3fCollection stagedData;
+  private boolean staged;
 
   static {
     // Enable the elements this node affects for known actions
     GLCoordinateElement.enable(GLRenderAction.getDefaultState());
 
     CoordinateElement  .enable(RayPickAction.getDefaultState());
+
+    CoordinateElement  .enable(MultiRayPickAction.getDefaultState());
+
+    CoordinateElement  .enable(BoxSelectAction.getDefaultState());
+
+    CoordinateElement  .enable(IDBufferPickAction.getDefaultState());
+  }
+
+  /** Sets the Stage through which changes to this node are
+      published, or null to make changes visible immediately (the
+      default). Any unpublished change is made visible immediately. */
+  public synchronized void setStage(Stage stage) {
+    publishData();
+    this.stage = stage;
+  }
+
+  /** Returns the Stage through which changes to this node are
+      published, or null if there is none. */
+  public synchronized Stage getStage() {
+    return stage;
   }
 
   /** Sets the coordinate data in this node. */
   public void setData(Vec3fCollection data) {
-    this.data = data;
+    boolean post;
+    Stage s;
+    synchronized (this) {
+      s = stage;
+      if (s == null) {
+        this.data = data;
+        touch();
+        return;
+      }
+      stagedData = data;
+      post = !staged;
+      staged = true;
+    }
+    if (post) {
+      s.post(publisher);
+    }
   }
 
-  /** Returns the coordinate data in this node. */
+  /** Returns the coordinate data in this node, as seen by
+      traversals. */
   public Vec3fCollection getData() {
     return data;
   }
 
+  /** Returns the coordinate data most recently set on this node,
+      whether or not it has been published yet. */
+  public synchronized Vec3fCollection getStagedData() {
+    return staged ? stagedData : data;
+  }
+
   public void doAction(Action action) {
     if (CoordinateElement.isEnabled(action.getState())) {
-      CoordinateElement.set(action.getState(), getData().getData());
+      Vec3fCollection data = getData();
+      CoordinateElement.set(action.getState(), data.getData());
+      CoordinateElement.setModificationCount(action.getState(), data.getModificationCount());
+      noteModificationCount(data.getModificationCount());
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private final Stageable publisher = new Stageable() {
+      public void publish() {
+        synchronized (Coordinate3.this) {
+          publishData();
+        }
+      }
+    };
+
+  // The modification count of the data at the last traversal, so
+  // that edits made to the collection in place invalidate bounds
+  private volatile long lastModificationCount = -1;
+
+  private void noteModificationCount(long modificationCount) {
+    if (modificationCount != lastModificationCount) {
+      lastModificationCount = modificationCount;
+      touch();
+    }
+  }
+
+  private void publishData() {
+    if (staged) {
+      data = stagedData;
+      stagedData = null;
+      staged = false;
+      touch();
     }
   }
 }
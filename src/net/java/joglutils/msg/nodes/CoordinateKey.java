@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.nodes;
+
+import java.nio.Buffer;
+
+import net.java.joglutils.msg.elements.CoordinateElement;
+import net.java.joglutils.msg.math.Vec3f;
+import net.java.joglutils.msg.misc.State;
+
+/** Records the coordinates in a State, so that results computed from
+    them, such as bounds, can be reused for as long as the
+    coordinates are unchanged. Compares the buffer, its format,
+    stride, scale and offset, and the modification count of the
+    collection the buffer came from. */
+
+class CoordinateKey {
+  private boolean enabled;
+  private Buffer data;
+  private int format;
+  private int stride;
+  private float sx, sy, sz, ox, oy, oz;
+  private long modificationCount;
+
+  /** Records the coordinates in the given state. */
+  void record(State state) {
+    enabled = CoordinateElement.isEnabled(state);
+    if (!enabled) {
+      data = null;
+      return;
+    }
+    data = CoordinateElement.getData(state);
+    format = CoordinateElement.getFormat(state);
+    stride = CoordinateElement.getStride(state);
+    modificationCount = CoordinateElement.getModificationCount(state);
+    Vec3f scale = CoordinateElement.getScale(state);
+    Vec3f offset = CoordinateElement.getOffset(state);
+    sx = (scale == null) ? 1 : scale.x();
+    sy = (scale == null) ? 1 : scale.y();
+    sz = (scale == null) ? 1 : scale.z();
+    ox = (offset == null) ? 0 : offset.x();
+    oy = (offset == null) ? 0 : offset.y();
+    oz = (offset == null) ? 0 : offset.z();
+  }
+
+  /** Returns true if the coordinates in the given state are those
+      last recorded. */
+  boolean matches(State state) {
+    if (enabled != CoordinateElement.isEnabled(state)) {
+      return false;
+    }
+    if (!enabled) {
+      return true;
+    }
+    if (data != CoordinateElement.getData(state) ||
+        format != CoordinateElement.getFormat(state) ||
+        stride != CoordinateElement.getStride(state) ||
+        modificationCount != CoordinateElement.getModificationCount(state)) {
+      return false;
+    }
+    Vec3f scale = CoordinateElement.getScale(state);
+    Vec3f offset = CoordinateElement.getOffset(state);
+    return (((scale == null) ? (sx == 1 && sy == 1 && sz == 1)
+                             : (sx == scale.x() && sy == scale.y() && sz == scale.z())) &&
+            ((offset == null) ? (ox == 0 && oy == 0 && oz == 0)
+                              : (ox == offset.x() && oy == offset.y() && oz == offset.z())));
+  }
+}
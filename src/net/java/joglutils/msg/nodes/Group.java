@@ -42,39 +42,81 @@ import java.util.Iterator;
 import java.util.List;
 
 import net.java.joglutils.msg.actions.Action;
+import net.java.joglutils.msg.misc.Stage;
+import net.java.joglutils.msg.misc.Stageable;
 
-/** A node which manages other Node instances. */
+/** A node which manages other Node instances. <P>
+
+    If a {@link Stage Stage} has been set on this group, changes to
+    its children are made to a copy of the list of children, and
+    become visible to traversals only when the Stage is published.
+    The query methods, such as {@link #getChild getChild}, return the
+    children as most recently modified, whether or not they have been
+    published yet. <P>
+
+    A Group references its children strongly, but each child refers
+    back to the Groups containing it only weakly, so that changes to
+    it reach the {@link Separator Separators} above it. A Group which
+    is no longer referenced may therefore be collected without first
+    removing its children; removing them explicitly unlinks them
+    immediately, which spares their later changes from looking at
+    the dropped Group. */
 
 public class Group extends Node implements Iterable<Node> {
-  private List<Node> children = new ArrayList<Node>();
+  // The children seen by traversals. Under a Stage, a list which has
+  // been published is never modified again; edits go to a copy.
+  private volatile List<Node> children = new ArrayList<Node>();
+  // Under a Stage, the copy of the children being edited, or null
+  // if there are no unpublished edits
+  private List<Node> stagedChildren;
+  private Stage stage;
+  // Under a Stage, the children removed from the staged list, which
+  // remain linked to this group until the removal is published
+  private List<Node> removedChildren;
+
+  /** Sets the Stage through which changes to this group's children
+      are published, or null to make changes visible immediately (the
+      default). Any unpublished changes are made visible immediately. */
+  public synchronized void setStage(Stage stage) {
+    publishChildren();
+    this.stage = stage;
+  }
+
+  /** Returns the Stage through which changes to this group's children
+      are published, or null if there is none. */
+  public synchronized Stage getStage() {
+    return stage;
+  }
 
   /** Append a child node to the list of children nodes this group node is managing. */
-  public void addChild(Node child) {
+  public synchronized void addChild(Node child) {
     if (child == null)
       throw new IllegalArgumentException("child may not be null");
-    children.add(child);
+    edit().add(child);
+    child.addParent(this);
   }
 
   /** Adds a child so that it becomes the one with the given index. */
-  public void insertChild(int index, Node child) {
+  public synchronized void insertChild(int index, Node child) {
     if (child == null)
       throw new IllegalArgumentException("child may not be null");
-    children.add(index, child);
+    edit().add(index, child);
+    child.addParent(this);
   }
 
   /** Returns the child node with the given index. */
-  public Node getChild(int index) {
-    return children.get(index);
+  public synchronized Node getChild(int index) {
+    return view().get(index);
   }
 
   /** Finds the index of given child within the group. Returns -1 if not found. */
-  public int  findChild(Node node) {
-    return children.indexOf(node);
+  public synchronized int  findChild(Node node) {
+    return view().indexOf(node);
   }
 
   /** Returns number of children. */
-  public int  getNumChildren() {
-    return children.size();
+  public synchronized int  getNumChildren() {
+    return view().size();
   }
 
   /** Removes the child with given index from the group.
@@ -82,8 +124,8 @@ public class Group extends Node implements Iterable<Node> {
      @throws IndexOutOfBoundsException if the index is less than 0 or
      greater than the number of children
   */
-  public void removeChild(int index) throws IndexOutOfBoundsException {
-    children.remove(index);
+  public synchronized void removeChild(int index) throws IndexOutOfBoundsException {
+    unlink(edit().remove(index));
   }
 
   /** Removes the given child from the group. This is a convenience
@@ -91,15 +133,27 @@ public class Group extends Node implements Iterable<Node> {
       if the node is found, passing the index to {@link #removeChild
       removeChild}.
   */
-  public void removeChild(Node node) {
+  public synchronized void removeChild(Node node) {
     int idx = findChild(node);
     if (idx >= 0)
       removeChild(idx);
   }
 
   /** Removes all children from this Group node. */
-  public void removeAllChildren() {
-    children.clear();
+  public synchronized void removeAllChildren() {
+    for (Node child : view()) {
+      unlink(child);
+    }
+    if (stage == null) {
+      children.clear();
+      touch();
+    } else {
+      // No need to copy the old children just to discard them
+      if (stagedChildren == null) {
+        stage.post(publisher);
+      }
+      stagedChildren = new ArrayList<Node>();
+    }
   }
 
   /** Replaces the child at the given index with the new child.
@@ -107,7 +161,7 @@ public class Group extends Node implements Iterable<Node> {
      @throws IndexOutOfBoundsException if the index is less than 0 or
      greater than the number of children
   */
-  public void replaceChild(int index, Node newChild) throws IndexOutOfBoundsException {
+  public synchronized void replaceChild(int index, Node newChild) throws IndexOutOfBoundsException {
     if (newChild == null)
       throw new IllegalArgumentException("child may not be null");
     removeChild(index);
@@ -118,7 +172,7 @@ public class Group extends Node implements Iterable<Node> {
       method. It will simply call {@link #findChild findChild} with
       oldChild as argument, and call replaceChild(int, SoNode*) if the
       child is found. */
-  public void replaceChild(Node oldChild, Node newChild) {
+  public synchronized void replaceChild(Node oldChild, Node newChild) {
     if (newChild == null)
       throw new IllegalArgumentException("child may not be null");
     int idx = findChild(oldChild);
@@ -127,13 +181,88 @@ public class Group extends Node implements Iterable<Node> {
   }
 
   /** Returns an Iterator over the nodes this Group contains. */
-  public Iterator<Node> iterator() {
-    return children.iterator();
+  public synchronized Iterator<Node> iterator() {
+    return view().iterator();
   }
 
   public void doAction(Action action) {
-    for (int i = 0; i < getNumChildren(); i++) {
-      action.apply(getChild(i));
+    // Traverse the published children, which are not modified
+    // concurrently when a Stage is in use
+    List<Node> kids = children;
+    for (int i = 0; i < kids.size(); i++) {
+      action.apply(kids.get(i));
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  // The walk which last passed through this group, so that a change
+  // reaching it along several paths is passed on only once
+  private volatile long boundsWalk;
+
+  void boundsChanged(long walk) {
+    if (boundsWalk == walk) {
+      return;
+    }
+    boundsWalk = walk;
+    super.boundsChanged(walk);
+  }
+
+  private final Stageable publisher = new Stageable() {
+      public void publish() {
+        synchronized (Group.this) {
+          publishChildren();
+        }
+      }
+    };
+
+  // Returns the list to which changes should be made. Must be called
+  // with this object's lock held.
+  private List<Node> edit() {
+    if (stage == null) {
+      touch();
+      return children;
+    }
+    if (stagedChildren == null) {
+      stagedChildren = new ArrayList<Node>(children);
+      stage.post(publisher);
+    }
+    return stagedChildren;
+  }
+
+  // Returns the most recently modified list of children. Must be
+  // called with this object's lock held.
+  private List<Node> view() {
+    return (stagedChildren != null) ? stagedChildren : children;
+  }
+
+  private void publishChildren() {
+    if (stagedChildren != null) {
+      children = stagedChildren;
+      stagedChildren = null;
+      if (removedChildren != null) {
+        for (Node child : removedChildren) {
+          child.removeParent(this);
+        }
+        removedChildren = null;
+      }
+      touch();
+    }
+  }
+
+  // Unlinks a removed child from this group, once the published
+  // children no longer contain it. Must be called with this object's
+  // lock held.
+  private void unlink(Node child) {
+    if (stage == null) {
+      child.removeParent(this);
+    } else {
+      if (removedChildren == null) {
+        removedChildren = new ArrayList<Node>();
+      }
+      removedChildren.add(child);
     }
   }
 }
@@ -37,36 +37,218 @@
 
 package net.java.joglutils.msg.nodes;
 
+import java.nio.Buffer;
 import java.nio.IntBuffer;
 
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+
 import net.java.joglutils.msg.actions.Action;
+import net.java.joglutils.msg.actions.GLRenderAction;
+import net.java.joglutils.msg.collections.IndexCollection;
+import net.java.joglutils.msg.misc.PrimitiveVertex;
 import net.java.joglutils.msg.misc.TriangleCallback;
+import net.java.joglutils.msg.misc.VertexAttributeReader;
 
 /** An IndexedTriangleSet assembles the coordinates specified by a
     Coordinate3 node, and any auxiliary nodes such as a
     TextureCoordinate2 node, into a set of triangles by indexing into
-    the pools of coordinates set up by these other nodes. (NOTE:
-    (FIXME) rendering support for this node is not yet
-    implemented.) */
+    the pools of coordinates set up by these other nodes. Every three
+    consecutive indices form a triangle. A primitive restart marker
+    in the indices discards any partially assembled triangle, as
+    OpenGL does when primitive restart is enabled. On OpenGL
+    implementations older than 3.1, which lack primitive restart, the
+    runs of indices between markers are drawn one at a time. */
 
 public class IndexedTriangleSet extends TriangleBasedShape {
-  private IntBuffer indices;
+  private IndexCollection indexData;
 
-  /** Sets the indices this node uses to group vertices into triangles. */
+  /** Sets the indices this node uses to group vertices into
+      triangles. The buffer is shared, not copied. */
   public void setIndices(IntBuffer indices) {
-    this.indices = indices;
+    setIndexData((indices == null) ? null : new IndexCollection(indices));
   }
 
-  /** Returns the indices this node uses to group vertices into triangles. */
+  /** Returns the indices this node uses to group vertices into
+      triangles, if they are stored as ints, or null otherwise. */
   public IntBuffer getIndices() {
-    return indices;
+    if (indexData == null || indexData.getType() != IndexCollection.UNSIGNED_INT) {
+      return null;
+    }
+    return (IntBuffer) indexData.getData();
+  }
+
+  /** Sets the indices this node uses to group vertices into
+      triangles. The collection is shared, not copied. */
+  public void setIndexData(IndexCollection indexData) {
+    this.indexData = indexData;
+    invalidatePickCache();
   }
 
-  public void doAction(Action action) {
-    throw new RuntimeException("Not yet implemented");
+  /** Returns the indices this node uses to group vertices into
+      triangles. */
+  public IndexCollection getIndexData() {
+    return indexData;
+  }
+
+  public void render(GLRenderAction action) {
+    if (indexData != null && indexData.size() > 0) {
+      renderVertexArrays(action);
+    }
   }
 
   public void generateTriangles(Action action, TriangleCallback cb) {
-    throw new RuntimeException("Not yet implemented");
+    IndexCollection indices = getIndexData();
+    if (indices == null) {
+      return;
+    }
+    noteModificationCount(indices.getModificationCount());
+    VertexAttributeReader reader = new VertexAttributeReader();
+    // No point in continuing if we don't have coordinates
+    if (!reader.setUp(action.getState()))
+      return;
+
+    PrimitiveVertex v0 = new PrimitiveVertex();
+    PrimitiveVertex v1 = new PrimitiveVertex();
+    PrimitiveVertex v2 = new PrimitiveVertex();
+    reader.initVertex(v0);
+    reader.initVertex(v1);
+    reader.initVertex(v2);
+
+    int[] tmp = new int[Math.min(indices.size(), 1024)];
+    int[] tri = new int[3];
+    int numVertices = 0;
+    int triangleIndex = 0;
+    for (int pos = 0, size = indices.size(); pos < size; pos += tmp.length) {
+      int count = Math.min(tmp.length, size - pos);
+      indices.getRange(pos, count, tmp, 0);
+      for (int i = 0; i < count; i++) {
+        int index = tmp[i];
+        if (index == IndexCollection.RESTART) {
+          numVertices = 0;
+          continue;
+        }
+        tri[numVertices++] = index;
+        if (numVertices == 3) {
+          reader.read(tri[0], v0);
+          reader.read(tri[1], v1);
+          reader.read(tri[2], v2);
+          cb.triangleCB(triangleIndex++,
+                        v0, tri[0],
+                        v1, tri[1],
+                        v2, tri[2]);
+          numVertices = 0;
+        }
+      }
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  // The modification count of the indices when triangles were last
+  // generated, so that edits made to the collection in place
+  // invalidate bounds
+  private volatile long lastModificationCount = -1;
+
+  private void noteModificationCount(long modificationCount) {
+    if (modificationCount != lastModificationCount) {
+      lastModificationCount = modificationCount;
+      touch();
+    }
+  }
+
+  // The runs of indices between restart markers, as pairs of start
+  // and end positions, and the indices and modification count they
+  // were found for; used only by drawRuns
+  private int[] runs = new int[16];
+  private int numRuns;
+  private IndexCollection runsSource;
+  private long runsModificationCount;
+
+  // Draws the indices one run between restart markers at a time, for
+  // OpenGL implementations without primitive restart. A partial
+  // triangle at the end of a run is dropped, just as a restart marker
+  // would discard it.
+  private void drawRuns(GL2 gl, IndexCollection indices, int type) {
+    if (runsSource != indices || runsModificationCount != indices.getModificationCount()) {
+      findRuns(indices);
+    }
+    Buffer buf = indices.getData();
+    for (int i = 0; i < numRuns; i++) {
+      int start = runs[2 * i];
+      int end = runs[2 * i + 1];
+      buf.limit(end);
+      buf.position(start);
+      gl.glDrawRangeElements(GL.GL_TRIANGLES, indices.getMinIndex(), indices.getMaxIndex(),
+                             end - start, type, buf);
+    }
+    buf.clear();
+  }
+
+  private void findRuns(IndexCollection indices) {
+    numRuns = 0;
+    int[] tmp = new int[Math.min(indices.size(), 1024)];
+    int start = 0;
+    int size = indices.size();
+    for (int pos = 0; pos < size; pos += tmp.length) {
+      int count = Math.min(tmp.length, size - pos);
+      indices.getRange(pos, count, tmp, 0);
+      for (int i = 0; i < count; i++) {
+        if (tmp[i] == IndexCollection.RESTART) {
+          addRun(start, pos + i);
+          start = pos + i + 1;
+        }
+      }
+    }
+    addRun(start, size);
+    runsSource = indices;
+    runsModificationCount = indices.getModificationCount();
+  }
+
+  private void addRun(int start, int end) {
+    // Runs too short to hold a triangle draw nothing
+    if (end - start < 3) {
+      return;
+    }
+    if (2 * numRuns + 2 > runs.length) {
+      int[] newRuns = new int[2 * runs.length];
+      System.arraycopy(runs, 0, newRuns, 0, runs.length);
+      runs = newRuns;
+    }
+    runs[2 * numRuns] = start;
+    runs[2 * numRuns + 1] = end;
+    ++numRuns;
+  }
+
+  long getTriangleModificationCount() {
+    IndexCollection indices = indexData;
+    return (indices == null) ? 0 : indices.getModificationCount();
+  }
+
+  void drawVertexArrays(GL2 gl) {
+    IndexCollection indices = indexData;
+    int type;
+    switch (indices.getType()) {
+      case IndexCollection.UNSIGNED_BYTE:  type = GL.GL_UNSIGNED_BYTE;  break;
+      case IndexCollection.UNSIGNED_SHORT: type = GL.GL_UNSIGNED_SHORT; break;
+      default:                             type = GL.GL_UNSIGNED_INT;   break;
+    }
+    boolean restart = (indices.getNumRestarts() > 0);
+    if (restart && !gl.isExtensionAvailable("GL_VERSION_3_1")) {
+      drawRuns(gl, indices, type);
+      return;
+    }
+    if (restart) {
+      gl.glEnable(GL2.GL_PRIMITIVE_RESTART);
+      gl.glPrimitiveRestartIndex(indices.getRestartIndex());
+    }
+    // The index range lets OpenGL transfer only the vertices used
+    gl.glDrawRangeElements(GL.GL_TRIANGLES, indices.getMinIndex(), indices.getMaxIndex(),
+                           indices.size(), type, indices.getData());
+    if (restart) {
+      gl.glDisable(GL2.GL_PRIMITIVE_RESTART);
+    }
   }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.nodes;
+
+import net.java.joglutils.msg.actions.Action;
+import net.java.joglutils.msg.actions.BoxSelectAction;
+import net.java.joglutils.msg.actions.GLRenderAction;
+import net.java.joglutils.msg.actions.IDBufferPickAction;
+import net.java.joglutils.msg.actions.MultiRayPickAction;
+import net.java.joglutils.msg.actions.RayPickAction;
+import net.java.joglutils.msg.collections.InterleavedVertexCollection;
+import net.java.joglutils.msg.collections.VertexLayout;
+import net.java.joglutils.msg.elements.ColorElement;
+import net.java.joglutils.msg.elements.CoordinateElement;
+import net.java.joglutils.msg.elements.GLColorElement;
+import net.java.joglutils.msg.elements.GLCoordinateElement;
+import net.java.joglutils.msg.elements.GLNormalElement;
+import net.java.joglutils.msg.elements.GLTextureCoordinateElement;
+import net.java.joglutils.msg.elements.NormalElement;
+import net.java.joglutils.msg.elements.TextureCoordinateElement;
+import net.java.joglutils.msg.misc.State;
+
+/** Supplies the vertices of subsequent shapes from an {@link
+    InterleavedVertexCollection}, in place of separate Coordinate3,
+    TextureCoordinate2 and Color4 nodes. Sets the coordinates, and
+    those of the normals, texture coordinates and colors which are
+    present in the collection's layout; attributes absent from the
+    layout are left as they were. */
+
+public class InterleavedVertices extends Node {
+  private InterleavedVertexCollection data;
+
+  static {
+    // Enable the elements this node affects for known actions
+    GLCoordinateElement       .enable(GLRenderAction.getDefaultState());
+    GLNormalElement           .enable(GLRenderAction.getDefaultState());
+    GLTextureCoordinateElement.enable(GLRenderAction.getDefaultState());
+    GLColorElement            .enable(GLRenderAction.getDefaultState());
+
+    CoordinateElement         .enable(RayPickAction.getDefaultState());
+    NormalElement             .enable(RayPickAction.getDefaultState());
+    TextureCoordinateElement  .enable(RayPickAction.getDefaultState());
+    ColorElement              .enable(RayPickAction.getDefaultState());
+
+    CoordinateElement         .enable(MultiRayPickAction.getDefaultState());
+    NormalElement             .enable(MultiRayPickAction.getDefaultState());
+    TextureCoordinateElement  .enable(MultiRayPickAction.getDefaultState());
+    ColorElement              .enable(MultiRayPickAction.getDefaultState());
+
+    CoordinateElement         .enable(BoxSelectAction.getDefaultState());
+    NormalElement             .enable(BoxSelectAction.getDefaultState());
+    TextureCoordinateElement  .enable(BoxSelectAction.getDefaultState());
+    ColorElement              .enable(BoxSelectAction.getDefaultState());
+
+    CoordinateElement         .enable(IDBufferPickAction.getDefaultState());
+    NormalElement             .enable(IDBufferPickAction.getDefaultState());
+    TextureCoordinateElement  .enable(IDBufferPickAction.getDefaultState());
+    ColorElement              .enable(IDBufferPickAction.getDefaultState());
+  }
+
+  /** Sets the vertex data in this node. */
+  public void setData(InterleavedVertexCollection data) {
+    this.data = data;
+    touch();
+  }
+
+  /** Returns the vertex data in this node. */
+  public InterleavedVertexCollection getData() {
+    return data;
+  }
+
+  public void doAction(Action action) {
+    InterleavedVertexCollection data = getData();
+    if (data == null) {
+      return;
+    }
+    State state = action.getState();
+    VertexLayout layout = data.getLayout();
+    int stride = layout.getStrideInBytes();
+    if (CoordinateElement.isEnabled(state)) {
+      CoordinateElement.set(state, data.getPositionData(), stride);
+      CoordinateElement.setModificationCount(state, data.getModificationCount());
+      noteModificationCount(data.getModificationCount());
+    }
+    if (layout.hasNormals() && NormalElement.isEnabled(state)) {
+      NormalElement.set(state, data.getNormalData(), stride);
+    }
+    if (layout.hasTexCoords() && TextureCoordinateElement.isEnabled(state)) {
+      TextureCoordinateElement.set(state, data.getTexCoordData(), stride);
+    }
+    if (layout.hasColors() && ColorElement.isEnabled(state)) {
+      ColorElement.set(state, data.getColorData(), stride);
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  // The modification count of the data at the last traversal, so
+  // that edits made to the collection in place invalidate bounds
+  private volatile long lastModificationCount = -1;
+
+  private void noteModificationCount(long modificationCount) {
+    if (modificationCount != lastModificationCount) {
+      lastModificationCount = modificationCount;
+      touch();
+    }
+  }
+}
@@ -37,8 +37,15 @@
 
 package net.java.joglutils.msg.nodes;
 
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 import net.java.joglutils.msg.actions.Action;
+import net.java.joglutils.msg.actions.BoxSelectAction;
 import net.java.joglutils.msg.actions.GLRenderAction;
+import net.java.joglutils.msg.actions.IDBufferPickAction;
+import net.java.joglutils.msg.actions.MultiRayPickAction;
 import net.java.joglutils.msg.actions.RayPickAction;
 
 /** The base class for all nodes in the scene graph. */
@@ -59,4 +66,128 @@ public class Node {
       not required due to the framework supporting action methods, but
       for built-in actions it may make it simpler. */
   public void rayPick(RayPickAction action) { doAction(action); }
+
+  /** Support for the built-in MultiRayPickAction. Note that supplying
+      virtual methods in Node subclasses to support various actions is
+      not required due to the framework supporting action methods, but
+      for built-in actions it may make it simpler. */
+  public void multiRayPick(MultiRayPickAction action) { doAction(action); }
+
+  /** Support for the built-in BoxSelectAction. Note that supplying
+      virtual methods in Node subclasses to support various actions is
+      not required due to the framework supporting action methods, but
+      for built-in actions it may make it simpler. */
+  public void boxSelect(BoxSelectAction action) { doAction(action); }
+
+  /** Support for the built-in IDBufferPickAction. Note that supplying
+      virtual methods in Node subclasses to support various actions is
+      not required due to the framework supporting action methods, but
+      for built-in actions it may make it simpler. */
+  public void idBufferPick(IDBufferPickAction action) { doAction(action); }
+
+  /** Notes that this node has changed in a way which may alter the
+      bounds of the scene graphs containing it, so that the bounds
+      cached by the {@link Separator Separators} above it are
+      recomputed; other Separators keep their bounds. The built-in
+      nodes call this from their setters; applications need only call
+      it after modifying, in place, data shared with a node which it
+      cannot observe, such as an index buffer. */
+  public void touch() {
+    boundsChanged();
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  // The Groups holding this node as a child, once for each time it
+  // appears among their children, so that a change to this node
+  // reaches the Separators above it. Copied on write, and updated by
+  // compare-and-set rather than under a lock. The Groups are
+  // referenced weakly, so that a Group dropped without removing its
+  // children doesn't stay reachable from them; the links of
+  // collected Groups are pruned on the next update.
+  private volatile ParentRef[] parents = NO_PARENTS;
+  private static final ParentRef[] NO_PARENTS = new ParentRef[0];
+  private static final AtomicReferenceFieldUpdater<Node, ParentRef[]> parentsUpdater =
+    AtomicReferenceFieldUpdater.newUpdater(Node.class, ParentRef[].class, "parents");
+
+  private static final class ParentRef extends WeakReference<Group> {
+    ParentRef(Group parent) {
+      super(parent);
+    }
+  }
+
+  // Distinguishes the walks made by boundsChanged
+  private static final AtomicLong walkCounter = new AtomicLong();
+
+  void addParent(Group parent) {
+    ParentRef ref = new ParentRef(parent);
+    ParentRef[] p, res;
+    do {
+      p = parents;
+      res = new ParentRef[p.length + 1];
+      int n = 0;
+      for (int i = 0; i < p.length; i++) {
+        if (p[i].get() != null) {
+          res[n++] = p[i];
+        }
+      }
+      res[n++] = ref;
+      res = trim(res, n);
+    } while (!parentsUpdater.compareAndSet(this, p, res));
+  }
+
+  void removeParent(Group parent) {
+    ParentRef[] p, res;
+    do {
+      p = parents;
+      res = new ParentRef[p.length];
+      int n = 0;
+      boolean found = false;
+      for (int i = 0; i < p.length; i++) {
+        Group g = p[i].get();
+        if (g == null) {
+          continue;
+        }
+        if (g == parent && !found) {
+          // Only one occurrence is removed
+          found = true;
+          continue;
+        }
+        res[n++] = p[i];
+      }
+      res = trim(res, n);
+    } while (!parentsUpdater.compareAndSet(this, p, res));
+  }
+
+  private static ParentRef[] trim(ParentRef[] refs, int n) {
+    if (n == 0) {
+      return NO_PARENTS;
+    }
+    if (n == refs.length) {
+      return refs;
+    }
+    ParentRef[] res = new ParentRef[n];
+    System.arraycopy(refs, 0, res, 0, n);
+    return res;
+  }
+
+  // Invalidates the bounds cached by the Separators at or above this
+  // node
+  void boundsChanged() {
+    boundsChanged(walkCounter.incrementAndGet());
+  }
+
+  // Passes a change on to the parents of this node as part of the
+  // given walk
+  void boundsChanged(long walk) {
+    ParentRef[] p = parents;
+    for (int i = 0; i < p.length; i++) {
+      Group g = p[i].get();
+      if (g != null) {
+        g.boundsChanged(walk);
+      }
+    }
+  }
 }
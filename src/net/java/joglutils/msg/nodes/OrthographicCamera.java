@@ -46,11 +46,14 @@ public class OrthographicCamera extends Camera {
   private static final float DEFAULT_HEIGHT = 2.0f;
   // Amount the most recently set height differed from the default
   private float heightScale = 1.0f;
+  // Temporary used when computing ray start points
+  private Vec3f rayBackward = new Vec3f();
 
   public Mat4f getProjectionMatrix() {
     if (projDirty) {
       projMatrix.makeIdent();
       projDirty = false;
+      invProjViewDirty = true;
 
       // Recompute matrix based on current parameters
       float zNear = getNearDistance();
@@ -78,6 +81,7 @@ public class OrthographicCamera extends Camera {
       camera views. The default height is 2.0 units. */
   public void setHeight(float height) {
     heightScale = height / DEFAULT_HEIGHT;
+    projDirty = true;
   }
 
   /** Returns the height, in units, of the volume this orthographic
@@ -107,6 +111,12 @@ public class OrthographicCamera extends Camera {
     return unprojectedPoint.plus(backward);
   }
 
+  protected void getRayStartPoint(Vec2f point, Vec3f unprojectedPoint, Vec3f dest) {
+    rayBackward.set(0, 0, getNearDistance());
+    getOrientation().rotateVector(rayBackward, dest);
+    dest.add(unprojectedPoint);
+  }
+
   public void render(GLRenderAction action) {
     // FIXME: unclear whether we should be doing this, or whether we
     // should have a mechanism which doesn't require mutation of the
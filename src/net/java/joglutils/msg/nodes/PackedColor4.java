@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.nodes;
+
+import net.java.joglutils.msg.actions.Action;
+import net.java.joglutils.msg.actions.BoxSelectAction;
+import net.java.joglutils.msg.actions.GLRenderAction;
+import net.java.joglutils.msg.actions.IDBufferPickAction;
+import net.java.joglutils.msg.actions.MultiRayPickAction;
+import net.java.joglutils.msg.actions.RayPickAction;
+import net.java.joglutils.msg.collections.PackedColorCollection;
+import net.java.joglutils.msg.collections.VertexFormat;
+import net.java.joglutils.msg.elements.ColorElement;
+import net.java.joglutils.msg.elements.GLColorElement;
+
+/** Represents a set of colors packed into four bytes each, which can
+    be used in place of a Color4 node at a quarter of the memory
+    cost. As with Color4, the colors should have their alpha
+    premultiplied. */
+
+public class PackedColor4 extends Node {
+  private PackedColorCollection data;
+
+  static {
+    // Enable the elements this node affects for known actions
+    GLColorElement.enable(GLRenderAction.getDefaultState());
+
+    ColorElement  .enable(RayPickAction.getDefaultState());
+
+    ColorElement  .enable(MultiRayPickAction.getDefaultState());
+
+    ColorElement  .enable(BoxSelectAction.getDefaultState());
+
+    ColorElement  .enable(IDBufferPickAction.getDefaultState());
+  }
+
+  /** Sets the color data in this node. */
+  public void setData(PackedColorCollection data) {
+    this.data = data;
+  }
+
+  /** Returns the color data in this node. */
+  public PackedColorCollection getData() {
+    return data;
+  }
+
+  public void doAction(Action action) {
+    if (ColorElement.isEnabled(action.getState())) {
+      ColorElement.set(action.getState(), getData().getData(), VertexFormat.UNSIGNED_BYTE, 0);
+    }
+  }
+}
@@ -58,6 +58,7 @@ public class PerspectiveCamera extends Camera {
     if (projDirty) {
       projMatrix.makeIdent();
       projDirty = false;
+      invProjViewDirty = true;
 
       // Recompute matrix based on current parameters
       float zNear = getNearDistance();
@@ -111,6 +112,10 @@ public class PerspectiveCamera extends Camera {
     return getPosition();
   }
 
+  protected void getRayStartPoint(Vec2f point, Vec3f unprojectedPoint, Vec3f dest) {
+    dest.set(getPosition());
+  }
+
   public void render(GLRenderAction action) {
     // FIXME: unclear whether we should be doing this, or whether we
     // should have a mechanism which doesn't require mutation of the
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2007 Sun Microsystems, Inc. All Rights Reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ * - Redistribution of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistribution in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of Sun Microsystems, Inc. or the names of
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES,
+ * INCLUDING ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN
+ * MICROSYSTEMS, INC. ("SUN") AND ITS LICENSORS SHALL NOT BE LIABLE FOR
+ * ANY DAMAGES SUFFERED BY LICENSEE AS A RESULT OF USING, MODIFYING OR
+ * DISTRIBUTING THIS SOFTWARE OR ITS DERIVATIVES. IN NO EVENT WILL SUN OR
+ * ITS LICENSORS BE LIABLE FOR ANY LOST REVENUE, PROFIT OR DATA, OR FOR
+ * DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY,
+ * ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE, EVEN IF
+ * SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ * 
+ * You acknowledge that this software is not designed or intended for use
+ * in the design, construction, operation or maintenance of any nuclear
+ * facility.
+ * 
+ */
+
+package net.java.joglutils.msg.nodes;
+
+import net.java.joglutils.msg.actions.Action;
+import net.java.joglutils.msg.actions.BoxSelectAction;
+import net.java.joglutils.msg.actions.GLRenderAction;
+import net.java.joglutils.msg.actions.IDBufferPickAction;
+import net.java.joglutils.msg.actions.MultiRayPickAction;
+import net.java.joglutils.msg.actions.RayPickAction;
+import net.java.joglutils.msg.collections.QuantizedVec3fCollection;
+import net.java.joglutils.msg.collections.VertexFormat;
+import net.java.joglutils.msg.elements.CoordinateElement;
+import net.java.joglutils.msg.elements.GLCoordinateElement;
+
+/** Represents a set of 3-dimensional vertices stored in a compact
+    16-bit format, which can be used in place of a Coordinate3 node to
+    halve the memory and bandwidth consumed by vertex positions.
+    Shapes map the stored values back to coordinates when they are
+    drawn and picked. */
+
+public class QuantizedCoordinate3 extends Node {
+  private QuantizedVec3fCollection data;
+
+  static {
+    // Enable the elements this node affects for known actions
+    GLCoordinateElement.enable(GLRenderAction.getDefaultState());
+
+    CoordinateElement  .enable(RayPickAction.getDefaultState());
+
+    CoordinateElement  .enable(MultiRayPickAction.getDefaultState());
+
+    CoordinateElement  .enable(BoxSelectAction.getDefaultState());
+
+    CoordinateElement  .enable(IDBufferPickAction.getDefaultState());
+  }
+
+  /** Sets the coordinate data in this node. */
+  public void setData(QuantizedVec3fCollection data) {
+    this.data = data;
+    touch();
+  }
+
+  /** Returns the coordinate data in this node. */
+  public QuantizedVec3fCollection getData() {
+    return data;
+  }
+
+  public void doAction(Action action) {
+    if (CoordinateElement.isEnabled(action.getState())) {
+      QuantizedVec3fCollection data = getData();
+      if (data.getFormat() == VertexFormat.HALF_FLOAT && action instanceof GLRenderAction &&
+          !GLCoordinateElement.isHalfFloatSupported(((GLRenderAction) action).getGL())) {
+        // Widen to floats, which every OpenGL implementation can read
+        CoordinateElement.set(action.getState(), data.getDecodedData());
+      } else {
+        CoordinateElement.set(action.getState(), data.getData(), data.getFormat(),
+                              data.getStrideInBytes(), data.getScale(), data.getOffset());
+      }
+      CoordinateElement.setModificationCount(action.getState(), data.getModificationCount());
+      noteModificationCount(data.getModificationCount());
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  // The modification count of the data at the last traversal, so
+  // that edits made to the collection in place invalidate bounds
+  private volatile long lastModificationCount = -1;
+
+  private void noteModificationCount(long modificationCount) {
+    if (modificationCount != lastModificationCount) {
+      lastModificationCount = modificationCount;
+      touch();
+    }
+  }
+}
@@ -37,12 +37,36 @@
 
 package net.java.joglutils.msg.nodes;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import net.java.joglutils.msg.actions.Action;
+import net.java.joglutils.msg.actions.BoxSelectAction;
+import net.java.joglutils.msg.actions.MultiRayPickAction;
+import net.java.joglutils.msg.actions.RayPickAction;
+import net.java.joglutils.msg.math.Box3f;
+import net.java.joglutils.msg.math.Frustum;
+import net.java.joglutils.msg.math.Line;
 import net.java.joglutils.msg.misc.State;
 
 /** Represents a push / pop of OpenGL state, "separating" the
     sub-graph below this separator from the nodes which follow it in
-    the graph. */
+    the graph. <P>
+
+    A Separator caches the bounds of the shapes below it, in its local
+    coordinate system, as they are computed during picking. A
+    RayPickAction skips the sub-graph of a Separator whose bounds the
+    ray misses, or which lie beyond the farthest hit of interest. The
+    bounds are recomputed by the next pick after any node below the
+    Separator changes (see {@link Node#touch Node.touch}) or the
+    coordinates inherited from above the Separator change; changes
+    elsewhere in the scene leave them alone. A MultiRayPickAction uses the
+    same bounds to skip the sub-graph for just the rays missing it,
+    and a BoxSelectAction to skip, or select without further tests,
+    sub-graphs lying entirely outside or inside its region. A
+    Separator enclosing the Camera caches its bounds as well, but
+    always traverses its children, since the ray or region is only
+    computed within them. While a Separator's cached bounds are up to
+    date, the shapes below it are not bounded again. */
 
 public class Separator extends Group {
   public void doAction(Action action) {
@@ -54,4 +78,221 @@ public class Separator extends Group {
       state.pop();
     }
   }
+
+  public void rayPick(RayPickAction action) {
+    State state = action.getState();
+    BoundsCache cache = getBoundsCache(state);
+    if (cache != null) {
+      if (action.isComputingBounds()) {
+        action.extendBounds(cache.box);
+      }
+      if (!cache.camera && !mayHit(action, cache.box)) {
+        return;
+      }
+      action.suspendBounds();
+      try {
+        doAction(action);
+      } finally {
+        action.resumeBounds();
+      }
+      return;
+    }
+
+    // Compute the bounds while traversing the children
+    cache = newBoundsCache(state);
+    boolean complete;
+    action.beginBounds();
+    try {
+      doAction(action);
+    } finally {
+      cache.camera = action.boundsContainCamera();
+      complete = action.endBounds(cache.box);
+    }
+    if (action.isComputingBounds()) {
+      action.extendBounds(cache.box);
+    }
+    // Bounds which are unknown aren't cached, so that they are
+    // recomputed, and their enclosing bounds invalidated, every time
+    if (!complete) {
+      boundsCache = null;
+    } else if (!storeBoundsCache(cache)) {
+      action.invalidateBounds();
+    }
+  }
+
+  public void multiRayPick(MultiRayPickAction action) {
+    State state = action.getState();
+    BoundsCache cache = getBoundsCache(state);
+    if (cache != null) {
+      if (action.isComputingBounds()) {
+        action.extendBounds(cache.box);
+      }
+      action.suspendBounds();
+      try {
+        if (cache.camera) {
+          doAction(action);
+          return;
+        }
+        // Traverse the children only for the rays which may hit them
+        if (!action.beginCull(cache.box)) {
+          return;
+        }
+        try {
+          doAction(action);
+        } finally {
+          action.endCull();
+        }
+      } finally {
+        action.resumeBounds();
+      }
+      return;
+    }
+
+    cache = newBoundsCache(state);
+    boolean complete;
+    action.beginBounds();
+    try {
+      doAction(action);
+    } finally {
+      cache.camera = action.boundsContainCamera();
+      complete = action.endBounds(cache.box);
+    }
+    if (action.isComputingBounds()) {
+      action.extendBounds(cache.box);
+    }
+    if (!complete) {
+      boundsCache = null;
+    } else if (!storeBoundsCache(cache)) {
+      action.invalidateBounds();
+    }
+  }
+
+  public void boxSelect(BoxSelectAction action) {
+    State state = action.getState();
+    BoundsCache cache = getBoundsCache(state);
+    if (cache != null) {
+      if (action.isComputingBounds()) {
+        action.extendBounds(cache.box);
+      }
+      int res = cache.camera ? Frustum.INTERSECTING : action.classify(cache.box);
+      if (res == Frustum.OUTSIDE) {
+        return;
+      }
+      action.suspendBounds();
+      try {
+        if (res == Frustum.INSIDE) {
+          // Everything below is selected without testing
+          action.beginInside();
+          try {
+            doAction(action);
+          } finally {
+            action.endInside();
+          }
+        } else {
+          doAction(action);
+        }
+      } finally {
+        action.resumeBounds();
+      }
+      return;
+    }
+
+    cache = newBoundsCache(state);
+    boolean complete;
+    action.beginBounds();
+    try {
+      doAction(action);
+    } finally {
+      cache.camera = action.boundsContainCamera();
+      complete = action.endBounds(cache.box);
+    }
+    if (action.isComputingBounds()) {
+      action.extendBounds(cache.box);
+    }
+    if (!complete) {
+      boundsCache = null;
+    } else if (!storeBoundsCache(cache)) {
+      action.invalidateBounds();
+    }
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private static class BoundsCache {
+    final Box3f box = new Box3f();
+    // Whether a Camera lies below this Separator, in which case the
+    // bounds can't be used to skip its children
+    boolean camera;
+    final CoordinateKey key = new CoordinateKey();
+    long generation;
+  }
+  private volatile BoundsCache boundsCache;
+  // Incremented whenever a node below this Separator changes. Cached
+  // bounds record the value at which they were computed.
+  private final AtomicLong boundsGeneration = new AtomicLong();
+
+  void boundsChanged(long walk) {
+    boundsGeneration.incrementAndGet();
+    BoundsCache prev = boundsCache;
+    boundsCache = null;
+    // If there were no bounds, those above either don't depend on
+    // this Separator or are being recomputed along with it, in which
+    // case storeBoundsCache notices the change; either way there is
+    // no need to walk further
+    if (prev != null) {
+      super.boundsChanged(walk);
+    }
+  }
+
+  // Stores bounds computed during a traversal, returning false if
+  // the generation moved on while they were being computed. In that
+  // case the bounds being computed by the enclosing Separators may be
+  // out of date too, since a change which found no bounds here was
+  // not passed on to them. The store comes before the check, so that
+  // a change made after the check always finds the bounds.
+  private boolean storeBoundsCache(BoundsCache cache) {
+    boundsCache = cache;
+    return cache.generation == boundsGeneration.get();
+  }
+
+  // Returns the cached bounds if they are up to date under the given
+  // state, or null
+  private BoundsCache getBoundsCache(State state) {
+    BoundsCache cache = boundsCache;
+    if (cache != null && cache.generation == boundsGeneration.get() && cache.key.matches(state)) {
+      return cache;
+    }
+    return null;
+  }
+
+  // Returns new, empty bounds recording the given state; the
+  // generation is read first so that changes made during the
+  // traversal computing the bounds invalidate them
+  private BoundsCache newBoundsCache(State state) {
+    BoundsCache cache = new BoundsCache();
+    cache.generation = boundsGeneration.get();
+    cache.key.record(state);
+    return cache;
+  }
+
+  // Returns false if the action's ray misses the given bounds, in
+  // this Separator's local coordinate system, or reaches them only
+  // outside the range of distances the action is interested in
+  private static boolean mayHit(RayPickAction action, Box3f box) {
+    if (action.getComputedRay() == null) {
+      return true;
+    }
+    Line ray = action.getLocalRay();
+    if (ray == null) {
+      // Singular transformation
+      return true;
+    }
+    // The local ray's direction is normalized, so scale the range of
+    // distances into local units
+    float scale = action.getLocalDistanceScale();
+    return box.intersectRay(ray, action.getMinDistance() / scale,
+                            action.getMaxDistance() / scale) != Float.POSITIVE_INFINITY;
+  }
 }
@@ -37,7 +37,18 @@
 
 package net.java.joglutils.msg.nodes;
 
+import net.java.joglutils.msg.actions.Action;
+import net.java.joglutils.msg.math.Box3f;
+
 /** The abstract base class for all shapes in the scene graph. */
 
 public abstract class Shape extends Node {
+  /** Computes the bounds of this shape in its local coordinate
+      system, based on the state in the given Action, into dest.
+      Returns false if the bounds are not known, in which case the
+      Separators containing this shape are never skipped during
+      picking. The default implementation returns false. */
+  public boolean getBoundingBox(Action action, Box3f dest) {
+    return false;
+  }
 }
@@ -55,8 +55,11 @@ import com.jogamp.opengl.util.texture.TextureIO;
 import com.jogamp.opengl.util.texture.awt.AWTTextureIO;
 
 import net.java.joglutils.msg.actions.Action;
+import net.java.joglutils.msg.actions.BoxSelectAction;
 import net.java.joglutils.msg.actions.GLRenderAction;
 import net.java.joglutils.msg.actions.GLResetAction;
+import net.java.joglutils.msg.actions.IDBufferPickAction;
+import net.java.joglutils.msg.actions.MultiRayPickAction;
 import net.java.joglutils.msg.actions.RayPickAction;
 import net.java.joglutils.msg.elements.GLTextureElement;
 import net.java.joglutils.msg.elements.TextureElement;
@@ -73,6 +76,14 @@ public class Texture2 extends Node {
   private int texEnvMode = MODULATE;
   private boolean dirty;
 
+  // Where the texture data came from, if it was a URL; used by the
+  // scene graph writer to persist a reference to the image rather
+  // than its contents, and to load it lazily
+  private URL sourceURL;
+  private boolean sourceMipmap;
+  private String sourceSuffix;
+  private boolean sourcePending;
+
   // For now, to make things simpler, keep separate state for the sub-image updating
   private TextureData subImageData;
   private int subImageMipmapLevel;
@@ -96,6 +107,12 @@ public class Texture2 extends Node {
     GLTextureElement.enable(GLRenderAction.getDefaultState());
 
     TextureElement  .enable(RayPickAction.getDefaultState());
+
+    TextureElement  .enable(MultiRayPickAction.getDefaultState());
+
+    TextureElement  .enable(BoxSelectAction.getDefaultState());
+
+    TextureElement  .enable(IDBufferPickAction.getDefaultState());
   }
 
   /** Represents the OpenGL MODULATE texture environment mode. */
@@ -112,6 +129,7 @@ public class Texture2 extends Node {
       fetched. */
   public void setTexture(final GLProfile glp, final File file, final boolean mipmap, final String fileSuffix) throws IOException {
     disposeTextureRenderer();
+    setSource(file.toURI().toURL(), mipmap, fileSuffix, false);
     data = TextureIO.newTextureData(glp, file, mipmap, fileSuffix);
     dirty = true;
   }
@@ -121,6 +139,7 @@ public class Texture2 extends Node {
       Texture is fetched. */
   public void setTexture(final GLProfile glp, final InputStream stream, final boolean mipmap, final String fileSuffix) throws IOException {
     disposeTextureRenderer();
+    clearSource();
     data = TextureIO.newTextureData(glp, stream, mipmap, fileSuffix);
     dirty = true;
   }
@@ -130,15 +149,48 @@ public class Texture2 extends Node {
       fetched. */
   public void setTexture(final GLProfile glp, final URL url, final boolean mipmap, final String fileSuffix) throws IOException {
     disposeTextureRenderer();
+    setSource(url, mipmap, fileSuffix, false);
     data = TextureIO.newTextureData(glp, url, mipmap, fileSuffix);
     dirty = true;
   }
 
+  /** Initializes this texture to refer to the image at the given URL
+      without reading it. The image is read the first time the Texture
+      is fetched, using the profile of the current OpenGL context; an
+      I/O error at that point is reported as a GLException. */
+  public void setTexture(final URL url, final boolean mipmap, final String fileSuffix) {
+    disposeTextureRenderer();
+    disposeTexture();
+    setSource(url, mipmap, fileSuffix, true);
+    data = null;
+    dirty = true;
+  }
+
+  /** Returns the URL this texture was loaded from, or null if it was
+      set up from some other source such as a stream, image or
+      TextureRenderer. */
+  public URL getSourceURL() {
+    return sourceURL;
+  }
+
+  /** Returns whether mipmaps were requested when this texture was set
+      up from its source URL. */
+  public boolean getSourceMipmap() {
+    return sourceMipmap;
+  }
+
+  /** Returns the file suffix supplied when this texture was set up
+      from its source URL; may be null. */
+  public String getSourceSuffix() {
+    return sourceSuffix;
+  }
+
   /** Initializes this texture from the given BufferedImage. No OpenGL
       work is done during this call; it is done lazily when the
       Texture is fetched. */
   public void setTexture(final GLProfile glp, final BufferedImage image, final boolean mipmap) {
     disposeTextureRenderer();
+    clearSource();
     data = AWTTextureIO.newTextureData(glp, image, mipmap);
     dirty = true;
   }
@@ -148,6 +200,7 @@ public class Texture2 extends Node {
       Texture is fetched. */
   public void setTexture(final TextureData data) {
     disposeTextureRenderer();
+    clearSource();
     this.data = data;
     dirty = true;
   }
@@ -238,6 +291,7 @@ public class Texture2 extends Node {
       is used properly. */
   public void initTextureRenderer(final int width, final int height, final boolean alpha) {
     disposeTexture();
+    clearSource();
     textureRenderer = new TextureRenderer(width, height, alpha);
   }
 
@@ -264,6 +318,14 @@ public class Texture2 extends Node {
         texture.destroy(gl);
         texture = null;
       }
+      if (sourcePending) {
+        try {
+          data = TextureIO.newTextureData(gl.getGLProfile(), sourceURL, sourceMipmap, sourceSuffix);
+        } catch (IOException e) {
+          throw new GLException("Error loading texture from " + sourceURL, e);
+        }
+        sourcePending = false;
+      }
       texture = TextureIO.newTexture(data);
       data = null;
       dirty = false;
@@ -312,6 +374,7 @@ public class Texture2 extends Node {
     data = null;
     subImageData = null;
     dirty = false;
+    sourcePending = false;
     subImageDirty = false;
   }
 
@@ -330,9 +393,21 @@ public class Texture2 extends Node {
     data = null;
     subImageData = null;
     dirty = false;
+    sourcePending = false;
     subImageDirty = false;
   }
 
+  private void setSource(final URL url, final boolean mipmap, final String suffix, final boolean pending) {
+    sourceURL = url;
+    sourceMipmap = mipmap;
+    sourceSuffix = suffix;
+    sourcePending = pending;
+  }
+
+  private void clearSource() {
+    setSource(null, false, null, false);
+  }
+
   private synchronized void disposeTextureRenderer() {
     if (textureRenderer != null) {
       disposedRenderers.add(textureRenderer);
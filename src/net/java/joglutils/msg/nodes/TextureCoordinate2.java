@@ -38,7 +38,10 @@
 package net.java.joglutils.msg.nodes;
 
 import net.java.joglutils.msg.actions.Action;
+import net.java.joglutils.msg.actions.BoxSelectAction;
 import net.java.joglutils.msg.actions.GLRenderAction;
+import net.java.joglutils.msg.actions.IDBufferPickAction;
+import net.java.joglutils.msg.actions.MultiRayPickAction;
 import net.java.joglutils.msg.actions.RayPickAction;
 import net.java.joglutils.msg.collections.Vec2fCollection;
 import net.java.joglutils.msg.elements.GLTextureCoordinateElement;
@@ -55,6 +58,12 @@ public class TextureCoordinate2 extends Node {
     GLTextureCoordinateElement.enable(GLRenderAction.getDefaultState());
 
     TextureCoordinateElement  .enable(RayPickAction.getDefaultState());
+
+    TextureCoordinateElement  .enable(MultiRayPickAction.getDefaultState());
+
+    TextureCoordinateElement  .enable(BoxSelectAction.getDefaultState());
+
+    TextureCoordinateElement  .enable(IDBufferPickAction.getDefaultState());
   }
 
   /** Sets the texture coordinate data in this node. */
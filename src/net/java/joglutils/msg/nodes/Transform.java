@@ -38,7 +38,10 @@
 package net.java.joglutils.msg.nodes;
 
 import net.java.joglutils.msg.actions.Action;
+import net.java.joglutils.msg.actions.BoxSelectAction;
 import net.java.joglutils.msg.actions.GLRenderAction;
+import net.java.joglutils.msg.actions.IDBufferPickAction;
+import net.java.joglutils.msg.actions.MultiRayPickAction;
 import net.java.joglutils.msg.actions.RayPickAction;
 import net.java.joglutils.msg.elements.GLModelMatrixElement;
 import net.java.joglutils.msg.elements.GLProjectionMatrixElement;
@@ -47,11 +50,29 @@ import net.java.joglutils.msg.elements.ModelMatrixElement;
 import net.java.joglutils.msg.elements.ProjectionMatrixElement;
 import net.java.joglutils.msg.elements.ViewingMatrixElement;
 import net.java.joglutils.msg.math.Mat4f;
+import net.java.joglutils.msg.misc.Stage;
+import net.java.joglutils.msg.misc.Stageable;
 
-/** Represents a generalized 4x4 matrix transformation. */
+/** Represents a generalized 4x4 matrix transformation. <P>
+
+    The transformation must only be changed with {@link #setTransform
+    setTransform}; the matrix returned from {@link #getTransform
+    getTransform} must not be modified directly, since the change
+    would not be seen by the bounds cached in {@link Separator
+    Separators} or by a Stage. <P>
+
+    If a {@link Stage Stage} has been set on this node, {@link
+    #setTransform setTransform} stores the new transformation aside
+    and it becomes visible to traversals only when the Stage is
+    published. */
 
 public class Transform extends Node {
   private Mat4f transform;
+  private Stage stage;
+  // Under a Stage, the transformation most recently set and whether
+  // it is waiting to be published; guarded by this object's lock
+  private Mat4f stagedTransform;
+  private boolean staged;
   
   static {
     // Enable the elements this node affects for known actions
@@ -63,6 +84,18 @@ public class Transform extends Node {
     ModelMatrixElement     .enable(RayPickAction.getDefaultState());
     ProjectionMatrixElement.enable(RayPickAction.getDefaultState());
     ViewingMatrixElement   .enable(RayPickAction.getDefaultState());
+
+    ModelMatrixElement     .enable(MultiRayPickAction.getDefaultState());
+    ProjectionMatrixElement.enable(MultiRayPickAction.getDefaultState());
+    ViewingMatrixElement   .enable(MultiRayPickAction.getDefaultState());
+
+    ModelMatrixElement     .enable(BoxSelectAction.getDefaultState());
+    ProjectionMatrixElement.enable(BoxSelectAction.getDefaultState());
+    ViewingMatrixElement   .enable(BoxSelectAction.getDefaultState());
+
+    ModelMatrixElement     .enable(IDBufferPickAction.getDefaultState());
+    ProjectionMatrixElement.enable(IDBufferPickAction.getDefaultState());
+    ViewingMatrixElement   .enable(IDBufferPickAction.getDefaultState());
   }
 
   public Transform() {
@@ -70,12 +103,53 @@ public class Transform extends Node {
     transform.makeIdent();
   }
 
+  /** Sets the Stage through which changes to this node are
+      published, or null to make changes visible immediately (the
+      default). Any unpublished change is made visible immediately. */
+  public synchronized void setStage(Stage stage) {
+    publishTransform();
+    this.stage = stage;
+  }
+
+  /** Returns the Stage through which changes to this node are
+      published, or null if there is none. */
+  public synchronized Stage getStage() {
+    return stage;
+  }
+
   /** Sets the transformation in thie node. */
   public void setTransform(Mat4f transform) {
-    this.transform.set(transform);
+    boolean post;
+    Stage s;
+    synchronized (this) {
+      s = stage;
+      if (s == null) {
+        this.transform.set(transform);
+        touch();
+        return;
+      }
+      if (stagedTransform == null) {
+        stagedTransform = new Mat4f();
+      }
+      stagedTransform.set(transform);
+      post = !staged;
+      staged = true;
+    }
+    if (post) {
+      s.post(publisher);
+    }
   }
 
-  /** Returns the transformation in thie node. */
+  /** Copies the transformation most recently set on this node,
+      whether or not it has been published yet, into the given
+      matrix. Safe to call from any thread. */
+  public synchronized void getStagedTransform(Mat4f dest) {
+    dest.set(staged ? stagedTransform : transform);
+  }
+
+  /** Returns the transformation in thie node. The returned matrix
+      must not be modified; use {@link #setTransform setTransform}
+      instead. */
   public Mat4f getTransform() {
     return transform;
   }
@@ -85,4 +159,24 @@ public class Transform extends Node {
       ModelMatrixElement.mult(action.getState(), getTransform());
     }
   }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  private final Stageable publisher = new Stageable() {
+      public void publish() {
+        synchronized (Transform.this) {
+          publishTransform();
+        }
+      }
+    };
+
+  private void publishTransform() {
+    if (staged) {
+      transform.set(stagedTransform);
+      staged = false;
+      touch();
+    }
+  }
 }
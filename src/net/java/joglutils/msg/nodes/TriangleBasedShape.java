@@ -37,15 +37,35 @@
 
 package net.java.joglutils.msg.nodes;
 
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.fixedfunc.GLMatrixFunc;
+import com.jogamp.opengl.fixedfunc.GLPointerFunc;
+import com.jogamp.opengl.util.texture.Texture;
+import com.jogamp.opengl.util.texture.TextureCoords;
+
 import net.java.joglutils.msg.actions.Action;
+import net.java.joglutils.msg.actions.BoxSelectAction;
+import net.java.joglutils.msg.actions.GLRenderAction;
+import net.java.joglutils.msg.actions.IDBufferPickAction;
+import net.java.joglutils.msg.actions.MultiRayPickAction;
 import net.java.joglutils.msg.actions.RayPickAction;
-import net.java.joglutils.msg.elements.ModelMatrixElement;
+import net.java.joglutils.msg.collections.VertexFormat;
+import net.java.joglutils.msg.elements.CoordinateElement;
+import net.java.joglutils.msg.elements.TextureCoordinateElement;
+import net.java.joglutils.msg.elements.TextureElement;
 import net.java.joglutils.msg.impl.RayTriangleIntersection;
+import net.java.joglutils.msg.impl.TriangleBVH;
+import net.java.joglutils.msg.impl.TriangleBatch;
+import net.java.joglutils.msg.math.Box3f;
+import net.java.joglutils.msg.math.Frustum;
 import net.java.joglutils.msg.math.Line;
 import net.java.joglutils.msg.math.Mat4f;
+import net.java.joglutils.msg.math.Vec2f;
 import net.java.joglutils.msg.math.Vec3f;
 import net.java.joglutils.msg.misc.PickedPoint;
 import net.java.joglutils.msg.misc.PrimitiveVertex;
+import net.java.joglutils.msg.misc.State;
 import net.java.joglutils.msg.misc.TriangleCallback;
 
 /** The abstract base class for all shapes in the scene graph which
@@ -60,15 +80,107 @@ public abstract class TriangleBasedShape extends Shape {
   public abstract void generateTriangles(Action action,
                                          TriangleCallback cb);
 
+  /** Sets whether ray picks against this shape use a bounding volume
+      hierarchy over its triangles (the default) or test every
+      triangle. The hierarchy is built on the first pick and reused
+      until the shape's coordinates or triangles change. */
+  public void setPickAcceleration(boolean enabled) {
+    pickAcceleration = enabled;
+    if (!enabled) {
+      invalidatePickCache();
+    }
+  }
+
+  /** Returns whether ray picks against this shape use a bounding
+      volume hierarchy over its triangles. */
+  public boolean isPickAcceleration() {
+    return pickAcceleration;
+  }
+
+  /** Discards the bounding volume hierarchy used for picking so that
+      the next pick rebuilds it. Changes made through Coordinate3,
+      QuantizedCoordinate3, InterleavedVertices, IndexCollection and
+      this shape's own setters are detected automatically; this need
+      only be called after modifying a coordinate or index buffer
+      directly. */
+  public void invalidatePickCache() {
+    synchronized (pickCacheLock) {
+      ++pickCacheGeneration;
+      pickCache = null;
+    }
+    touch();
+  }
+
+  public boolean getBoundingBox(Action action, Box3f dest) {
+    if (pickAcceleration) {
+      TriangleBVH bvh = getPickHierarchy(action);
+      if (bvh == null) {
+        dest.makeEmpty();
+      } else {
+        bvh.getBounds(dest);
+      }
+      return true;
+    }
+    final Box3f box = dest;
+    box.makeEmpty();
+    generateTriangles(action, new TriangleCallback() {
+        public void triangleCB(int triangleIndex,
+                               PrimitiveVertex v0,
+                               int i0,
+                               PrimitiveVertex v1,
+                               int i1,
+                               PrimitiveVertex v2,
+                               int i2) {
+          box.extendBy(v0.getCoord());
+          box.extendBy(v1.getCoord());
+          box.extendBy(v2.getCoord());
+        }
+      });
+    return true;
+  }
+
   public void rayPick(final RayPickAction action) {
     // The RayPickAction holds the picking ray in world coordinates.
-    // Transform this ray into local coordinates to do intersection testing
-    // Fetch the current local-to-world matrix
-    Mat4f mat = new Mat4f(ModelMatrixElement.getInstance(action.getState()).getMatrix());
-    // Invert it to get the world-to-local matrix
-    mat.invert();
-    // Transform the RayPickAction's ray by this matrix
-    final Line ray = mat.xformLine(action.getComputedRay());
+    // Transform this ray into local coordinates to do intersection
+    // testing; distances along it are scaled back into world units so
+    // that hits under different transforms are ordered correctly
+    final Line ray = action.getLocalRay();
+    if (ray == null) {
+      return;
+    }
+    final float scale = action.getLocalDistanceScale();
+    final float tMin = action.getMinDistance() / scale;
+    final boolean cull = action.isCullBackfaces();
+
+    if (pickAcceleration) {
+      final TriangleBVH bvh = getPickHierarchy(action);
+      if (bvh == null) {
+        return;
+      }
+      final TriangleBatch tris = bvh.getTriangles();
+      if (!action.isPickAll()) {
+        // Only a hit nearer than the closest so far matters
+        Vec3f tuv = action.getTUV();
+        int index = bvh.intersect(ray, tMin, action.getMaxDistance() / scale, cull, tuv);
+        if (index >= 0) {
+          PickedPoint p = action.addIntersection(tuv.x() * scale);
+          if (p != null) {
+            tris.getPoint(index, tuv.y(), tuv.z(), p.getCoord());
+          }
+        }
+        return;
+      }
+      bvh.intersectAll(ray, tMin, Float.POSITIVE_INFINITY, cull,
+                       new TriangleBVH.HitCallback() {
+          public void hit(int index, float t, float u, float v) {
+            PickedPoint p = action.addIntersection(t * scale);
+            if (p != null) {
+              tris.getPoint(index, u, v, p.getCoord());
+            }
+          }
+        });
+      return;
+    }
 
     // Temporaries
     final RayTriangleIntersection rti = new RayTriangleIntersection();
@@ -83,26 +195,458 @@ public abstract class TriangleBasedShape extends Shape {
                                int i1,
                                PrimitiveVertex v2,
                                int i2) {
-          if (rti.intersectTriangle(ray,
-                                    v0.getCoord(),
-                                    v1.getCoord(),
-                                    v2.getCoord(),
-                                    tuv)) {
-            // Compute at least the 3D coordinate of the intersection
-            // point for now
-            // FIXME: need to compute other things such as the texture
-            // coordinates
-            PickedPoint p = new PickedPoint();
-            // Compute weights of three vertices
-            float a = 1.0f - tuv.y() - tuv.z();
-            float b = tuv.y();
-            float c = tuv.z();
-            Vec3f loc = v0.getCoord().times(a).plus(v1.getCoord().times(b)).plus(v2.getCoord().times(c));
-            p.setCoord(loc);
-            p.setPath(action.getPath().copy());
-            action.addPickedPoint(p, tuv.x());
+          boolean hit;
+          if (cull) {
+            hit = rti.intersectTriangleBackfaceCulling(ray,
+                                                       v0.getCoord(),
+                                                       v1.getCoord(),
+                                                       v2.getCoord(),
+                                                       tuv);
+          } else {
+            hit = rti.intersectTriangle(ray,
+                                        v0.getCoord(),
+                                        v1.getCoord(),
+                                        v2.getCoord(),
+                                        tuv);
+          }
+          if (hit && tuv.x() >= tMin) {
+            PickedPoint p = action.addIntersection(tuv.x() * scale);
+            if (p != null) {
+              setHitPoint(p, v0, v1, v2, tuv);
+            }
+          }
+        }
+      });
+  }
+
+  public void multiRayPick(final MultiRayPickAction action) {
+    // Transform all of the rays which may hit this shape into its
+    // local coordinate system at once
+    final int numRays = action.getNumActiveRays();
+    if (numRays == 0 || !action.computeLocalRays()) {
+      return;
+    }
+    final boolean cull = action.isCullBackfaces();
+
+    if (pickAcceleration) {
+      final TriangleBVH bvh = getPickHierarchy(action);
+      if (bvh == null) {
+        return;
+      }
+      final TriangleBatch tris = bvh.getTriangles();
+      Vec3f tuv = action.getTUV();
+      for (int i = 0; i < numRays; i++) {
+        final int ray = action.getActiveRay(i);
+        final float scale = action.getLocalDistanceScale(i);
+        Line localRay = action.getLocalRay(i);
+        float tMin = action.getMinDistance() / scale;
+        if (!action.isPickAll()) {
+          int index = bvh.intersect(localRay, tMin, action.getMaxDistance(ray) / scale, cull, tuv);
+          if (index >= 0) {
+            PickedPoint p = action.addIntersection(ray, tuv.x() * scale);
+            if (p != null) {
+              tris.getPoint(index, tuv.y(), tuv.z(), p.getCoord());
+            }
+          }
+          continue;
+        }
+        bvh.intersectAll(localRay, tMin, Float.POSITIVE_INFINITY, cull,
+                         new TriangleBVH.HitCallback() {
+            public void hit(int index, float t, float u, float v) {
+              PickedPoint p = action.addIntersection(ray, t * scale);
+              if (p != null) {
+                tris.getPoint(index, u, v, p.getCoord());
+              }
+            }
+          });
+      }
+      return;
+    }
+
+    // Generate the triangles once, testing each against every ray
+    final RayTriangleIntersection rti = new RayTriangleIntersection();
+    final Vec3f tuv = action.getTUV();
+    generateTriangles(action, new TriangleCallback() {
+        public void triangleCB(int triangleIndex,
+                               PrimitiveVertex v0,
+                               int i0,
+                               PrimitiveVertex v1,
+                               int i1,
+                               PrimitiveVertex v2,
+                               int i2) {
+          for (int i = 0; i < numRays; i++) {
+            Line ray = action.getLocalRay(i);
+            boolean hit;
+            if (cull) {
+              hit = rti.intersectTriangleBackfaceCulling(ray,
+                                                         v0.getCoord(),
+                                                         v1.getCoord(),
+                                                         v2.getCoord(),
+                                                         tuv);
+            } else {
+              hit = rti.intersectTriangle(ray,
+                                          v0.getCoord(),
+                                          v1.getCoord(),
+                                          v2.getCoord(),
+                                          tuv);
+            }
+            float scale = action.getLocalDistanceScale(i);
+            if (hit && tuv.x() >= action.getMinDistance() / scale) {
+              PickedPoint p = action.addIntersection(action.getActiveRay(i), tuv.x() * scale);
+              if (p != null) {
+                setHitPoint(p, v0, v1, v2, tuv);
+              }
+            }
+          }
+        }
+      });
+  }
+
+  public void boxSelect(final BoxSelectAction action) {
+    final Frustum frustum = action.getLocalFrustum();
+    if (frustum == null) {
+      return;
+    }
+    final boolean inside = action.isInside();
+    final boolean contained = (action.getMode() == BoxSelectAction.CONTAIN);
+    final boolean selectTriangles = action.isSelectTriangles();
+
+    if (pickAcceleration) {
+      final TriangleBVH bvh = getPickHierarchy(action);
+      if (bvh == null) {
+        return;
+      }
+      int numTriangles = bvh.getTriangles().size();
+      if (numTriangles == 0) {
+        return;
+      }
+      if (selectTriangles) {
+        if (inside) {
+          for (int i = 0; i < numTriangles; i++) {
+            action.addSelectedTriangle(bvh.getTriangleIndex(i));
+          }
+        } else {
+          bvh.select(frustum, contained, new TriangleBVH.SelectCallback() {
+              public boolean selected(int index) {
+                action.addSelectedTriangle(bvh.getTriangleIndex(index));
+                return true;
+              }
+            });
+        }
+        if (action.getNumSelectedTriangles() > 0) {
+          action.addSelectedShape();
+        }
+        return;
+      }
+
+      boolean selected;
+      if (inside) {
+        selected = true;
+      } else if (!contained) {
+        // Stop at the first triangle found
+        selected = !bvh.select(frustum, false, new TriangleBVH.SelectCallback() {
+            public boolean selected(int index) {
+              return false;
+            }
+          });
+      } else {
+        final int[] count = new int[1];
+        bvh.select(frustum, true, new TriangleBVH.SelectCallback() {
+            public boolean selected(int index) {
+              ++count[0];
+              return true;
+            }
+          });
+        selected = (count[0] == numTriangles);
+      }
+      if (selected) {
+        action.addSelectedShape();
+      }
+      return;
+    }
+
+    // Test every triangle
+    final boolean[] any = new boolean[1];
+    final boolean[] all = new boolean[] { true };
+    generateTriangles(action, new TriangleCallback() {
+        public void triangleCB(int triangleIndex,
+                               PrimitiveVertex v0,
+                               int i0,
+                               PrimitiveVertex v1,
+                               int i1,
+                               PrimitiveVertex v2,
+                               int i2) {
+          boolean selected;
+          if (inside) {
+            selected = true;
+          } else {
+            int res = frustum.classifyTriangle(v0.getCoord(), v1.getCoord(), v2.getCoord());
+            selected = (res == Frustum.INSIDE || (!contained && res == Frustum.INTERSECTING));
+          }
+          if (selected) {
+            any[0] = true;
+            if (selectTriangles) {
+              action.addSelectedTriangle(triangleIndex);
+            }
+          } else {
+            all[0] = false;
           }
         }
       });
+    if (any[0] && (selectTriangles || !contained || all[0])) {
+      action.addSelectedShape();
+    }
+  }
+
+  public void idBufferPick(final IDBufferPickAction action) {
+    if (!action.beginShape()) {
+      return;
+    }
+    generateTriangles(action, new TriangleCallback() {
+        public void triangleCB(int triangleIndex,
+                               PrimitiveVertex v0,
+                               int i0,
+                               PrimitiveVertex v1,
+                               int i1,
+                               PrimitiveVertex v2,
+                               int i2) {
+          action.addTriangle(triangleIndex, v0.getCoord(), v1.getCoord(), v2.getCoord());
+        }
+      });
+  }
+
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  // The hierarchy used for picking, built from the triangles
+  // generated under the coordinates recorded with it
+  private static class PickCache {
+    final CoordinateKey key = new CoordinateKey();
+    long triangleModificationCount;
+    int generation;
+    TriangleBVH bvh;
+  }
+
+  // Sets the coordinate of the given picked point to the point with
+  // the given barycentric coordinates on the given triangle
+  private static void setHitPoint(PickedPoint p,
+                                  PrimitiveVertex v0,
+                                  PrimitiveVertex v1,
+                                  PrimitiveVertex v2,
+                                  Vec3f tuv) {
+    // Compute at least the 3D coordinate of the intersection point
+    // for now
+    // FIXME: need to compute other things such as the texture
+    // coordinates
+    float a = 1.0f - tuv.y() - tuv.z();
+    float b = tuv.y();
+    float c = tuv.z();
+    Vec3f c0 = v0.getCoord(), c1 = v1.getCoord(), c2 = v2.getCoord();
+    p.getCoord().set(a * c0.x() + b * c1.x() + c * c2.x(),
+                     a * c0.y() + b * c1.y() + c * c2.y(),
+                     a * c0.z() + b * c1.z() + c * c2.z());
+  }
+
+  // Returns the modification count of any data other than the
+  // coordinates, such as indices, from which this shape assembles its
+  // triangles, so that the pick hierarchy is rebuilt when it is
+  // edited in place; 0 if there is none
+  long getTriangleModificationCount() {
+    return 0;
+  }
+
+  private volatile boolean pickAcceleration = true;
+  private final Object pickCacheLock = new Object();
+  private volatile PickCache pickCache;
+  private int pickCacheGeneration;
+
+  // Returns the hierarchy over this shape's triangles under the
+  // action's state, building it if the cached one is out of date, or
+  // null if there are no coordinates
+  private TriangleBVH getPickHierarchy(Action action) {
+    State state = action.getState();
+    if (!CoordinateElement.isEnabled(state) ||
+        CoordinateElement.getData(state) == null) {
+      return null;
+    }
+    int generation;
+    synchronized (pickCacheLock) {
+      generation = pickCacheGeneration;
+    }
+    PickCache cache = pickCache;
+    long triangleModificationCount = getTriangleModificationCount();
+    if (cache != null && cache.generation == generation &&
+        cache.triangleModificationCount == triangleModificationCount &&
+        cache.key.matches(state)) {
+      return cache.bvh;
+    }
+
+    final TriangleBatch batch = new TriangleBatch();
+    generateTriangles(action, new TriangleCallback() {
+        public void triangleCB(int triangleIndex,
+                               PrimitiveVertex v0,
+                               int i0,
+                               PrimitiveVertex v1,
+                               int i1,
+                               PrimitiveVertex v2,
+                               int i2) {
+          batch.add(v0.getCoord(), v1.getCoord(), v2.getCoord());
+        }
+      });
+    cache = new PickCache();
+    cache.key.record(state);
+    cache.triangleModificationCount = triangleModificationCount;
+    cache.generation = generation;
+    cache.bvh = new TriangleBVH(batch);
+    synchronized (pickCacheLock) {
+      // Don't publish a hierarchy invalidated while it was being built
+      if (pickCacheGeneration == generation) {
+        pickCache = cache;
+      }
+    }
+    return cache.bvh;
+  }
+
+  // Sets up texturing and any dequantization for the vertex arrays in
+  // the current state, calls drawVertexArrays, and restores the
+  // OpenGL state afterward
+  void renderVertexArrays(final GLRenderAction action) {
+    final State state = action.getState();
+    if (!CoordinateElement.isEnabled(state))
+      return;
+
+    if (CoordinateElement.getData(state) != null) {
+      // OK, we have coordinates to send down, at least
+
+      final GL2 gl = action.getGL();
+
+      Texture tex = null;
+      boolean haveTexCoords = false;
+
+      if (TextureElement.isEnabled(state) &&
+          TextureCoordinateElement.isEnabled(state)) {
+        final Texture2 texNode = TextureElement.get(state);
+        if (texNode != null) {
+          tex = texNode.getTexture(gl);
+        }
+        haveTexCoords = (TextureCoordinateElement.getData(state) != null);
+      }
+
+      if (tex != null) {
+        // Set up the texture matrix to uniformly map [0..1] to the used
+        // portion of the texture image
+        gl.glMatrixMode(GL.GL_TEXTURE);
+        gl.glPushMatrix();
+        if (gl.isExtensionAvailable("GL_VERSION_1_3")) {
+            gl.glLoadTransposeMatrixf(getTextureMatrix(tex).getRowMajorData(), 0);
+        } else {
+            final float[] tmp = new float[16];
+            getTextureMatrix(tex).getColumnMajorData(tmp);
+            gl.glLoadMatrixf(tmp, 0);
+        }
+        if (haveTexCoords) {
+          multTextureCoordinateDequantization(gl, state);
+        }
+        gl.glMatrixMode(GLMatrixFunc.GL_MODELVIEW);
+      } else if (haveTexCoords) {
+        // Want to turn off the use of texture coordinates to avoid errors
+        // FIXME: not 100% sure whether we need to do this, but think we should
+        gl.glDisableClientState(GLPointerFunc.GL_TEXTURE_COORD_ARRAY);
+      }
+
+      final boolean quantized = pushCoordinateDequantization(gl, state);
+
+      drawVertexArrays(gl);
+
+      if (quantized) {
+        gl.glPopMatrix();
+      }
+
+      if (tex != null) {
+        gl.glMatrixMode(GL.GL_TEXTURE);
+        gl.glPopMatrix();
+        gl.glMatrixMode(GLMatrixFunc.GL_MODELVIEW);
+      } else if (haveTexCoords) {
+        // Might want this the next time we render a shape
+        gl.glEnableClientState(GLPointerFunc.GL_TEXTURE_COORD_ARRAY);
+      }
+    }
+  }
+
+  // Issues the OpenGL calls which draw this shape from the vertex
+  // arrays already bound; the default implementation does nothing
+  void drawVertexArrays(final GL2 gl) {
+  }
+
+  // Helper routine for setting up a texture matrix to allow texture
+  // coords in the scene graph to always be specified from (0..1)
+  private final Mat4f textureMatrix = new Mat4f();
+  private Mat4f getTextureMatrix(final Texture texture) {
+    textureMatrix.makeIdent();
+    final TextureCoords coords = texture.getImageTexCoords();
+    // Horizontal scale
+    textureMatrix.set(0, 0, coords.right() - coords.left());
+    // Vertical scale (may be negative if texture needs to be flipped vertically)
+    final float vertScale = coords.top() - coords.bottom();
+    textureMatrix.set(1, 1, vertScale);
+    textureMatrix.set(0, 3, coords.left());
+    textureMatrix.set(1, 3, coords.bottom());
+    return textureMatrix;
+  }
+
+  // The fixed-function pipeline does not normalize integer vertex or
+  // texture coordinates, nor apply the per-collection scale and
+  // offset of compact formats, so these helpers fold that mapping
+  // into the modelview and texture matrices.
+
+  // If the current coordinates are in a compact format, pushes the
+  // modelview matrix and post-multiplies it by the mapping from the
+  // stored values to coordinates, returning true; the caller must pop
+  // the matrix after drawing. Expects the modelview matrix mode.
+  static boolean pushCoordinateDequantization(GL2 gl, State state) {
+    int format = CoordinateElement.getFormat(state);
+    if (format == VertexFormat.FLOAT) {
+      return false;
+    }
+    Vec3f scale = CoordinateElement.getScale(state);
+    Vec3f offset = CoordinateElement.getOffset(state);
+    float unit = unit(format);
+    gl.glPushMatrix();
+    if (offset != null) {
+      gl.glTranslatef(offset.x(), offset.y(), offset.z());
+    }
+    if (scale != null) {
+      gl.glScalef(unit * scale.x(), unit * scale.y(), unit * scale.z());
+    } else {
+      gl.glScalef(unit, unit, unit);
+    }
+    return true;
+  }
+
+  // If the current texture coordinates are in a compact format,
+  // post-multiplies the current matrix, which should be the texture
+  // matrix, by the mapping from the stored values to texture
+  // coordinates
+  static void multTextureCoordinateDequantization(GL2 gl, State state) {
+    int format = TextureCoordinateElement.getFormat(state);
+    if (format == VertexFormat.FLOAT) {
+      return;
+    }
+    Vec2f scale = TextureCoordinateElement.getScale(state);
+    Vec2f offset = TextureCoordinateElement.getOffset(state);
+    float unit = unit(format);
+    if (offset != null) {
+      gl.glTranslatef(offset.x(), offset.y(), 0);
+    }
+    if (scale != null) {
+      gl.glScalef(unit * scale.x(), unit * scale.y(), 1);
+    } else {
+      gl.glScalef(unit, unit, 1);
+    }
+  }
+
+  private static float unit(int format) {
+    return (format == VertexFormat.NORMALIZED_SHORT) ? 1.0f / VertexFormat.SHORT_SCALE : 1.0f;
   }
 }
@@ -37,214 +37,130 @@
 
 package net.java.joglutils.msg.nodes;
 
-import java.nio.FloatBuffer;
-
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
-import com.jogamp.opengl.fixedfunc.GLMatrixFunc;
-import com.jogamp.opengl.fixedfunc.GLPointerFunc;
-import com.jogamp.opengl.util.texture.Texture;
-import com.jogamp.opengl.util.texture.TextureCoords;
 
 import net.java.joglutils.msg.actions.Action;
 import net.java.joglutils.msg.actions.GLRenderAction;
-import net.java.joglutils.msg.elements.ColorElement;
-import net.java.joglutils.msg.elements.CoordinateElement;
-import net.java.joglutils.msg.elements.GLTextureCoordinateElement;
-import net.java.joglutils.msg.elements.GLTextureElement;
-import net.java.joglutils.msg.elements.TextureCoordinateElement;
-import net.java.joglutils.msg.elements.TextureElement;
-import net.java.joglutils.msg.math.Mat4f;
-import net.java.joglutils.msg.math.Vec2f;
-import net.java.joglutils.msg.math.Vec3f;
-import net.java.joglutils.msg.math.Vec4f;
 import net.java.joglutils.msg.misc.PrimitiveVertex;
-import net.java.joglutils.msg.misc.State;
+import net.java.joglutils.msg.misc.Stage;
+import net.java.joglutils.msg.misc.Stageable;
 import net.java.joglutils.msg.misc.TriangleCallback;
+import net.java.joglutils.msg.misc.VertexAttributeReader;
 
 /** A TriangleSet assembles the coordinates specified by a Coordinate3
     node, and any auxiliary nodes such as a TextureCoordinate2 node,
     into a set of triangles. */
 
 public class TriangleSet extends TriangleBasedShape {
-  private int numTriangles;
+  private volatile int numTriangles;
+  private Stage stage;
+  // Under a Stage, the count most recently set and whether it is
+  // waiting to be published; guarded by this object's lock
+  private int stagedNumTriangles;
+  private boolean staged;
+
+  /** Sets the Stage through which changes to this node are
+      published, or null to make changes visible immediately (the
+      default). Setting the same Stage on a TriangleSet and on the
+      Coordinate3 it draws from keeps the triangle count consistent
+      with the published coordinates. Any unpublished change is made
+      visible immediately. */
+  public synchronized void setStage(final Stage stage) {
+    publishNumTriangles();
+    this.stage = stage;
+  }
+
+  /** Returns the Stage through which changes to this node are
+      published, or null if there is none. */
+  public synchronized Stage getStage() {
+    return stage;
+  }
 
   /** Sets the number of triangles this TriangleSet references. */
   public void setNumTriangles(final int numTriangles) {
-    this.numTriangles = numTriangles;
+    boolean post;
+    Stage s;
+    synchronized (this) {
+      s = stage;
+      if (s == null) {
+        this.numTriangles = numTriangles;
+        invalidatePickCache();
+        return;
+      }
+      stagedNumTriangles = numTriangles;
+      post = !staged;
+      staged = true;
+    }
+    if (post) {
+      s.post(publisher);
+    }
   }
 
-  /** Returns the number of triangles this TriangleSet references. */
+  /** Returns the number of triangles this TriangleSet references, as
+      seen by traversals. */
   public int getNumTriangles() {
     return numTriangles;
   }
 
   public void render(final GLRenderAction action) {
-    final State state = action.getState();
-    if (!CoordinateElement.isEnabled(state))
-      return;
-
-    if (CoordinateElement.get(state) != null) {
-      // OK, we have coordinates to send down, at least
-
-      final GL2 gl = action.getGL();
-
-      Texture tex = null;
-      boolean haveTexCoords = false;
-
-      if (TextureElement.isEnabled(state) &&
-          TextureCoordinateElement.isEnabled(state)) {
-        final Texture2 texNode = TextureElement.get(state);
-        if (texNode != null) {
-          tex = texNode.getTexture(gl);
-        }
-        haveTexCoords = (TextureCoordinateElement.get(state) != null);
-      }
-
-      if (tex != null) {
-        // Set up the texture matrix to uniformly map [0..1] to the used
-        // portion of the texture image
-        gl.glMatrixMode(GL.GL_TEXTURE);
-        gl.glPushMatrix();
-        if (gl.isExtensionAvailable("GL_VERSION_1_3")) {
-            gl.glLoadTransposeMatrixf(getTextureMatrix(tex).getRowMajorData(), 0);
-        } else {
-            final float[] tmp = new float[16];
-            getTextureMatrix(tex).getColumnMajorData(tmp);
-            gl.glLoadMatrixf(tmp, 0);
-        }
-        gl.glMatrixMode(GLMatrixFunc.GL_MODELVIEW);
-      } else if (haveTexCoords) {
-        // Want to turn off the use of texture coordinates to avoid errors
-        // FIXME: not 100% sure whether we need to do this, but think we should
-        gl.glDisableClientState(GLPointerFunc.GL_TEXTURE_COORD_ARRAY);
-      }
-
-      // For now, assume the triangle set and the number of available
-      // coordinates match -- may want to add debugging information
-      // for this later
-      gl.glDrawArrays(GL.GL_TRIANGLES, 0, 3 * getNumTriangles());
-
-      if (tex != null) {
-        gl.glMatrixMode(GL.GL_TEXTURE);
-        gl.glPopMatrix();
-        gl.glMatrixMode(GLMatrixFunc.GL_MODELVIEW);
-      } else if (haveTexCoords) {
-        // Might want this the next time we render a shape
-        gl.glEnableClientState(GLPointerFunc.GL_TEXTURE_COORD_ARRAY);
-      }
-    }
+    renderVertexArrays(action);
   }
 
   public void generateTriangles(final Action action, final TriangleCallback cb) {
-    final State state = action.getState();
-    FloatBuffer coords    = null;
-    FloatBuffer texCoords = null;
-    // FIXME: normals and lighting not supported yet
-    //    FloatBuffer normals   = null;
-    FloatBuffer colors    = null;
-    if (CoordinateElement.isEnabled(state)) {
-      coords = CoordinateElement.get(state);
-    }
+    final VertexAttributeReader reader = new VertexAttributeReader();
     // No point in continuing if we don't have coordinates
-    if (coords == null)
+    if (!reader.setUp(action.getState()))
       return;
-    if (TextureCoordinateElement.isEnabled(state)) {
-      texCoords = TextureCoordinateElement.get(state);
-    }
-    //    if (NormalElement.isEnabled(state)) {
-    //      texCoords = NormalElement.get(state);
-    //    }
-    if (ColorElement.isEnabled(state)) {
-      colors = ColorElement.get(state);
-    }
+
     final PrimitiveVertex v0 = new PrimitiveVertex();
     final PrimitiveVertex v1 = new PrimitiveVertex();
     final PrimitiveVertex v2 = new PrimitiveVertex();
-    v0.setCoord(new Vec3f());
-    v1.setCoord(new Vec3f());
-    v2.setCoord(new Vec3f());
-    if (texCoords != null) {
-      v0.setTexCoord(new Vec2f());
-      v1.setTexCoord(new Vec2f());
-      v2.setTexCoord(new Vec2f());
-    }
-    if (colors != null) {
-      v0.setColor(new Vec4f());
-      v1.setColor(new Vec4f());
-      v2.setColor(new Vec4f());
-    }
+    reader.initVertex(v0);
+    reader.initVertex(v1);
+    reader.initVertex(v2);
 
+    final int numTriangles = getNumTriangles();
     int coordIdx = 0;
     for (int i = 0; i < numTriangles; i++) {
-      // Vertex 0
-      v0.getCoord().set(coords.get(3 * coordIdx + 0),
-                        coords.get(3 * coordIdx + 1),
-                        coords.get(3 * coordIdx + 2));
-      if (texCoords != null) {
-        v0.getTexCoord().set(texCoords.get(2 * coordIdx + 0),
-                             texCoords.get(2 * coordIdx + 1));
-      }
-      if (colors != null) {
-        v0.getColor().set(colors.get(4 * coordIdx + 0),
-                          colors.get(4 * coordIdx + 1),
-                          colors.get(4 * coordIdx + 2),
-                          colors.get(4 * coordIdx + 3));
-      }
-
-      // Vertex 1
-      v1.getCoord().set(coords.get(3 * (coordIdx + 1) + 0),
-                        coords.get(3 * (coordIdx + 1) + 1),
-                        coords.get(3 * (coordIdx + 1) + 2));
-      if (texCoords != null) {
-        v1.getTexCoord().set(texCoords.get(2 * (coordIdx + 1) + 0),
-                             texCoords.get(2 * (coordIdx + 1) + 1));
-      }
-      if (colors != null) {
-        v1.getColor().set(colors.get(4 * (coordIdx + 1) + 0),
-                          colors.get(4 * (coordIdx + 1) + 1),
-                          colors.get(4 * (coordIdx + 1) + 2),
-                          colors.get(4 * (coordIdx + 1) + 3));
-      }
-
-      // Vertex 2
-      v2.getCoord().set(coords.get(3 * (coordIdx + 2) + 0),
-                        coords.get(3 * (coordIdx + 2) + 1),
-                        coords.get(3 * (coordIdx + 2) + 2));
-      if (texCoords != null) {
-        v2.getTexCoord().set(texCoords.get(2 * (coordIdx + 2) + 0),
-                             texCoords.get(2 * (coordIdx + 2) + 1));
-      }
-      if (colors != null) {
-        v2.getColor().set(colors.get(4 * (coordIdx + 2) + 0),
-                          colors.get(4 * (coordIdx + 2) + 1),
-                          colors.get(4 * (coordIdx + 2) + 2),
-                          colors.get(4 * (coordIdx + 2) + 3));
-      }
+      reader.read(coordIdx,     v0);
+      reader.read(coordIdx + 1, v1);
+      reader.read(coordIdx + 2, v2);
 
       // Call callback
       cb.triangleCB(i,
-                    v0, 3 * i + 0,
-                    v1, 3 * i + 1,
-                    v2, 3 * i + 2);
+                    v0, coordIdx,
+                    v1, coordIdx + 1,
+                    v2, coordIdx + 2);
 
       coordIdx += 3;
     }
   }
 
-  // Helper routine for setting up a texture matrix to allow texture
-  // coords in the scene graph to always be specified from (0..1)
-  private final Mat4f textureMatrix = new Mat4f();
-  private Mat4f getTextureMatrix(final Texture texture) {
-    textureMatrix.makeIdent();
-    final TextureCoords coords = texture.getImageTexCoords();
-    // Horizontal scale
-    textureMatrix.set(0, 0, coords.right() - coords.left());
-    // Vertical scale (may be negative if texture needs to be flipped vertically)
-    final float vertScale = coords.top() - coords.bottom();
-    textureMatrix.set(1, 1, vertScale);
-    textureMatrix.set(0, 3, coords.left());
-    textureMatrix.set(1, 3, coords.bottom());
-    return textureMatrix;
+  //----------------------------------------------------------------------
+  // Internals only below this point
+  //
+
+  void drawVertexArrays(final GL2 gl) {
+    // For now, assume the triangle set and the number of available
+    // coordinates match -- may want to add debugging information
+    // for this later
+    gl.glDrawArrays(GL.GL_TRIANGLES, 0, 3 * getNumTriangles());
+  }
+
+  private final Stageable publisher = new Stageable() {
+      public void publish() {
+        synchronized (TriangleSet.this) {
+          publishNumTriangles();
+        }
+      }
+    };
+
+  private void publishNumTriangles() {
+    if (staged) {
+      numTriangles = stagedNumTriangles;
+      staged = false;
+      invalidatePickCache();
+    }
   }
 }
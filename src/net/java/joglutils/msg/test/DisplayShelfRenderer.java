@@ -66,12 +66,16 @@ import net.java.joglutils.msg.actions.RayPickAction;
 import net.java.joglutils.msg.collections.Vec2fCollection;
 import net.java.joglutils.msg.collections.Vec3fCollection;
 import net.java.joglutils.msg.collections.Vec4fCollection;
+import net.java.joglutils.msg.math.Mat4f;
 import net.java.joglutils.msg.math.Rotf;
 import net.java.joglutils.msg.math.Vec2f;
 import net.java.joglutils.msg.math.Vec3f;
 import net.java.joglutils.msg.math.Vec4f;
+import net.java.joglutils.msg.misc.AnimationEngine;
+import net.java.joglutils.msg.misc.Easing;
 import net.java.joglutils.msg.misc.Path;
 import net.java.joglutils.msg.misc.PickedPoint;
+import net.java.joglutils.msg.misc.ScalarInterpolator;
 import net.java.joglutils.msg.misc.SystemTime;
 import net.java.joglutils.msg.nodes.Blend;
 import net.java.joglutils.msg.nodes.Color4;
@@ -150,20 +154,31 @@ public class DisplayShelfRenderer implements GLEventListener {
   private float currentY;
   // This encodes our target Y coordinate in editing mode
   private float targetY;
-  // If the difference between the current and target values of any of
-  // the above are > EPSILON, then we will continue repainting
-  private static final float EPSILON = 1.0e-3f;
+  // The above current values are driven by these interpolators; we
+  // continue repainting as long as any of them are active
+  private final AnimationEngine engine = new AnimationEngine();
+  private final ScalarInterpolator indexAnim = new ScalarInterpolator();
+  private final ScalarInterpolator yAnim = new ScalarInterpolator();
+  private final ScalarInterpolator zAnim = new ScalarInterpolator();
   private final SystemTime time;
   private boolean animating;
   private boolean forceRecompute;
   // Single image mode toggle
   private boolean singleImageMode;
 
-  // A scale factor for the animation speed
-  private static final float ANIM_SCALE_FACTOR = 7.0f;
+  // The duration of the animations, in seconds
+  private static final float ANIM_DURATION = 0.6f;
   // The rotation angle of the titles
   private static final float ROT_ANGLE = (float) Math.toRadians(75);
 
+  // Temporaries used while recomputing the layout, to avoid
+  // allocating storage during the animation
+  private final Rotf posAngle = new Rotf();
+  private final Rotf negAngle = new Rotf();
+  private final Rotf tmpRot   = new Rotf();
+  private final Vec3f tmpVec  = new Vec3f();
+  private final Mat4f tmpMat  = new Mat4f();
+
   // Visual progress of downloads
   private Texture2 clockTexture;
   private volatile boolean doneLoading;
@@ -200,6 +215,12 @@ public class DisplayShelfRenderer implements GLEventListener {
     // Compute the fraction by which we offset the selected title
     // based on a couple of known good points
     offsetFrac = (float) (((3 * Math.PI / 40) / camera.getHeightAngle()) + 0.1f);
+    indexAnim.setDuration(ANIM_DURATION);
+    indexAnim.setEasing(Easing.EASE_OUT_CUBIC);
+    yAnim.setDuration(ANIM_DURATION);
+    yAnim.setEasing(Easing.EASE_OUT_CUBIC);
+    zAnim.setDuration(ANIM_DURATION);
+    zAnim.setEasing(Easing.EASE_OUT_CUBIC);
   }
 
   /** Callers must share textures and display lists with this context
@@ -274,7 +295,10 @@ public class DisplayShelfRenderer implements GLEventListener {
 
       final Transform mirrorXform = new Transform();
       // Mirror vertically
-      mirrorXform.getTransform().set(1, 1, -1.0f);
+      final Mat4f mirror = new Mat4f();
+      mirror.makeIdent();
+      mirror.set(1, 1, -1.0f);
+      mirrorXform.setTransform(mirror);
       mirrorRoot.addChild(mirrorXform);
       // Assume we know what we're doing here with setting per-vertex
       // colors for each piece of geometry in one shot
@@ -296,12 +320,15 @@ public class DisplayShelfRenderer implements GLEventListener {
       final TriangleSet tris = new TriangleSet();
       tris.setNumTriangles(2);
 
+      final Mat4f titleMat = new Mat4f();
+      titleMat.makeIdent();
       for (int i = 0; i < model.getSize(); i++) {
         final Object obj = model.getElementAt(i);
         final TitleGraph graph = new TitleGraph(obj);
         titles.add(graph);
         computeCoords(graph.coords, DEFAULT_ASPECT_RATIO);
-        graph.xform.getTransform().setTranslation(new Vec3f(i, 0, 0));
+        titleMat.setTranslation(new Vec3f(i, 0, 0));
+        graph.xform.setTransform(titleMat);
         final Separator sep = graph.sep;
         sep.addChild(graph.xform);
         sep.addChild(graph.coords);
@@ -569,30 +596,62 @@ public class DisplayShelfRenderer implements GLEventListener {
       targetZ = viewingZ;
     }
 
-    if (!animate) {
-      currentY = targetY;
-      currentZ = targetZ;
-      currentIndex = targetIndex;
+    if (animate) {
+      animateTo(indexAnim, targetIndex);
+      animateTo(yAnim, targetY);
+      animateTo(zAnim, targetZ);
+    } else {
+      jumpTo(indexAnim, targetIndex);
+      jumpTo(yAnim, targetY);
+      jumpTo(zAnim, targetZ);
+    }
+    currentIndex = indexAnim.getValue();
+    currentY = yAnim.getValue();
+    currentZ = zAnim.getValue();
+  }
+
+  private void animateTo(final ScalarInterpolator interp, final float target) {
+    if (interp.getValue() == target && interp.isSettled())
+      return;
+    interp.retarget(target);
+    engine.start(interp);
+  }
+
+  private void jumpTo(final ScalarInterpolator interp, final float target) {
+    engine.stop(interp);
+    interp.jumpTo(target);
+  }
+
+  // Moves the given title, leaving its Transform alone if it is
+  // already in place, so that titles which aren't moving don't
+  // invalidate the bounds cached above them
+  private void placeTitle(final TitleGraph graph, final Rotf rot, final Vec3f pos) {
+    tmpMat.makeIdent();
+    tmpMat.setRotation(rot);
+    tmpMat.setTranslation(pos);
+    final Mat4f cur = graph.xform.getTransform();
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        if (cur.get(i, j) != tmpMat.get(i, j)) {
+          graph.xform.setTransform(tmpMat);
+          return;
+        }
+      }
     }
   }
 
   private boolean recompute() {
-    if (!forceRecompute) {
-      if (Math.abs(targetIndex - currentIndex) < EPSILON &&
-          Math.abs(targetZ - currentZ) < EPSILON &&
-          Math.abs(targetY - currentY) < EPSILON)
-        return false;
+    if (!forceRecompute && !engine.isAnimating()) {
+      return false;
     }
 
     forceRecompute = false;
 
     time.update();
-    final float deltaT = (float) time.deltaT();
-
-    // Make the animation speed independent of frame rate
-    currentIndex = currentIndex + (targetIndex - currentIndex) * deltaT * ANIM_SCALE_FACTOR;
-    currentZ = currentZ + (targetZ - currentZ) * deltaT * ANIM_SCALE_FACTOR;
-    currentY = currentY + (targetY - currentY) * deltaT * ANIM_SCALE_FACTOR;
+    engine.tick(time);
+    currentIndex = indexAnim.getValue();
+    currentZ = zAnim.getValue();
+    currentY = yAnim.getValue();
     // An alpha of 0 indicates we're fully in viewing mode
     // An alpha of 1 indicates we're fully in editing mode
     final float zAlpha = (currentZ - viewingZ) / (editingZ - viewingZ);
@@ -612,8 +671,8 @@ public class DisplayShelfRenderer implements GLEventListener {
     final float selectedSpacing = DEFAULT_HEIGHT * (zAlpha * EDITED_SPACING_FRAC + (1.0f - zAlpha) * SELECTED_SPACING_FRAC);
     final float angle = (1.0f - zAlpha) * ROT_ANGLE;
     final float y = zAlpha * DEFAULT_HEIGHT * SINGLE_IMAGE_MODE_RAISE_FRAC;
-    final Rotf posAngle = new Rotf(Vec3f.Y_AXIS,  angle);
-    final Rotf negAngle = new Rotf(Vec3f.Y_AXIS, -angle);
+    posAngle.set(Vec3f.Y_AXIS,  angle);
+    negAngle.set(Vec3f.Y_AXIS, -angle);
     float offset = 0;
 
     // Only bump the selected title out of the list if we're in viewing mode and close to it
@@ -622,12 +681,12 @@ public class DisplayShelfRenderer implements GLEventListener {
     }
     for (final TitleGraph graph : titles) {
       if (idx < firstIndex) {
-        graph.xform.getTransform().setRotation(posAngle);
-        graph.xform.getTransform().setTranslation(new Vec3f(curPos, y, 0));
+        tmpVec.set(curPos, y, 0);
+        placeTitle(graph, posAngle, tmpVec);
         curPos += stackedSpacing;
       } else if (idx > secondIndex) {
-        graph.xform.getTransform().setRotation(negAngle);
-        graph.xform.getTransform().setTranslation(new Vec3f(curPos, y, 0));
+        tmpVec.set(curPos, y, 0);
+        placeTitle(graph, negAngle, tmpVec);
         curPos += stackedSpacing;
       } else if (idx == firstIndex) {
         // Bump the position of this title
@@ -637,21 +696,22 @@ public class DisplayShelfRenderer implements GLEventListener {
         final float cameraPos = curPos + alpha * selectedSpacing;
 
         // Interpolate
-        graph.xform.getTransform().setRotation(new Rotf(Vec3f.Y_AXIS, alpha * angle));
-        graph.xform.getTransform().setTranslation(new Vec3f(curPos, y, (1.0f - alpha) * offset));
+        tmpRot.set(Vec3f.Y_AXIS, alpha * angle);
+        tmpVec.set(curPos, y, (1.0f - alpha) * offset);
+        placeTitle(graph, tmpRot, tmpVec);
 
         // Now recompute the position of the camera
         // Aim to get the titles to fill a certain fraction of the vertical field of view
-        camera.setPosition(new Vec3f(cameraPos,
-                                     currentY,
-                                     currentZ));
+        tmpVec.set(cameraPos, currentY, currentZ);
+        camera.setPosition(tmpVec);
 
         // Maintain this much distance between the two animating titles
         curPos += selectedSpacing;
       } else {
         // Interpolate
-        graph.xform.getTransform().setRotation(new Rotf(Vec3f.Y_AXIS, (1.0f - alpha) * -angle));
-        graph.xform.getTransform().setTranslation(new Vec3f(curPos, y, alpha * offset));
+        tmpRot.set(Vec3f.Y_AXIS, (1.0f - alpha) * -angle);
+        tmpVec.set(curPos, y, alpha * offset);
+        placeTitle(graph, tmpRot, tmpVec);
 
         curPos += stackedSpacing + alpha * (selectedSpacing - stackedSpacing);
       }
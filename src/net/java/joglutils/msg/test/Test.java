@@ -50,6 +50,7 @@ import net.java.joglutils.msg.actions.GLRenderAction;
 import net.java.joglutils.msg.collections.Vec2fCollection;
 import net.java.joglutils.msg.collections.Vec3fCollection;
 import net.java.joglutils.msg.collections.Vec4fCollection;
+import net.java.joglutils.msg.math.Mat4f;
 import net.java.joglutils.msg.math.Vec2f;
 import net.java.joglutils.msg.math.Vec3f;
 import net.java.joglutils.msg.math.Vec4f;
@@ -138,8 +139,11 @@ public class Test {
 
       // Testing transforms
       final Transform xform = new Transform();
-      xform.getTransform().setTranslation(new Vec3f(2, -2, 0));
-      //      xform.getTransform().setRotation(new Rotf(new Vec3f(0, 1, 0), (float) (-Math.PI / 4)));
+      final Mat4f mat = new Mat4f();
+      mat.makeIdent();
+      mat.setTranslation(new Vec3f(2, -2, 0));
+      //      mat.setRotation(new Rotf(new Vec3f(0, 1, 0), (float) (-Math.PI / 4)));
+      xform.setTransform(mat);
       root.addChild(xform);
 
       root.addChild(tris);